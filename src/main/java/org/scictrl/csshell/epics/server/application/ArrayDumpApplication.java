@@ -21,6 +21,7 @@ import org.apache.commons.configuration.HierarchicalConfiguration;
 import org.scictrl.csshell.epics.server.Record;
 import org.scictrl.csshell.epics.server.ValueLinks;
 import org.scictrl.csshell.epics.server.ValueLinks.ValueHolder;
+import org.scictrl.csshell.math.Kernels;
 
 import gov.aps.jca.dbr.DBRType;
 import si.ijs.anka.config.BootstrapLoader;
@@ -167,23 +168,29 @@ public class ArrayDumpApplication extends AbstractApplication {
 		});
 		
 	}
+	
+	private static double maxSkipNaN(final double[] d) {
+		double peak= Double.NEGATIVE_INFINITY;
+		for (double e : d) {
+			if (e>peak) {
+				peak=e;
+			}
+		}
+		return peak;
+	}
+	
 	private void _process(final double[] d, final long ts, final double t) {
 		
 		if (d==null) {
 			return;
 		}
 		
-		double peak= Double.NEGATIVE_INFINITY;
-		boolean b=false;
-		for (double e : d) {
-			if (e>peak) {
-				peak=e;
-			}
-			if (e>t) {
-				b=true;
-				//break;
-			}
+		double peak= Kernels.max(d);
+		if (Double.isNaN(peak)) {
+			// NaN samples are skipped, rare case is not vectorized
+			peak= maxSkipNaN(d);
 		}
+		boolean b= Kernels.firstExceeding(d, t)>-1;
 		
 		getRecord(PEAK).setValue(peak);
 
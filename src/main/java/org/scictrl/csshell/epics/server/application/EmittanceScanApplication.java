@@ -16,6 +16,8 @@ import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.configuration.HierarchicalConfiguration;
 import org.scictrl.csshell.Tools;
@@ -25,7 +27,12 @@ import org.scictrl.csshell.epics.server.ValueLinks;
 import org.scictrl.csshell.epics.server.ValueLinks.ValueHolder;
 import org.scictrl.csshell.epics.server.application.BeamSpotApplication.BeamSpotData;
 import org.scictrl.csshell.epics.server.processor.LinkedValueProcessor;
+import org.scictrl.csshell.math.EmittanceSolver;
+import org.scictrl.csshell.math.RecursiveEmittanceSolver;
 import org.scictrl.csshell.python.EmittanceCalculator;
+import org.scictrl.csshell.python.EmittanceCalculator.Emittance;
+import org.scictrl.csshell.python.PythonResultCache;
+import org.scictrl.csshell.python.PythonRunner;
 import org.scictrl.csshell.python.PythonRunner.Result;
 
 import gov.aps.jca.dbr.DBRType;
@@ -59,6 +66,11 @@ public class EmittanceScanApplication extends AbstractApplication {
 	private static final long T_WAIT_FOR_QUAD = 1000;
 	private static final long T_BG_TAKE_ESTIMATE = 20000;
 	private static final long T_WAIT_FOR_BG = 1000;
+	
+	/** Value of configuration <code>emittanceSolver</code>, emittance is calculated by Python script. */
+	public static final String SOLVER_PYTHON = "python";
+	/** Value of configuration <code>emittanceSolver</code>, emittance is calculated in Java by {@link EmittanceSolver}. */
+	public static final String SOLVER_JAVA = "java";
 
 	private static final String BEAM = 						"Beam";
 	private static final String LINK_LASER_ENABLED = 		"LaserSwitch";
@@ -82,6 +94,10 @@ public class EmittanceScanApplication extends AbstractApplication {
 	private static final String STATUS_DATA_FILE = 		"Status:DataFile";
 	private static final String STATUS_REPEAT = 		"Status:Repeat";
 	private static final String STATUS_ERROR = 		"Status:Error";
+	private static final String STATUS_CALCULATING = 	"Status:Calculating";
+	private static final String STATUS_CALC_LATENCY = 	"Status:CalcLatency";
+	private static final String STATUS_CACHE_HITS = 	"Status:Cache:Hits";
+	private static final String STATUS_CACHE_MISSES = 	"Status:Cache:Misses";
 	
 	private static final String WAIT = 			"Wait";
 	private static final String SCREEN_SWITCH = "ScreenSwitch";
@@ -91,6 +107,12 @@ public class EmittanceScanApplication extends AbstractApplication {
 	private static final String EMITTANCE_V = 	  "Emittance:V";
 	private static final String EMITTANCE_H_STD = "Emittance:H:Std";
 	private static final String EMITTANCE_V_STD = "Emittance:V:Std";
+	private static final String ESTIMATE_H = 	  "Estimate:H";
+	private static final String ESTIMATE_V = 	  "Estimate:V";
+	private static final String ESTIMATE_H_STD =  "Estimate:H:Std";
+	private static final String ESTIMATE_V_STD =  "Estimate:V:Std";
+	private static final String ESTIMATE_H_CI =   "Estimate:H:CI";
+	private static final String ESTIMATE_V_CI =   "Estimate:V:CI";
 
 	private static final String OPT_LASER_OFF = 	"Opt:LaserOff";
 	private static final String OPT_LASER_ON = 		"Opt:LaserOn";
@@ -98,6 +120,8 @@ public class EmittanceScanApplication extends AbstractApplication {
 	private static final String OPT_ENABLE_BG = 	"Opt:EnableBg"; 
 	private static final String OPT_VALID_ONLY = 	"Opt:ValidOnly"; 
 	private static final String OPT_REPEAT = 		"Opt:Repeat"; 
+	private static final String OPT_EARLY_STOP = 	"Opt:EarlyStop"; 
+	private static final String OPT_CI_TARGET = 	"Opt:CITarget"; 
 
 	final static class Measurement implements Cloneable {
 		public Instant time;
@@ -272,6 +296,8 @@ public class EmittanceScanApplication extends AbstractApplication {
 		int repeat=0;
 		int countMeasurements=0;
 		int countMeasurementsOK=0;
+		RecursiveEmittanceSolver estimateH;
+		RecursiveEmittanceSolver estimateV;
 
 		public ScanningTask(int repeat) {
 			this.repeat=repeat;
@@ -280,6 +306,11 @@ public class EmittanceScanApplication extends AbstractApplication {
 		
 		public void initData(int i) {
 			data= new ArrayList<EmittanceScanApplication.Measurement>(i);
+			double e= getRecord(ENERGY).getValueAsDouble();
+			estimateH= new RecursiveEmittanceSolver(e);
+			estimateV= new RecursiveEmittanceSolver(e);
+			publishEstimate(ESTIMATE_H, Double.NaN, Double.NaN, Double.NaN);
+			publishEstimate(ESTIMATE_V, Double.NaN, Double.NaN, Double.NaN);
 		}
 		
 		public void advanceProgress() {
@@ -493,6 +524,17 @@ public class EmittanceScanApplication extends AbstractApplication {
 	private String pythonDirName;
 	private String pythonScript;
 	private File pythonDir;
+	private int pythonWorkers;
+	private long pythonTimeout;
+	private boolean pythonBinaryInput;
+	private boolean pythonCache;
+	private String emittanceSolver;
+	private int emittanceBootstrap;
+	private double ciTarget;
+	private int earlyStopMinPoints;
+	private final AtomicInteger calculationsRunning= new AtomicInteger();
+	private long calculationCount;
+	private long calculationPublished;
 
 	/**
 	 * <p>Constructor for EmittanceScanApplication.</p>
@@ -517,6 +559,34 @@ public class EmittanceScanApplication extends AbstractApplication {
 		pythonDirName= config.getString("pythonDir", BootstrapLoader.getInstance().getBundleConfDir().getPath()+"/Python");
 		pythonScript= config.getString("pythonScript", "emittance.py");
 		pythonDir= new File(pythonDirName);
+		// resident workers are opt-in, scripts run in own process by default
+		pythonWorkers= config.getInt("pythonWorkers", 0);
+		pythonTimeout= config.getLong("pythonTimeout", PythonRunner.DEFAULT_TIMEOUT);
+		pythonBinaryInput= config.getBoolean("pythonBinaryInput", false);
+		// cache is opt-in, key covers only top level script, not modules it imports
+		pythonCache= config.getBoolean("pythonCache", false);
+		emittanceSolver= config.getString("emittanceSolver", SOLVER_PYTHON);
+		emittanceBootstrap= config.getInt("emittanceBootstrap", 0);
+		ciTarget= config.getDouble("ciTarget", 0.05);
+		earlyStopMinPoints= Math.max(4, config.getInt("earlyStopMinPoints", 6));
+		
+		if (!SOLVER_PYTHON.equals(emittanceSolver) && !SOLVER_JAVA.equals(emittanceSolver)) {
+			log.warn("Emittance solver '"+emittanceSolver+"' is not known, using '"+SOLVER_PYTHON+"'!");
+			emittanceSolver= SOLVER_PYTHON;
+		}
+		
+		if (pythonCache) {
+			PythonResultCache cache= PythonResultCache.getInstance();
+			cache.setCapacity(Math.max(1, config.getInt("pythonCacheSize", PythonResultCache.DEFAULT_CAPACITY)));
+			String f= config.getString("pythonCacheFile", null);
+			if (f!=null && f.trim().length()>0) {
+				try {
+					cache.setFile(new File(f.trim()));
+				} catch (Exception e) {
+					log.warn("Loading Python result cache from '"+f+"' failed: "+e.toString());
+				}
+			}
+		}
 		
 		measurementWait= config.getLong("measurementWait", 10000);
 		dataDir= config.getString("dataDir", new File(BootstrapLoader.getInstance().getBundleHomeDir(),"data").getAbsolutePath());
@@ -534,6 +604,12 @@ public class EmittanceScanApplication extends AbstractApplication {
 		addRecordOfMemoryValueProcessor(EMITTANCE_V, "Emittance Ver", -1000.0, 1000.0, "mm×mrad", (short)2, 0.0);
 		addRecordOfMemoryValueProcessor(EMITTANCE_H_STD, "Emittance Hor STD", 0.0, 1000.0, "mm×mrad", (short)2, 0.0);
 		addRecordOfMemoryValueProcessor(EMITTANCE_V_STD, "Emittance Ver STD", 0.0, 1000.0, "mm×mrad", (short)2, 0.0);
+		addRecordOfMemoryValueProcessor(ESTIMATE_H, "Online emittance estimate Hor", -1000.0, 1000.0, "mm×mrad", (short)2, Double.NaN);
+		addRecordOfMemoryValueProcessor(ESTIMATE_V, "Online emittance estimate Ver", -1000.0, 1000.0, "mm×mrad", (short)2, Double.NaN);
+		addRecordOfMemoryValueProcessor(ESTIMATE_H_STD, "Online emittance estimate Hor STD", 0.0, 1000.0, "mm×mrad", (short)2, Double.NaN);
+		addRecordOfMemoryValueProcessor(ESTIMATE_V_STD, "Online emittance estimate Ver STD", 0.0, 1000.0, "mm×mrad", (short)2, Double.NaN);
+		addRecordOfMemoryValueProcessor(ESTIMATE_H_CI, "Online emittance estimate Hor 95% CI", 0.0, 1000.0, "mm×mrad", (short)3, Double.NaN);
+		addRecordOfMemoryValueProcessor(ESTIMATE_V_CI, "Online emittance estimate Ver 95% CI", 0.0, 1000.0, "mm×mrad", (short)3, Double.NaN);
 		
 		addRecordOfMemoryValueProcessor(MEASUREMENT_LAST, "Last measurement", -1000.0, 1000.0, "", (short)3, new Measurement().toArray());
 		addRecordOfMemoryValueProcessor(MEASUREMENT_TABLE, "Emittance measurement results",new byte[1048576]);
@@ -547,6 +623,10 @@ public class EmittanceScanApplication extends AbstractApplication {
 		addRecordOfMemoryValueProcessor(STATUS_DATA_FILE, "Data file", new byte[1024]);
 		addRecordOfMemoryValueProcessor(STATUS_REPEAT, "Current repeat count", 0, 1000, "No.", 0);
 		addRecordOfMemoryValueProcessor(STATUS_ERROR, "Last result has errors", DBRType.BYTE, 0);
+		addRecordOfMemoryValueProcessor(STATUS_CALCULATING, "Emittance calculation in progress", DBRType.BYTE, 0);
+		addRecordOfMemoryValueProcessor(STATUS_CALC_LATENCY, "Duration of last emittance calculation", 0.0, 1000000.0, "ms", (short)0, 0.0);
+		addRecordOfMemoryValueProcessor(STATUS_CACHE_HITS, "Emittance results taken from cache", 0, Integer.MAX_VALUE, "No.", 0);
+		addRecordOfMemoryValueProcessor(STATUS_CACHE_MISSES, "Emittance results calculated by script", 0, Integer.MAX_VALUE, "No.", 0);
 
 		addRecordOfMemoryValueProcessor(OPT_LASER_OFF, "Switches laser off at the end", DBRType.BYTE, 0);
 		addRecordOfMemoryValueProcessor(OPT_LASER_ON, "Switches laser on at the start", DBRType.BYTE, 0);
@@ -554,6 +634,8 @@ public class EmittanceScanApplication extends AbstractApplication {
 		addRecordOfMemoryValueProcessor(OPT_ENABLE_BG, "Enables background substractions", DBRType.BYTE, 0);
 		addRecordOfMemoryValueProcessor(OPT_VALID_ONLY, "Accept only valid measurements", DBRType.BYTE, 0);
 		addRecordOfMemoryValueProcessor(OPT_REPEAT, "How many repeats", 1, 10000,"No.",1);
+		addRecordOfMemoryValueProcessor(OPT_EARLY_STOP, "Stops scan when CI is below target", DBRType.BYTE, 0);
+		addRecordOfMemoryValueProcessor(OPT_CI_TARGET, "Target for 95% CI of emittance", 0.0, 1000.0, "mm×mrad", (short)3, ciTarget);
 		
 		addRecordOfMemoryValueProcessor(CMD_STOP, "Stops scanning task", DBRType.BYTE, 0);
 		addRecordOfMemoryValueProcessor(CMD_START, "Start scanning task", DBRType.BYTE, 0);
@@ -567,6 +649,8 @@ public class EmittanceScanApplication extends AbstractApplication {
 		getRecord(OPT_TAKE_BG).setPersistent(true);
 		getRecord(OPT_LASER_OFF).setPersistent(true);
 		getRecord(OPT_LASER_ON).setPersistent(true);
+		getRecord(OPT_EARLY_STOP).setPersistent(true);
+		getRecord(OPT_CI_TARGET).setPersistent(true);
 
 		progress= getRecord(STATUS_PROGRESS);
 
@@ -839,8 +923,11 @@ public class EmittanceScanApplication extends AbstractApplication {
 		t.dataLogPrintln("# Emittance calculation result");
 		
 		StringBuilder sb= new StringBuilder(1024);
+		Emittance[] em= null;
 		if (t.data.size()>2) {
-			double[] d= calculateEmittance(t.data);
+			// final result is needed for data log, scan is over and waits for it
+			em= calculate(t.data).join();
+			double[] d= toArray(em);
 			sb.append("# emittance H, emittance V, emittance H STD, emittance V STD\n");
 			sb.append(Tools.format4D(d[0])+","+Tools.format4D(d[1])+","+Tools.format4D(d[2])+","+Tools.format4D(d[3]));
 			sb.append("\n");
@@ -854,18 +941,18 @@ public class EmittanceScanApplication extends AbstractApplication {
 
 		t.dataLogFlush();
 		
-		if (emittanceCalcH!=null && emittanceCalcV!=null && emittanceCalcH.getLastResult()!=null && emittanceCalcV.getLastResult()!=null) {
+		if (em!=null) {
 			
-			getRecord(STATUS_ERROR).setValue(emittanceCalcH.getLastResult().hasError() || emittanceCalcV.getLastResult().hasError());
+			getRecord(STATUS_ERROR).setValue(em[0].result.hasError() || em[1].result.hasError());
 			
-			Result r= emittanceCalcH.getLastResult();
+			Result r= em[0].result;
 			sb= new StringBuilder(1024);
 			sb.append("HOR Output Stream:"+(r.output==null ? "None" : "\n"+r.output));
 			sb.append('\n');
 			sb.append("HOR Error Stream:"+(r.error==null ? "None" : "\n"+r.error));
 			sb.append('\n');
 			
-			r= emittanceCalcV.getLastResult();
+			r= em[1].result;
 			sb.append('\n');
 			sb.append("VER Output Stream:"+(r.output==null ? "None" : "\n"+r.output));
 			sb.append('\n');
@@ -891,6 +978,42 @@ public class EmittanceScanApplication extends AbstractApplication {
 		return true;
 	}
 
+	/**
+	 * Updates online emittance estimate with new measurement and publishes it on own PVs,
+	 * results of emittance calculation are not overwritten.
+	 * Returns true if scan can stop, because confidence intervals are below target.
+	 */
+	private boolean updateEstimate(ScanningTask t, Measurement m) {
+		
+		t.estimateH.add(m.quad, m.sizeH, m.sizeStdH);
+		t.estimateV.add(m.quad, m.sizeV, m.sizeStdV);
+		
+		if (!t.estimateH.isReady() || !t.estimateV.isReady()) {
+			return false;
+		}
+		
+		double ciH= t.estimateH.getConfidenceInterval();
+		double ciV= t.estimateV.getConfidenceInterval();
+		
+		publishEstimate(ESTIMATE_H, t.estimateH.getEmittance(), t.estimateH.getEmittanceStd(), ciH);
+		publishEstimate(ESTIMATE_V, t.estimateV.getEmittance(), t.estimateV.getEmittanceStd(), ciV);
+		
+		double target= getRecord(OPT_CI_TARGET).getValueAsDouble();
+		
+		return getRecord(OPT_EARLY_STOP).getValueAsBoolean() && target>0.0 
+				&& Math.min(t.estimateH.getCount(), t.estimateV.getCount())>=earlyStopMinPoints
+				&& ciH<=target && ciV<=target;
+	}
+
+	/**
+	 * Publishes estimate, error is not known until there are more than 3 measurements, meanwhile it is NaN.
+	 */
+	private void publishEstimate(String pv, double emittance, double std, double ci) {
+		getRecord(pv).setValue(emittance);
+		getRecord(pv+":Std").setValue(Double.isFinite(std) ? std : Double.NaN);
+		getRecord(pv+":CI").setValue(Double.isFinite(ci) ? ci : Double.NaN);
+	}
+
 	private boolean scanQuad(ScanningTask t) throws IOException {
 		
 		getRecord(STATUS).setValue(State.SCANNING.ordinal());
@@ -932,8 +1055,11 @@ public class EmittanceScanApplication extends AbstractApplication {
 				
 				updateData(t.data,null);
 
-				if (t.data.size()>2) {
-					calculateEmittance(t.data);
+				if (updateEstimate(t, m)) {
+					t.dataLogPrintln("# Early stop, emittance CI below target "+getRecord(OPT_CI_TARGET).getValueAsDouble());
+					t.dataLogFlush();
+					log4info("Early stop after "+t.data.size()+" measurements, CI H "+Tools.format4D(t.estimateH.getConfidenceInterval())+" V "+Tools.format4D(t.estimateV.getConfidenceInterval()));
+					break;
 				}
 			}
 				
@@ -1047,23 +1173,51 @@ public class EmittanceScanApplication extends AbstractApplication {
 	}
 	
 	/**
-	 * <p>calculateEmittance.</p>
+	 * Starts emittance calculation for horizontal and vertical plane in parallel and returns immediately.
+	 * Emittance PVs are updated when both calculations are done, unless newer calculation has already been published.
 	 *
 	 * @param data a {@link java.util.List} object
-	 * @return an array of {@link double} objects
+	 * @return future with emittance H, emittance H STD, emittance V, emittance V STD
 	 */
-	public double[] calculateEmittance(List<Measurement> data) {
+	public CompletableFuture<double[]> calculateEmittance(List<Measurement> data) {
+		return calculate(data).thenApply(EmittanceScanApplication::toArray);
+	}
+	
+	private static double[] toArray(Emittance[] em) {
+		if (em==null) {
+			return new double[4];
+		}
+		return new double[]{em[0].emittance,em[0].emittanceStd,em[1].emittance,em[1].emittanceStd};
+	}
+	
+	private CompletableFuture<Emittance[]> calculate(List<Measurement> data) {
 		
 		if (data.size()<3) {
 			log.warn("Emittance calculation denised while there are less than 3 measurements.");
-			return new double[4];
+			return CompletableFuture.completedFuture(null);
 		}
 		
 		if (emittanceCalcH==null || emittanceCalcV==null) {
 			emittanceCalcH= new EmittanceCalculator();
 			emittanceCalcH.init(pythonDir, pythonScript);
+			emittanceCalcH.setWorkers(pythonWorkers);
+			emittanceCalcH.setTimeout(pythonTimeout);
+			emittanceCalcH.setBinaryInput(pythonBinaryInput);
+			emittanceCalcH.setCached(pythonCache);
 			emittanceCalcV= new EmittanceCalculator();
 			emittanceCalcV.init(pythonDir, pythonScript);
+			emittanceCalcV.setWorkers(pythonWorkers);
+			emittanceCalcV.setTimeout(pythonTimeout);
+			emittanceCalcV.setBinaryInput(pythonBinaryInput);
+			emittanceCalcV.setCached(pythonCache);
+			if (SOLVER_JAVA.equals(emittanceSolver)) {
+				EmittanceSolver s= new EmittanceSolver();
+				s.setBootstrap(emittanceBootstrap);
+				emittanceCalcH.setSolver(s);
+				s= new EmittanceSolver();
+				s.setBootstrap(emittanceBootstrap);
+				emittanceCalcV.setSolver(s);
+			}
 		}
 		
 		emittanceCalcH.setEnergy(getRecord(ENERGY).getValueAsDouble());
@@ -1084,20 +1238,49 @@ public class EmittanceScanApplication extends AbstractApplication {
 			bsv[i]= m.sizeStdV;
 		}
 		
-		emittanceCalcH.inputs(q, bh, bsh);
-		emittanceCalcV.inputs(q, bv, bsv);
+		final long count;
+		synchronized (calculationsRunning) {
+			count= ++calculationCount;
+		}
+		final long start= System.currentTimeMillis();
 		
-		emittanceCalcH.calculateEmittance();
-		emittanceCalcV.calculateEmittance();
+		calculationsRunning.incrementAndGet();
+		getRecord(STATUS_CALCULATING).setValue(true);
 		
-		double[] res= new double[4];
+		CompletableFuture<Emittance> h= emittanceCalcH.calculateEmittanceAsync(q, bh, bsh);
+		CompletableFuture<Emittance> v= emittanceCalcV.calculateEmittanceAsync(q, bv, bsv);
 		
-		getRecord(EMITTANCE_H).setValue(res[0]=emittanceCalcH.getLastEmittance());
-		getRecord(EMITTANCE_H_STD).setValue(res[1]=emittanceCalcH.getLastEmittanceStd());
-		getRecord(EMITTANCE_V).setValue(res[2]=emittanceCalcV.getLastEmittance());
-		getRecord(EMITTANCE_V_STD).setValue(res[3]=emittanceCalcV.getLastEmittanceStd());
+		return h.thenCombine(v, (eh,ev) -> {
+			Emittance[] em= new Emittance[]{eh,ev};
+			publishEmittance(count, em, System.currentTimeMillis()-start);
+			return em;
+		}).whenComplete((em,ex) -> {
+			if (ex!=null) {
+				log.error("Emittance calculation failed: "+ex.toString(), ex);
+			}
+			getRecord(STATUS_CALCULATING).setValue(calculationsRunning.decrementAndGet()>0);
+		});
+	}
+	
+	private void publishEmittance(long count, Emittance[] em, long latency) {
 		
-		return res;
+		synchronized (calculationsRunning) {
+			// slow older calculation must not overwrite newer one
+			if (count<calculationPublished) {
+				return;
+			}
+			calculationPublished=count;
+			
+			getRecord(EMITTANCE_H).setValue(em[0].emittance);
+			getRecord(EMITTANCE_H_STD).setValue(em[0].emittanceStd);
+			getRecord(EMITTANCE_V).setValue(em[1].emittance);
+			getRecord(EMITTANCE_V_STD).setValue(em[1].emittanceStd);
+			getRecord(STATUS_CALC_LATENCY).setValue((double)latency);
+			
+			PythonResultCache cache= PythonResultCache.getInstance();
+			getRecord(STATUS_CACHE_HITS).setValue((int)Math.min(cache.getHits(), Integer.MAX_VALUE));
+			getRecord(STATUS_CACHE_MISSES).setValue((int)Math.min(cache.getMisses(), Integer.MAX_VALUE));
+		}
 	}
 	
 }
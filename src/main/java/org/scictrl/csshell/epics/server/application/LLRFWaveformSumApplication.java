@@ -6,6 +6,7 @@ package org.scictrl.csshell.epics.server.application;
 import org.apache.commons.configuration.HierarchicalConfiguration;
 import org.scictrl.csshell.epics.server.Record;
 import org.scictrl.csshell.epics.server.ValueLinks;
+import org.scictrl.csshell.math.Kernels;
 
 import gov.aps.jca.dbr.DBRType;
 
@@ -104,10 +105,7 @@ public class LLRFWaveformSumApplication extends WaveformSumApplication {
 		double fac=  bitSc*factor/amplSc;
 		fac=fac*fac/powerSc;
 		
-		for (int i = 0; i < d.length; i++) {
-			double dd= d[i];
-			d[i]= dd*dd*fac;
-		}
+		Kernels.squareScale(d, fac, d);
 		
 		buffer.setValue(d);
 		
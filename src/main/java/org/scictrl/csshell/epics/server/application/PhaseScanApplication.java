@@ -14,6 +14,7 @@ import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.apache.commons.configuration.HierarchicalConfiguration;
@@ -23,6 +24,9 @@ import org.scictrl.csshell.epics.server.Record;
 import org.scictrl.csshell.epics.server.ValueLinks;
 import org.scictrl.csshell.epics.server.ValueLinks.ValueHolder;
 import org.scictrl.csshell.epics.server.processor.LinkedValueProcessor;
+import org.scictrl.csshell.math.BreakpointDetector;
+import org.scictrl.csshell.math.BreakpointDetector.Breakpoint;
+import org.scictrl.csshell.math.MovingAverageFilter;
 import org.scictrl.csshell.math.PatternSearch;
 import org.scictrl.csshell.math.Smoothing;
 
@@ -34,6 +38,10 @@ import si.ijs.anka.config.BootstrapLoader;
 /**
  * Scans phase, analyzes ICT reading and extracts breaking points.
  *
+ * <p>During scan charge is smoothed online and breakpoints and workpoints are published as soon as they are confirmed.
+ * Confirmation hysteresis is set with <code>hysteresis</code> configuration parameter, in ICT units, default 1.0.
+ * If Opt:EarlyStop is set, scan stops when second peak is confirmed. When scan ends, breakpoints are recalculated over all data.</p>
+ *
  * @author igor@scictrl.com
  */
 public class PhaseScanApplication extends AbstractApplication {
@@ -58,6 +66,7 @@ public class PhaseScanApplication extends AbstractApplication {
 
 	private static final String MEASUREMENT_PHASE= "Meas:Phase";
 	private static final String MEASUREMENT_ICT =  "Meas:ICT";
+	private static final String MEASUREMENT_ICT_STD =  "Meas:ICT:Std";
 	
 	private static final String DATA_ICT =  		"Data:ICT";
 	private static final String DATA_BREAKPOINTS = 	"Data:Breakpoints";
@@ -85,6 +94,7 @@ public class PhaseScanApplication extends AbstractApplication {
 	private static final String OPT_WAIT = 		"Opt:Wait";
 	private static final String OPT_COLLAPSE = 	"Opt:Collapse";
 	private static final String OPT_SAMPLES =	"Opt:Samples";
+	private static final String OPT_EARLY_STOP =	"Opt:EarlyStop";
 
 	final static class Measurement implements Cloneable {
 		public Instant time;
@@ -190,6 +200,8 @@ public class PhaseScanApplication extends AbstractApplication {
 		int repeat=0;
 		int countMeasurements=0;
 		int countMeasurementsOK=0;
+		MovingAverageFilter filter;
+		BreakpointDetector detector;
 
 		public ScanningTask(int repeat) {
 			this.repeat=repeat;
@@ -316,6 +328,56 @@ public class PhaseScanApplication extends AbstractApplication {
 			data.add(m);
 		}
 		
+		/**
+		 * Smooths charge online and searches breakpoints, confirmed breakpoints are published immediately.
+		 * @param m new measurement, already added to data
+		 * @return true if all breakpoints are confirmed
+		 */
+		boolean updateLive(Measurement m) {
+			
+			if (filter==null) {
+				int samples= Math.max(1, getRecord(OPT_SAMPLES).getValueAsInt());
+				filter= new MovingAverageFilter(samples);
+				detector= new BreakpointDetector(1.0, hysteresis);
+				detector.setListener((b,i,v) -> breakpointFound(b, i, v));
+			}
+			
+			double v= filter.add(m.charge);
+			
+			if (!filter.isReady()) {
+				return false;
+			}
+			
+			return detector.add(v);
+		}
+		
+		private void breakpointFound(Breakpoint b, int index, double value) {
+			
+			// detector gets only full window values, its sample k is smoothed measurement k+size-1-delay
+			int i= index+filter.getSize()-1-filter.getDelay();
+			double ph= data.get(i).phase;
+			
+			log4info("Breakpoint "+b+" at phase "+Tools.format4D(ph)+" Q="+Tools.format3D(value));
+			
+			double[] brkP= getRecord(DATA_BREAKPOINTS).getValueAsDoubleArray();
+			double[] brkIct= getRecord(DATA_BREAKPOINTS_ICT).getValueAsDoubleArray();
+			brkP= brkP.length==3 ? brkP.clone() : new double[]{Double.NaN,Double.NaN,Double.NaN};
+			brkIct= brkIct.length==3 ? brkIct.clone() : new double[3];
+			if (b==Breakpoint.HIGH1) {
+				Arrays.fill(brkP, Double.NaN);
+				Arrays.fill(brkIct, 0.0);
+			}
+			brkP[b.ordinal()]= ph;
+			brkIct[b.ordinal()]= value;
+			getRecord(DATA_BREAKPOINTS).setValue(brkP);
+			getRecord(DATA_BREAKPOINTS_ICT).setValue(brkIct);
+			
+			if (b==Breakpoint.HIGH1) {
+				// workpoints depend only on first peak
+				updateWorkpoints(workpoints(ph));
+			}
+		}
+		
 		@Override
 		protected void finalize() throws Throwable {
 			closeDataLog();
@@ -360,6 +422,10 @@ public class PhaseScanApplication extends AbstractApplication {
 	private Record progress;
 
 	private ValueLinks ict;
+	private double hysteresis=1.0;
+	// two smoothing buffers used in turn, so array held by Data:ICT record is not overwritten
+	private double[][] smoothBuffers= new double[2][0];
+	private int smoothBuffer;
 	
 
 	/**
@@ -384,10 +450,12 @@ public class PhaseScanApplication extends AbstractApplication {
 		ict= connectLinks(ICT, ictPV);
 
 		measurementWait= config.getLong("measurementWait", 10000);
+		hysteresis= config.getDouble("hysteresis", 1.0);
 		dataDir= config.getString("dataDir", new File(BootstrapLoader.getInstance().getBundleHomeDir(),"data").getAbsolutePath());
 
 		addRecordOfMemoryValueProcessor(MEASUREMENT_PHASE, "Phase measurements", -1000.0, 1000.0, "", (short)2, new double[10000]);
 		addRecordOfMemoryValueProcessor(MEASUREMENT_ICT, "Charge measurements", -1000.0, 1000.0, "", (short)2, new double[10000]);
+		addRecordOfMemoryValueProcessor(MEASUREMENT_ICT_STD, "Charge measurements std of collapsed points", -1000.0, 1000.0, "", (short)2, new double[10000]);
 
 		addRecordOfMemoryValueProcessor(DATA_ICT, "Charge Smoothed", -1000.0, 1000.0, "", (short)2, new double[10000]);
 		addRecordOfMemoryValueProcessor(DATA_BREAKPOINTS, "Reference points", -1000.0, 1000.0, "", (short)2, new double[3]);
@@ -414,6 +482,7 @@ public class PhaseScanApplication extends AbstractApplication {
 		addRecordOfMemoryValueProcessor(OPT_WAIT, "Wait for measurement", 0, 1000, "s", 0).setPersistent(true);
 		addRecordOfMemoryValueProcessor(OPT_COLLAPSE, "Collapse same points", DBRType.BYTE, 0).setPersistent(true);
 		addRecordOfMemoryValueProcessor(OPT_SAMPLES, "Smoothing Sample count", 1, 1000, "No.", 5).setPersistent(true);
+		addRecordOfMemoryValueProcessor(OPT_EARLY_STOP, "Stop scan when breakpoints are found", DBRType.BYTE, 0).setPersistent(true);
 		
 		progress= getRecord(STATUS_PROGRESS);
 
@@ -649,22 +718,55 @@ public class PhaseScanApplication extends AbstractApplication {
 		return true;
 	}
 
+	/**
+	 * Collapses same phases and keeps direction of scan, which breakpoint search depends on.
+	 * If repeated scans have interleaved same phases, points are sorted, collapsed and put back in scan direction.
+	 */
+	private static double[][] collapse(double[] phase, double[] ict) {
+		
+		double[][] adjacent= Smoothing.collapseSame(phase, ict, false);
+		double[][] sorted= Smoothing.collapseSame(phase, ict, true);
+		
+		if (sorted[Smoothing.COLLAPSED_X].length==adjacent[Smoothing.COLLAPSED_X].length) {
+			return adjacent;
+		}
+		
+		double[] x= adjacent[Smoothing.COLLAPSED_X];
+		if (x[0]>x[x.length-1]) {
+			for (double[] a : sorted) {
+				for (int i = 0, j = a.length-1; i < j; i++, j--) {
+					double t= a[i];
+					a[i]= a[j];
+					a[j]= t;
+				}
+			}
+		}
+		
+		return sorted;
+	}
+
 	private boolean scanCalc() {
 
 		double[] phase= getRecord(MEASUREMENT_PHASE).getValueAsDoubleArray();
 		double[] ictRaw= getRecord(MEASUREMENT_ICT).getValueAsDoubleArray();
 
 		boolean col= getRecord(OPT_COLLAPSE).getValueAsBoolean();
+		double[] ictStd;
 		if (col) {
-			double[][] pre= Smoothing.collapseSame(phase, ictRaw);
+			double[][] pre= collapse(phase, ictRaw);
 			
-			if (pre[0].length!=phase.length) {
-				phase = pre[0];
-				ictRaw = pre[1];
+			if (!Arrays.equals(pre[Smoothing.COLLAPSED_X], phase)) {
+				phase = pre[Smoothing.COLLAPSED_X];
+				ictRaw = pre[Smoothing.COLLAPSED_MEAN];
 				getRecord(MEASUREMENT_PHASE).setValue(phase);
 				getRecord(MEASUREMENT_ICT).setValue(ictRaw);
 			}
+			ictStd= pre[Smoothing.COLLAPSED_STD];
+		} else {
+			// single points have no spread
+			ictStd= new double[phase.length];
 		}
+		getRecord(MEASUREMENT_ICT_STD).setValue(ictStd);
 		
 		int samples= getRecord(OPT_SAMPLES).getValueAsInt();
 		
@@ -673,7 +775,15 @@ public class PhaseScanApplication extends AbstractApplication {
 			getRecord(OPT_SAMPLES).setValue(samples);
 		}
 		
-		double[] ictSmooth= samples==1 ? ictRaw : Smoothing.smoothAvg(ictRaw, samples);
+		double[] ictSmooth= ictRaw;
+		
+		if (samples>1) {
+			smoothBuffer= 1-smoothBuffer;
+			if (smoothBuffers[smoothBuffer].length!=ictRaw.length) {
+				smoothBuffers[smoothBuffer]= new double[ictRaw.length];
+			}
+			ictSmooth= Smoothing.smoothAvg(ictRaw, samples, smoothBuffers[smoothBuffer]);
+		}
 		
 		int[] brkPn= PatternSearch.findBreakpointsHiLoHHi(ictSmooth, 1.0);
 		
@@ -689,12 +799,7 @@ public class PhaseScanApplication extends AbstractApplication {
 			}
 		}
 		
-		double[] wrkP = new double[4];
-		
-		wrkP[0] = brkP[0] + 90.0 - 50.0; // Q max
-		wrkP[1] = brkP[0] + 90.0 - 16.0; // Q/A max
-		wrkP[2] = brkP[0] + 90.0;        // p max
-		wrkP[3] = brkP[0] + 90.0 + 21.0; // sigma min
+		double[] wrkP = workpoints(brkP[0]);
 		
 		double[] wrkIct= new double[4];
 		
@@ -714,15 +819,36 @@ public class PhaseScanApplication extends AbstractApplication {
 		
 		getRecord(DATA_ICT).setValue(ictSmooth);
 		getRecord(DATA_BREAKPOINTS).setValue(brkP);
-		getRecord(DATA_WORKPOINTS).setValue(wrkP);
 		getRecord(DATA_BREAKPOINTS_ICT).setValue(brkIct);
 		getRecord(DATA_WORKPOINTS_ICT).setValue(wrkIct);
+		updateWorkpoints(wrkP);
+		
+		return true;
+	}
+	
+	/**
+	 * Workpoints relative to first peak.
+	 * @param high1 phase of first peak
+	 * @return workpoints Q max, Q/A max, p max, sigma min
+	 */
+	private static double[] workpoints(double high1) {
+		
+		double[] wrkP = new double[4];
+		
+		wrkP[0] = high1 + 90.0 - 50.0; // Q max
+		wrkP[1] = high1 + 90.0 - 16.0; // Q/A max
+		wrkP[2] = high1 + 90.0;        // p max
+		wrkP[3] = high1 + 90.0 + 21.0; // sigma min
+		
+		return wrkP;
+	}
+	
+	private void updateWorkpoints(double[] wrkP) {
+		getRecord(DATA_WORKPOINTS).setValue(wrkP);
 		getRecord(DATA_Q_MAX).setValue(wrkP[0]);
 		getRecord(DATA_QA_MAX).setValue(wrkP[1]);
 		getRecord(DATA_P_MAX).setValue(wrkP[2]);
 		getRecord(DATA_S_MIN).setValue(wrkP[3]);
-		
-		return true;
 	}
 	
 	private boolean scanPhase(ScanningTask t) throws IOException {
@@ -756,6 +882,12 @@ public class PhaseScanApplication extends AbstractApplication {
 				t.dataLogFlush();
 				
 				updateData(t.data);
+				
+				if (t.updateLive(m) && getRecord(OPT_EARLY_STOP).getValueAsBoolean()) {
+					log4info("All breakpoints found, scan stopped early");
+					t.dataLogPrintln("# Breakpoints found, scan stopped early "+LocalDateTime.now().toString());
+					break;
+				}
 
 			}
 				
@@ -811,6 +943,7 @@ public class PhaseScanApplication extends AbstractApplication {
 		if (data==null || data.size()==0) {
 			getRecord(MEASUREMENT_PHASE).setValue(0.0);
 			getRecord(MEASUREMENT_ICT).setValue(0.0);
+			getRecord(MEASUREMENT_ICT_STD).setValue(0.0);
 			return;
 		}
 
@@ -827,6 +960,7 @@ public class PhaseScanApplication extends AbstractApplication {
 		
 		getRecord(MEASUREMENT_PHASE).setValue(phs);
 		getRecord(MEASUREMENT_ICT).setValue(phs);
+		getRecord(MEASUREMENT_ICT_STD).setValue(new double[data.size()]);
 
 	}
 		
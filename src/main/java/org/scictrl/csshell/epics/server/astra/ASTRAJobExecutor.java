@@ -0,0 +1,454 @@
+/**
+ *
+ */
+package org.scictrl.csshell.epics.server.astra;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * <p>ASTRAJobExecutor queues external commands, like ASTRA and generator, and runs them on worker threads.</p>
+ *
+ * <p>Jobs are executed in order of submission, by default one at a time. Submitting job returns immediately with
+ * future, which completes when job ends. Job, which does not finish within its timeout, is killed together with
+ * its child processes. {@link #abort()} kills running jobs and drops all queued jobs.</p>
+ *
+ * <p>Output and error streams are read line by line while process runs. Lines are passed to {@link OutputListener}
+ * and kept in {@link OutputRingBuffer}, so only last lines are available in result and memory use is bounded
+ * also for long simulations.</p>
+ *
+ * @author igor@scictrl.com
+ */
+public class ASTRAJobExecutor {
+
+	private static final Logger log= LogManager.getLogger(ASTRAJobExecutor.class);
+
+	/** How long to wait for streams to close after process has ended or was killed, in milliseconds. */
+	private static final long DRAIN_TIMEOUT = 1000;
+
+	private static final ExecutorService io= Executors.newCachedThreadPool(r -> {
+		Thread t= new Thread(r, "ASTRAJob-io");
+		t.setDaemon(true);
+		return t;
+	});
+
+	/**
+	 * Kills process and all its descendants.
+	 *
+	 * @param p the process
+	 */
+	static void destroyTree(Process p) {
+		// descendants first, they are reparented once parent is gone
+		p.descendants().forEach(ProcessHandle::destroyForcibly);
+		p.destroyForcibly();
+	}
+
+	/**
+	 * Receives output lines of running jobs, called from stream reading threads.
+	 */
+	public interface OutputListener {
+		/**
+		 * New output line.
+		 *
+		 * @param job the job
+		 * @param line the line without line separator
+		 * @param error <code>true</code> if line is from error stream
+		 */
+		void line(Job job, String line, boolean error);
+	}
+
+	/**
+	 * Job definition. Workspace is prepared on worker thread, just before process starts.
+	 */
+	public static final class Job {
+		/** Job name, used in log and status. */
+		public final String name;
+		/** Timeout in milliseconds, 0 or less means no timeout. */
+		public final long timeout;
+		private final Callable<ProcessBuilder> prepare;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param name job name
+		 * @param timeout timeout in milliseconds, 0 or less means no timeout
+		 * @param prepare prepares workspace and returns process to be started
+		 */
+		public Job(String name, long timeout, Callable<ProcessBuilder> prepare) {
+			this.name=name;
+			this.timeout=timeout;
+			this.prepare=prepare;
+		}
+	}
+
+	/**
+	 * Immutable job result.
+	 */
+	public static final class JobResult {
+		/** The job. */
+		public final Job job;
+		/** Process exit value, -1 if process did not end normally. */
+		public final int exitValue;
+		/** Duration of process run in milliseconds. */
+		public final long duration;
+		/** Duration of workspace preparation in milliseconds. */
+		public final long prepareDuration;
+		/** Last lines of process output, can be <code>null</code>. */
+		public final String output;
+		/** Last lines of process error output, can be <code>null</code>. */
+		public final String error;
+		/** <code>true</code> if job was aborted, while running or queued. */
+		public final boolean aborted;
+		/** Possible exception, {@link TimeoutException} if job timed out. */
+		public final Exception exception;
+
+		JobResult(Job job, int exitValue, long duration, long prepareDuration, String output, String error, boolean aborted, Exception exception) {
+			this.job=job;
+			this.exitValue=exitValue;
+			this.duration=duration;
+			this.prepareDuration=prepareDuration;
+			this.output=output;
+			this.error=error;
+			this.aborted=aborted;
+			this.exception=exception;
+		}
+
+		/**
+		 * Returns <code>true</code> if process ended with exit value 0, was not aborted and there was no exception.
+		 *
+		 * @return <code>true</code> if job succeeded
+		 */
+		public boolean isOK() {
+			return exitValue==0 && !aborted && exception==null;
+		}
+	}
+
+	private final ExecutorService workers;
+	private final AtomicInteger queued= new AtomicInteger();
+	private final AtomicLong epoch= new AtomicLong();
+	private final Map<Process,Long> running= new ConcurrentHashMap<Process, Long>();
+	private final AtomicInteger active= new AtomicInteger();
+	private volatile Runnable listener;
+	private volatile OutputListener outputListener;
+	private volatile int outputLines= OutputRingBuffer.DEFAULT_LINES;
+
+	/**
+	 * Creates executor with single worker.
+	 */
+	public ASTRAJobExecutor() {
+		this(1);
+	}
+
+	/**
+	 * Creates executor with provided number of workers.
+	 *
+	 * @param workers number of jobs which run at the same time
+	 */
+	public ASTRAJobExecutor(int workers) {
+		if (workers<1) {
+			throw new IllegalArgumentException("Number of workers '"+workers+"' must be at least 1!");
+		}
+		this.workers= Executors.newFixedThreadPool(workers, r -> {
+			Thread t= new Thread(r, "ASTRAJob-worker");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Sets listener, which is called when job is queued, started or ended.
+	 *
+	 * @param listener the listener, can be <code>null</code>
+	 */
+	public void setListener(Runnable listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Sets listener, which receives output lines of running jobs.
+	 *
+	 * @param outputListener the listener, can be <code>null</code>
+	 */
+	public void setOutputListener(OutputListener outputListener) {
+		this.outputListener = outputListener;
+	}
+
+	/**
+	 * Sets how many last lines of output and error stream are kept for job result.
+	 *
+	 * @param outputLines number of kept lines
+	 */
+	public void setOutputLines(int outputLines) {
+		if (outputLines<1) {
+			throw new IllegalArgumentException("Number of output lines '"+outputLines+"' must be at least 1!");
+		}
+		this.outputLines = outputLines;
+	}
+
+	/**
+	 * Returns how many last lines of output and error stream are kept for job result.
+	 *
+	 * @return number of kept lines
+	 */
+	public int getOutputLines() {
+		return outputLines;
+	}
+
+	private void fireChange() {
+		Runnable l= listener;
+		if (l!=null) {
+			try {
+				l.run();
+			} catch (Exception e) {
+				log.warn("Job listener failed: "+e.toString(), e);
+			}
+		}
+	}
+
+	/**
+	 * Queues job and returns immediately.
+	 *
+	 * @param job the job
+	 * @return future with result, completes normally also when job fails or is aborted
+	 */
+	public CompletableFuture<JobResult> submit(Job job) {
+
+		final long e= epoch.get();
+		queued.incrementAndGet();
+		fireChange();
+
+		CompletableFuture<JobResult> f= CompletableFuture.supplyAsync(() -> {
+			queued.decrementAndGet();
+			if (e!=epoch.get()) {
+				return new JobResult(job, -1, 0, 0, null, null, true, null);
+			}
+			active.incrementAndGet();
+			try {
+				fireChange();
+				return run(job, e);
+			} finally {
+				active.decrementAndGet();
+			}
+		}, workers);
+
+		return f.whenComplete((r,ex) -> fireChange());
+	}
+
+	private JobResult run(Job job, long e) {
+
+		long t= System.currentTimeMillis();
+		long prepare= 0;
+		int exit= -1;
+		String output= null;
+		String error= null;
+		boolean aborted= false;
+		Exception exception= null;
+		Process p= null;
+
+		try {
+			ProcessBuilder pb= job.prepare.call();
+
+			prepare= System.currentTimeMillis()-t;
+			t= System.currentTimeMillis();
+
+			p= pb.start();
+			running.put(p, t);
+
+			// abort could come while process was starting
+			if (e!=epoch.get()) {
+				destroyTree(p);
+			}
+
+			final Process proc= p;
+			Future<String> out= io.submit(() -> drain(proc.getInputStream(), job, false));
+			Future<String> err= io.submit(() -> drain(proc.getErrorStream(), job, true));
+			proc.getOutputStream().close();
+
+			boolean finished= true;
+			if (job.timeout>0) {
+				finished= p.waitFor(job.timeout, TimeUnit.MILLISECONDS);
+			} else {
+				p.waitFor();
+			}
+
+			if (!finished) {
+				destroyTree(p);
+				exception= new TimeoutException("Job '"+job.name+"' timed out after "+job.timeout+" ms, process killed!");
+				log.warn(exception.getMessage());
+				p.waitFor(DRAIN_TIMEOUT, TimeUnit.MILLISECONDS);
+			}
+
+			aborted= e!=epoch.get();
+
+			output= collect(out);
+			error= collect(err);
+
+			if (!p.isAlive()) {
+				exit= p.exitValue();
+			}
+
+		} catch (InterruptedException ex) {
+			exception= ex;
+			Thread.currentThread().interrupt();
+		} catch (Exception ex) {
+			exception= ex;
+			log.error("Job '"+job.name+"' failed: "+ex.toString(), ex);
+		} finally {
+			if (p!=null) {
+				running.remove(p);
+				if (p.isAlive()) {
+					destroyTree(p);
+				}
+			}
+		}
+
+		t= System.currentTimeMillis()-t;
+
+		log.debug("Job '"+job.name+"' exit "+exit+" in "+t+" ms"+(aborted ? ", aborted" : ""));
+
+		return new JobResult(job, exit, t, prepare, output, error, aborted, exception);
+	}
+
+	/**
+	 * Reads stream until closed. Lines are passed to listener and kept in ring buffer, line length is limited
+	 * while reading, so process output without line separators can not exhaust memory.
+	 */
+	private String drain(InputStream is, Job job, boolean error) throws IOException {
+		OutputRingBuffer buffer= new OutputRingBuffer(outputLines);
+		StringBuilder line= new StringBuilder(128);
+		boolean cr= false;
+		char[] c= new char[8192];
+		try (Reader r= new InputStreamReader(is, StandardCharsets.UTF_8)) {
+			int n;
+			while ((n=r.read(c))>=0) {
+				for (int i = 0; i < n; i++) {
+					char ch= c[i];
+					if (ch=='\n' || ch=='\r') {
+						// \r\n is one separator, lone \r is used by progress output
+						if (!(ch=='\n' && cr)) {
+							line(buffer, line, job, error);
+						}
+						cr= ch=='\r';
+					} else {
+						cr= false;
+						if (line.length()<OutputRingBuffer.MAX_LINE_LENGTH) {
+							line.append(ch);
+						}
+					}
+				}
+			}
+		}
+		if (line.length()>0) {
+			line(buffer, line, job, error);
+		}
+		return buffer.toString();
+	}
+
+	private void line(OutputRingBuffer buffer, StringBuilder line, Job job, boolean error) {
+		String s= line.toString();
+		line.setLength(0);
+		buffer.add(s);
+		OutputListener l= outputListener;
+		if (l!=null) {
+			try {
+				l.line(job, s, error);
+			} catch (Exception e) {
+				log.warn("Output listener failed: "+e.toString(), e);
+			}
+		}
+	}
+
+	private static String collect(Future<String> f) throws InterruptedException {
+		try {
+			return f.get(DRAIN_TIMEOUT, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			// stream kept open by process, which was not killed
+			f.cancel(true);
+			log.warn("Job process stream not closed in "+DRAIN_TIMEOUT+" ms!");
+		} catch (ExecutionException e) {
+			log.warn("Reading job process stream failed: "+e.getCause());
+		}
+		return null;
+	}
+
+	/**
+	 * Kills running jobs together with their child processes and drops queued jobs.
+	 * Jobs submitted after this call run normally.
+	 */
+	public void abort() {
+		epoch.incrementAndGet();
+		for (Process p : running.keySet()) {
+			log.info("Aborting job process "+p.pid()+".");
+			destroyTree(p);
+		}
+		fireChange();
+	}
+
+	/**
+	 * Returns number of jobs waiting in queue.
+	 *
+	 * @return number of queued jobs
+	 */
+	public int getQueueSize() {
+		return queued.get();
+	}
+
+	/**
+	 * Returns number of running jobs.
+	 *
+	 * @return number of running jobs
+	 */
+	public int getRunning() {
+		return active.get();
+	}
+
+	/**
+	 * Returns <code>true</code> if a job is running.
+	 *
+	 * @return <code>true</code> if a job is running
+	 */
+	public boolean isRunning() {
+		return active.get()>0;
+	}
+
+	/**
+	 * Returns time since longest running process has started, in milliseconds, 0 if nothing is running.
+	 *
+	 * @return elapsed time in milliseconds
+	 */
+	public long getElapsed() {
+		long now= System.currentTimeMillis();
+		long e= 0;
+		for (Long t : running.values()) {
+			e= Math.max(e, now-t);
+		}
+		return e;
+	}
+
+	/**
+	 * Aborts all jobs and stops workers.
+	 */
+	public void shutdown() {
+		abort();
+		workers.shutdownNow();
+	}
+
+}
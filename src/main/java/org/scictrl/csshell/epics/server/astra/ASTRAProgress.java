@@ -0,0 +1,131 @@
+/**
+ *
+ */
+package org.scictrl.csshell.epics.server.astra;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <p>ASTRAProgress parses ASTRA output lines into progress events, current longitudinal position of bunch.</p>
+ *
+ * <p>Position is taken from first group of configurable pattern, by default from <code>z = value</code>.
+ * Progress in percent is position relative to <code>ZSTOP</code> from ASTRA input file.
+ * Fortran exponent <code>D</code> is accepted in numbers.</p>
+ *
+ * @author igor@scictrl.com
+ */
+public class ASTRAProgress {
+
+	/** Default pattern for position in output line. */
+	public static final String DEFAULT_PATTERN = "(?i)\\bz\\s*=\\s*([-+]?[0-9]*\\.?[0-9]+(?:[ed][-+]?[0-9]+)?)";
+
+	private static final Pattern ZSTOP= Pattern.compile("(?i)\\bzstop\\s*=\\s*([-+]?[0-9]*\\.?[0-9]+(?:[ed][-+]?[0-9]+)?)");
+
+	/**
+	 * Reads <code>ZSTOP</code> from ASTRA input file.
+	 *
+	 * @param input ASTRA input file
+	 * @return final position in m or NaN if not found
+	 */
+	public static double zStop(File input) {
+		try {
+			Matcher m= ZSTOP.matcher(new String(Files.readAllBytes(input.toPath()), StandardCharsets.UTF_8));
+			if (m.find()) {
+				return toDouble(m.group(1));
+			}
+		} catch (IOException e) {
+			// no progress in percent
+		}
+		return Double.NaN;
+	}
+
+	private static double toDouble(String s) {
+		return Double.parseDouble(s.replace('D', 'E').replace('d', 'e'));
+	}
+
+	private final Pattern pattern;
+	private volatile double z= Double.NaN;
+	private volatile double zStop= Double.NaN;
+
+	/**
+	 * Creates parser with {@link #DEFAULT_PATTERN}.
+	 */
+	public ASTRAProgress() {
+		this(DEFAULT_PATTERN);
+	}
+
+	/**
+	 * Creates parser.
+	 *
+	 * @param pattern regular expression, first group is position
+	 */
+	public ASTRAProgress(String pattern) {
+		this.pattern= Pattern.compile(pattern);
+	}
+
+	/**
+	 * Clears position and sets final position for new run.
+	 *
+	 * @param zStop final position in m, NaN if not known
+	 */
+	public void reset(double zStop) {
+		this.zStop= zStop;
+		this.z= Double.NaN;
+	}
+
+	/**
+	 * Parses line and updates position, if line contains it.
+	 *
+	 * @param line output line
+	 * @return <code>true</code> if line contained position
+	 */
+	public boolean parse(String line) {
+		Matcher m= pattern.matcher(line);
+		if (m.find()) {
+			try {
+				z= toDouble(m.group(1));
+				return true;
+			} catch (NumberFormatException e) {
+				// not a position
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns last parsed position.
+	 *
+	 * @return position in m, NaN if none yet
+	 */
+	public double getZ() {
+		return z;
+	}
+
+	/**
+	 * Returns final position.
+	 *
+	 * @return final position in m, NaN if not known
+	 */
+	public double getZStop() {
+		return zStop;
+	}
+
+	/**
+	 * Returns progress in percent, 0 if position or final position are not known.
+	 *
+	 * @return progress in percent
+	 */
+	public double getProgress() {
+		double p= 100.0*z/zStop;
+		if (Double.isNaN(p) || Double.isInfinite(p)) {
+			return 0.0;
+		}
+		return Math.max(0.0, Math.min(100.0, p));
+	}
+
+}
@@ -4,18 +4,32 @@
 package org.scictrl.csshell.epics.server.astra;
 
 import java.io.File;
-import java.io.IOException;
-import java.io.InputStream;
-import java.util.concurrent.TimeUnit;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.commons.configuration.HierarchicalConfiguration;
-import org.apache.commons.io.FileUtils;
 import org.scictrl.csshell.epics.server.application.AbstractApplication;
+import org.scictrl.csshell.epics.server.astra.ASTRAJobExecutor.Job;
+import org.scictrl.csshell.epics.server.astra.ASTRAJobExecutor.JobResult;
+import org.scictrl.csshell.epics.server.astra.ASTRASweep.Point;
+
+import gov.aps.jca.dbr.DBRType;
 
 import si.ijs.anka.config.BootstrapLoader;
 
 /**
- * <p>ASTRAServerApplication class.</p>
+ * <p>ASTRAServerApplication runs generator and ASTRA in var directory, prepared from templates.</p>
+ *
+ * <p>Commands are queued in {@link ASTRAJobExecutor} and command PVs return immediately. Jobs run one at a time
+ * and are killed when they run longer than configured timeout or when {@link #CMD_ABORT} is written.
+ * Before each run templates are staged into var directory with {@link WorkspaceStager}, only changed files are copied.</p>
+ *
+ * <p>Output of running job is tailed into {@link #STATUS_LOG} and parsed by {@link ASTRAProgress} into current
+ * position {@link #STATUS_Z} and {@link #STATUS_PROGRESS}.</p>
+ *
+ * <p>Sweep runs ASTRA for each combination of values written to {@link #SWEEP_PARAM1} and {@link #SWEEP_PARAM2},
+ * by default as many runs at the same time as there are processor cores, see {@link ASTRASweep}.
+ * Values are used up to first NaN. Results are published in <code>Sweep:Result:*</code> arrays in grid order.</p>
  *
  * @author igor@scictrl.com
  */
@@ -25,44 +39,65 @@ public class ASTRAServerApplication extends AbstractApplication {
 	public static final String STATUS_ASTRA_DURATION = "Status:AstraDuration";
 	/** Constant <code>STATUS_GENERATE_DURATION="Status:GenerateDuration"</code> */
 	public static final String STATUS_GENERATE_DURATION = "Status:GenerateDuration";
+	/** Constant <code>STATUS_ASTRA_STAGING_DURATION="Status:AstraStagingDuration"</code> */
+	public static final String STATUS_ASTRA_STAGING_DURATION = "Status:AstraStagingDuration";
+	/** Constant <code>STATUS_GENERATE_STAGING_DURATION="Status:GenerateStagingDuration"</code> */
+	public static final String STATUS_GENERATE_STAGING_DURATION = "Status:GenerateStagingDuration";
 	/** Constant <code>STATUS_INIT_PART_DIST="Status:InitPartDist"</code> */
 	public static final String STATUS_INIT_PART_DIST = "Status:InitPartDist";
 	/** Constant <code>CMD_ASTRA_INIT_PART_DIST="Cmd:AstraInitPartDist"</code> */
 	public static final String CMD_ASTRA_INIT_PART_DIST = "Cmd:AstraInitPartDist";
 	/** Constant <code>CMD_GENERATE_INIT_PART_DIST="Cmd:GenerateInitPartDist"</code> */
 	public static final String CMD_GENERATE_INIT_PART_DIST = "Cmd:GenerateInitPartDist";
+	/** Constant <code>CMD_ABORT="Cmd:Abort"</code> */
+	public static final String CMD_ABORT = "Cmd:Abort";
+	/** Constant <code>STATUS_QUEUE="Status:Queue"</code> */
+	public static final String STATUS_QUEUE = "Status:Queue";
+	/** Constant <code>STATUS_RUNNING="Status:Running"</code> */
+	public static final String STATUS_RUNNING = "Status:Running";
+	/** Constant <code>STATUS_ELAPSED="Status:Elapsed"</code> */
+	public static final String STATUS_ELAPSED = "Status:Elapsed";
+	/** Constant <code>STATUS_LOG="Status:Log"</code> */
+	public static final String STATUS_LOG = "Status:Log";
+	/** Constant <code>STATUS_Z="Status:Z"</code> */
+	public static final String STATUS_Z = "Status:Z";
+	/** Constant <code>STATUS_PROGRESS="Status:Progress"</code> */
+	public static final String STATUS_PROGRESS = "Status:Progress";
+	/** Constant <code>CMD_SWEEP="Cmd:Sweep"</code> */
+	public static final String CMD_SWEEP = "Cmd:Sweep";
+	/** Constant <code>SWEEP_PARAM1="Sweep:Param1"</code> */
+	public static final String SWEEP_PARAM1 = "Sweep:Param1";
+	/** Constant <code>SWEEP_PARAM2="Sweep:Param2"</code> */
+	public static final String SWEEP_PARAM2 = "Sweep:Param2";
+	/** Constant <code>SWEEP_PROGRESS="Sweep:Progress"</code> */
+	public static final String SWEEP_PROGRESS = "Sweep:Progress";
+	/** Constant <code>SWEEP_RESULT_PARAM1="Sweep:Result:Param1"</code> */
+	public static final String SWEEP_RESULT_PARAM1 = "Sweep:Result:Param1";
+	/** Constant <code>SWEEP_RESULT_PARAM2="Sweep:Result:Param2"</code> */
+	public static final String SWEEP_RESULT_PARAM2 = "Sweep:Result:Param2";
+	/** Constant <code>SWEEP_RESULT_OK="Sweep:Result:OK"</code> */
+	public static final String SWEEP_RESULT_OK = "Sweep:Result:OK";
+	/** Constant <code>SWEEP_RESULT_EMIT_X="Sweep:Result:EmitX"</code> */
+	public static final String SWEEP_RESULT_EMIT_X = "Sweep:Result:EmitX";
+	/** Constant <code>SWEEP_RESULT_EMIT_Y="Sweep:Result:EmitY"</code> */
+	public static final String SWEEP_RESULT_EMIT_Y = "Sweep:Result:EmitY";
+	/** Constant <code>SWEEP_RESULT_SIZE_X="Sweep:Result:SizeX"</code> */
+	public static final String SWEEP_RESULT_SIZE_X = "Sweep:Result:SizeX";
+	/** Constant <code>SWEEP_RESULT_SIZE_Y="Sweep:Result:SizeY"</code> */
+	public static final String SWEEP_RESULT_SIZE_Y = "Sweep:Result:SizeY";
+	/** Constant <code>SWEEP_RESULT_ENERGY="Sweep:Result:Energy"</code> */
+	public static final String SWEEP_RESULT_ENERGY = "Sweep:Result:Energy";
+	/** Constant <code>SWEEP_RESULT_BUNCH_LENGTH="Sweep:Result:BunchLength"</code> */
+	public static final String SWEEP_RESULT_BUNCH_LENGTH = "Sweep:Result:BunchLength";
 	
+	/** Size of {@link #STATUS_LOG} in bytes. */
+	public static final int LOG_SIZE = 16384;
+	/** Maximal number of values for each sweep parameter. */
+	public static final int SWEEP_MAX_VALUES = 1000;
+	/** Maximal number of points in sweep. */
+	public static final int SWEEP_MAX_POINTS = 10000;
 	
-	class StreamBufferer extends Thread {
-		private InputStream is;
-		private StringBuilder sb;
-
-		public StreamBufferer(InputStream is) {
-			this.is=is;
-			this.sb=new StringBuilder();
-		}
-		
-		@Override
-		public void run() {
-			byte[] buff = new byte[1024];
-			try {
-				while(is.available() > 0)
-				{
-					int i = is.read(buff, 0, 1024);
-					if(i < 0)
-						break;
-					sb.append(new String(buff, 0, i));
-				}
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-		}
-		@Override
-		public String toString() {
-			return sb.toString();
-		}
-		
-	}
+	private static final String[] SWEEP_RESULTS= {SWEEP_RESULT_EMIT_X, SWEEP_RESULT_EMIT_Y, SWEEP_RESULT_SIZE_X, SWEEP_RESULT_SIZE_Y, SWEEP_RESULT_ENERGY, SWEEP_RESULT_BUNCH_LENGTH};
 	
 	
 	private String varDirName;
@@ -78,6 +113,16 @@ public class ASTRAServerApplication extends AbstractApplication {
 	private File astraCmdFile;
 	private File generatorInFile;
 	private File astraInFile;
+	private long generatorTimeout;
+	private long astraTimeout;
+	private final ASTRAJobExecutor executor= new ASTRAJobExecutor();
+	private final WorkspaceStager stager= new WorkspaceStager();
+	private OutputRingBuffer liveLog;
+	private ASTRAProgress progress;
+	private volatile boolean logChanged;
+	private ASTRAJobExecutor sweepExecutor;
+	private ASTRASweep sweep;
+	private CompletableFuture<Point[]> sweepRun;
 
 	/**
 	 * <p>Constructor for ASTRAServerApplication.</p>
@@ -109,134 +154,268 @@ public class ASTRAServerApplication extends AbstractApplication {
 		astraIn=config.getString("astra_in","inputs/gun.in");
 		astraInFile= new File(confDir,astraIn);
 		
+		generatorTimeout=config.getLong("generator_timeout", 10000);
+		astraTimeout=config.getLong("astra_timeout", 3600000);
+		
+		// links are opt-in, generator and ASTRA could write through link into templates
+		stager.setLinks(config.getBoolean("stage_links", false));
+		
+		liveLog= new OutputRingBuffer(Math.max(1, config.getInt("log_lines", 200)));
+		progress= new ASTRAProgress(config.getString("progress_pattern", ASTRAProgress.DEFAULT_PATTERN));
+		executor.setOutputLines(Math.max(1, config.getInt("output_lines", OutputRingBuffer.DEFAULT_LINES)));
+		executor.setOutputListener((job,line,error) -> {
+			liveLog.add(error ? "ERR "+line : line);
+			if (!error) {
+				progress.parse(line);
+			}
+			logChanged= true;
+		});
+		
+		int sweepWorkers= config.getInt("sweep_workers", Runtime.getRuntime().availableProcessors());
+		sweepExecutor= new ASTRAJobExecutor(Math.max(1, sweepWorkers));
+		
+		sweep= new ASTRASweep(templatesDir, new File(confDir,config.getString("sweep_in",astraIn)), new File(confDir,config.getString("sweep_dir","sweep")), astraCmdFile);
+		sweep.setParameterNames(config.getString("sweep_param1","phase"), config.getString("sweep_param2","solenoid"));
+		sweep.setTimeout(config.getLong("sweep_timeout", astraTimeout));
+		sweep.setStager(stager);
+		String[] sweepFiles= config.getStringArray("sweep_files");
+		File[] f= new File[sweepFiles.length];
+		for (int i = 0; i < f.length; i++) {
+			f[i]= new File(varDir,sweepFiles[i].trim());
+		}
+		sweep.setFiles(f);
 		
 		addRecordOfCommandProcessor(CMD_GENERATE_INIT_PART_DIST, "Run Generator Tool ", 10000);
 		addRecordOfCommandProcessor(CMD_ASTRA_INIT_PART_DIST, "Run Astra Tool ", 10000);
+		addRecordOfCommandProcessor(CMD_ABORT, "Abort running and queued jobs", 1000);
 		addRecordOfMemoryValueProcessor(STATUS_INIT_PART_DIST, "Initial particle distribution has been generated", new byte[]{0});
 		addRecordOfMemoryValueProcessor(STATUS_GENERATE_DURATION, "Typical duration of generate command", 0.0, Double.POSITIVE_INFINITY, "s", (short)1, 0.0);
 		addRecordOfMemoryValueProcessor(STATUS_ASTRA_DURATION, "Typical duration of astra command", 0.0, Double.POSITIVE_INFINITY, "s", (short)1, 0.0);
+		addRecordOfMemoryValueProcessor(STATUS_GENERATE_STAGING_DURATION, "Typical staging duration of generate command", 0.0, Double.POSITIVE_INFINITY, "s", (short)2, 0.0);
+		addRecordOfMemoryValueProcessor(STATUS_ASTRA_STAGING_DURATION, "Typical staging duration of astra command", 0.0, Double.POSITIVE_INFINITY, "s", (short)2, 0.0);
+		addRecordOfMemoryValueProcessor(STATUS_QUEUE, "Number of queued jobs", 0, 1000, "No.", 0);
+		addRecordOfMemoryValueProcessor(STATUS_RUNNING, "Job is running", DBRType.BYTE, 0);
+		addRecordOfMemoryValueProcessor(STATUS_ELAPSED, "Duration of running job", 0.0, Double.POSITIVE_INFINITY, "s", (short)1, 0.0);
+		addRecordOfMemoryValueProcessor(STATUS_LOG, "Last output lines of running job", new byte[LOG_SIZE]);
+		addRecordOfMemoryValueProcessor(STATUS_Z, "Current position of bunch", -1000.0, 1000.0, "m", (short)3, 0.0);
+		addRecordOfMemoryValueProcessor(STATUS_PROGRESS, "Progress of running job", 0.0, 100.0, "%", (short)1, 0.0);
 		
+		double[] nan= new double[SWEEP_MAX_VALUES];
+		Arrays.fill(nan, Double.NaN);
+		addRecordOfCommandProcessor(CMD_SWEEP, "Run Astra sweep", 10000);
+		addRecordOfMemoryValueProcessor(SWEEP_PARAM1, "Values of first sweep parameter", -10000.0, 10000.0, "", (short)3, nan);
+		addRecordOfMemoryValueProcessor(SWEEP_PARAM2, "Values of second sweep parameter", -10000.0, 10000.0, "", (short)3, nan.clone());
+		addRecordOfMemoryValueProcessor(SWEEP_PROGRESS, "Sweep progress", 0.0, 100.0, "%", (short)1, 0.0);
+		addRecordOfMemoryValueProcessor(SWEEP_RESULT_PARAM1, "Sweep first parameter per point", -10000.0, 10000.0, "", (short)3, new double[SWEEP_MAX_POINTS]);
+		addRecordOfMemoryValueProcessor(SWEEP_RESULT_PARAM2, "Sweep second parameter per point", -10000.0, 10000.0, "", (short)3, new double[SWEEP_MAX_POINTS]);
+		addRecordOfMemoryValueProcessor(SWEEP_RESULT_OK, "Sweep point succeeded", 0.0, 1.0, "", (short)0, new double[SWEEP_MAX_POINTS]);
+		addRecordOfMemoryValueProcessor(SWEEP_RESULT_EMIT_X, "Sweep normalized hor. emittance", 0.0, 1000.0, "mm×mrad", (short)4, new double[SWEEP_MAX_POINTS]);
+		addRecordOfMemoryValueProcessor(SWEEP_RESULT_EMIT_Y, "Sweep normalized ver. emittance", 0.0, 1000.0, "mm×mrad", (short)4, new double[SWEEP_MAX_POINTS]);
+		addRecordOfMemoryValueProcessor(SWEEP_RESULT_SIZE_X, "Sweep RMS hor. beam size", 0.0, 1000.0, "mm", (short)4, new double[SWEEP_MAX_POINTS]);
+		addRecordOfMemoryValueProcessor(SWEEP_RESULT_SIZE_Y, "Sweep RMS ver. beam size", 0.0, 1000.0, "mm", (short)4, new double[SWEEP_MAX_POINTS]);
+		addRecordOfMemoryValueProcessor(SWEEP_RESULT_ENERGY, "Sweep kinetic energy", 0.0, 1000.0, "MeV", (short)4, new double[SWEEP_MAX_POINTS]);
+		addRecordOfMemoryValueProcessor(SWEEP_RESULT_BUNCH_LENGTH, "Sweep RMS bunch length", 0.0, 1000.0, "mm", (short)4, new double[SWEEP_MAX_POINTS]);
+		
+		executor.setListener(this::updateStatus);
+		sweepExecutor.setListener(this::updateStatus);
 		
 	}; 
 	
 	/** {@inheritDoc} */
 	@Override
-	protected synchronized void notifyRecordWrite(String name) {
+	public void activate() {
+		super.activate();
+		
+		database.schedule(this::updateStatus, 1000, 1000);
+	}
+	
+	private void updateStatus() {
+		getRecord(STATUS_QUEUE).setValue(executor.getQueueSize()+sweepExecutor.getQueueSize());
+		getRecord(STATUS_RUNNING).setValue(executor.isRunning() || sweepExecutor.isRunning());
+		getRecord(STATUS_ELAPSED).setValue(Math.max(executor.getElapsed(), sweepExecutor.getElapsed())/1000.0);
+		if (logChanged) {
+			logChanged= false;
+			// ASTRA output is ASCII, one character is one byte
+			getRecord(STATUS_LOG).setValue(liveLog.tail(LOG_SIZE-1));
+			double z= progress.getZ();
+			getRecord(STATUS_Z).setValue(Double.isNaN(z) ? 0.0 : z);
+			getRecord(STATUS_PROGRESS).setValue(progress.getProgress());
+		}
+		int size= sweep.getSize();
+		getRecord(SWEEP_PROGRESS).setValue(size>0 ? 100.0*sweep.getCompleted()/size : 0.0);
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	protected void notifyRecordWrite(String name) {
 		super.notifyRecordWrite(name);
 		
 		if (CMD_GENERATE_INIT_PART_DIST == name) {
-			boolean b= generate();
-			getRecord(STATUS_INIT_PART_DIST).setValue(b);
-			getRecord(CMD_GENERATE_INIT_PART_DIST).setValue(b);
+			executor.submit(new Job("generate", generatorTimeout, this::prepareGenerate)).thenAccept(r -> {
+				boolean b= isOK(r, "Generate");
+				updateDuration(STATUS_GENERATE_DURATION, STATUS_GENERATE_STAGING_DURATION, r);
+				getRecord(STATUS_INIT_PART_DIST).setValue(b);
+				getRecord(CMD_GENERATE_INIT_PART_DIST).setValue(b);
+			});
 		} else if (CMD_ASTRA_INIT_PART_DIST == name) {
-			if (!getRecord(STATUS_INIT_PART_DIST).getValueAsBoolean()) {
-				return;
-			}
-			boolean b= astra();
-			getRecord(CMD_ASTRA_INIT_PART_DIST).setValue(b);
+			executor.submit(new Job("astra", astraTimeout, this::prepareAstra)).thenAccept(r -> {
+				boolean b= isOK(r, "Astra");
+				updateDuration(STATUS_ASTRA_DURATION, STATUS_ASTRA_STAGING_DURATION, r);
+				getRecord(CMD_ASTRA_INIT_PART_DIST).setValue(b);
+			});
+		} else if (CMD_ABORT == name) {
+			executor.abort();
+			sweepExecutor.abort();
+		} else if (CMD_SWEEP == name) {
+			startSweep();
 		}
 		
 	}
-
-	private boolean generate() {
+	
+	/**
+	 * Returns values up to first NaN.
+	 */
+	private static double[] sweepValues(double[] d) {
+		if (d==null) {
+			return new double[0];
+		}
+		int i= 0;
+		while (i<d.length && !Double.isNaN(d[i])) {
+			i++;
+		}
+		return Arrays.copyOf(d, i);
+	}
+	
+	private synchronized void startSweep() {
+		
+		if (sweepRun!=null && !sweepRun.isDone()) {
+			log.warn("Sweep is already running, new sweep ignored.");
+			return;
+		}
+		
+		double[] v1= sweepValues(getRecord(SWEEP_PARAM1).getValueAsDoubleArray());
+		double[] v2= sweepValues(getRecord(SWEEP_PARAM2).getValueAsDoubleArray());
+		
+		if (v1.length==0 || v1.length*Math.max(1, v2.length)>SWEEP_MAX_POINTS) {
+			log.error("Sweep with "+v1.length+"x"+v2.length+" points is not valid, maximum is "+SWEEP_MAX_POINTS+" points!");
+			return;
+		}
+		
+		log.info("Starting sweep with "+v1.length+"x"+v2.length+" points.");
 		
 		try {
-			
-			FileUtils.copyDirectory(templatesDir, varDir, false);
-			FileUtils.copyFileToDirectory(generatorInFile, varDir, false);
-			
-			ProcessBuilder pb= new ProcessBuilder();
-			pb.directory(varDir);
-			pb.command(generatorCmdFile.getAbsolutePath(),generatorInFile.getName());
-			
-			long t= System.currentTimeMillis();
-			
-			Process p= pb.start();
-			
-			StreamBufferer is= new StreamBufferer(p.getInputStream());
-			StreamBufferer es= new StreamBufferer(p.getErrorStream());
-			
-			is.start();
-			es.start();
-			
-			p.waitFor(10000,TimeUnit.MILLISECONDS);
-			
-			t= System.currentTimeMillis()-t;
-			
-			double d= getRecord(STATUS_GENERATE_DURATION).getValueAsDouble();
-			d= 0.9 * d + ((double)t)/10000.0;
-			
-			getRecord(STATUS_GENERATE_DURATION).setValue(d);
-
-			Thread.yield();
-			
-			log.debug("Generate Out: "+is.toString());
-			log.debug("Generate Err: "+es.toString());
-			log.debug("Generate Exit: "+p.exitValue());
-			log.debug("Generate Duration: "+d);
-			
-		} catch (IOException e) {
-			//e.printStackTrace();
-			log.error("Commad failed", e);
-			return false;
-		} catch (InterruptedException e) {
-			//e.printStackTrace();
-			log.error("Commad failed", e);
-			return false;
+			sweepRun= sweep.run(sweepExecutor, v1, v2);
+		} catch (Exception e) {
+			log.error("Sweep failed: "+e.toString(), e);
+			return;
 		}
 		
+		updateStatus();
 		
-		return true;
+		sweepRun.thenAccept(this::publishSweep);
 	}
-
-	private boolean astra() {
+	
+	private void publishSweep(Point[] p) {
 		
-		try {
+		double[] p1= new double[p.length];
+		double[] p2= new double[p.length];
+		double[] ok= new double[p.length];
+		double[][] v= new double[SWEEP_RESULTS.length][p.length];
+		int good= 0;
+		
+		for (int i = 0; i < p.length; i++) {
+			p1[i]= p[i].param1;
+			p2[i]= p[i].param2;
+			ok[i]= p[i].isOK() ? 1.0 : 0.0;
+			good+= ok[i];
+			for (int j = 0; j < SWEEP_RESULTS.length; j++) {
+				v[j][i]= p[i].values[j];
+			}
+		}
+		
+		getRecord(SWEEP_RESULT_PARAM1).setValue(p1);
+		getRecord(SWEEP_RESULT_PARAM2).setValue(p2);
+		getRecord(SWEEP_RESULT_OK).setValue(ok);
+		for (int j = 0; j < SWEEP_RESULTS.length; j++) {
+			getRecord(SWEEP_RESULTS[j]).setValue(v[j]);
+		}
+		
+		updateStatus();
+		
+		log.info("Sweep done, "+good+" of "+p.length+" points succeeded.");
+	}
 
-			
-			FileUtils.copyDirectory(templatesDir, varDir, false);
-			FileUtils.copyFileToDirectory(astraInFile, varDir, false);
-			
-			ProcessBuilder pb= new ProcessBuilder();
-			pb.directory(varDir);
-			pb.command(astraCmdFile.getAbsolutePath(),astraInFile.getName());
-			
-			long t= System.currentTimeMillis();
-			
-			Process p= pb.start();
-			
-			StreamBufferer is= new StreamBufferer(p.getInputStream());
-			StreamBufferer es= new StreamBufferer(p.getErrorStream());
-			
-			is.start();
-			es.start();
-			
-			p.waitFor();
-			
-			t= System.currentTimeMillis()-t;
-			
-			double d= getRecord(STATUS_ASTRA_DURATION).getValueAsDouble();
-			d= 0.9 * d + ((double)t)/100.0;
-			
-			getRecord(STATUS_ASTRA_DURATION).setValue(d);
+	private ProcessBuilder prepareGenerate() throws Exception {
+		
+		stager.stage(templatesDir, varDir, generatorInFile);
+		startLog(Double.NaN);
+		
+		ProcessBuilder pb= new ProcessBuilder();
+		pb.directory(varDir);
+		pb.command(generatorCmdFile.getAbsolutePath(),generatorInFile.getName());
+		
+		return pb;
+	}
 
-			Thread.yield();
-			
-			log.debug("Astra Out: "+is.toString());
-			log.debug("Astra Err: "+es.toString());
-			log.debug("Astra Exit: "+p.exitValue());
-			
-		} catch (IOException e) {
-			//e.printStackTrace();
-			log.error("Commad failed", e);
-			return false;
-		} catch (InterruptedException e) {
-			//e.printStackTrace();
-			log.error("Commad failed", e);
-			return false;
+	private ProcessBuilder prepareAstra() throws Exception {
+		
+		// checked when job starts, so generate job queued before is already done
+		if (!getRecord(STATUS_INIT_PART_DIST).getValueAsBoolean()) {
+			throw new IllegalStateException("Initial particle distribution has not been generated!");
 		}
 		
+		stager.stage(templatesDir, varDir, astraInFile);
+		startLog(ASTRAProgress.zStop(astraInFile));
+		
+		ProcessBuilder pb= new ProcessBuilder();
+		pb.directory(varDir);
+		pb.command(astraCmdFile.getAbsolutePath(),astraInFile.getName());
+		
+		return pb;
+	}
+	
+	/**
+	 * Clears live log and progress before job starts.
+	 */
+	private void startLog(double zStop) {
+		liveLog.clear();
+		progress.reset(zStop);
+		logChanged= true;
+	}
+	
+	private boolean isOK(JobResult r, String job) {
+		
+		log.debug(job+" Out: "+r.output);
+		log.debug(job+" Err: "+r.error);
+		log.debug(job+" Exit: "+r.exitValue);
+		
+		if (r.aborted) {
+			log.info(job+" aborted.");
+		} else if (r.exception!=null) {
+			log.error(job+" failed: "+r.exception.toString());
+		}
+		
+		// generator and astra were not checked for exit value, only for failure to run
+		return !r.aborted && r.exception==null;
+	}
+	
+	/**
+	 * Updates typical run and staging durations as running average of successful runs, in seconds.
+	 */
+	private void updateDuration(String pv, String stagingPv, JobResult r) {
+		
+		if (r.aborted || r.exception!=null) {
+			return;
+		}
+		
+		double d= getRecord(pv).getValueAsDouble();
+		d= 0.9 * d + 0.1 * r.duration/1000.0;
+		getRecord(pv).setValue(d);
+		
+		double s= getRecord(stagingPv).getValueAsDouble();
+		s= 0.9 * s + 0.1 * r.prepareDuration/1000.0;
+		getRecord(stagingPv).setValue(s);
 		
-		return true;
+		log.debug("Duration "+pv+": "+d+", staging "+s);
 	}
 }
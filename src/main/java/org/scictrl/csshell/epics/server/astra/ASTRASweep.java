@@ -0,0 +1,296 @@
+/**
+ *
+ */
+package org.scictrl.csshell.epics.server.astra;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.scictrl.csshell.epics.server.astra.ASTRAJobExecutor.Job;
+import org.scictrl.csshell.epics.server.astra.ASTRAJobExecutor.JobResult;
+
+/**
+ * <p>ASTRASweep runs ASTRA for each point of two parameter grid, each run in its own workspace.</p>
+ *
+ * <p>Workspace is created in sweep directory from templates directory and files copied from var directory,
+ * like initial particle distribution, files are staged with {@link WorkspaceStager}. Input template is written into workspace with <code>${name}</code>
+ * placeholders replaced by parameter values. Runs are submitted to {@link ASTRAJobExecutor}, which decides
+ * how many run at the same time.</p>
+ *
+ * <p>From each run last line of ASTRA <code>Xemit</code>, <code>Yemit</code> and <code>Zemit</code> output files
+ * is collected into {@link Point}.</p>
+ *
+ * @author igor@scictrl.com
+ */
+public class ASTRASweep {
+
+	private static final Logger log= LogManager.getLogger(ASTRASweep.class);
+
+	/** Index of normalized horizontal emittance in {@link Point#values}, mm mrad. */
+	public static final int EMIT_X = 0;
+	/** Index of normalized vertical emittance in {@link Point#values}, mm mrad. */
+	public static final int EMIT_Y = 1;
+	/** Index of horizontal RMS beam size in {@link Point#values}, mm. */
+	public static final int SIZE_X = 2;
+	/** Index of vertical RMS beam size in {@link Point#values}, mm. */
+	public static final int SIZE_Y = 3;
+	/** Index of kinetic energy in {@link Point#values}, MeV. */
+	public static final int ENERGY = 4;
+	/** Index of RMS bunch length in {@link Point#values}, mm. */
+	public static final int BUNCH_LENGTH = 5;
+	/** Number of values in {@link Point#values}. */
+	public static final int VALUES = 6;
+
+	/**
+	 * Result of one sweep point, immutable.
+	 */
+	public static final class Point {
+		/** First parameter value. */
+		public final double param1;
+		/** Second parameter value, NaN if sweep has one parameter only. */
+		public final double param2;
+		/** Collected values, NaN if run failed or output was missing. */
+		public final double[] values;
+		/** Result of ASTRA job. */
+		public final JobResult result;
+
+		Point(double param1, double param2, double[] values, JobResult result) {
+			this.param1=param1;
+			this.param2=param2;
+			this.values=values;
+			this.result=result;
+		}
+
+		/**
+		 * Returns <code>true</code> if run succeeded and all values were collected.
+		 * @return <code>true</code> if point is valid
+		 */
+		public boolean isOK() {
+			if (result==null || !result.isOK()) {
+				return false;
+			}
+			for (double d : values) {
+				if (Double.isNaN(d)) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	private final File templatesDir;
+	private final File inputTemplate;
+	private final File sweepDir;
+	private final File command;
+	private String param1="phase";
+	private String param2="solenoid";
+	private File[] files= new File[0];
+	private long timeout;
+	private WorkspaceStager stager= new WorkspaceStager();
+	private final AtomicInteger completed= new AtomicInteger();
+	private volatile int size;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param templatesDir directory copied into each workspace
+	 * @param inputTemplate ASTRA input with parameter placeholders
+	 * @param sweepDir directory where workspaces are created
+	 * @param command ASTRA command, called with input file name in workspace
+	 */
+	public ASTRASweep(File templatesDir, File inputTemplate, File sweepDir, File command) {
+		this.templatesDir=templatesDir;
+		this.inputTemplate=inputTemplate;
+		this.sweepDir=sweepDir;
+		this.command=command;
+	}
+
+	/**
+	 * Sets names of parameters, placeholders in input template are <code>${name}</code>.
+	 *
+	 * @param param1 first parameter name
+	 * @param param2 second parameter name
+	 */
+	public void setParameterNames(String param1, String param2) {
+		this.param1 = param1;
+		this.param2 = param2;
+	}
+
+	/**
+	 * Sets additional files, which are copied into each workspace, like initial particle distribution.
+	 *
+	 * @param files additional files
+	 */
+	public void setFiles(File... files) {
+		this.files = files!=null ? files : new File[0];
+	}
+
+	/**
+	 * Sets stager, which prepares workspaces.
+	 *
+	 * @param stager the stager
+	 */
+	public void setStager(WorkspaceStager stager) {
+		this.stager = stager;
+	}
+
+	/**
+	 * Sets timeout of single run in milliseconds, 0 means no timeout.
+	 *
+	 * @param timeout timeout in milliseconds
+	 */
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Returns number of points in last started sweep.
+	 *
+	 * @return number of points
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns number of completed points in last started sweep.
+	 *
+	 * @return number of completed points
+	 */
+	public int getCompleted() {
+		return completed.get();
+	}
+
+	/**
+	 * Starts sweep over all combinations of parameter values, first parameter in outer loop.
+	 * Previous workspaces in sweep directory are removed.
+	 *
+	 * @param executor executor, which runs ASTRA jobs
+	 * @param values1 values of first parameter
+	 * @param values2 values of second parameter, empty or <code>null</code> for sweep of one parameter
+	 * @return future with sweep points in grid order
+	 * @throws IOException if sweep directory can not be cleaned
+	 */
+	public CompletableFuture<Point[]> run(ASTRAJobExecutor executor, double[] values1, double[] values2) throws IOException {
+
+		if (values1==null || values1.length==0) {
+			throw new IllegalArgumentException("Sweep has no values for parameter '"+param1+"'!");
+		}
+		final double[] v2= values2==null || values2.length==0 ? new double[]{Double.NaN} : values2;
+
+		if (sweepDir.exists()) {
+			FileUtils.deleteDirectory(sweepDir);
+		}
+		Files.createDirectories(sweepDir.toPath());
+
+		final String template= new String(Files.readAllBytes(inputTemplate.toPath()), StandardCharsets.UTF_8);
+
+		size= values1.length*v2.length;
+		completed.set(0);
+
+		List<CompletableFuture<Point>> points= new ArrayList<CompletableFuture<Point>>(size);
+
+		int i= 0;
+		for (double p1 : values1) {
+			for (double p2 : v2) {
+				final File ws= new File(sweepDir, String.format("run_%04d", i++));
+				Job job= new Job(ws.getName(), timeout, () -> prepare(ws, template, p1, p2));
+				points.add(executor.submit(job).thenApply(r -> {
+					Point p= new Point(p1, p2, collect(ws), r);
+					completed.incrementAndGet();
+					return p;
+				}));
+			}
+		}
+
+		return CompletableFuture.allOf(points.toArray(new CompletableFuture<?>[points.size()])).thenApply(v -> {
+			Point[] p= new Point[points.size()];
+			for (int j = 0; j < p.length; j++) {
+				p[j]= points.get(j).join();
+			}
+			return p;
+		});
+	}
+
+	private ProcessBuilder prepare(File ws, String template, double p1, double p2) throws IOException {
+
+		stager.stage(templatesDir, ws, files);
+
+		String in= template.replace("${"+param1+"}", Double.toString(p1));
+		if (!Double.isNaN(p2)) {
+			in= in.replace("${"+param2+"}", Double.toString(p2));
+		}
+		Files.write(new File(ws, inputTemplate.getName()).toPath(), in.getBytes(StandardCharsets.UTF_8));
+
+		ProcessBuilder pb= new ProcessBuilder();
+		pb.directory(ws);
+		pb.command(command.getAbsolutePath(), inputTemplate.getName());
+
+		return pb;
+	}
+
+	private double[] collect(File ws) {
+
+		double[] v= new double[VALUES];
+		Arrays.fill(v, Double.NaN);
+
+		double[] x= lastLine(ws, "Xemit");
+		double[] y= lastLine(ws, "Yemit");
+		double[] z= lastLine(ws, "Zemit");
+
+		// ASTRA columns: z, t, <x>, x_rms, x'_rms, eps_x, <x x'>; Zemit: z, t, E_kin, z_rms, dE_rms, eps_z, <z dE>
+		if (x!=null && x.length>5) {
+			v[SIZE_X]= x[3];
+			v[EMIT_X]= x[5];
+		}
+		if (y!=null && y.length>5) {
+			v[SIZE_Y]= y[3];
+			v[EMIT_Y]= y[5];
+		}
+		if (z!=null && z.length>3) {
+			v[ENERGY]= z[2];
+			v[BUNCH_LENGTH]= z[3];
+		}
+		return v;
+	}
+
+	/**
+	 * Returns numbers from last line of ASTRA output file with provided type, like <code>gun.Xemit.001</code>.
+	 */
+	private static double[] lastLine(File ws, String type) {
+
+		File[] f= ws.listFiles((d,n) -> n.contains("."+type+"."));
+		if (f==null || f.length==0) {
+			return null;
+		}
+
+		try {
+			List<String> lines= Files.readAllLines(f[0].toPath(), StandardCharsets.UTF_8);
+			for (int i = lines.size()-1; i >= 0; i--) {
+				String s= lines.get(i).trim();
+				if (s.length()>0) {
+					String[] ss= s.split("\\s+");
+					double[] d= new double[ss.length];
+					for (int j = 0; j < d.length; j++) {
+						d[j]= Double.parseDouble(ss[j].replace('D', 'E'));
+					}
+					return d;
+				}
+			}
+		} catch (Exception e) {
+			log.warn("Reading '"+f[0]+"' failed: "+e.toString());
+		}
+		return null;
+	}
+
+}
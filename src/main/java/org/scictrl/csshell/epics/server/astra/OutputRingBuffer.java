@@ -0,0 +1,136 @@
+/**
+ *
+ */
+package org.scictrl.csshell.epics.server.astra;
+
+/**
+ * <p>OutputRingBuffer keeps last lines of process output, older lines are dropped.</p>
+ *
+ * <p>Number of lines and line length are bounded, so memory use does not grow with long running process.
+ * Buffer is thread safe, one thread can add lines while other reads them.</p>
+ *
+ * @author igor@scictrl.com
+ */
+public class OutputRingBuffer {
+
+	/** Default maximal number of lines. */
+	public static final int DEFAULT_LINES = 1000;
+	/** Maximal line length, longer lines are truncated. */
+	public static final int MAX_LINE_LENGTH = 1024;
+
+	private final String[] lines;
+	private int next;
+	private int size;
+	private long total;
+
+	/**
+	 * Creates buffer with {@link #DEFAULT_LINES}.
+	 */
+	public OutputRingBuffer() {
+		this(DEFAULT_LINES);
+	}
+
+	/**
+	 * Creates buffer.
+	 *
+	 * @param capacity maximal number of lines
+	 */
+	public OutputRingBuffer(int capacity) {
+		if (capacity<1) {
+			throw new IllegalArgumentException("Buffer capacity '"+capacity+"' must be at least 1!");
+		}
+		lines= new String[capacity];
+	}
+
+	/**
+	 * Adds line, oldest line is dropped when buffer is full.
+	 *
+	 * @param line the line without line separator
+	 */
+	public synchronized void add(String line) {
+		if (line.length()>MAX_LINE_LENGTH) {
+			line= line.substring(0, MAX_LINE_LENGTH);
+		}
+		lines[next]= line;
+		next= (next+1)%lines.length;
+		if (size<lines.length) {
+			size++;
+		}
+		total++;
+	}
+
+	/**
+	 * Removes all lines.
+	 */
+	public synchronized void clear() {
+		for (int i = 0; i < lines.length; i++) {
+			lines[i]= null;
+		}
+		next= 0;
+		size= 0;
+		total= 0;
+	}
+
+	/**
+	 * Returns number of lines in buffer.
+	 *
+	 * @return number of lines in buffer
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Returns number of lines added since creation or clear.
+	 *
+	 * @return number of added lines
+	 */
+	public synchronized long getTotal() {
+		return total;
+	}
+
+	/**
+	 * Returns number of lines dropped, because buffer was full.
+	 *
+	 * @return number of dropped lines
+	 */
+	public synchronized long getDropped() {
+		return total-size;
+	}
+
+	/**
+	 * Returns last lines, which together with line separators fit into provided number of characters.
+	 *
+	 * @param maxChars maximal number of returned characters
+	 * @return last lines, each ended with line separator
+	 */
+	public synchronized String tail(int maxChars) {
+		int count= 0;
+		int chars= 0;
+		while (count<size) {
+			String s= lines[(next-1-count+lines.length)%lines.length];
+			if (chars+s.length()+1>maxChars) {
+				break;
+			}
+			chars+= s.length()+1;
+			count++;
+		}
+		StringBuilder sb= new StringBuilder(chars);
+		for (int i = count; i > 0; i--) {
+			sb.append(lines[(next-i+lines.length)%lines.length]);
+			sb.append('\n');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Returns all lines in buffer, each ended with line separator.
+	 *
+	 * @return lines in buffer
+	 */
+	@Override
+	public synchronized String toString() {
+		return tail(Integer.MAX_VALUE);
+	}
+
+}
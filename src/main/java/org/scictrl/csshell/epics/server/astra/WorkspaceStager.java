@@ -0,0 +1,171 @@
+/**
+ *
+ */
+package org.scictrl.csshell.epics.server.astra;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * <p>WorkspaceStager copies templates into workspace directory, but only files which changed since last staging.</p>
+ *
+ * <p>Manifest file in workspace remembers for each staged file size and modification time of source and of staged copy.
+ * File is staged again if source has changed, if staged copy is missing or if it was modified in workspace.
+ * Files are copied with NIO. Hard links can be enabled with {@link #setLinks(boolean)} and are used if file system allows it,
+ * then staged files must not be modified in place, since hard linked file is shared with templates.
+ * Files, which are removed from templates, are not removed from workspace.</p>
+ *
+ * <p>Stager can be used by several threads at the same time, but not for same workspace.</p>
+ *
+ * @author igor@scictrl.com
+ */
+public class WorkspaceStager {
+
+	private static final Logger log= LogManager.getLogger(WorkspaceStager.class);
+
+	/** Name of manifest file in workspace. */
+	public static final String MANIFEST = ".stage-manifest";
+
+	private volatile boolean links= false;
+
+	/**
+	 * Constructor.
+	 */
+	public WorkspaceStager() {
+	}
+
+	/**
+	 * Sets if files are hard linked, when file system allows it. Default is <code>false</code>, files are copied.
+	 * Enable only if jobs never open staged file for writing, because write would go through link into source.
+	 *
+	 * @param links <code>true</code> if files are hard linked
+	 */
+	public void setLinks(boolean links) {
+		this.links = links;
+	}
+
+	/**
+	 * Returns <code>true</code> if files are hard linked, when file system allows it.
+	 *
+	 * @return <code>true</code> if files are hard linked
+	 */
+	public boolean isLinks() {
+		return links;
+	}
+
+	/**
+	 * Stages content of source directory and additional files into workspace.
+	 * Additional files are placed directly in workspace.
+	 *
+	 * @param sourceDir directory with templates, can be <code>null</code>
+	 * @param workspace workspace directory, created if it does not exist
+	 * @param files additional files
+	 * @return number of files which were copied or linked, unchanged files are not counted
+	 * @throws IOException if staging fails
+	 */
+	public int stage(File sourceDir, File workspace, File... files) throws IOException {
+
+		int[] count= new int[3];
+
+		Path ws= workspace.toPath();
+		Files.createDirectories(ws);
+
+		Path mf= ws.resolve(MANIFEST);
+		Properties manifest= new Properties();
+		if (Files.exists(mf)) {
+			try (InputStream in= Files.newInputStream(mf)) {
+				manifest.load(in);
+			} catch (IOException | IllegalArgumentException e) {
+				log.warn("Manifest '"+mf+"' not readable, staging all files: "+e.toString());
+				manifest.clear();
+			}
+		}
+
+		boolean changed= false;
+
+		if (sourceDir!=null) {
+			Path src= sourceDir.toPath();
+			try (Stream<Path> s= Files.walk(src)) {
+				for (Path p : (Iterable<Path>)s::iterator) {
+					if (Files.isRegularFile(p)) {
+						changed|= stageFile(p, ws.resolve(src.relativize(p).toString()), src.relativize(p).toString(), manifest, count);
+					}
+				}
+			}
+		}
+
+		for (File f : files) {
+			changed|= stageFile(f.toPath(), ws.resolve(f.getName()), f.getName(), manifest, count);
+		}
+
+		if (changed) {
+			Path tmp= ws.resolve(MANIFEST+".tmp");
+			try (OutputStream out= Files.newOutputStream(tmp)) {
+				manifest.store(out, "Staged files: source size, source time, target size, target time");
+			}
+			Files.move(tmp, mf, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+
+		log.debug("Staged '"+workspace+"': "+count[0]+" copied, "+count[1]+" linked, "+count[2]+" unchanged.");
+		
+		return count[0]+count[1];
+	}
+
+	/**
+	 * Stages single file, count has copied, linked and skipped files.
+	 */
+	private boolean stageFile(Path source, Path target, String key, Properties manifest, int[] count) throws IOException {
+
+		BasicFileAttributes sa= Files.readAttributes(source, BasicFileAttributes.class);
+
+		String entry= manifest.getProperty(key);
+		if (entry!=null && Files.exists(target, LinkOption.NOFOLLOW_LINKS)) {
+			BasicFileAttributes ta= Files.readAttributes(target, BasicFileAttributes.class);
+			if (entry.equals(entry(sa, ta))) {
+				count[2]++;
+				return false;
+			}
+		}
+
+		Files.createDirectories(target.getParent());
+		// link or copy must not write through existing link into source
+		Files.deleteIfExists(target);
+
+		boolean done= false;
+		if (links) {
+			try {
+				Files.createLink(target, source);
+				count[1]++;
+				done= true;
+			} catch (UnsupportedOperationException | FileSystemException e) {
+				// different file system or links not supported
+				log.debug("Linking '"+source+"' failed, copying: "+e.toString());
+			}
+		}
+		if (!done) {
+			Files.copy(source, target, StandardCopyOption.COPY_ATTRIBUTES);
+			count[0]++;
+		}
+
+		manifest.setProperty(key, entry(sa, Files.readAttributes(target, BasicFileAttributes.class)));
+		return true;
+	}
+
+	private static String entry(BasicFileAttributes source, BasicFileAttributes target) {
+		return source.size()+","+source.lastModifiedTime().toMillis()+","+target.size()+","+target.lastModifiedTime().toMillis();
+	}
+
+}
@@ -0,0 +1,236 @@
+/**
+ *
+ */
+package org.scictrl.csshell.epics.server.bpm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * <p>BPMPollScheduler polls all registered {@link BPMPullEngine}s on common cycle tick.</p>
+ *
+ * <p>Ticks are aligned to multiples of tick period. On each tick all due engines are polled concurrently,
+ * each on own worker thread, so cycle takes as long as slowest BPM and not as sum of all.
+ * All snapshots from same cycle carry same cycle ID and same tick timestamp. Engine with longer
+ * poll period than tick period keeps own due time and is polled on first tick at or after it,
+ * next due time is set whole number of tick periods later, so engine is never polled faster than own period.</p>
+ *
+ * <p>Next cycle is started only after all engines from previous cycle are done.
+ * Cycles longer than tick period are counted as overruns, ticks which are missed meanwhile are skipped.</p>
+ *
+ * @author igor@scictrl.com
+ */
+public class BPMPollScheduler {
+
+	private static final Logger log= LogManager.getLogger(BPMPollScheduler.class);
+
+	private static BPMPollScheduler defaultScheduler;
+
+	/**
+	 * Returns shared scheduler, which is used by engines by default.
+	 *
+	 * @return the shared scheduler
+	 */
+	public static synchronized BPMPollScheduler getDefault() {
+		if (defaultScheduler==null) {
+			defaultScheduler= new BPMPollScheduler();
+		}
+		return defaultScheduler;
+	}
+
+	private static ThreadFactory threadFactory(final String name) {
+		final AtomicInteger count= new AtomicInteger();
+		return r -> {
+			Thread t= new Thread(r, name+"-"+count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		};
+	}
+
+	// engine with time in ms, when it is due for next poll
+	private final Map<BPMPullEngine, Long> engines= new ConcurrentHashMap<BPMPullEngine, Long>();
+	private final ScheduledExecutorService ticker= Executors.newSingleThreadScheduledExecutor(threadFactory("BPMPollScheduler-tick"));
+	// polling is blocking IO, one platform thread per BPM in cycle, idle threads are released
+	private final ExecutorService workers= Executors.newCachedThreadPool(threadFactory("BPMPollScheduler-poll"));
+	private final Object lock= new Object();
+	private final AtomicLong overrunCount= new AtomicLong();
+	private boolean running;
+	private long cycleId;
+	private long nextTick;
+	private volatile long lastCycleDuration;
+
+	/**
+	 * <p>Constructor for BPMPollScheduler.</p>
+	 */
+	public BPMPollScheduler() {
+	}
+
+	/**
+	 * Adds engine to polling, scheduler is started if necessary.
+	 *
+	 * @param engine the engine
+	 */
+	public void add(BPMPullEngine engine) {
+		engines.putIfAbsent(engine, 0L);
+		synchronized (lock) {
+			if (!running) {
+				running=true;
+				long t= System.currentTimeMillis();
+				long period= getTickPeriod();
+				nextTick= align(t, period)+period;
+				ticker.schedule(this::cycle, nextTick-t, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+
+	/**
+	 * Removes engine from polling.
+	 *
+	 * @param engine the engine
+	 */
+	public void remove(BPMPullEngine engine) {
+		engines.remove(engine);
+	}
+
+	/**
+	 * Returns <code>true</code> if engine is polled by this scheduler.
+	 *
+	 * @param engine the engine
+	 * @return <code>true</code> if engine is polled
+	 */
+	public boolean contains(BPMPullEngine engine) {
+		return engines.containsKey(engine);
+	}
+
+	/**
+	 * Executes task on worker thread, used by engines for work outside poll cycle.
+	 *
+	 * @param task the task
+	 * @throws RejectedExecutionException if scheduler has been shut down
+	 */
+	public void execute(Runnable task) {
+		workers.execute(task);
+	}
+
+	/**
+	 * Returns tick period, which is shortest poll period of all engines.
+	 *
+	 * @return tick period in milliseconds
+	 */
+	public long getTickPeriod() {
+		long p= Long.MAX_VALUE;
+		for (BPMPullEngine e : engines.keySet()) {
+			p= Math.min(p, e.getPollPeriod());
+		}
+		return p==Long.MAX_VALUE ? 1000 : p;
+	}
+
+	/**
+	 * Returns number of cycles, which took longer than tick period.
+	 *
+	 * @return number of overruns
+	 */
+	public long getOverrunCount() {
+		return overrunCount.get();
+	}
+
+	/**
+	 * Returns duration of last cycle in milliseconds.
+	 *
+	 * @return duration of last cycle in milliseconds
+	 */
+	public long getLastCycleDuration() {
+		return lastCycleDuration;
+	}
+
+	/**
+	 * Stops polling and releases threads.
+	 */
+	public void shutdown() {
+		synchronized (lock) {
+			running=false;
+		}
+		ticker.shutdownNow();
+		workers.shutdownNow();
+	}
+
+	private static long align(long time, long period) {
+		return time-time%period;
+	}
+
+	private void cycle() {
+
+		long tick;
+		long id;
+		long period= getTickPeriod();
+
+		synchronized (lock) {
+			if (engines.isEmpty()) {
+				running=false;
+				return;
+			}
+			tick= nextTick;
+			id= ++cycleId;
+		}
+
+		long start= System.currentTimeMillis();
+
+		List<Callable<Object>> tasks= new ArrayList<Callable<Object>>(engines.size());
+		for (Map.Entry<BPMPullEngine, Long> en : engines.entrySet()) {
+			if (tick>=en.getValue()) {
+				BPMPullEngine e= en.getKey();
+				// rounded up, engine is polled at most once per own period
+				long n= (e.getPollPeriod()+period-1)/period;
+				en.setValue(tick+n*period);
+				tasks.add(Executors.callable(() -> e.pollCycle(id, tick)));
+			}
+		}
+
+		try {
+			workers.invokeAll(tasks);
+		} catch (InterruptedException e) {
+			return;
+		} catch (RejectedExecutionException e) {
+			return;
+		}
+
+		long t= System.currentTimeMillis();
+		lastCycleDuration= t-start;
+
+		synchronized (lock) {
+			if (!running) {
+				return;
+			}
+			period= getTickPeriod();
+			long next= align(tick, period)+period;
+			if (lastCycleDuration>period) {
+				overrunCount.incrementAndGet();
+				log.debug("Poll cycle "+id+" took "+lastCycleDuration+" ms, longer than period "+period+" ms.");
+			}
+			if (t>next) {
+				next= align(t, period)+period;
+			}
+			nextTick= next;
+			try {
+				ticker.schedule(this::cycle, next-t, TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException e) {
+				running=false;
+			}
+		}
+	}
+
+}
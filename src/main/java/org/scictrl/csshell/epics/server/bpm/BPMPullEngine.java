@@ -4,26 +4,42 @@
 package org.scictrl.csshell.epics.server.bpm;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.nio.charset.Charset;
 import java.text.DecimalFormat;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 /**
  * <p>BPMPullEngine class.</p>
  *
+ * <p>Engine can be used on demand trough {@link #readData()}, or it can be polled by {@link BPMPollScheduler},
+ * see {@link #startPolling()}. When polling, each cycle fetches all registered registers once and pushes
+ * same immutable {@link Data} snapshot to all registered {@link DataListener}s.</p>
+ *
  * @author igor@scictrl.com
  */
 public class BPMPullEngine {
 	
-	static Map<String,BPMPullEngine> instances= new HashMap<String, BPMPullEngine>(32);
+	private static final Logger log= LogManager.getLogger(BPMPullEngine.class);
+	
+	/** Ratio between poll period and read duration, which adaptive poll period tries to keep. */
+	public static final int LOAD_FACTOR = 4;
+	private static final double DURATION_SMOOTHING = 0.2;
+	
+	static Map<String,BPMPullEngine> instances= new ConcurrentHashMap<String, BPMPullEngine>(32);
 	
 	static BPMPullEngine getIntance(String url, String reference) throws MalformedURLException {
 		String ref= url+"R"+reference;
@@ -32,43 +48,192 @@ public class BPMPullEngine {
 			return e;
 		}
 		e= new BPMPullEngine(url, reference);
-		instances.put(ref, e);
-		return e;
+		// engine does not connect before first request, so instance which loses the race is just discarded
+		BPMPullEngine old= instances.putIfAbsent(ref, e);
+		return old!=null ? old : e;
 	}
 	
 	/**
-	 * BPM Data class.
+	 * BPM Data class, immutable snapshot of all registers from single read request.
+	 * Values are stored in primitive columns, integer registers are available also as double
+	 * and double registers also as truncated long.
 	 */
-	public class Data {
-		Number[] values;
-		long timestamp;
+	public static final class Data {
+		final long[] longs;
+		final double[] doubles;
+		final BitSet valid;
+		final BitSet floating;
+		private final boolean failed;
+		private final long timestamp;
+		private final long cycleId;
+		private final long serverTime;
 		
 		/**
 		 * Created new Data object.
-		 * @param values BPM values
-		 * @param timestamp the measurement timestamp
+		 * @param values BPM values, if <code>null</code> data is marked as failed read
+		 * @param timestamp the measurement timestamp, if 0 current time is used
 		 */
 		public Data(Number[] values, long timestamp) {
-			this.values=values;
-			this.timestamp=timestamp;
-			if (timestamp==0) {
-				this.timestamp=System.currentTimeMillis();
+			int n= values!=null ? values.length : 0;
+			this.longs= new long[n];
+			this.doubles= new double[n];
+			this.valid= new BitSet(n);
+			this.floating= new BitSet(n);
+			this.failed= values==null;
+			this.timestamp= timestamp==0 ? System.currentTimeMillis() : timestamp;
+			this.cycleId= 0;
+			this.serverTime= 0;
+			
+			for (int i = 0; i < n; i++) {
+				Number v= values[i];
+				if (v!=null) {
+					longs[i]= v.longValue();
+					doubles[i]= v.doubleValue();
+					valid.set(i);
+					if (v instanceof Double || v instanceof Float) {
+						floating.set(i);
+					}
+				} else {
+					doubles[i]= Double.NaN;
+				}
 			}
 		}
 		
 		/**
-		 * Return data at index.
+		 * Creates new Data object from columns, arrays and sets are not copied.
+		 */
+		Data(long[] longs, double[] doubles, BitSet valid, BitSet floating, long timestamp, long cycleId, long serverTime) {
+			this(longs, doubles, valid, floating, false, timestamp, cycleId, serverTime);
+		}
+		
+		/**
+		 * Creates new Data object for failed read.
+		 */
+		Data(long timestamp, long cycleId) {
+			this(new long[0], new double[0], new BitSet(0), new BitSet(0), true, timestamp, cycleId, 0);
+		}
+		
+		private Data(long[] longs, double[] doubles, BitSet valid, BitSet floating, boolean failed, long timestamp, long cycleId, long serverTime) {
+			this.longs=longs;
+			this.doubles=doubles;
+			this.valid=valid;
+			this.floating=floating;
+			this.failed=failed;
+			this.timestamp= timestamp==0 ? System.currentTimeMillis() : timestamp;
+			this.cycleId=cycleId;
+			this.serverTime=serverTime;
+		}
+		
+		/**
+		 * Return data at index. Double registers are returned as {@link Double}, integer registers as {@link Integer}.
+		 * Prefer primitive accessors, this method creates objects.
 		 * @param i the index
-		 * @return value at index
+		 * @return value at index, or <code>null</code> if value is not valid
 		 */
 		public Number get(int i) {
-			if (values!=null && values.length>i) {
-				return values[i];
+			if (!isValid(i)) {
+				return null;
 			}
-			
-			return null;
-
+			if (floating.get(i)) {
+				return doubles[i];
+			}
+			long l= longs[i];
+			if (l==(int)l) {
+				return (int)l;
+			}
+			return l;
+		}
+		
+		/**
+		 * Returns value at index as double.
+		 * @param i the index
+		 * @return value at index, or {@link Double#NaN} if value is not valid
+		 */
+		public double getDouble(int i) {
+			return isValid(i) ? doubles[i] : Double.NaN;
+		}
+		
+		/**
+		 * Returns value at index as long, double values are truncated.
+		 * @param i the index
+		 * @return value at index, or 0 if value is not valid
+		 */
+		public long getLong(int i) {
+			return isValid(i) ? longs[i] : 0;
+		}
+		
+		/**
+		 * Returns <code>true</code> if there is valid value at index.
+		 * @param i the index
+		 * @return <code>true</code> if value at index is valid
+		 */
+		public boolean isValid(int i) {
+			return i>=0 && i<longs.length && valid.get(i);
+		}
+		
+		/**
+		 * Returns <code>true</code> if value at index was provided as double.
+		 * @param i the index
+		 * @return <code>true</code> if value at index is double
+		 */
+		public boolean isDouble(int i) {
+			return isValid(i) && floating.get(i);
+		}
+		
+		/**
+		 * Returns number of values, including invalid.
+		 * @return number of values
+		 */
+		public int size() {
+			return longs.length;
+		}
+		
+		/**
+		 * Returns the measurement timestamp. When polled by {@link BPMPollScheduler} this is
+		 * tick time of poll cycle, same for all engines in the cycle.
+		 * @return the measurement timestamp in milliseconds
+		 */
+		public long getTimestamp() {
+			return timestamp;
+		}
+		
+		/**
+		 * Returns <code>true</code> if read request for this data failed and there are no values.
+		 * @return <code>true</code> if read request failed
+		 */
+		public boolean isFailed() {
+			return failed;
 		}
+		
+		/**
+		 * Returns ID of poll cycle in which data was read. Data from different engines with same
+		 * cycle ID was requested at same time. Data which was not read by {@link BPMPollScheduler} has ID 0.
+		 * @return the poll cycle ID, or 0 if not read in poll cycle
+		 */
+		public long getCycleId() {
+			return cycleId;
+		}
+		
+		/**
+		 * Returns time reported by BPM web server in Date header of response.
+		 * Header has resolution of one second, so this is usable only to detect server clock problems.
+		 * @return server time in milliseconds, or 0 if not provided
+		 */
+		public long getServerTime() {
+			return serverTime;
+		}
+	}
+	
+	/**
+	 * Listener which receives data snapshots from polling engine.
+	 */
+	public interface DataListener {
+		/**
+		 * Called from engine poll thread after each poll cycle. Implementation must not block.
+		 * @param engine the engine which made the poll
+		 * @param data the new data snapshot, if read failed, then {@link Data#isFailed()} returns <code>true</code>
+		 */
+		public void dataUpdated(BPMPullEngine engine, Data data);
 	}
 
 	
@@ -123,15 +288,31 @@ public class BPMPullEngine {
 	long updateRateMin= 500;
 	
 	Map<Integer, String> index2request= new HashMap<Integer, String>(64);
+	/** Number of consumers for each register index, only registers with consumers are read. */
+	private final Map<Integer, Integer> demand= new HashMap<Integer, Integer>(64);
+	/** Register indexes in current read request, in same order as request items. */
+	private int[] requestIndexes= new int[0];
 
 	long lastUpdate;
 	long lastUpdateDuration;
 	
 	DecimalFormat format= new DecimalFormat("000");
 	private URL urlWrite;
+	private BPMTransport transport= new HttpBPMTransport();
+	private final BPMResponseParser parser= new BPMResponseParser();
 	
 	Data lastData= new Data(new Number[0],0);
 	
+	private final List<DataListener> listeners= new CopyOnWriteArrayList<DataListener>();
+	private final Object pollLock= new Object();
+	private BPMPollScheduler scheduler;
+	private volatile long pollPeriod;
+	private volatile long pollPeriodMax;
+	private volatile double avgUpdateDuration;
+	private final AtomicLong overrunCount= new AtomicLong();
+	private final Map<Integer, Number> pendingWrites= new LinkedHashMap<Integer, Number>();
+	private volatile double writeLatency;
+	
 	/**
 	 * <p>Constructor for BPMPullEngine.</p>
 	 *
@@ -146,57 +327,90 @@ public class BPMPullEngine {
 		this.referer=reference;
 	}
 	
-	private void doReadData() throws IOException {
+	private void doReadData(long cycleId, long tick) throws IOException {
 		
 		long t= System.currentTimeMillis();
 		
-		HttpURLConnection conn= (HttpURLConnection) url.openConnection();
-		
-		conn.setDoOutput(true);
-		conn.setRequestMethod("POST");
+		if (request==null) {
+			request= createReadRequest();
+		}
 		
-		for (Object key : requestProperties.keySet()) {
-			conn.setRequestProperty(key.toString(), requestProperties.get(key).toString());
+		if (requestIndexes.length==0) {
+			// nobody is interested, server is not bothered
+			lastData= new Data(new long[index2request.size()], nan(index2request.size()), new BitSet(0), new BitSet(0), tick, cycleId, 0);
+			lastUpdate= System.currentTimeMillis();
+			return;
 		}
 		
-		OutputStreamWriter os= new OutputStreamWriter(conn.getOutputStream(),Charset.forName("UTF-8"));
+		long serverTime;
 		
-		if (request==null) {
-			request= createReadRequest();
+		try (BPMTransport.Response resp= transport.post(url, request, requestProperties)) {
+			parser.parse(resp.getBody());
+			serverTime= resp.getDate();
 		}
 		
-		os.write(request);
-		os.flush();
-		os.close();
+		if (requestIndexes.length==index2request.size()) {
+			lastData= parser.toData(tick, cycleId, serverTime);
+		} else {
+			lastData= parser.toData(index2request.size(), requestIndexes, tick, cycleId, serverTime);
+		}
+		lastUpdate= System.currentTimeMillis();
+		lastUpdateDuration= lastUpdate-t;
 		
+		double avg= avgUpdateDuration;
+		avgUpdateDuration= avg==0.0 ? lastUpdateDuration : avg+(lastUpdateDuration-avg)*DURATION_SMOOTHING;
 		
-		StringBuilder sb= new StringBuilder();
-		InputStreamReader is= new InputStreamReader(conn.getInputStream(),Charset.forName("UTF-8"));
-		int c;
-		while ((c=is.read())>=0) {
-			sb.append(Character.toString((char) c));
-		}
+	}
+	
+	/**
+	 * Makes one poll as part of poll cycle and pushes result to listeners, called by {@link BPMPollScheduler}.
+	 *
+	 * @param cycleId the poll cycle ID
+	 * @param tick the tick time of poll cycle, used as data timestamp
+	 */
+	void pollCycle(long cycleId, long tick) {
 		
-		String[] resultStr= sb.toString().split("@");
-		Number[] data= new Number[resultStr.length];
+		long t= System.currentTimeMillis();
 		
-		for (int i = 0; i < data.length; i++) {
-			if (resultStr[i].length()>3) {
-				String s= resultStr[i].substring(3);
-				if (s.contains(".")) {
-					data[i]= Double.parseDouble(s);
-				} else {
-					data[i]= Integer.parseInt(s);
-				}
-			} else {
-				data[i]= null;
+		synchronized (this) {
+			if (request!=null && requestIndexes.length==0) {
+				return;
 			}
 		}
 		
-		lastData= new Data(data,conn.getHeaderFieldDate("", 0));
-		lastUpdate= System.currentTimeMillis();
-		lastUpdateDuration= lastUpdate-t;
+		refresh(cycleId, tick);
 		
+		if (System.currentTimeMillis()-t>getPollPeriod()) {
+			overrunCount.incrementAndGet();
+		}
+	}
+	
+	private void refresh(long cycleId, long tick) {
+		
+		Data d;
+		
+		try {
+			synchronized (this) {
+				doReadData(cycleId, tick);
+				d= lastData;
+			}
+		} catch (IOException e) {
+			log.debug("Reading from '"+urlStr+"' failed: "+e.toString());
+			invalidateLastData();
+			d= new Data(tick, cycleId);
+		}
+		
+		publish(d);
+	}
+	
+	private void publish(Data d) {
+		for (DataListener l : listeners) {
+			try {
+				l.dataUpdated(this, d);
+			} catch (RuntimeException e) {
+				log.error("Listener failed to process data from '"+urlStr+"': "+e.toString(), e);
+			}
+		}
 	}
 	
 	private synchronized void invalidateLastData() {
@@ -207,66 +421,142 @@ public class BPMPullEngine {
 		long t= System.currentTimeMillis();
 		
 		if (lastData==null || (t-lastUpdate>=updateRateMin && t+lastUpdateDuration>=lastUpdate+updateRate)) {
-			doReadData();
+			doReadData(0, 0);
 		}
 		
 	}
 
+	private static double[] nan(int size) {
+		double[] d= new double[size];
+		Arrays.fill(d, Double.NaN);
+		return d;
+	}
+	
 	private String createReadRequest() {
 		
-		StringBuilder sb= new StringBuilder(16*index2request.size());
+		int[] indexes= new int[index2request.size()];
+		int n= 0;
+		for (int i = 0; i < indexes.length; i++) {
+			if (demand.getOrDefault(i, 0)>0) {
+				indexes[n++]=i;
+			}
+		}
 		
-		int i = 0;
+		requestIndexes= n==indexes.length ? indexes : Arrays.copyOf(indexes, n);
 		
-		if (i<index2request.size()) {
-			sb.append("000");
-			sb.append(index2request.get(i));
-			sb.append("001");
-		}
+		return createReadRequest(requestIndexes);
+	}
+	
+	private String createReadRequest(int[] indexes) {
 		
-		for (i=1; i < index2request.size(); i++) {
-			sb.append("@");
+		StringBuilder sb= new StringBuilder(16*indexes.length);
+		
+		for (int i=0; i < indexes.length; i++) {
+			if (i>0) {
+				sb.append("@");
+			}
 			sb.append(format.format(i));
-			sb.append(index2request.get(i));
+			sb.append(index2request.get(indexes[i]));
 			sb.append("001");
 		}
 		
 		return sb.toString();
 	}
 	
-	private String createWriteRequest(int index, Number data) {
+	private String createWriteRequest(Map<Integer, Number> writes) {
 		
-		StringBuilder sb= new StringBuilder(32);
+		StringBuilder sb= new StringBuilder(32*writes.size());
 		
-		sb.append("000");
-		sb.append(index2request.get(index));
-		sb.append("001");
-		if (data instanceof Double) {
-			sb.append(data.doubleValue());
-		} else {
-			sb.append(data.intValue());
+		int i=0;
+		
+		for (Map.Entry<Integer, Number> e : writes.entrySet()) {
+			if (i>0) {
+				sb.append("@");
+			}
+			sb.append(format.format(i++));
+			sb.append(index2request.get(e.getKey()));
+			sb.append("001");
+			Number data= e.getValue();
+			if (data instanceof Double) {
+				sb.append(data.doubleValue());
+			} else {
+				sb.append(data.intValue());
+			}
 		}
 
 		return sb.toString();
 	}
 
 	/**
-	 * <p>registerRequest.</p>
+	 * Registers register for reading, register has one consumer from start.
 	 *
 	 * @param requestStr a {@link java.lang.String} object
 	 * @return a int
 	 */
 	public int registerRequest(String requestStr) {
+		return registerRequest(requestStr, true);
+	}
+	
+	/**
+	 * Registers register for reading. Register is included in read request only while it has consumers.
+	 *
+	 * @param requestStr the register name
+	 * @param subscribe if <code>true</code> register has one consumer from start, otherwise it has none
+	 * @return the register index
+	 */
+	public synchronized int registerRequest(String requestStr, boolean subscribe) {
 		
 		int n= index2request.size();
 		
 		index2request.put(n,requestStr);
 		
+		if (subscribe) {
+			demand.put(n, 1);
+		}
+		
 		request=null;
 		
 		return n;
 	}
 	
+	/**
+	 * Adds consumer to register, if this is first consumer, register is added to read request.
+	 *
+	 * @param index the register index
+	 */
+	public synchronized void subscribe(int index) {
+		if (demand.merge(index, 1, Integer::sum)==1) {
+			request=null;
+		}
+	}
+	
+	/**
+	 * Removes consumer from register, if this was last consumer, register is removed from read request.
+	 *
+	 * @param index the register index
+	 */
+	public synchronized void unsubscribe(int index) {
+		Integer c= demand.get(index);
+		if (c==null) {
+			return;
+		}
+		if (c>1) {
+			demand.put(index, c-1);
+		} else {
+			demand.remove(index);
+			request=null;
+		}
+	}
+	
+	/**
+	 * Returns number of registers, which have consumers and are read.
+	 *
+	 * @return number of active registers
+	 */
+	public synchronized int getActiveRegisterCount() {
+		return demand.size();
+	}
+	
 	/**
 	 * <p>readData.</p>
 	 *
@@ -280,7 +570,8 @@ public class BPMPullEngine {
 	}
 
 	/**
-	 * <p>writeData.</p>
+	 * Writes value to register and waits until it is confirmed by server. Writes, which are queued by
+	 * other threads in meantime, are sent within same request.
 	 *
 	 * @param index a int
 	 * @param data a {@link java.lang.Number} object
@@ -288,48 +579,290 @@ public class BPMPullEngine {
 	 */
 	public void writeData(int index, Number data) throws IOException {
 		
-		//long t= System.currentTimeMillis();
+		queue(index, data);
+		
+		Data d= flushWrites();
+		
+		if (d!=null) {
+			publish(d);
+		}
 		
-		HttpURLConnection conn= (HttpURLConnection) urlWrite.openConnection();
+	}
+	
+	/**
+	 * Queues value for writing to register and returns immediately. If there is already
+	 * queued value for same register, it is replaced. When engine is polling, queue is
+	 * flushed on poll thread, otherwise on calling thread. Failed writes are logged.
+	 *
+	 * @param index the register index
+	 * @param data the value
+	 */
+	public void queueWrite(int index, Number data) {
 		
-		conn.setDoOutput(true);
-		conn.setRequestMethod("POST");
-		//conn.setDoInput(false);
-		//conn.setConnectTimeout(10);
-		conn.setReadTimeout(1);
+		queue(index, data);
 		
-		for (Object key : requestProperties.keySet()) {
-			conn.setRequestProperty(key.toString(), requestProperties.get(key).toString());
+		synchronized (pollLock) {
+			if (scheduler!=null) {
+				try {
+					scheduler.execute(this::flushQueued);
+					return;
+				} catch (RejectedExecutionException e) {
+					// scheduler has been stopped, flushed below
+				}
+			}
 		}
 		
-		OutputStreamWriter os= new OutputStreamWriter(conn.getOutputStream(),Charset.forName("UTF-8"));
+		flushQueued();
+	}
+	
+	private void queue(int index, Number data) {
+		if (data==null) {
+			throw new NullPointerException("Data is null!");
+		}
+		synchronized (pendingWrites) {
+			pendingWrites.put(index, data);
+		}
+	}
+	
+	private void flushQueued() {
+		try {
+			Data d= flushWrites();
+			if (d!=null) {
+				publish(d);
+			}
+		} catch (IOException e) {
+			log.error("Writing to '"+urlWrite+"' failed: "+e.toString());
+		}
+	}
+	
+	/**
+	 * Sends all queued writes in single write request, followed by read request only for written registers.
+	 * Both requests are pipelined over same connection, if transport supports it.
+	 * 
+	 * @return updated data or <code>null</code> if there was nothing to write
+	 */
+	private synchronized Data flushWrites() throws IOException {
 		
-		String r= createWriteRequest(index,data);
+		Map<Integer, Number> writes;
 		
-		os.write(r);
-		os.flush();
-		os.close();
+		synchronized (pendingWrites) {
+			if (pendingWrites.isEmpty()) {
+				return null;
+			}
+			writes= new LinkedHashMap<Integer, Number>(pendingWrites);
+			pendingWrites.clear();
+		}
 		
-		conn.disconnect();
+		long t= System.nanoTime();
 		
-		try {
-			// workaround to force server to apply value.
-			@SuppressWarnings("unused")
-			InputStream is= conn.getInputStream();
-		} catch (Exception e) {
-			// ignored
+		int[] indexes= new int[writes.size()];
+		int i=0;
+		for (Integer idx : writes.keySet()) {
+			indexes[i++]=idx;
 		}
 		
-		//StringBuilder sb= new StringBuilder();
-		//InputStreamReader is= new InputStreamReader(conn.getInputStream(),Charset.forName("UTF-8"));
-		/*int c;
-		while ((c=is.read())>=0) {
-			sb.append(Character.toString((char) c));
-		}*/
-
-		//System.out.println(sb.toString());
+		BPMTransport.Response[] r;
 		
-		invalidateLastData();
+		Data base= lastData;
 		
+		if (base==null || base.isFailed()) {
+			// there are no values to update, other registers remain invalid until next read
+			base= new Data(new long[0], new double[0], new BitSet(0), new BitSet(0), 0, 0, 0);
+		}
+		
+		// server applies value only after response has been requested, so response is always read
+		r= transport.post(new URL[]{urlWrite, url}, new String[]{createWriteRequest(writes), createReadRequest(indexes)}, requestProperties);
+		parser.parse(r[1].getBody());
+		lastData= parser.toData(base, indexes, 0, r[1].getDate());
+		
+		writeLatency= (System.nanoTime()-t)/1000000.0;
+		
+		return lastData;
+	}
+	
+	/**
+	 * Returns number of writes waiting to be sent.
+	 *
+	 * @return number of queued writes
+	 */
+	public int getWriteQueueSize() {
+		synchronized (pendingWrites) {
+			return pendingWrites.size();
+		}
+	}
+	
+	/**
+	 * Returns duration of last write request, including read back of written registers, in milliseconds.
+	 *
+	 * @return duration of last write in milliseconds
+	 */
+	public double getWriteLatency() {
+		return writeLatency;
+	}
+	
+	/**
+	 * Adds listener, which receives data snapshot after each poll cycle.
+	 *
+	 * @param l the listener
+	 */
+	public void addDataListener(DataListener l) {
+		listeners.add(l);
+	}
+	
+	/**
+	 * Removes data listener.
+	 *
+	 * @param l the listener
+	 */
+	public void removeDataListener(DataListener l) {
+		listeners.remove(l);
+	}
+	
+	/**
+	 * Starts polling with shared {@link BPMPollScheduler#getDefault()}, if not already started.
+	 * Poll is made once per poll period and result is pushed to all data listeners.
+	 */
+	public void startPolling() {
+		startPolling(BPMPollScheduler.getDefault());
+	}
+	
+	/**
+	 * Starts polling with provided scheduler, if not already started.
+	 *
+	 * @param scheduler the scheduler which polls this engine together with other engines
+	 */
+	public void startPolling(BPMPollScheduler scheduler) {
+		synchronized (pollLock) {
+			if (this.scheduler!=null) {
+				return;
+			}
+			this.scheduler= scheduler;
+			scheduler.add(this);
+		}
+	}
+	
+	/**
+	 * Stops polling.
+	 */
+	public void stopPolling() {
+		synchronized (pollLock) {
+			if (scheduler!=null) {
+				scheduler.remove(this);
+				scheduler=null;
+			}
+		}
+	}
+	
+	/**
+	 * Returns <code>true</code> if engine is polled by scheduler.
+	 *
+	 * @return <code>true</code> if engine is polled
+	 */
+	public boolean isPolling() {
+		synchronized (pollLock) {
+			return scheduler!=null;
+		}
+	}
+	
+	/**
+	 * Returns poll period in milliseconds used by scheduler. Period adapts to measured
+	 * read duration, so that BPM web server is kept busy at most 1/{@value #LOAD_FACTOR} of time,
+	 * but stays within requested minimal and maximal period.
+	 *
+	 * @return poll period in milliseconds
+	 */
+	public long getPollPeriod() {
+		long min= pollPeriod>0 ? pollPeriod : updateRate;
+		long max= Math.max(min, pollPeriodMax);
+		long p= (long)(LOAD_FACTOR*avgUpdateDuration);
+		return Math.max(1, Math.min(max, Math.max(min, p)));
+	}
+	
+	/**
+	 * Requests poll period in milliseconds, this is shortest period engine will use. Since engine is shared by many records,
+	 * the shortest requested period is used. Values equal or lower than 0 are ignored.
+	 *
+	 * @param period requested poll period in milliseconds
+	 */
+	public synchronized void requestPollPeriod(long period) {
+		if (period>0 && (pollPeriod==0 || period<pollPeriod)) {
+			pollPeriod=period;
+		}
+	}
+	
+	/**
+	 * Requests maximal poll period in milliseconds, up to which engine may slow down when BPM
+	 * web server responds slowly. The longest requested maximum is used. If not requested,
+	 * engine polls with fixed period. Values equal or lower than 0 are ignored.
+	 *
+	 * @param period maximal poll period in milliseconds
+	 */
+	public synchronized void requestMaxPollPeriod(long period) {
+		if (period>pollPeriodMax) {
+			pollPeriodMax=period;
+		}
+	}
+	
+	/**
+	 * Returns number of polls, which took longer than poll period.
+	 *
+	 * @return number of poll overruns
+	 */
+	public long getOverrunCount() {
+		return overrunCount.get();
+	}
+	
+	/**
+	 * Returns duration of last successful read request in milliseconds.
+	 *
+	 * @return duration of last read in milliseconds
+	 */
+	public long getLastUpdateDuration() {
+		return lastUpdateDuration;
+	}
+	
+	/**
+	 * Returns transport used for HTTP requests.
+	 *
+	 * @return the transport
+	 */
+	public BPMTransport getTransport() {
+		return transport;
+	}
+	
+	/**
+	 * Sets transport used for HTTP requests, previous transport is closed.
+	 *
+	 * @param transport the transport, must not be <code>null</code>
+	 */
+	public synchronized void setTransport(BPMTransport transport) {
+		if (transport==null) {
+			throw new NullPointerException("Transport is null!");
+		}
+		if (this.transport!=transport) {
+			try {
+				this.transport.close();
+			} catch (IOException e) {
+				// ignored, old transport is discarded
+			}
+			transport.setConnectTimeout(this.transport.getConnectTimeout());
+			transport.setReadTimeout(this.transport.getReadTimeout());
+			this.transport = transport;
+		}
+	}
+	
+	/**
+	 * Sets connect and read timeouts for single request. Values equal or lower than 0 are ignored.
+	 *
+	 * @param connectTimeout connect timeout in milliseconds
+	 * @param readTimeout read timeout in milliseconds
+	 */
+	public void setTimeouts(int connectTimeout, int readTimeout) {
+		if (connectTimeout>0) {
+			transport.setConnectTimeout(connectTimeout);
+		}
+		if (readTimeout>0) {
+			transport.setReadTimeout(readTimeout);
+		}
 	}
 }
@@ -0,0 +1,307 @@
+/**
+ *
+ */
+package org.scictrl.csshell.epics.server.bpm;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * <p>BPMResponseParser parses webmap_read response directly from bytes into primitive columns.</p>
+ *
+ * <p>Response consists of items separated by '@', each item is three digit index followed by value.
+ * Value with '.' or exponent is double, otherwise integer. Item without value or with value, which
+ * can not be parsed, is marked as invalid.</p>
+ *
+ * <p>Parser reuses own byte buffer and columns between calls, it is not thread safe.</p>
+ *
+ * @author igor@scictrl.com
+ */
+final class BPMResponseParser {
+
+	/** Length of index prefix of each response item. */
+	static final int PREFIX_LENGTH = 3;
+
+	private static final long MAX_EXACT_MANTISSA = 1L<<53;
+	private static final double[] POW10 = {
+			1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+	private byte[] buffer= new byte[1024];
+	private int length;
+
+	private long[] longs= new long[64];
+	private double[] doubles= new double[64];
+	private final BitSet valid= new BitSet(64);
+	private final BitSet floating= new BitSet(64);
+	private int size;
+
+	/**
+	 * <p>Constructor for BPMResponseParser.</p>
+	 */
+	BPMResponseParser() {
+	}
+
+	/**
+	 * Reads complete response body from stream and parses it.
+	 *
+	 * @param in the response body stream
+	 * @return number of parsed items
+	 * @throws java.io.IOException if reading fails
+	 */
+	int parse(InputStream in) throws IOException {
+		length=0;
+		int r;
+		while ((r=in.read(buffer, length, buffer.length-length))>=0) {
+			length+=r;
+			if (length==buffer.length) {
+				buffer= Arrays.copyOf(buffer, buffer.length*2);
+			}
+		}
+		return parse(buffer, 0, length);
+	}
+
+	/**
+	 * Parses response from byte array.
+	 *
+	 * @param b the array with response
+	 * @param off start of response in array
+	 * @param len length of response
+	 * @return number of parsed items
+	 */
+	int parse(byte[] b, int off, int len) {
+
+		size=0;
+		valid.clear();
+		floating.clear();
+
+		int end= off+len;
+		int start= off;
+		int count= 0;
+
+		while (start<end) {
+			int i= start;
+			while (i<end && b[i]!='@') {
+				i++;
+			}
+			parseItem(b, start, i);
+			if (i>start) {
+				count= size;
+			}
+			start= i+1;
+		}
+
+		// same as String.split, trailing empty items are not counted
+		size= count;
+
+		return size;
+	}
+
+	private void parseItem(byte[] b, int start, int end) {
+
+		int index= size++;
+
+		if (index==longs.length) {
+			longs= Arrays.copyOf(longs, index*2);
+			doubles= Arrays.copyOf(doubles, index*2);
+		}
+
+		longs[index]=0;
+		doubles[index]=Double.NaN;
+
+		int s= start+PREFIX_LENGTH;
+
+		if (s>=end) {
+			return;
+		}
+
+		boolean dbl= false;
+		for (int i = s; i < end; i++) {
+			byte c= b[i];
+			if (c=='.' || c=='e' || c=='E') {
+				dbl=true;
+				break;
+			}
+		}
+
+		if (dbl) {
+			double d= parseDouble(b, s, end);
+			if (Double.isNaN(d)) {
+				return;
+			}
+			doubles[index]= d;
+			longs[index]= (long)d;
+			floating.set(index);
+			valid.set(index);
+		} else {
+			int i= s;
+			boolean neg= false;
+			if (b[i]=='-' || b[i]=='+') {
+				neg= b[i]=='-';
+				i++;
+			}
+			if (i==end || end-i>18) {
+				// empty or possible overflow, this never happens with 32 bit registers
+				return;
+			}
+			long v= 0;
+			for (; i < end; i++) {
+				int d= b[i]-'0';
+				if (d<0 || d>9) {
+					return;
+				}
+				v= v*10+d;
+			}
+			if (neg) {
+				v=-v;
+			}
+			longs[index]= v;
+			doubles[index]= v;
+			valid.set(index);
+		}
+	}
+
+	/**
+	 * Parses decimal number without exponent. Digits are collected in long and
+	 * divided by exact power of ten, which gives correctly rounded result when mantissa
+	 * and power fit in double without rounding. Other cases go trough {@link Double#parseDouble(String)}.
+	 */
+	private static double parseDouble(byte[] b, int start, int end) {
+
+		int i= start;
+		boolean neg= false;
+		if (b[i]=='-' || b[i]=='+') {
+			neg= b[i]=='-';
+			i++;
+		}
+
+		long m= 0;
+		int frac= -1;
+		int digits= 0;
+		int n= 0;
+
+		for (; i < end; i++) {
+			byte c= b[i];
+			if (c=='.' && frac<0) {
+				frac= 0;
+				continue;
+			}
+			int d= c-'0';
+			if (d<0 || d>9 || digits>=18) {
+				return slowParseDouble(b, start, end);
+			}
+			m= m*10+d;
+			n++;
+			if (m>0) {
+				digits++;
+			}
+			if (frac>=0) {
+				frac++;
+			}
+		}
+
+		if (n==0 || frac>=POW10.length || m>MAX_EXACT_MANTISSA) {
+			return slowParseDouble(b, start, end);
+		}
+
+		double d= frac>0 ? m/POW10[frac] : m;
+
+		return neg ? -d : d;
+	}
+
+	private static double slowParseDouble(byte[] b, int start, int end) {
+		try {
+			return Double.parseDouble(new String(b, start, end-start, StandardCharsets.ISO_8859_1));
+		} catch (NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+
+	/**
+	 * Returns number of parsed items.
+	 * @return number of parsed items
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Creates immutable data snapshot from last parse, columns are copied so parser can be reused.
+	 *
+	 * @param timestamp the timestamp of data
+	 * @param cycleId the poll cycle ID
+	 * @param serverTime the time from server response
+	 * @return new data snapshot
+	 */
+	BPMPullEngine.Data toData(long timestamp, long cycleId, long serverTime) {
+		return new BPMPullEngine.Data(Arrays.copyOf(longs, size), Arrays.copyOf(doubles, size), valid.get(0, size), floating.get(0, size), timestamp, cycleId, serverTime);
+	}
+
+	/**
+	 * Creates immutable data snapshot, which is copy of base data with values from last parse
+	 * stored at provided indexes. Used when only some registers were read, cycle ID is taken from base data.
+	 *
+	 * @param base the data with values for all registers
+	 * @param indexes register index for each parsed item
+	 * @param timestamp the timestamp of data
+	 * @param serverTime the time from server response
+	 * @return new data snapshot
+	 */
+	BPMPullEngine.Data toData(BPMPullEngine.Data base, int[] indexes, long timestamp, long serverTime) {
+
+		int n= base.longs.length;
+		for (int i : indexes) {
+			n= Math.max(n, i+1);
+		}
+
+		long[] l= Arrays.copyOf(base.longs, n);
+		double[] d= Arrays.copyOf(base.doubles, n);
+		BitSet v= (BitSet)base.valid.clone();
+		BitSet f= (BitSet)base.floating.clone();
+
+		Arrays.fill(d, base.doubles.length, n, Double.NaN);
+		scatter(indexes, l, d, v, f);
+
+		return new BPMPullEngine.Data(l, d, v, f, timestamp, base.getCycleId(), serverTime);
+	}
+
+	/**
+	 * Creates immutable data snapshot, in which values from last parse are stored at provided indexes,
+	 * all other values are invalid. Used when only some registers were requested.
+	 *
+	 * @param n number of all registers
+	 * @param indexes register index for each parsed item
+	 * @param timestamp the timestamp of data
+	 * @param cycleId the poll cycle ID
+	 * @param serverTime the time from server response
+	 * @return new data snapshot
+	 */
+	BPMPullEngine.Data toData(int n, int[] indexes, long timestamp, long cycleId, long serverTime) {
+
+		long[] l= new long[n];
+		double[] d= new double[n];
+		BitSet v= new BitSet(n);
+		BitSet f= new BitSet(n);
+
+		Arrays.fill(d, Double.NaN);
+		scatter(indexes, l, d, v, f);
+
+		return new BPMPullEngine.Data(l, d, v, f, timestamp, cycleId, serverTime);
+	}
+
+	private void scatter(int[] indexes, long[] l, double[] d, BitSet v, BitSet f) {
+		for (int j = 0; j < indexes.length; j++) {
+			int i= indexes[j];
+			boolean ok= j<size && valid.get(j);
+			l[i]= ok ? longs[j] : 0;
+			d[i]= ok ? doubles[j] : Double.NaN;
+			v.set(i, ok);
+			f.set(i, ok && floating.get(j));
+		}
+	}
+
+}
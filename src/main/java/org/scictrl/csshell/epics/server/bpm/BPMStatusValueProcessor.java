@@ -0,0 +1,137 @@
+package org.scictrl.csshell.epics.server.bpm;
+
+import java.net.MalformedURLException;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.scictrl.csshell.epics.server.Record;
+import org.scictrl.csshell.epics.server.processor.MemoryValueProcessor;
+
+import gov.aps.jca.dbr.DBRType;
+import gov.aps.jca.dbr.Severity;
+import gov.aps.jca.dbr.Status;
+
+/**
+ * <p>BPMStatusValueProcessor class, publishes statistics of {@link BPMPullEngine} as record value.</p>
+ *
+ * <p>Configured by following parameters:</p>
+ *
+ * <ul>
+ * <li>url - URL of BPM webmap_read action. Required.</li>
+ * <li>referer - BPM device page, together with url identifies BPM engine. Required.</li>
+ * <li>stat - which statistic is published, one of: overruns, pollDuration, pollPeriod, writeQueue, writeLatency, cycleDuration, activeRegisters. Required.</li>
+ * </ul>
+ *
+ * @author igor@scictrl.com
+ */
+public class BPMStatusValueProcessor extends MemoryValueProcessor {
+
+	/** Number of poll cycles, which took longer than poll period. */
+	public static final String STAT_OVERRUNS = "overruns";
+	/** Duration of last poll in ms. */
+	public static final String STAT_POLL_DURATION = "pollDuration";
+	/** Poll period in ms. */
+	public static final String STAT_POLL_PERIOD = "pollPeriod";
+	/** Number of queued writes, which were not sent yet. */
+	public static final String STAT_WRITE_QUEUE = "writeQueue";
+	/** Duration of last write request in ms, including read back of written registers. */
+	public static final String STAT_WRITE_LATENCY = "writeLatency";
+	/** Duration of last poll cycle of shared scheduler in ms, this is slowest BPM in cycle. */
+	public static final String STAT_CYCLE_DURATION = "cycleDuration";
+	/** Number of registers, which have consumers and are included in read request. */
+	public static final String STAT_ACTIVE_REGISTERS = "activeRegisters";
+
+	private BPMPullEngine bpm;
+	private String referer;
+	private String url;
+	private String stat;
+
+	/**
+	 * <p>Constructor for BPMStatusValueProcessor.</p>
+	 */
+	public BPMStatusValueProcessor() {
+		super();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void configure(Record record, HierarchicalConfiguration config) {
+		super.configure(record, config);
+
+		if (trigger==0) {
+			trigger=1000;
+		}
+
+		type=DBRType.DOUBLE;
+
+		referer= config.getString("referer");
+
+		if (referer==null) {
+			throw new IllegalArgumentException("Record '"+record.getName()+"' is missing the referer definition.");
+		}
+
+		url= config.getString("url");
+
+		if (url==null) {
+			throw new IllegalArgumentException("Record '"+record.getName()+"' is missing the url definition.");
+		}
+
+		stat= config.getString("stat");
+
+		if (!STAT_OVERRUNS.equals(stat) && !STAT_POLL_DURATION.equals(stat) && !STAT_POLL_PERIOD.equals(stat)
+				&& !STAT_WRITE_QUEUE.equals(stat) && !STAT_WRITE_LATENCY.equals(stat) && !STAT_CYCLE_DURATION.equals(stat)
+				&& !STAT_ACTIVE_REGISTERS.equals(stat)) {
+			throw new IllegalArgumentException("Record '"+record.getName()+"' has unknown stat definition '"+stat+"'.");
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void activate() {
+		super.activate();
+
+		try {
+			bpm= BPMPullEngine.getIntance(url,referer);
+		} catch (MalformedURLException e) {
+			log.fatal("Failed to initialize HTTP server connection for record '"+getName()+"' while: "+e.toString(), e);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void process() {
+		super.process();
+
+		if (bpm==null) {
+			return;
+		}
+
+		double v;
+
+		switch (stat) {
+		case STAT_OVERRUNS:
+			v= bpm.getOverrunCount();
+			break;
+		case STAT_POLL_DURATION:
+			v= bpm.getLastUpdateDuration();
+			break;
+		case STAT_WRITE_QUEUE:
+			v= bpm.getWriteQueueSize();
+			break;
+		case STAT_WRITE_LATENCY:
+			v= bpm.getWriteLatency();
+			break;
+		case STAT_CYCLE_DURATION:
+			v= BPMPollScheduler.getDefault().getLastCycleDuration();
+			break;
+		case STAT_ACTIVE_REGISTERS:
+			v= bpm.getActiveRegisterCount();
+			break;
+		default:
+			v= bpm.getPollPeriod();
+			break;
+		}
+
+		_setValue(v, Severity.NO_ALARM, Status.NO_ALARM, true);
+	}
+
+}
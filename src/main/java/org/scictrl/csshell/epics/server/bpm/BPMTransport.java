@@ -0,0 +1,141 @@
+/**
+ *
+ */
+package org.scictrl.csshell.epics.server.bpm;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Properties;
+
+/**
+ * <p>BPMTransport is pluggable HTTP transport used by {@link BPMPullEngine} to send webmap requests to BPM web server.</p>
+ *
+ * <p>Implementation is free to keep connections open between requests.
+ * Caller must always close returned {@link Response}, so the transport can reuse underlying connection.</p>
+ *
+ * @author igor@scictrl.com
+ */
+public interface BPMTransport extends Closeable {
+
+	/** Default connect timeout in milliseconds. */
+	public static final int DEFAULT_CONNECT_TIMEOUT = 2000;
+	/** Default read timeout in milliseconds. */
+	public static final int DEFAULT_READ_TIMEOUT = 2000;
+
+	/**
+	 * Response of webmap request. Must be closed after body has been consumed.
+	 */
+	public static final class Response implements Closeable {
+
+		private final InputStream body;
+		private final long date;
+
+		/**
+		 * Creates new response.
+		 * @param body the response body stream
+		 * @param date value of server Date header in milliseconds, or 0 if not provided
+		 */
+		public Response(InputStream body, long date) {
+			this.body=body;
+			this.date=date;
+		}
+
+		/**
+		 * Returns response body stream.
+		 * @return response body stream
+		 */
+		public InputStream getBody() {
+			return body;
+		}
+
+		/**
+		 * Returns server Date header value in milliseconds, or 0 if not provided.
+		 * @return server Date header value in milliseconds, or 0 if not provided
+		 */
+		public long getDate() {
+			return date;
+		}
+
+		/**
+		 * Drains remaining body and closes it.
+		 */
+		@Override
+		public void close() throws IOException {
+			try {
+				byte[] b= new byte[256];
+				while (body.read(b)>=0) {
+					// draining, so connection can be reused
+				}
+			} finally {
+				body.close();
+			}
+		}
+	}
+
+	/**
+	 * Sends POST request with provided body to URL.
+	 *
+	 * @param url the URL of the webmap endpoint
+	 * @param request the request body
+	 * @param headers additional request headers, may be empty
+	 * @return response, which must be closed by caller
+	 * @throws java.io.IOException if request fails or times out
+	 */
+	public Response post(URL url, String request, Properties headers) throws IOException;
+
+	/**
+	 * Sends several POST requests, implementation may pipeline them over same connection.
+	 * Responses are returned in same order as requests, with bodies already read, so they do not need to be closed.
+	 * Default implementation sends requests one after another.
+	 *
+	 * @param urls the URLs of the webmap endpoints
+	 * @param requests the request bodies, one for each URL
+	 * @param headers additional request headers, may be empty
+	 * @return responses in same order as requests
+	 * @throws java.io.IOException if any of requests fails or times out
+	 */
+	public default Response[] post(URL[] urls, String[] requests, Properties headers) throws IOException {
+
+		if (urls.length!=requests.length) {
+			throw new IllegalArgumentException("URL and request arrays are not of same length!");
+		}
+
+		Response[] r= new Response[urls.length];
+
+		for (int i = 0; i < r.length; i++) {
+			try (Response rs= post(urls[i], requests[i], headers)) {
+				r[i]= new Response(new ByteArrayInputStream(rs.getBody().readAllBytes()), rs.getDate());
+			}
+		}
+
+		return r;
+	}
+
+	/**
+	 * Sets connect timeout in milliseconds.
+	 * @param connectTimeout connect timeout in milliseconds
+	 */
+	public void setConnectTimeout(int connectTimeout);
+
+	/**
+	 * Returns connect timeout in milliseconds.
+	 * @return connect timeout in milliseconds
+	 */
+	public int getConnectTimeout();
+
+	/**
+	 * Sets read timeout of single request in milliseconds.
+	 * @param readTimeout read timeout in milliseconds
+	 */
+	public void setReadTimeout(int readTimeout);
+
+	/**
+	 * Returns read timeout of single request in milliseconds.
+	 * @return read timeout in milliseconds
+	 */
+	public int getReadTimeout();
+
+}
@@ -16,11 +16,33 @@ import gov.aps.jca.dbr.TimeStamp;
 
 
 /**
- * <p>HTTPPullValueProcessor class.</p>
+ * <p>HTTPPullValueProcessor class, reads and writes single register of BPM web server trough {@link BPMPullEngine}.</p>
+ *
+ * <p>Configured by following parameters:</p>
+ *
+ * <ul>
+ * <li>url - URL of BPM webmap_read action. Required.</li>
+ * <li>referer - BPM device page, together with url identifies BPM engine. Required.</li>
+ * <li>register - register name, first letter F or C means integer register, otherwise double. Required.</li>
+ * <li>connectTimeout - connect timeout for HTTP request in ms, shared by all records of same BPM. Optional.</li>
+ * <li>readTimeout - read timeout for HTTP request in ms, shared by all records of same BPM. Optional.</li>
+ * <li>pollPeriod - poll period of BPM engine in ms, shortest period of all records of same BPM is used. Optional, defaults to trigger or 1000 ms.</li>
+ * <li>pollPeriodMax - maximal poll period in ms, engine slows down up to this period when BPM web server is slow. Optional, by default period is fixed.</li>
+ * <li>onDemand - if <code>true</code>, register is read only while record value is accessed. Optional, default <code>false</code>.</li>
+ * <li>idleTimeout - with onDemand, time in ms after last access, when register is not read any more. Optional, default 60000 ms.</li>
+ * </ul>
+ *
+ * <p>Values are polled by engine thread and pushed to processor, record processing never waits for BPM web server.
+ * Written values are queued in engine and sent together with other pending writes to same BPM.</p>
+ *
+ * <p>With onDemand, value accessed by change notification of this processor is not counted as access,
+ * since record has no count of client monitors, which could be used instead. When register becomes idle,
+ * value is set to undefined with {@link Status#UDF_ALARM}, so clients, which only monitor record,
+ * do not see frozen value as valid. Next access reads register again.</p>
  *
  * @author igor@scictrl.com
  */
-public class HTTPPullValueProcessor extends AbstractValueProcessor {
+public class HTTPPullValueProcessor extends AbstractValueProcessor implements BPMPullEngine.DataListener {
 
 	/**
 	 * Internal storage of main value.
@@ -39,6 +61,15 @@ public class HTTPPullValueProcessor extends AbstractValueProcessor {
 	private String register;
 	private String referer;
 	private String url;
+	private int connectTimeout;
+	private int readTimeout;
+	private long pollPeriod;
+	private long pollPeriodMax;
+	private boolean onDemand;
+	private long idleTimeout;
+	private volatile boolean subscribed;
+	private long lastAccess;
+	private boolean notifying;
 
 	/**
 	 * <p>Constructor for HTTPPullValueProcessor.</p>
@@ -68,7 +99,7 @@ public class HTTPPullValueProcessor extends AbstractValueProcessor {
 		if (value instanceof Number) {
 			int i= ((Number)value).intValue();
 			try {
-				bpm.writeData(index, i);
+				bpm.queueWrite(index, i);
 				_setValue(i, 0, true);
 			} catch (Exception e) {
 				log.error("Fail to set as '"+i+"', error: "+e.toString(), e);
@@ -76,7 +107,7 @@ public class HTTPPullValueProcessor extends AbstractValueProcessor {
 		} else {
 			try {
 				int l= Integer.valueOf(value.toString());
-				bpm.writeData(index, l);
+				bpm.queueWrite(index, l);
 				_setValue(l, 0, true);
 			} catch (Exception e) {
 				log.error("Fail to set as long '"+value+"', error: "+e.toString(), e);
@@ -152,7 +183,7 @@ public class HTTPPullValueProcessor extends AbstractValueProcessor {
 
 		
 		if (notify) {
-			record.fireValueChange();
+			fireValueChange();
 		}
 		
 		return true;
@@ -179,8 +210,23 @@ public class HTTPPullValueProcessor extends AbstractValueProcessor {
 	/** {@inheritDoc} */
 	@Override
 	public Object getValue() {
+		if (onDemand) {
+			access();
+		}
 		return value;
 	}
+	
+	private synchronized void access() {
+		if (notifying) {
+			// own notification, listeners read value on same thread
+			return;
+		}
+		lastAccess= System.currentTimeMillis();
+		if (!subscribed && index>-1) {
+			subscribed=true;
+			bpm.subscribe(index);
+		}
+	}
 
 	/**
 	 * Returns timestamp of last attempt to change value, regardless if value was actually changed and notify event fired.
@@ -195,7 +241,13 @@ public class HTTPPullValueProcessor extends AbstractValueProcessor {
 	public void configure(Record record, HierarchicalConfiguration config) {
 		super.configure(record, config);
 		
-		if (trigger==0) {
+		pollPeriod= config.getLong("pollPeriod", trigger>0 ? trigger : 1000);
+		pollPeriodMax= config.getLong("pollPeriodMax", 0);
+		onDemand= config.getBoolean("onDemand", false);
+		idleTimeout= config.getLong("idleTimeout", 60000);
+		
+		if (onDemand && trigger==0) {
+			// idle check is made in process
 			trigger=1000;
 		}
 		
@@ -234,6 +286,9 @@ public class HTTPPullValueProcessor extends AbstractValueProcessor {
 		if (url==null) {
 			throw new IllegalArgumentException("Record '"+record.getName()+"' is missing the referer definition.");
 		}
+		
+		connectTimeout= config.getInt("connectTimeout", 0);
+		readTimeout= config.getInt("readTimeout", 0);
 	}
 
 	/** {@inheritDoc} */
@@ -243,7 +298,13 @@ public class HTTPPullValueProcessor extends AbstractValueProcessor {
 
 		try {
 			bpm= BPMPullEngine.getIntance(url,referer);
-			index=bpm.registerRequest(register);
+			index=bpm.registerRequest(register, !onDemand);
+			subscribed= !onDemand;
+			bpm.setTimeouts(connectTimeout, readTimeout);
+			bpm.requestPollPeriod(pollPeriod);
+			bpm.requestMaxPollPeriod(pollPeriodMax);
+			bpm.addDataListener(this);
+			bpm.startPolling();
 		} catch (MalformedURLException e) {
 			log.fatal("Failed to initialize HTTP server connection for record '"+getName()+"' while: "+e.toString(), e);
 		}
@@ -251,20 +312,53 @@ public class HTTPPullValueProcessor extends AbstractValueProcessor {
 		
 	}
 	
+	/** {@inheritDoc} */
+	@Override
+	public void dataUpdated(BPMPullEngine engine, Data data) {
+		if (index>-1 && subscribed) {
+			_setValue(data.get(index), data.getTimestamp(), true);
+		}
+	}
+	
 	/** {@inheritDoc} */
 	@Override
 	public void process() {
-		if (index>-1) {
-			try {
-				Data data= bpm.readData();
-				Number value= data.get(index);
-				long time= data.timestamp;
-				_setValue(value, time, true);
-			} catch (Exception e) {
-				log.debug("Reading value failed", e);
-				_setValue(null, 0, true);
+		super.process();
+		
+		if (onDemand) {
+			synchronized (this) {
+				if (subscribed && System.currentTimeMillis()-lastAccess>idleTimeout) {
+					subscribed=false;
+					bpm.unsubscribe(index);
+					idle();
+				}
 			}
 		}
 	}
 	
+	private synchronized void fireValueChange() {
+		notifying=true;
+		try {
+			record.fireValueChange();
+		} finally {
+			notifying=false;
+		}
+	}
+
+	/**
+	 * Sets value to undefined, after register is not read any more.
+	 */
+	private synchronized void idle() {
+		if (type.isDOUBLE()) {
+			Array.setDouble(value,0,Double.NaN);
+		} else if (type.isENUM()) {
+			Array.setShort(value,0,(short)-1);
+		} else {
+			Array.setInt(value,0,-1);
+		}
+		timestamp= new TimeStamp();
+		record.updateAlarm(Severity.INVALID_ALARM, Status.UDF_ALARM, false);
+		fireValueChange();
+	}
+	
 }
@@ -0,0 +1,636 @@
+/**
+ *
+ */
+package org.scictrl.csshell.epics.server.bpm;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * <p>HttpBPMTransport is default {@link BPMTransport}, it keeps one persistent HTTP/1.1 connection per BPM web server.</p>
+ *
+ * <p>Request is written to socket with single write and response is read directly from the socket stream,
+ * so the connection is reused as long as the server keeps it open.
+ * If the server has closed idle connection before any byte of response was received, request is repeated once over new connection.
+ * Requests which fail later, including read timeouts, are not repeated, because the server might have processed them already.
+ * Several requests can be pipelined over the connection with {@link #post(URL[], String[], Properties)}.</p>
+ *
+ * <p>Read timeout is applied to each blocking read on socket.</p>
+ *
+ * @author igor@scictrl.com
+ */
+public class HttpBPMTransport implements BPMTransport {
+
+	private static final Logger log= LogManager.getLogger(HttpBPMTransport.class);
+
+	/**
+	 * Single persistent connection to one host and port.
+	 */
+	private final class Connection {
+
+		final String host;
+		final int port;
+		final ReentrantLock lock= new ReentrantLock();
+		final StringBuilder line= new StringBuilder(128);
+
+		Socket socket;
+		InputStream in;
+		OutputStream out;
+
+		/** Content length of current response, -1 when chunked or until close */
+		long contentLength;
+		boolean chunked;
+		boolean close;
+		long date;
+
+		Connection(String host, int port) {
+			this.host=host;
+			this.port=port;
+		}
+
+		boolean isOpen() {
+			return socket!=null && !socket.isClosed();
+		}
+
+		void open() throws IOException {
+			disconnect();
+			Socket s= new Socket();
+			try {
+				s.setTcpNoDelay(true);
+				s.setKeepAlive(true);
+				s.connect(new InetSocketAddress(host, port), connectTimeout);
+				s.setSoTimeout(readTimeout);
+			} catch (IOException e) {
+				s.close();
+				throw e;
+			}
+			socket=s;
+			in= new BufferedInputStream(s.getInputStream(), 8192);
+			out= s.getOutputStream();
+			connectCount++;
+		}
+
+		void disconnect() {
+			if (socket!=null) {
+				try {
+					socket.close();
+				} catch (IOException e) {
+					// ignored
+				}
+				socket=null;
+				in=null;
+				out=null;
+			}
+		}
+
+		String readLine() throws IOException {
+			line.setLength(0);
+			int c;
+			while ((c=in.read())>=0) {
+				if (c=='\n') {
+					int l= line.length();
+					if (l>0 && line.charAt(l-1)=='\r') {
+						line.setLength(l-1);
+					}
+					return line.toString();
+				}
+				line.append((char)c);
+			}
+			throw closed();
+		}
+
+		EOFException closed() {
+			return new EOFException("Connection to '"+host+":"+port+"' closed by server");
+		}
+
+		/**
+		 * Writes request to socket.
+		 *
+		 * @return <code>false</code> if server has already closed the connection
+		 */
+		boolean write(byte[] req) throws IOException {
+			try {
+				out.write(req);
+				out.flush();
+				return true;
+			} catch (SocketException e) {
+				return false;
+			}
+		}
+
+		/**
+		 * Waits for first byte of response, read timeout is not caught, because request might have been processed.
+		 *
+		 * @return <code>false</code> if server has closed or reset the connection without responding
+		 */
+		boolean awaitResponse() throws IOException {
+			try {
+				in.mark(1);
+				if (in.read()<0) {
+					return false;
+				}
+				in.reset();
+				return true;
+			} catch (SocketException e) {
+				return false;
+			}
+		}
+
+		/**
+		 * Reads status line and headers of response.
+		 */
+		void readHead() throws IOException {
+
+			String status= readLine();
+
+			if (!status.startsWith("HTTP/")) {
+				throw new IOException("Invalid response status line '"+status+"'");
+			}
+
+			int i= status.indexOf(' ');
+			int code= i>0 && status.length()>=i+4 ? Integer.parseInt(status.substring(i+1, i+4)) : 0;
+
+			contentLength=-1;
+			chunked=false;
+			close= status.startsWith("HTTP/1.0");
+			date=0;
+
+			String h;
+			while ((h=readLine()).length()>0) {
+				int k= h.indexOf(':');
+				if (k<1) {
+					continue;
+				}
+				String name= h.substring(0, k).trim();
+				String value= h.substring(k+1).trim();
+				if (name.equalsIgnoreCase("Content-Length")) {
+					contentLength= Long.parseLong(value);
+				} else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+					chunked= value.toLowerCase().contains("chunked");
+				} else if (name.equalsIgnoreCase("Connection")) {
+					close= value.equalsIgnoreCase("close");
+				} else if (name.equalsIgnoreCase("Date")) {
+					date= toDate(value);
+				}
+			}
+
+			if (code!=200) {
+				close=true;
+				throw new IOException("Request to '"+host+":"+port+"' failed with HTTP status '"+status+"'");
+			}
+		}
+
+		/**
+		 * Returns stream over body of current response.
+		 */
+		InputStream body() {
+			if (chunked) {
+				return new ChunkedBody(this);
+			}
+			return new FixedBody(this, contentLength);
+		}
+
+		/**
+		 * Called when body has been consumed.
+		 */
+		void done(boolean complete) {
+			if (close || !complete) {
+				disconnect();
+			}
+		}
+	}
+
+	/**
+	 * Response body with known length, or read until server closes connection.
+	 */
+	private static final class FixedBody extends InputStream {
+
+		private final Connection c;
+		private long remaining;
+		private boolean closed;
+
+		FixedBody(Connection c, long length) {
+			this.c=c;
+			this.remaining=length;
+			if (length<0) {
+				c.close=true;
+			}
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (closed || remaining==0) {
+				return -1;
+			}
+			int r= c.in.read();
+			if (r<0) {
+				remaining=0;
+			} else if (remaining>0) {
+				remaining--;
+			}
+			return r;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (closed || remaining==0) {
+				return -1;
+			}
+			if (remaining>0 && len>remaining) {
+				len=(int)remaining;
+			}
+			int r= c.in.read(b, off, len);
+			if (r<0) {
+				remaining=0;
+			} else if (remaining>0) {
+				remaining-=r;
+			}
+			return r;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (!closed) {
+				closed=true;
+				c.done(remaining==0 || remaining<0);
+			}
+		}
+	}
+
+	/**
+	 * Response body with chunked transfer encoding.
+	 */
+	private static final class ChunkedBody extends InputStream {
+
+		private final Connection c;
+		private int chunk=0;
+		private boolean eof;
+		private boolean closed;
+
+		ChunkedBody(Connection c) {
+			this.c=c;
+		}
+
+		private boolean next() throws IOException {
+			if (chunk==0 && !eof) {
+				String s= c.readLine();
+				if (s.length()==0) {
+					// CRLF after previous chunk
+					s= c.readLine();
+				}
+				int i= s.indexOf(';');
+				chunk= Integer.parseInt((i>0 ? s.substring(0, i) : s).trim(), 16);
+				if (chunk==0) {
+					eof=true;
+					// trailer headers
+					while (c.readLine().length()>0) {
+						// ignored
+					}
+				}
+			}
+			return !eof;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (closed || !next()) {
+				return -1;
+			}
+			int r= c.in.read();
+			if (r<0) {
+				throw new EOFException("Connection closed inside chunk");
+			}
+			chunk--;
+			return r;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (closed || !next()) {
+				return -1;
+			}
+			int r= c.in.read(b, off, Math.min(len, chunk));
+			if (r<0) {
+				throw new EOFException("Connection closed inside chunk");
+			}
+			chunk-=r;
+			return r;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (!closed) {
+				closed=true;
+				c.done(eof);
+			}
+		}
+	}
+
+	/**
+	 * Body wrapper which releases connection lock when closed.
+	 */
+	private static final class LockedBody extends InputStream {
+
+		private final Connection c;
+		private final InputStream body;
+		private boolean closed;
+
+		LockedBody(Connection c, InputStream body) {
+			this.c=c;
+			this.body=body;
+		}
+
+		@Override
+		public int read() throws IOException {
+			return body.read();
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			return body.read(b, off, len);
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (!closed) {
+				closed=true;
+				try {
+					body.close();
+				} finally {
+					c.lock.unlock();
+				}
+			}
+		}
+	}
+
+	private final Map<String, Connection> connections= new HashMap<String, Connection>(4);
+	private int connectTimeout= DEFAULT_CONNECT_TIMEOUT;
+	private int readTimeout= DEFAULT_READ_TIMEOUT;
+	private volatile long connectCount;
+
+	/**
+	 * <p>Constructor for HttpBPMTransport.</p>
+	 */
+	public HttpBPMTransport() {
+	}
+
+	private synchronized Connection getConnection(URL url) {
+		int port= url.getPort()>0 ? url.getPort() : url.getDefaultPort();
+		String key= url.getHost()+":"+port;
+		Connection c= connections.get(key);
+		if (c==null) {
+			c= new Connection(url.getHost(), port);
+			connections.put(key, c);
+		}
+		return c;
+	}
+
+	private byte[] toRequest(Connection c, URL url, String request, Properties headers) {
+
+		byte[] body= request.getBytes(StandardCharsets.UTF_8);
+
+		StringBuilder sb= new StringBuilder(256);
+		sb.append("POST ");
+		sb.append(url.getFile().length()>0 ? url.getFile() : "/");
+		sb.append(" HTTP/1.1\r\nHost: ");
+		sb.append(c.host);
+		if (c.port!=url.getDefaultPort()) {
+			sb.append(':');
+			sb.append(c.port);
+		}
+		sb.append("\r\nConnection: keep-alive\r\nContent-Type: application/x-www-form-urlencoded\r\nContent-Length: ");
+		sb.append(body.length);
+		sb.append("\r\n");
+		for (Object key : headers.keySet()) {
+			sb.append(key);
+			sb.append(": ");
+			sb.append(headers.get(key));
+			sb.append("\r\n");
+		}
+		sb.append("\r\n");
+
+		byte[] head= sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+		byte[] r= new byte[head.length+body.length];
+		System.arraycopy(head, 0, r, 0, head.length);
+		System.arraycopy(body, 0, r, head.length, body.length);
+		return r;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Response post(URL url, String request, Properties headers) throws IOException {
+
+		Connection c= getConnection(url);
+		byte[] req= toRequest(c, url, request, headers);
+
+		c.lock.lock();
+		try {
+			boolean reused= c.isOpen();
+			if (!send(c, req)) {
+				if (!reused) {
+					throw c.closed();
+				}
+				// server has closed idle connection before reading request, repeat once over new one
+				log.debug("Connection to '{}' was closed by server, reconnecting.", url);
+				if (!send(c, req)) {
+					throw c.closed();
+				}
+			}
+			// lock is released when response is closed
+			return new Response(new LockedBody(c, c.body()), c.date);
+		} catch (IOException | RuntimeException e) {
+			c.disconnect();
+			c.lock.unlock();
+			throw e;
+		}
+	}
+
+	/**
+	 * Writes request and reads head of response.
+	 *
+	 * @return <code>false</code> if server has closed connection before any byte of response was received, request was not processed
+	 */
+	private boolean send(Connection c, byte[] req) throws IOException {
+		try {
+			if (!c.isOpen()) {
+				c.open();
+			}
+			if (!c.write(req) || !c.awaitResponse()) {
+				c.disconnect();
+				return false;
+			}
+			c.readHead();
+			return true;
+		} catch (IOException | RuntimeException e) {
+			c.disconnect();
+			throw e;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * Requests to same server are written to the connection one after another without waiting for responses,
+	 * then responses are read in same order.
+	 * Unanswered requests are repeated only if the server has closed the connection before reading them,
+	 * if any response fails or times out, whole call fails.
+	 */
+	@Override
+	public Response[] post(URL[] urls, String[] requests, Properties headers) throws IOException {
+
+		if (urls.length!=requests.length) {
+			throw new IllegalArgumentException("URL and request arrays are not of same length!");
+		}
+
+		Connection c= getConnection(urls[0]);
+
+		for (int i = 1; i < urls.length; i++) {
+			if (getConnection(urls[i])!=c) {
+				return BPMTransport.super.post(urls, requests, headers);
+			}
+		}
+
+		ByteArrayOutputStream o= new ByteArrayOutputStream(512);
+		for (int i = 0; i < urls.length; i++) {
+			o.writeBytes(toRequest(c, urls[i], requests[i], headers));
+		}
+		byte[] req= o.toByteArray();
+
+		Response[] r= new Response[urls.length];
+		int done=0;
+
+		c.lock.lock();
+		try {
+			boolean reused= c.isOpen();
+			try {
+				if (!c.isOpen()) {
+					c.open();
+				}
+				if (!c.write(req) || !c.awaitResponse()) {
+					c.disconnect();
+					if (!reused) {
+						throw c.closed();
+					}
+					// server has closed idle connection before reading requests, all are repeated
+					log.debug("Connection to '{}' was closed by server, reconnecting.", urls[0]);
+				} else {
+					for (; done < r.length; done++) {
+						if (!c.isOpen()) {
+							// server has closed connection after previous response, rest of requests was not processed
+							break;
+						}
+						c.readHead();
+						r[done]= new Response(new ByteArrayInputStream(readFully(c.body())), c.date);
+					}
+				}
+			} catch (IOException | RuntimeException e) {
+				// outcome of unanswered requests is unknown, they are not repeated
+				c.disconnect();
+				throw e;
+			}
+		} finally {
+			c.lock.unlock();
+		}
+
+		// requests, which were not processed by server, are repeated one by one
+		for (; done < r.length; done++) {
+			try (Response rs= post(urls[done], requests[done], headers)) {
+				r[done]= new Response(new ByteArrayInputStream(readFully(rs.getBody())), rs.getDate());
+			}
+		}
+
+		return r;
+	}
+
+	private static byte[] readFully(InputStream body) throws IOException {
+		try (body) {
+			return body.readAllBytes();
+		}
+	}
+
+	private static long toDate(String date) {
+		try {
+			return ZonedDateTime.parse(date, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+		} catch (Exception e) {
+			log.debug("Failed to parse Date header '{}': {}", date, e.toString());
+		}
+		return 0L;
+	}
+
+	/**
+	 * Returns number of TCP connections opened so far.
+	 *
+	 * @return number of TCP connections opened so far
+	 */
+	public long getConnectCount() {
+		return connectCount;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setConnectTimeout(int connectTimeout) {
+		this.connectTimeout = connectTimeout;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public synchronized void setReadTimeout(int readTimeout) {
+		this.readTimeout = readTimeout;
+		for (Connection c : connections.values()) {
+			Socket s= c.socket;
+			if (s!=null) {
+				try {
+					s.setSoTimeout(readTimeout);
+				} catch (IOException e) {
+					// ignored, applied on reconnect
+				}
+			}
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getReadTimeout() {
+		return readTimeout;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public synchronized void close() {
+		for (Connection c : connections.values()) {
+			c.lock.lock();
+			try {
+				c.disconnect();
+			} finally {
+				c.lock.unlock();
+			}
+		}
+		connections.clear();
+	}
+
+}
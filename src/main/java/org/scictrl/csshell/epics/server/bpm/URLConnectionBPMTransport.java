@@ -0,0 +1,96 @@
+/**
+ *
+ */
+package org.scictrl.csshell.epics.server.bpm;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+
+/**
+ * <p>URLConnectionBPMTransport opens new {@link java.net.HttpURLConnection} for each request and closes it afterwards.</p>
+ *
+ * <p>This is how {@link BPMPullEngine} used to talk to BPM web server, kept as fallback for servers which
+ * do not handle persistent connections well.</p>
+ *
+ * @author igor@scictrl.com
+ */
+public class URLConnectionBPMTransport implements BPMTransport {
+
+	private int connectTimeout= DEFAULT_CONNECT_TIMEOUT;
+	private int readTimeout= DEFAULT_READ_TIMEOUT;
+
+	/**
+	 * <p>Constructor for URLConnectionBPMTransport.</p>
+	 */
+	public URLConnectionBPMTransport() {
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Response post(URL url, String request, Properties headers) throws IOException {
+
+		final HttpURLConnection conn= (HttpURLConnection) url.openConnection();
+
+		conn.setDoOutput(true);
+		conn.setRequestMethod("POST");
+		conn.setConnectTimeout(connectTimeout);
+		conn.setReadTimeout(readTimeout);
+
+		for (Object key : headers.keySet()) {
+			conn.setRequestProperty(key.toString(), headers.get(key).toString());
+		}
+		conn.setRequestProperty("Connection", "close");
+
+		OutputStreamWriter os= new OutputStreamWriter(conn.getOutputStream(),StandardCharsets.UTF_8);
+		os.write(request);
+		os.flush();
+		os.close();
+
+		return new Response(new FilterInputStream(conn.getInputStream()) {
+			@Override
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					conn.disconnect();
+				}
+			}
+		}, conn.getHeaderFieldDate("Date", 0));
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setConnectTimeout(int connectTimeout) {
+		this.connectTimeout = connectTimeout;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setReadTimeout(int readTimeout) {
+		this.readTimeout = readTimeout;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getReadTimeout() {
+		return readTimeout;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void close() {
+		// nothing to release, connections are closed after each request
+	}
+
+}
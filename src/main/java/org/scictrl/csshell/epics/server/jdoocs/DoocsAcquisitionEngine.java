@@ -0,0 +1,170 @@
+/**
+ *
+ */
+package org.scictrl.csshell.epics.server.jdoocs;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>DoocsAcquisitionEngine groups DOOCS channels by server and reads them in batches.</p>
+ *
+ * <p>Records, which are triggered within batch delay, are read together by {@link DoocsServer} of their facility and device.
+ * Each server has own pool, so slow server delays only own records.
+ * Calls are made with pluggable {@link DoocsTransport}.</p>
+ *
+ * @author igor@scictrl.com
+ */
+public class DoocsAcquisitionEngine {
+
+	/** Default time in ms, for which requests are collected before batch is read. */
+	public static final long DEFAULT_BATCH_DELAY = 5;
+
+	private static DoocsAcquisitionEngine instance;
+
+	/**
+	 * Returns shared engine.
+	 *
+	 * @return the shared engine
+	 */
+	public static synchronized DoocsAcquisitionEngine getInstance() {
+		if (instance==null) {
+			instance= new DoocsAcquisitionEngine();
+		}
+		return instance;
+	}
+
+	/**
+	 * Splits DOOCS address into facility, device, location and property.
+	 *
+	 * @param address DOOCS address in form <code>FACILITY/DEVICE/LOCATION/PROPERTY</code>
+	 * @return array with facility, device, location and property
+	 */
+	public static String[] split(String address) {
+		String[] s= address.split("/", 4);
+		if (s.length<4) {
+			throw new IllegalArgumentException("DOOCS address '"+address+"' must have form FACILITY/DEVICE/LOCATION/PROPERTY!");
+		}
+		return s;
+	}
+
+	/**
+	 * Returns server part of DOOCS address.
+	 *
+	 * @param address DOOCS address in form <code>FACILITY/DEVICE/LOCATION/PROPERTY</code>
+	 * @return server name in form <code>FACILITY/DEVICE</code>
+	 */
+	public static String serverOf(String address) {
+		String[] s= split(address);
+		return s[0]+"/"+s[1];
+	}
+
+	private final Map<String, DoocsServer> servers= new ConcurrentHashMap<String, DoocsServer>();
+	private final ScheduledExecutorService scheduler;
+	private volatile long batchDelay= DEFAULT_BATCH_DELAY;
+	private volatile DoocsTransport transport;
+
+	/**
+	 * Constructor.
+	 */
+	public DoocsAcquisitionEngine() {
+		scheduler= Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t= new Thread(r, "DOOCS-batch");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Returns server, creates it if necessary.
+	 *
+	 * @param name server name in form <code>FACILITY/DEVICE</code>
+	 * @return the server
+	 */
+	public DoocsServer getServer(String name) {
+		return servers.computeIfAbsent(name, n -> new DoocsServer(this, n));
+	}
+
+	/**
+	 * Returns all servers.
+	 *
+	 * @return servers
+	 */
+	public Collection<DoocsServer> getServers() {
+		return new ArrayList<DoocsServer>(servers.values());
+	}
+
+	/**
+	 * Creates channel for processor on server of address.
+	 *
+	 * @param listener listener, which receives values
+	 * @param address DOOCS address in form <code>FACILITY/DEVICE/LOCATION/PROPERTY</code>
+	 * @return new channel
+	 */
+	public DoocsChannel register(DoocsChannel.Listener listener, String address) {
+		return new DoocsChannel(getServer(serverOf(address)), address, listener);
+	}
+
+	/**
+	 * Returns transport used by all servers, by default {@link EqCallDoocsTransport}.
+	 *
+	 * @return the transport
+	 */
+	public DoocsTransport getTransport() {
+		DoocsTransport t= transport;
+		if (t==null) {
+			synchronized (this) {
+				if (transport==null) {
+					transport= new EqCallDoocsTransport();
+				}
+				t= transport;
+			}
+		}
+		return t;
+	}
+
+	/**
+	 * Sets transport used by all servers.
+	 *
+	 * @param transport the transport
+	 */
+	public void setTransport(DoocsTransport transport) {
+		this.transport= transport;
+	}
+
+	/**
+	 * Sets time in ms, for which requests are collected before batch is read.
+	 *
+	 * @param batchDelay batch delay in ms
+	 */
+	public void setBatchDelay(long batchDelay) {
+		this.batchDelay= batchDelay;
+	}
+
+	/**
+	 * Returns time in ms, for which requests are collected before batch is read.
+	 *
+	 * @return batch delay in ms
+	 */
+	public long getBatchDelay() {
+		return batchDelay;
+	}
+
+	void schedule(Runnable batch) {
+		schedule(batch, batchDelay);
+	}
+
+	void schedule(Runnable task, long delay) {
+		scheduler.schedule(task, delay, TimeUnit.MILLISECONDS);
+	}
+
+	void scheduleAtFixedRate(Runnable task, long period) {
+		scheduler.scheduleAtFixedRate(task, period, period, TimeUnit.MILLISECONDS);
+	}
+
+}
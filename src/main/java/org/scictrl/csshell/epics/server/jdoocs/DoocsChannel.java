@@ -0,0 +1,294 @@
+/**
+ *
+ */
+package org.scictrl.csshell.epics.server.jdoocs;
+
+/**
+ * <p>DoocsChannel is single DOOCS property read by {@link DoocsServer} on behalf of {@link Listener}, usually {@link JDoocsValueProcessor}.</p>
+ *
+ * <p>Channel is busy from request until read has finished, busy channel is not requested again.
+ * While busy, data of channel is used only by thread which reads it.</p>
+ *
+ * <p>Writes are coalesced, at most one write of channel is in flight and only newest of values,
+ * which were set meanwhile, is written next. Overwritten values are counted as dropped.</p>
+ *
+ * @author igor@scictrl.com
+ */
+public class DoocsChannel {
+
+	/**
+	 * Kind of failed read or write.
+	 */
+	public enum Failure {
+		/** Call failed or server returned error. */
+		ERROR,
+		/** Call did not finish before deadline. */
+		TIMEOUT,
+		/** Call was not made, because server is in backoff after repeated failures. */
+		BACKOFF
+	}
+
+	/**
+	 * Receives values of channel.
+	 */
+	public interface Listener {
+
+		/**
+		 * New scalar value has been read.
+		 *
+		 * @param value the value
+		 */
+		public void valueUpdate(double value);
+
+		/**
+		 * New array value has been read. Array is reused by channel and is overwritten by read after next read,
+		 * listener must not modify it.
+		 *
+		 * @param value the value
+		 */
+		public void valueUpdate(double[] value);
+
+		/**
+		 * Read or write has failed or was not made.
+		 *
+		 * @param failure kind of failure
+		 * @param message error description
+		 */
+		public void valueUpdateFail(Failure failure, String message);
+
+	}
+
+	private final String address;
+	private final String location;
+	private final String property;
+	private final DoocsServer server;
+	private final Listener listener;
+	private volatile DoocsData data= new DoocsData();
+
+	private volatile boolean busy;
+	private volatile long start;
+	private volatile boolean scalar;
+
+	private double writeValue;
+	private boolean writePending;
+	private boolean writeActive;
+	private long writeDropped;
+	private volatile long writeLatency;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param server the server of this channel
+	 * @param address DOOCS address in form <code>FACILITY/DEVICE/LOCATION/PROPERTY</code>
+	 * @param listener listener, which receives values, can be <code>null</code>
+	 */
+	public DoocsChannel(DoocsServer server, String address, Listener listener) {
+		String[] s= DoocsAcquisitionEngine.split(address);
+		this.address= address;
+		this.location= s[2];
+		this.property= s[3];
+		this.server= server;
+		this.listener= listener;
+	}
+
+	/**
+	 * Returns DOOCS address.
+	 *
+	 * @return DOOCS address
+	 */
+	public String getAddress() {
+		return address;
+	}
+
+	/**
+	 * Returns location part of DOOCS address.
+	 *
+	 * @return location
+	 */
+	public String getLocation() {
+		return location;
+	}
+
+	/**
+	 * Returns property part of DOOCS address.
+	 *
+	 * @return property
+	 */
+	public String getProperty() {
+		return property;
+	}
+
+	/**
+	 * Returns server of this channel.
+	 *
+	 * @return server
+	 */
+	public DoocsServer getServer() {
+		return server;
+	}
+
+	/**
+	 * Returns <code>true</code> if channel is requested and read has not finished yet.
+	 *
+	 * @return <code>true</code> if busy
+	 */
+	public boolean isBusy() {
+		return busy;
+	}
+
+	/**
+	 * Returns time of last request in ms.
+	 *
+	 * @return time of last request
+	 */
+	public long getStart() {
+		return start;
+	}
+
+	/**
+	 * Returns <code>true</code> if last read returned scalar value.
+	 * Only scalar channels are included in wildcard reads.
+	 *
+	 * @return <code>true</code> if scalar
+	 */
+	public boolean isScalar() {
+		return scalar;
+	}
+
+	boolean acquire() {
+		if (busy) {
+			return false;
+		}
+		busy= true;
+		start= System.currentTimeMillis();
+		return true;
+	}
+
+	void release() {
+		busy= false;
+	}
+
+	/**
+	 * Returns number of written values, which were replaced by newer value before they were sent.
+	 *
+	 * @return number of dropped values
+	 */
+	public synchronized long getWriteDropped() {
+		return writeDropped;
+	}
+
+	/**
+	 * Returns round trip time of last write in ms.
+	 *
+	 * @return write round trip time in ms
+	 */
+	public long getWriteLatency() {
+		return writeLatency;
+	}
+
+	/**
+	 * Stores value for write.
+	 *
+	 * @return <code>true</code> if no write is in flight and caller must dispatch write
+	 */
+	synchronized boolean offerWrite(double value) {
+		if (writePending) {
+			writeDropped++;
+			server.writeDropped();
+		}
+		writeValue= value;
+		writePending= true;
+		if (writeActive) {
+			return false;
+		}
+		writeActive= true;
+		return true;
+	}
+
+	/**
+	 * Takes newest value for write, which is being sent.
+	 */
+	synchronized double takeWrite() {
+		writePending= false;
+		return writeValue;
+	}
+
+	/**
+	 * Completes write.
+	 *
+	 * @return <code>true</code> if newer value is pending and caller must dispatch next write
+	 */
+	synchronized boolean writeDone(long latency) {
+		writeLatency= latency;
+		if (writePending) {
+			return true;
+		}
+		writeActive= false;
+		return false;
+	}
+
+	DoocsData getData() {
+		return data;
+	}
+
+	/**
+	 * Publishes result of single property read, which is in data of channel.
+	 */
+	void update() {
+		DoocsData d= data;
+		scalar= d.isScalar();
+		busy= false;
+		if (listener==null) {
+			return;
+		}
+		if (scalar) {
+			listener.valueUpdate(d.getValue());
+		} else {
+			listener.valueUpdate(d.getArray());
+		}
+	}
+
+	/**
+	 * Publishes value from wildcard read.
+	 */
+	void update(double value) {
+		scalar= true;
+		busy= false;
+		if (listener!=null) {
+			listener.valueUpdate(value);
+		}
+	}
+
+	/**
+	 * Publishes failed read.
+	 */
+	void fail(Failure failure, String message) {
+		busy= false;
+		notifyFail(failure, message);
+	}
+
+	/**
+	 * Publishes read, which did not finish before deadline. Data is replaced,
+	 * so late result of abandoned call can not overwrite result of next read.
+	 */
+	void timeout(String message) {
+		data= new DoocsData();
+		fail(Failure.TIMEOUT, message);
+	}
+
+	/**
+	 * Publishes failed write or rejected request, channel stays busy if read is in progress.
+	 */
+	void notifyFail(Failure failure, String message) {
+		if (listener!=null) {
+			listener.valueUpdateFail(failure, message);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return address;
+	}
+
+}
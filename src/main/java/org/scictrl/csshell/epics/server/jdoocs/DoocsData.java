@@ -0,0 +1,108 @@
+/**
+ *
+ */
+package org.scictrl.csshell.epics.server.jdoocs;
+
+/**
+ * <p>DoocsData holds value of last read of DOOCS property, scalar or array.</p>
+ *
+ * <p>Each channel has own instance, which is reused for every read.
+ * Array values are double buffered: transport fills buffer from {@link #arrayBuffer(int)}, which is not the current value,
+ * and makes it current with {@link #setArray(double[])}. Published array therefore stays unchanged during next read
+ * and is overwritten only by read after it. Buffers are reallocated only when array length changes,
+ * so steady reads of waveform do not allocate memory.</p>
+ *
+ * @author igor@scictrl.com
+ */
+public class DoocsData {
+
+	private final double[][] buffers= new double[2][];
+	private int back;
+	private double value;
+	private double[] array;
+
+	/**
+	 * Constructor.
+	 */
+	public DoocsData() {
+	}
+
+	/**
+	 * Sets scalar value.
+	 *
+	 * @param value the value
+	 */
+	public void setValue(double value) {
+		this.value= value;
+		this.array= null;
+	}
+
+	/**
+	 * Returns buffer for next array value, which is not the current value.
+	 * Buffer is reused if it has requested length.
+	 *
+	 * @param length array length
+	 * @return buffer of requested length
+	 */
+	public double[] arrayBuffer(int length) {
+		double[] b= buffers[back];
+		if (b==null || b.length!=length) {
+			b= new double[length];
+			buffers[back]= b;
+		}
+		return b;
+	}
+
+	/**
+	 * Sets array value, usually filled buffer from {@link #arrayBuffer(int)}.
+	 *
+	 * @param array the array, empty array is treated as scalar 0
+	 */
+	public void setArray(double[] array) {
+		if (array.length==0) {
+			setValue(0.0);
+			return;
+		}
+		this.array= array;
+		if (array==buffers[back]) {
+			back^= 1;
+		}
+	}
+
+	/**
+	 * Returns <code>true</code> if value is scalar.
+	 *
+	 * @return <code>true</code> if value is scalar
+	 */
+	public boolean isScalar() {
+		return array==null;
+	}
+
+	/**
+	 * Returns scalar value.
+	 *
+	 * @return scalar value
+	 */
+	public double getValue() {
+		return value;
+	}
+
+	/**
+	 * Returns array value.
+	 *
+	 * @return array value, <code>null</code> if value is scalar
+	 */
+	public double[] getArray() {
+		return array;
+	}
+
+	/**
+	 * Returns array length, 0 for scalar.
+	 *
+	 * @return array length
+	 */
+	public int getLength() {
+		return array==null ? 0 : array.length;
+	}
+
+}
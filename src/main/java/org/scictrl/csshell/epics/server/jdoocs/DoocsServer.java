@@ -0,0 +1,762 @@
+/**
+ *
+ */
+package org.scictrl.csshell.epics.server.jdoocs;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.scictrl.csshell.epics.server.jdoocs.DoocsChannel.Failure;
+
+/**
+ * <p>DoocsServer reads channels of single DOOCS server, identified by facility and device part of address.</p>
+ *
+ * <p>Requested channels are collected for short batch delay and then read together. Scalar channels with same property
+ * are read with single wildcard call <code>FACILITY/DEVICE/*&#47;PROPERTY</code>, if wildcard reads are enabled.
+ * If server does not support wildcard call for property, property is read channel by channel afterwards.
+ * Wildcard call of DOOCS returns values as float, so it is meant for scalar monitoring values.</p>
+ *
+ * <p>Calls are made with {@link DoocsTransport} of engine.</p>
+ *
+ * <p>Each server has own pool of threads, so slow server does not delay reads from other servers.</p>
+ *
+ * <p>Each call has deadline, when it expires the pool thread is interrupted and channels fail with timeout.
+ * Deadlines are checked by watchdog every {@link #DEADLINE_RESOLUTION} ms.
+ * Result of call, which returns after deadline, is discarded. After repeated failures circuit breaker of server opens,
+ * no calls are made and channels fail with backoff, until backoff time has passed. Then single probe read or write is made,
+ * if it succeeds, server is closed again, otherwise backoff time is doubled, up to maximal backoff.
+ * Thus dead server does not block threads of own pool with calls, which can only time out.</p>
+ *
+ * <p>Writes are coalesced by {@link DoocsChannel}. Rate of writes to server can be limited, writes which
+ * come too early are delayed and value, which is current when write is sent, is written.</p>
+ *
+ * @author igor@scictrl.com
+ */
+public class DoocsServer {
+
+	private static final Logger log= LogManager.getLogger(DoocsServer.class);
+
+	/** Default number of parallel calls to server. */
+	public static final int DEFAULT_POOL_SIZE = 2;
+	/** Default deadline of single call in ms. */
+	public static final long DEFAULT_TIMEOUT = 5000;
+	/** Default number of consecutive failures, which open circuit breaker. */
+	public static final int DEFAULT_FAILURE_THRESHOLD = 3;
+	/** Default backoff time in ms after circuit breaker opens first time. */
+	public static final long DEFAULT_BACKOFF = 1000;
+	/** Default maximal backoff time in ms. */
+	public static final long DEFAULT_MAX_BACKOFF = 60000;
+	/** Period in ms, in which deadlines are checked. */
+	public static final long DEADLINE_RESOLUTION = 50;
+	private static final double LATENCY_SMOOTHING = 0.2;
+
+	/**
+	 * State of circuit breaker.
+	 */
+	public enum State {
+		/** Calls are made. */
+		CLOSED,
+		/** Server is in backoff, calls are not made. */
+		OPEN,
+		/** Backoff has passed, single probe call is in flight. */
+		HALF_OPEN
+	}
+
+	/**
+	 * Deadline of calls made by single thread, reused for every call, so calls do not allocate memory.
+	 * Expired deadline is found by watchdog, which interrupts the thread and fails target of the call.
+	 */
+	private final class Deadline {
+
+		private final Thread thread= Thread.currentThread();
+		private long start;
+		private long expires;
+		private Object target;
+		private boolean write;
+		private boolean expired;
+
+		/**
+		 * Starts deadline of call.
+		 *
+		 * @param start start time of call
+		 * @param timeout deadline in ms, 0 for none
+		 * @param target channel or group of channels of call
+		 * @param write <code>true</code> if call is write
+		 */
+		synchronized void begin(long start, long timeout, Object target, boolean write) {
+			this.start= start;
+			this.expires= timeout>0 ? start+timeout : Long.MAX_VALUE;
+			this.target= target;
+			this.write= write;
+			this.expired= false;
+		}
+
+		/**
+		 * Ends deadline, must be called by thread, which made the call.
+		 *
+		 * @return <code>true</code> if deadline has expired and result must be discarded
+		 */
+		boolean finish() {
+			boolean e;
+			synchronized (this) {
+				expires= 0;
+				target= null;
+				e= expired;
+			}
+			// clears interrupt, which came after call has returned
+			Thread.interrupted();
+			return e;
+		}
+
+		void check(long now) {
+			Object t;
+			boolean w;
+			long st;
+			synchronized (this) {
+				if (expires==0 || now<expires) {
+					return;
+				}
+				expired= true;
+				expires= 0;
+				t= target;
+				w= write;
+				st= start;
+				thread.interrupt();
+			}
+			timeout(t, w, st);
+		}
+	}
+
+	private final String name;
+	private final DoocsAcquisitionEngine engine;
+	private final Set<DoocsChannel> pending= new LinkedHashSet<DoocsChannel>();
+	private final Set<String> noWildcard= ConcurrentHashMap.newKeySet();
+	private boolean scheduled;
+	private ThreadPoolExecutor pool;
+	private int poolSize;
+	private volatile boolean wildcard;
+	private double writeRate;
+	private long writeInterval;
+	private long nextWrite;
+	private long timeout;
+	private int failureThreshold= DEFAULT_FAILURE_THRESHOLD;
+	private long minBackoff= DEFAULT_BACKOFF;
+	private long maxBackoff= DEFAULT_MAX_BACKOFF;
+	private State state= State.CLOSED;
+	private int failures;
+	private long backoff;
+	private long openUntil;
+	private final List<Deadline> deadlines= new CopyOnWriteArrayList<Deadline>();
+	private final ThreadLocal<Deadline> deadline= ThreadLocal.withInitial(() -> {
+		Deadline d= new Deadline();
+		deadlines.add(d);
+		return d;
+	});
+
+	private volatile double latency;
+	private volatile long lastLatency;
+	private final AtomicLong errors= new AtomicLong();
+	private final AtomicLong callCount= new AtomicLong();
+	private final AtomicLong writeCount= new AtomicLong();
+	private final AtomicLong writeDropped= new AtomicLong();
+	private volatile double writeLatency;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param engine the engine, which schedules batches
+	 * @param name server name in form <code>FACILITY/DEVICE</code>
+	 */
+	public DoocsServer(DoocsAcquisitionEngine engine, String name) {
+		this.engine= engine;
+		this.name= name;
+	}
+
+	/**
+	 * Returns server name.
+	 *
+	 * @return server name in form <code>FACILITY/DEVICE</code>
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns number of parallel calls to server.
+	 *
+	 * @return pool size
+	 */
+	public synchronized int getPoolSize() {
+		return poolSize>0 ? poolSize : DEFAULT_POOL_SIZE;
+	}
+
+	/**
+	 * Requests number of parallel calls to server. If requested by several records, largest is used.
+	 *
+	 * @param size requested pool size
+	 */
+	public synchronized void requestPoolSize(int size) {
+		if (size<=poolSize) {
+			return;
+		}
+		poolSize= size;
+		if (pool!=null) {
+			pool.setMaximumPoolSize(size);
+			pool.setCorePoolSize(size);
+		}
+	}
+
+	/**
+	 * Enables wildcard reads of scalar channels with same property.
+	 *
+	 * @param wildcard <code>true</code> if wildcard reads are used
+	 */
+	public void setWildcard(boolean wildcard) {
+		this.wildcard= wildcard;
+	}
+
+	/**
+	 * Returns <code>true</code> if wildcard reads are enabled.
+	 *
+	 * @return <code>true</code> if wildcard reads are used
+	 */
+	public boolean isWildcard() {
+		return wildcard;
+	}
+
+	/**
+	 * Requests deadline of single call. If requested by several records, largest is used.
+	 *
+	 * @param timeout deadline in ms
+	 */
+	public synchronized void requestTimeout(long timeout) {
+		if (timeout>this.timeout) {
+			this.timeout= timeout;
+		}
+	}
+
+	/**
+	 * Returns deadline of single call.
+	 *
+	 * @return deadline in ms
+	 */
+	public synchronized long getTimeout() {
+		return timeout>0 ? timeout : DEFAULT_TIMEOUT;
+	}
+
+	/**
+	 * Sets circuit breaker parameters.
+	 *
+	 * @param failureThreshold number of consecutive failures, which open circuit breaker
+	 * @param minBackoff backoff time in ms after circuit breaker opens first time
+	 * @param maxBackoff maximal backoff time in ms
+	 */
+	public synchronized void setBackoff(int failureThreshold, long minBackoff, long maxBackoff) {
+		this.failureThreshold= Math.max(1, failureThreshold);
+		this.minBackoff= Math.max(1, minBackoff);
+		this.maxBackoff= Math.max(this.minBackoff, maxBackoff);
+	}
+
+	/**
+	 * Returns state of circuit breaker.
+	 *
+	 * @return state of circuit breaker
+	 */
+	public synchronized State getState() {
+		return state;
+	}
+
+	/**
+	 * Returns current backoff time, which doubles with each failed probe.
+	 *
+	 * @return backoff time in ms, 0 if server has not failed since last success
+	 */
+	public synchronized long getBackoff() {
+		return backoff;
+	}
+
+	/**
+	 * Returns time until next probe call is allowed.
+	 *
+	 * @return remaining backoff time in ms, 0 if calls are allowed
+	 */
+	public synchronized long getBackoffRemaining() {
+		return state==State.OPEN ? Math.max(0, openUntil-System.currentTimeMillis()) : 0;
+	}
+
+	/**
+	 * Returns number of consecutive failed calls.
+	 *
+	 * @return number of consecutive failures
+	 */
+	public synchronized int getFailures() {
+		return failures;
+	}
+
+	/**
+	 * Decides if read or write may be sent, switches open breaker to half open, when backoff has passed.
+	 * First call after backoff is probe, read or write alike.
+	 */
+	private synchronized boolean admit() {
+		if (state==State.CLOSED) {
+			return true;
+		}
+		if (state==State.OPEN && System.currentTimeMillis()>=openUntil) {
+			state= State.HALF_OPEN;
+			log.info("DOOCS server '"+name+"' backoff passed, probing.");
+			return true;
+		}
+		return false;
+	}
+
+	private synchronized boolean isOpen() {
+		return state==State.OPEN;
+	}
+
+	private synchronized String backoffMessage() {
+		return "DOOCS server '"+name+"' in backoff after "+failures+" failures, for "+getBackoffRemaining()+" ms.";
+	}
+
+	private synchronized void succeeded() {
+		if (state!=State.CLOSED) {
+			log.info("DOOCS server '"+name+"' responds again.");
+		}
+		state= State.CLOSED;
+		failures= 0;
+		backoff= 0;
+	}
+
+	private synchronized void failed() {
+		errors.incrementAndGet();
+		failures++;
+		if (state==State.HALF_OPEN || (state==State.CLOSED && failures>=failureThreshold)) {
+			backoff= backoff==0 ? minBackoff : Math.min(maxBackoff, backoff*2);
+			openUntil= System.currentTimeMillis()+backoff;
+			state= State.OPEN;
+			log.warn("DOOCS server '"+name+"' failed "+failures+" times, backoff for "+backoff+" ms.");
+		}
+	}
+
+	private synchronized ThreadPoolExecutor getPool() {
+		if (pool==null) {
+			final AtomicInteger count= new AtomicInteger();
+			int size= getPoolSize();
+			pool= new ThreadPoolExecutor(size, size, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), r -> {
+				Thread t= new Thread(r, "DOOCS-"+name+"-"+count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			});
+			pool.allowCoreThreadTimeOut(true);
+			engine.scheduleAtFixedRate(this::checkDeadlines, DEADLINE_RESOLUTION);
+		}
+		return pool;
+	}
+
+	private void checkDeadlines() {
+		long now= System.currentTimeMillis();
+		for (Deadline d : deadlines) {
+			if (d.thread.isAlive()) {
+				d.check(now);
+			} else {
+				deadlines.remove(d);
+			}
+		}
+	}
+
+	/**
+	 * Fails target of call, which has not finished before deadline.
+	 */
+	private void timeout(Object target, boolean write, long start) {
+		String m= "Timeout after "+(System.currentTimeMillis()-start)+" ms while "+(write ? "writing value to" : "reading value from")+" '"+target+"'.";
+		log.error(m);
+		if (write) {
+			failed();
+			((DoocsChannel)target).notifyFail(Failure.TIMEOUT, m);
+			return;
+		}
+		completed(start, false);
+		if (target instanceof DoocsChannel) {
+			((DoocsChannel)target).timeout(m);
+		} else if (target instanceof List) {
+			for (Object c : (List<?>)target) {
+				((DoocsChannel)c).timeout(m);
+			}
+		}
+	}
+
+	/**
+	 * Requests maximal rate of writes to server. If requested by several records, lowest is used.
+	 *
+	 * @param rate writes per second, 0 or less for no limit
+	 */
+	public synchronized void requestWriteRate(double rate) {
+		if (rate<=0.0 || (writeRate>0.0 && rate>=writeRate)) {
+			return;
+		}
+		writeRate= rate;
+		writeInterval= (long)Math.ceil(1000.0/rate);
+	}
+
+	/**
+	 * Returns maximal rate of writes to server.
+	 *
+	 * @return writes per second, 0 if not limited
+	 */
+	public synchronized double getWriteRate() {
+		return writeRate;
+	}
+
+	/**
+	 * Writes value of channel on pool of this server.
+	 * If write of channel is in flight, value is written after it, unless replaced by newer value meanwhile.
+	 *
+	 * @param channel the channel
+	 * @param value new value
+	 */
+	public void write(DoocsChannel channel, double value) {
+		if (channel.offerWrite(value)) {
+			dispatchWrite(channel);
+		}
+	}
+
+	void writeDropped() {
+		writeDropped.incrementAndGet();
+	}
+
+	/**
+	 * Reserves time slot for next write.
+	 *
+	 * @return delay in ms until write may be sent
+	 */
+	private synchronized long reserveWrite() {
+		if (writeInterval==0) {
+			return 0;
+		}
+		long now= System.currentTimeMillis();
+		long t= Math.max(now, nextWrite);
+		nextWrite= t+writeInterval;
+		return t-now;
+	}
+
+	private void dispatchWrite(DoocsChannel channel) {
+		long delay= reserveWrite();
+		if (delay>0) {
+			engine.schedule(() -> getPool().execute(() -> write(channel)), delay);
+		} else {
+			getPool().execute(() -> write(channel));
+		}
+	}
+
+	private void write(DoocsChannel channel) {
+
+		double value= channel.takeWrite();
+		long d= 0;
+
+		if (!admit()) {
+			channel.notifyFail(Failure.BACKOFF, backoffMessage());
+		} else {
+			DoocsTransport transport= engine.getTransport();
+			long t= System.currentTimeMillis();
+			Deadline dl= deadline.get();
+			dl.begin(t, getTimeout(), channel, true);
+
+			try {
+				transport.write(channel.getAddress(), value);
+				if (!dl.finish()) {
+					succeeded();
+				}
+			} catch (IOException e) {
+				transport.reset();
+				if (!dl.finish()) {
+					failed();
+					log.error(e.getMessage(), e);
+					channel.notifyFail(Failure.ERROR, e.getMessage());
+				}
+			}
+
+			d= System.currentTimeMillis()-t;
+			writeLatency= writeCount.getAndIncrement()==0 ? d : writeLatency+LATENCY_SMOOTHING*(d-writeLatency);
+		}
+
+		if (channel.writeDone(d)) {
+			dispatchWrite(channel);
+		}
+	}
+
+	/**
+	 * Requests read of channel with next batch. Busy channel is not requested.
+	 * If server is in backoff, channel is not requested and fails with {@link Failure#BACKOFF}.
+	 *
+	 * @param channel the channel
+	 * @return <code>true</code> if channel was requested, <code>false</code> if it is busy or server is in backoff
+	 */
+	public boolean request(DoocsChannel channel) {
+		boolean admitted;
+		boolean schedule= false;
+		synchronized (this) {
+			if (channel.isBusy()) {
+				return false;
+			}
+			admitted= admit();
+			if (admitted) {
+				channel.acquire();
+				pending.add(channel);
+				schedule= !scheduled;
+				scheduled= true;
+			}
+		}
+		if (!admitted) {
+			channel.notifyFail(Failure.BACKOFF, backoffMessage());
+			return false;
+		}
+		if (schedule) {
+			engine.schedule(this::dispatch);
+		}
+		return true;
+	}
+
+	/**
+	 * Gives up pending request of channel, which can be requested again. Counted as error.
+	 * Channel, which is already being read, is not affected, its read is ended by deadline.
+	 *
+	 * @param channel the channel
+	 */
+	public synchronized void abort(DoocsChannel channel) {
+		if (pending.remove(channel)) {
+			channel.release();
+			errors.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Sends all pending channels to pool, grouped for wildcard reads.
+	 */
+	void dispatch() {
+		List<DoocsChannel> l;
+		synchronized (this) {
+			l= new ArrayList<DoocsChannel>(pending);
+			pending.clear();
+			scheduled= false;
+		}
+		for (List<DoocsChannel> g : group(l, wildcard ? noWildcard : null)) {
+			getPool().execute(() -> read(g));
+		}
+	}
+
+	/**
+	 * Groups scalar channels with same property, other channels are in groups of their own.
+	 *
+	 * @param channels the channels
+	 * @param excluded properties which are not read with wildcard, <code>null</code> if wildcard reads are disabled
+	 * @return groups of channels
+	 */
+	static List<List<DoocsChannel>> group(List<DoocsChannel> channels, Set<String> excluded) {
+		List<List<DoocsChannel>> groups= new ArrayList<List<DoocsChannel>>(channels.size());
+		Map<String, List<DoocsChannel>> byProperty= new LinkedHashMap<String, List<DoocsChannel>>();
+		for (DoocsChannel c : channels) {
+			if (excluded!=null && c.isScalar() && !excluded.contains(c.getProperty())) {
+				byProperty.computeIfAbsent(c.getProperty(), p -> new ArrayList<DoocsChannel>()).add(c);
+			} else {
+				groups.add(List.of(c));
+			}
+		}
+		groups.addAll(byProperty.values());
+		return groups;
+	}
+
+	private void read(List<DoocsChannel> group) {
+		if (isOpen()) {
+			String m= backoffMessage();
+			for (DoocsChannel c : group) {
+				c.fail(Failure.BACKOFF, m);
+			}
+		} else if (group.size()==1) {
+			read(group.get(0));
+		} else if (!readWildcard(group)) {
+			for (DoocsChannel c : group) {
+				read(c);
+			}
+		}
+	}
+
+	/**
+	 * Reads single channel on calling thread.
+	 */
+	void read(DoocsChannel c) {
+
+		DoocsTransport transport= engine.getTransport();
+		long t= System.currentTimeMillis();
+		Deadline dl= deadline.get();
+		dl.begin(t, getTimeout(), c, false);
+
+		try {
+			transport.read(c.getAddress(), c.getData());
+		} catch (IOException e) {
+			transport.reset();
+			if (!dl.finish()) {
+				completed(t, false);
+				log.error(e.getMessage(), e);
+				c.fail(Failure.ERROR, e.getMessage());
+			}
+			return;
+		}
+
+		if (dl.finish()) {
+			// late result, channel already failed with timeout
+			return;
+		}
+
+		completed(t, true);
+		c.update();
+	}
+
+	/**
+	 * Reads group with single wildcard call.
+	 *
+	 * @return <code>false</code> if server does not support wildcard call for property and group must be read channel by channel
+	 */
+	private boolean readWildcard(List<DoocsChannel> group) {
+
+		DoocsTransport transport= engine.getTransport();
+		String property= group.get(0).getProperty();
+		Map<String, Double> values;
+		long t= System.currentTimeMillis();
+		Deadline dl= deadline.get();
+		dl.begin(t, getTimeout(), group, false);
+
+		try {
+			values= transport.readWildcard(name, property);
+		} catch (IOException e) {
+			transport.reset();
+			if (!dl.finish()) {
+				completed(t, false);
+				log.error(e.getMessage(), e);
+				for (DoocsChannel c : group) {
+					c.fail(Failure.ERROR, e.getMessage());
+				}
+			}
+			return true;
+		}
+
+		if (dl.finish()) {
+			return true;
+		}
+
+		completed(t, true);
+
+		if (values==null) {
+			noWildcard.add(property);
+			log.warn("Wildcard read of '"+property+"' from '"+name+"' not supported, reading property by location.");
+			return false;
+		}
+
+		for (DoocsChannel c : group) {
+			Double d= values.get(c.getLocation());
+			if (d!=null) {
+				c.update(d);
+			} else {
+				c.fail(Failure.ERROR, "Location of '"+c+"' missing in wildcard read of '"+property+"' from '"+name+"'.");
+			}
+		}
+
+		return true;
+	}
+
+	private void completed(long start, boolean ok) {
+		long d= System.currentTimeMillis()-start;
+		lastLatency= d;
+		latency= callCount.getAndIncrement()==0 ? d : latency+LATENCY_SMOOTHING*(d-latency);
+		if (ok) {
+			succeeded();
+		} else {
+			failed();
+		}
+	}
+
+	/**
+	 * Returns smoothed duration of calls to server in ms.
+	 *
+	 * @return call latency in ms
+	 */
+	public double getLatency() {
+		return latency;
+	}
+
+	/**
+	 * Returns duration of last call to server in ms.
+	 *
+	 * @return last call latency in ms
+	 */
+	public long getLastLatency() {
+		return lastLatency;
+	}
+
+	/**
+	 * Returns number of failed calls and timeouts.
+	 *
+	 * @return number of errors
+	 */
+	public long getErrorCount() {
+		return errors.get();
+	}
+
+	/**
+	 * Returns number of read calls made to server, wildcard read is one call.
+	 *
+	 * @return number of calls
+	 */
+	public long getCallCount() {
+		return callCount.get();
+	}
+
+	/**
+	 * Returns number of writes sent to server.
+	 *
+	 * @return number of writes
+	 */
+	public long getWriteCount() {
+		return writeCount.get();
+	}
+
+	/**
+	 * Returns number of written values, which were replaced by newer value before they were sent.
+	 *
+	 * @return number of dropped values
+	 */
+	public long getWriteDropped() {
+		return writeDropped.get();
+	}
+
+	/**
+	 * Returns smoothed round trip time of writes in ms.
+	 *
+	 * @return write latency in ms
+	 */
+	public double getWriteLatency() {
+		return writeLatency;
+	}
+
+	/**
+	 * Returns number of reads and writes waiting for free thread of this server.
+	 *
+	 * @return queue size
+	 */
+	public synchronized int getQueueSize() {
+		return pool==null ? 0 : pool.getQueue().size();
+	}
+
+}
@@ -0,0 +1,136 @@
+package org.scictrl.csshell.epics.server.jdoocs;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.scictrl.csshell.epics.server.Record;
+import org.scictrl.csshell.epics.server.processor.MemoryValueProcessor;
+
+import gov.aps.jca.dbr.DBRType;
+import gov.aps.jca.dbr.Severity;
+import gov.aps.jca.dbr.Status;
+
+/**
+ * <p>DoocsStatusValueProcessor class, publishes statistics of single {@link DoocsServer} as record value.</p>
+ *
+ * <p>Configured by following parameters:</p>
+ *
+ * <ul>
+ * <li>server - DOOCS server in form FACILITY/DEVICE, or any DOOCS address on that server. Required.</li>
+ * <li>stat - which statistic is published, one of: latency, lastLatency, errors, calls, queue, writes, writeDropped, writeLatency, state, backoff. Required.</li>
+ * </ul>
+ *
+ * @author igor@scictrl.com
+ */
+public class DoocsStatusValueProcessor extends MemoryValueProcessor {
+
+	/** Smoothed duration of calls to server in ms. */
+	public static final String STAT_LATENCY = "latency";
+	/** Duration of last call to server in ms. */
+	public static final String STAT_LAST_LATENCY = "lastLatency";
+	/** Number of failed calls and timeouts. */
+	public static final String STAT_ERRORS = "errors";
+	/** Number of read calls made to server. */
+	public static final String STAT_CALLS = "calls";
+	/** Number of reads and writes waiting for free thread. */
+	public static final String STAT_QUEUE = "queue";
+	/** Number of writes sent to server. */
+	public static final String STAT_WRITES = "writes";
+	/** Number of written values, which were replaced by newer value before they were sent. */
+	public static final String STAT_WRITE_DROPPED = "writeDropped";
+	/** Smoothed round trip time of writes in ms. */
+	public static final String STAT_WRITE_LATENCY = "writeLatency";
+	/** State of circuit breaker: 0 closed, 1 open, 2 half open. */
+	public static final String STAT_STATE = "state";
+	/** Remaining backoff time in ms. */
+	public static final String STAT_BACKOFF = "backoff";
+
+	private DoocsServer server;
+	private String stat;
+
+	/**
+	 * <p>Constructor for DoocsStatusValueProcessor.</p>
+	 */
+	public DoocsStatusValueProcessor() {
+		super();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void configure(Record record, HierarchicalConfiguration config) {
+		super.configure(record, config);
+
+		if (trigger==0) {
+			trigger=1000;
+		}
+
+		type=DBRType.DOUBLE;
+
+		String s= config.getString("server");
+
+		if (s==null) {
+			throw new IllegalArgumentException("Record '"+record.getName()+"' is missing the server definition.");
+		}
+
+		if (s.split("/").length>2) {
+			s= DoocsAcquisitionEngine.serverOf(s);
+		}
+
+		server= DoocsAcquisitionEngine.getInstance().getServer(s);
+
+		stat= config.getString("stat");
+
+		if (!STAT_LATENCY.equals(stat) && !STAT_LAST_LATENCY.equals(stat) && !STAT_ERRORS.equals(stat)
+				&& !STAT_CALLS.equals(stat) && !STAT_QUEUE.equals(stat) && !STAT_WRITES.equals(stat)
+				&& !STAT_WRITE_DROPPED.equals(stat) && !STAT_WRITE_LATENCY.equals(stat) && !STAT_STATE.equals(stat)
+				&& !STAT_BACKOFF.equals(stat)) {
+			throw new IllegalArgumentException("Record '"+record.getName()+"' has unknown stat definition '"+stat+"'.");
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void process() {
+		super.process();
+
+		double v;
+
+		switch (stat) {
+		case STAT_LAST_LATENCY:
+			v= server.getLastLatency();
+			break;
+		case STAT_ERRORS:
+			v= server.getErrorCount();
+			break;
+		case STAT_CALLS:
+			v= server.getCallCount();
+			break;
+		case STAT_QUEUE:
+			v= server.getQueueSize();
+			break;
+		case STAT_WRITES:
+			v= server.getWriteCount();
+			break;
+		case STAT_WRITE_DROPPED:
+			v= server.getWriteDropped();
+			break;
+		case STAT_WRITE_LATENCY:
+			v= server.getWriteLatency();
+			break;
+		case STAT_STATE:
+			v= server.getState().ordinal();
+			break;
+		case STAT_BACKOFF:
+			v= server.getBackoffRemaining();
+			break;
+		default:
+			v= server.getLatency();
+			break;
+		}
+
+		if (STAT_STATE.equals(stat) && server.getState()!=DoocsServer.State.CLOSED) {
+			_setValue(v, Severity.MAJOR_ALARM, Status.COMM_ALARM, true);
+		} else {
+			_setValue(v, Severity.NO_ALARM, Status.NO_ALARM, true);
+		}
+	}
+
+}
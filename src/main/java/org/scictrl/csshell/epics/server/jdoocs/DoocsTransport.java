@@ -0,0 +1,54 @@
+/**
+ *
+ */
+package org.scictrl.csshell.epics.server.jdoocs;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * <p>DoocsTransport is pluggable access to DOOCS properties, used by {@link DoocsServer} for reads and writes.</p>
+ *
+ * <p>Default implementation is {@link EqCallDoocsTransport}, which uses JDOOCS client library.
+ * {@link SimulatedDoocsTransport} serves properties from memory, for tests and benchmarks without control system network.</p>
+ *
+ * <p>Implementation must be thread safe, it is called from pool threads of all servers at the same time.</p>
+ *
+ * @author igor@scictrl.com
+ */
+public interface DoocsTransport {
+
+	/**
+	 * Reads property.
+	 *
+	 * @param address DOOCS address in form <code>FACILITY/DEVICE/LOCATION/PROPERTY</code>
+	 * @param data receives scalar or array value
+	 * @throws java.io.IOException if call fails or server returns error
+	 */
+	public void read(String address, DoocsData data) throws IOException;
+
+	/**
+	 * Reads scalar property of all locations of server with single wildcard call.
+	 *
+	 * @param server server name in form <code>FACILITY/DEVICE</code>
+	 * @param property property name
+	 * @return values by location, or <code>null</code> if server answers without values by location
+	 * @throws java.io.IOException if call fails or server returns error
+	 */
+	public Map<String, Double> readWildcard(String server, String property) throws IOException;
+
+	/**
+	 * Writes property.
+	 *
+	 * @param address DOOCS address in form <code>FACILITY/DEVICE/LOCATION/PROPERTY</code>
+	 * @param value new value
+	 * @throws java.io.IOException if call fails or server returns error
+	 */
+	public void write(String address, double value) throws IOException;
+
+	/**
+	 * Drops connection of calling thread after failed call, next call makes new connection.
+	 */
+	public void reset();
+
+}
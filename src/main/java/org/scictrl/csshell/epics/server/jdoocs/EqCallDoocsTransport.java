@@ -0,0 +1,149 @@
+/**
+ *
+ */
+package org.scictrl.csshell.epics.server.jdoocs;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import ttf.doocs.clnt.EqAdr;
+import ttf.doocs.clnt.EqCall;
+import ttf.doocs.clnt.EqData;
+import ttf.doocs.clnt.dUSTR;
+import ttf.doocs.clnt.eq_rpc;
+
+/**
+ * <p>EqCallDoocsTransport is {@link DoocsTransport} with JDOOCS client library.</p>
+ *
+ * <p>Each thread has own {@link EqCall} and reuses own addresses and data objects.
+ * Wildcard call is supported, if server answers <code>FACILITY/DEVICE/*&#47;PROPERTY</code> with array of strings,
+ * values are returned as float. Error returned by server fails the call, it is not taken as missing wildcard support.</p>
+ *
+ * @author igor@scictrl.com
+ */
+public class EqCallDoocsTransport implements DoocsTransport {
+
+	private static final class Connection {
+		EqCall call;
+		final Map<String, EqAdr> addresses= new HashMap<String, EqAdr>();
+		final EqData dataIn= new EqData();
+		final EqData dataOut= new EqData();
+
+		EqCall call() {
+			if (call==null) {
+				call= new EqCall();
+			}
+			return call;
+		}
+
+		EqAdr adr(String address) {
+			return addresses.computeIfAbsent(address, EqAdr::new);
+		}
+	}
+
+	private final ThreadLocal<Connection> connections= ThreadLocal.withInitial(Connection::new);
+
+	/**
+	 * Constructor.
+	 */
+	public EqCallDoocsTransport() {
+	}
+
+	private static EqData call(Connection c, String address) throws IOException {
+		try {
+			c.call().get(c.adr(address), c.dataOut, c.dataIn);
+		} catch (Throwable t) {
+			throw new IOException("Failed with error "+t+" while reading value from '"+address+"'.", t);
+		}
+		return c.dataIn;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void read(String address, DoocsData data) throws IOException {
+
+		Connection c= connections.get();
+		EqData in= call(c, address);
+
+		if (in.error() != 0) {
+			throw new IOException("Returned with "+JDoocsValueProcessor.toErrorDesc(in)+" while reading value from '"+address+"'.");
+		}
+
+		int n= in.array_length();
+		if (n==0) {
+			data.setValue(in.get_double());
+		} else {
+			// widened in one pass into reused buffer, without intermediate float array
+			double[] b= data.arrayBuffer(n);
+			for (int i = 0; i < n; i++) {
+				b[i]= in.get_float(i);
+			}
+			data.setArray(b);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Map<String, Double> readWildcard(String server, String property) throws IOException {
+
+		Connection c= connections.get();
+		EqData in= call(c, server+"/*/"+property);
+
+		if (in.error() != 0) {
+			throw new IOException("Returned with "+JDoocsValueProcessor.toErrorDesc(in)+" while reading wildcard '"+server+"/*/"+property+"'.");
+		}
+
+		if (in.type()!=eq_rpc.DATA_A_USTR) {
+			return null;
+		}
+
+		int n= in.length();
+		Map<String, Double> m= new LinkedHashMap<String, Double>(n*2);
+		for (int i = 0; i < n; i++) {
+			dUSTR u= in.get_ustr(i);
+			m.put(toLocation(u.str_data), (double)u.f1_data);
+		}
+		return m;
+	}
+
+	private static String toLocation(byte[] b) {
+		if (b==null) {
+			return "";
+		}
+		int l= 0;
+		while (l<b.length && b[l]!=0) {
+			l++;
+		}
+		return new String(b, 0, l, StandardCharsets.ISO_8859_1).trim();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void write(String address, double value) throws IOException {
+
+		Connection c= connections.get();
+
+		c.dataOut.set_type(eq_rpc.DATA_DOUBLE);
+		c.dataOut.set(value);
+
+		try {
+			c.call().set(c.adr(address), c.dataOut, c.dataIn);
+		} catch (Throwable t) {
+			throw new IOException("Error "+t+" while writing value to '"+address+"'.", t);
+		}
+
+		if (c.dataIn.error() != 0) {
+			throw new IOException("Remote error "+JDoocsValueProcessor.toErrorDesc(c.dataIn)+" returned while writing value to '"+address+"'.");
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void reset() {
+		connections.get().call= null;
+	}
+
+}
@@ -3,35 +3,46 @@
  */
 package org.scictrl.csshell.epics.server.jdoocs;
 
-import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
-
 import org.apache.commons.configuration.HierarchicalConfiguration;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.scictrl.csshell.epics.EPICSUtilities;
 import org.scictrl.csshell.epics.server.Record;
+import org.scictrl.csshell.epics.server.jdoocs.DoocsChannel.Failure;
 import org.scictrl.csshell.epics.server.processor.MemoryValueProcessor;
 
 import gov.aps.jca.dbr.Severity;
 import gov.aps.jca.dbr.Status;
-import ttf.doocs.clnt.EqAdr;
-import ttf.doocs.clnt.EqCall;
 import ttf.doocs.clnt.EqData;
-import ttf.doocs.clnt.eq_rpc;
 
 /**
  * <p>JDoocsValueProcessor class, two directional gateway that translates JDOOCS control system remote property values to EPICS PV values. 
  * Connects to JDOCS remote channel and exports corresponding EPICS channel with configured PV.
  * EPICS PV can be read-only or writable.</p>
  * 
+ * <p>Reads and writes are made by {@link DoocsAcquisitionEngine}, which reads records of same DOOCS server in batches on own pool of the server.
+ * Writes are coalesced, if new value is set while previous write is in flight, only newest value is written after it.
+ * Calls have deadline, after repeated failures DOOCS server is left alone for exponentially growing backoff time.
+ * Failures are shown as alarm status: LINK_ALARM for errors, TIMEOUT_ALARM for missed deadline and COMM_ALARM with INVALID severity while server is in backoff.
+ * Waveforms are published as double arrays from reused double buffer of the channel, record count is changed only when length changes.</p>
+ * 
+ * <p>Configured by following parameters:</p>
+ * 
+ * <ul>
+ * <li>link - DOOCS address in form FACILITY/DEVICE/LOCATION/PROPERTY. Required.</li>
+ * <li>writable - if EPICS PV is writable. Default false.</li>
+ * <li>demo - if true, no remote calls to DOOCS are made. Default false.</li>
+ * <li>pool - number of parallel calls to DOOCS server of this record, if configured by several records, largest is used. Default 2.</li>
+ * <li>timeout - deadline of single call to DOOCS server of this record in ms, if configured by several records, largest is used. Default 5000.</li>
+ * <li>writeRate - maximal number of writes per second to DOOCS server of this record, if configured by several records, lowest is used. Default no limit.</li>
+ * <li>wildcard - if true, scalar values of same property on DOOCS server of this record are read with single wildcard call. Default false.</li>
+ * </ul>
+ * 
  * <p>ENSHOST property value must be set either as system property on level of system environment or system properties in order to find JDOOCS values.</p>
  *
  * @author igor@scictrl.com
  */
-public class JDoocsValueProcessor extends MemoryValueProcessor {
+public class JDoocsValueProcessor extends MemoryValueProcessor implements DoocsChannel.Listener {
 
 	
 	{
@@ -55,28 +66,8 @@ public class JDoocsValueProcessor extends MemoryValueProcessor {
 		
 	}
 	
-	private static ThreadPoolExecutor executor;
-	private static int threadPoolSize = 1;
 	private static Logger log= LogManager.getLogger(JDoocsValueProcessor.class);	
 
-	private static synchronized ThreadPoolExecutor getExecutor() {
-		if (executor == null) {
-			int size= Math.max(threadPoolSize , 1);
-			int coresize= Math.max(threadPoolSize/2, 1);
-			executor = new ThreadPoolExecutor(coresize, size, 60L, TimeUnit.SECONDS,
-		              new LinkedBlockingQueue<Runnable>(),Executors.defaultThreadFactory()){
-				@Override
-				protected void afterExecute(Runnable r, Throwable t) {
-					super.afterExecute(r, t);
-					if (t != null) {
-						t.printStackTrace();
-					}
-				}
-			};
-		}
-		return executor;
-	}
-
 	/**
 	 * <p>toErrorDesc.</p>
 	 *
@@ -93,142 +84,9 @@ public class JDoocsValueProcessor extends MemoryValueProcessor {
 		return sb.toString();
 	}
 
-	private final class ValueReader implements Runnable {
-		
-		String dName;
-		private EqAdr adr;
-		private EqData dataIn;
-		private EqData dataOut;
-		private EqCall call;
-		private long start;
-		
-		boolean aborted=false;
-		boolean busy=false;
-
-		public ValueReader(String dName) {
-			this.dName = dName;
-		}
-		
-		public void abort() {
-			aborted=true;
-		}
-		
-		public void rearm() {
-			busy=true;
-		}
-		
-		@Override
-		public void run() {
-			
-			if (aborted) {
-				return;
-			}
-			
-			if (adr==null) {
-				adr = new EqAdr(dName);
-			}
-			if (dataIn==null) {
-				dataIn = new EqData();
-			}
-			if (dataOut==null) {
-				dataOut = new EqData();
-			}
-			if (call==null) {
-				call = new EqCall();
-			}
-
-			start= System.currentTimeMillis();
-			
-			try {
-				call.get(adr, dataOut, dataIn);
-			} catch (Throwable t) {
-				log.error("Failed with error "+t+" while reading value from '"+dName+"'.",t);
-				valueUpdateFail("Failed with error "+t+" while reading value from '"+dName+"'.");
-				call=null;
-			}
-			
-			busy=false;
-			
-			if (dataIn.error() != 0) {
-				log.error("Returned with "+toErrorDesc(dataIn)+" while reading value from '"+dName+"'.");
-				valueUpdateFail("Returned with "+toErrorDesc(dataIn)+" while reading value from '"+dName+"'.");
-				call=null;
-			}
-
-			int c= dataIn.array_length();
-			if (c==0) {
-				double value = dataIn.get_double();
-				valueUpdate(value);
-			} else {
-				float[] value = dataIn.get_float_array();
-				getRecord().setCount(c);
-				valueUpdate(value);
-			}
-		}
-		
-		public long getStart() {
-			return start;
-		}
-		
-		public boolean isBusy() {
-			return busy;
-		}
-	}
-
-	private final class ValueWriter implements Runnable {
-		
-		String dName;
-		private EqAdr adr;
-		private EqData dataIn;
-		private EqData dataOut;
-		private EqCall call;
-		
-		private double value;
-
-		public ValueWriter(String dName,double value) {
-			this.dName = dName;
-			this.value=value;
-		}
-		
-		@Override
-		public void run() {
-			
-			if (adr==null) {
-				adr = new EqAdr(dName);
-			}
-			if (dataIn==null) {
-				dataIn = new EqData();
-			}
-			if (dataOut==null) {
-				dataOut = new EqData();
-			}
-			if (call==null) {
-				call = new EqCall();
-			}
-
-			dataOut.set_type(eq_rpc.DATA_DOUBLE);
-			dataOut.set(value);
-			
-			try {
-				call.set(adr, dataOut, dataIn);
-			} catch (Throwable t) {
-				log.error("Error "+t+" while writing value to '"+dName+"'.",t);
-				valueUpdateFail("Error "+t+" while writing value to '"+dName+"'.");
-				call=null;
-			}
-			
-			if (dataIn.error() != 0) {
-				log.error("Remote error "+toErrorDesc(dataIn)+" returned while writing value to '"+dName+"'.");
-				valueUpdateFail("Remote error "+toErrorDesc(dataIn)+" returned while writing value to '"+dName+"'.");
-				call=null;
-			}
-		}
-		
-	}
-
 	private String dName;
 	
-	private ValueReader reader;
+	private DoocsChannel channel;
 	private boolean writable;
 	private boolean demo=false;
 
@@ -250,6 +108,21 @@ public class JDoocsValueProcessor extends MemoryValueProcessor {
 		}
 		
 		log.info("["+getName()+"] linked to '"+dName+"'");
+
+		channel= DoocsAcquisitionEngine.getInstance().register(this, dName);
+		
+		if (config.containsKey("pool")) {
+			channel.getServer().requestPoolSize(config.getInt("pool"));
+		}
+		if (config.containsKey("timeout")) {
+			channel.getServer().requestTimeout(config.getLong("timeout",0));
+		}
+		if (config.containsKey("writeRate")) {
+			channel.getServer().requestWriteRate(config.getDouble("writeRate"));
+		}
+		if (config.getBoolean("wildcard",false)) {
+			channel.getServer().setWildcard(true);
+		}
 		
 		writable = config.getBoolean("writable",false);
 		record.setWritable(writable);
@@ -262,11 +135,8 @@ public class JDoocsValueProcessor extends MemoryValueProcessor {
 
 	}
 	
-	/**
-	 * <p>valueUpdate.</p>
-	 *
-	 * @param value a double
-	 */
+	/** {@inheritDoc} */
+	@Override
 	public void valueUpdate(double value) {
 		
 		_setValue(value,Severity.NO_ALARM,Status.NO_ALARM, true);
@@ -280,10 +150,26 @@ public class JDoocsValueProcessor extends MemoryValueProcessor {
 	 */
 	public void valueUpdate(float[] value) {
 		
+		updateCount(value.length);
 		_setValue(value,Severity.NO_ALARM,Status.NO_ALARM, true);
 		
 	}
 
+	/** {@inheritDoc} */
+	@Override
+	public void valueUpdate(double[] value) {
+		
+		updateCount(value.length);
+		_setValue(value,Severity.NO_ALARM,Status.NO_ALARM, true);
+		
+	}
+
+	private void updateCount(int count) {
+		if (getRecord().getCount()!=count) {
+			getRecord().setCount(count);
+		}
+	}
+
 	/**
 	 * <p>valueUpdateFail.</p>
 	 *
@@ -293,6 +179,22 @@ public class JDoocsValueProcessor extends MemoryValueProcessor {
 		record.updateAlarm(Severity.MAJOR_ALARM, Status.LINK_ALARM);
 	}
 
+	/** {@inheritDoc} */
+	@Override
+	public void valueUpdateFail(Failure failure, String message) {
+		switch (failure) {
+		case TIMEOUT:
+			record.updateAlarm(Severity.MAJOR_ALARM, Status.TIMEOUT_ALARM);
+			break;
+		case BACKOFF:
+			record.updateAlarm(Severity.INVALID_ALARM, Status.COMM_ALARM);
+			break;
+		default:
+			valueUpdateFail(message);
+			break;
+		}
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	public void activate() {
@@ -309,23 +211,8 @@ public class JDoocsValueProcessor extends MemoryValueProcessor {
 			return;
 		}
 		
-		if (reader!=null && reader.isBusy()) {
-			if (reader.getStart()>0 && System.currentTimeMillis()-reader.getStart()>getTrigger()*10) {
-				reader.abort();
-				//System.out.println(System.currentTimeMillis()+" "+reader.getStart()+" "+getTrigger());
-				log.error("["+getName()+"] request timeout");
-				reader=null;
-			} else {
-				return;
-			}
-		} 
-		
-		if (reader==null) {
-			reader= new ValueReader(dName);
-		}
-		
-		reader.rearm();
-		getExecutor().submit(reader);
+		// busy channel is not requested, hanging read is ended by server deadline
+		channel.getServer().request(channel);
 
 	}
 	
@@ -339,8 +226,7 @@ public class JDoocsValueProcessor extends MemoryValueProcessor {
 			double d= EPICSUtilities.toDouble(value);
 			//System.out.println("SET "+d);
 			
-			ValueWriter vw= new ValueWriter(dName, d);
-			getExecutor().execute(vw);
+			channel.getServer().write(channel, d);
 		}
 	}
 	
@@ -11,6 +11,7 @@ import org.scictrl.csshell.epics.server.Record;
 import org.scictrl.csshell.epics.server.ValueLinks;
 import org.scictrl.csshell.epics.server.ValueLinks.ValueHolder;
 import org.scictrl.csshell.epics.server.processor.MemoryValueProcessor;
+import org.scictrl.csshell.math.Kernels;
 
 import gov.aps.jca.dbr.Severity;
 import gov.aps.jca.dbr.Status;
@@ -103,9 +104,7 @@ public class PowerOutputValueProcessor extends MemoryValueProcessor implements P
 				record.setCount(out.length);
 			}
 
-			for (int i = 0; i < out.length; i++) {
-				out[i]= pow[i] * att / unitFactor;
-			}
+			Kernels.scale(pow, att / unitFactor, out);
 			
 			_setValue(out,Severity.NO_ALARM,Status.NO_ALARM,true);
 		}
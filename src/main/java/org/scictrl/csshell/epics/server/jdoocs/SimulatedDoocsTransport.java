@@ -0,0 +1,264 @@
+/**
+ *
+ */
+package org.scictrl.csshell.epics.server.jdoocs;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>SimulatedDoocsTransport is {@link DoocsTransport}, which serves DOOCS properties from memory.</p>
+ *
+ * <p>Each call waits for latency plus random jitter and fails with configured probability.
+ * Server, which is set down, blocks every call for down delay and then fails, like unreachable host.
+ * Properties with configured array size return arrays, all other return scalars.
+ * Reads of arrays do not allocate memory, like {@link EqCallDoocsTransport}.
+ * Scalar reads return last written value, or if none was written, value which increases with each read.
+ * Wildcard reads return all locations of property, which were read or written before.</p>
+ *
+ * @author igor@scictrl.com
+ */
+public class SimulatedDoocsTransport implements DoocsTransport {
+
+	/** Default time in ms, which call to server set down blocks before failing. */
+	public static final long DEFAULT_DOWN_DELAY = 5000;
+
+	private final Map<String, Double> values= new ConcurrentHashMap<String, Double>();
+	private final Map<String, String[]> addresses= new ConcurrentHashMap<String, String[]>();
+	private final Map<String, Integer> arraySizes= new ConcurrentHashMap<String, Integer>();
+	private final Map<String, Long> serverLatency= new ConcurrentHashMap<String, Long>();
+	private final Set<String> written= ConcurrentHashMap.newKeySet();
+	private final Set<String> down= ConcurrentHashMap.newKeySet();
+	private final AtomicLong calls= new AtomicLong();
+	private final AtomicLong writes= new AtomicLong();
+	private volatile long latency;
+	private volatile long jitter;
+	private volatile double failureRate;
+	private volatile long downDelay= DEFAULT_DOWN_DELAY;
+	private volatile boolean wildcard= true;
+
+	/**
+	 * Constructor.
+	 */
+	public SimulatedDoocsTransport() {
+	}
+
+	/**
+	 * Sets latency of each call in ms.
+	 *
+	 * @param latency latency in ms
+	 */
+	public void setLatency(long latency) {
+		this.latency= latency;
+	}
+
+	/**
+	 * Sets latency of calls to single server in ms, overrides latency of all servers.
+	 *
+	 * @param server server name in form <code>FACILITY/DEVICE</code>
+	 * @param latency latency in ms
+	 */
+	public void setLatency(String server, long latency) {
+		serverLatency.put(server, latency);
+	}
+
+	/**
+	 * Sets maximal random delay in ms, which is added to latency.
+	 *
+	 * @param jitter jitter in ms
+	 */
+	public void setJitter(long jitter) {
+		this.jitter= jitter;
+	}
+
+	/**
+	 * Sets probability, that call fails.
+	 *
+	 * @param failureRate probability between 0 and 1
+	 */
+	public void setFailureRate(double failureRate) {
+		this.failureRate= failureRate;
+	}
+
+	/**
+	 * Sets server down or up again.
+	 *
+	 * @param server server name in form <code>FACILITY/DEVICE</code>
+	 * @param isDown <code>true</code> if calls to server block and fail
+	 */
+	public void setDown(String server, boolean isDown) {
+		if (isDown) {
+			down.add(server);
+		} else {
+			down.remove(server);
+		}
+	}
+
+	/**
+	 * Sets time in ms, which call to server set down blocks before failing.
+	 *
+	 * @param downDelay delay in ms
+	 */
+	public void setDownDelay(long downDelay) {
+		this.downDelay= downDelay;
+	}
+
+	/**
+	 * Sets array size of property, 0 makes it scalar.
+	 *
+	 * @param property property name
+	 * @param size array size
+	 */
+	public void setArraySize(String property, int size) {
+		arraySizes.put(property, size);
+	}
+
+	/**
+	 * Enables wildcard reads.
+	 *
+	 * @param wildcard <code>true</code> if wildcard reads are supported
+	 */
+	public void setWildcard(boolean wildcard) {
+		this.wildcard= wildcard;
+	}
+
+	/**
+	 * Sets scalar value of property.
+	 *
+	 * @param address DOOCS address
+	 * @param value the value
+	 */
+	public void setValue(String address, double value) {
+		values.put(address, value);
+		written.add(address);
+	}
+
+	/**
+	 * Returns scalar value of property.
+	 *
+	 * @param address DOOCS address
+	 * @return the value, or NaN if property was never read or written
+	 */
+	public double getValue(String address) {
+		Double d= values.get(address);
+		return d==null ? Double.NaN : d;
+	}
+
+	/**
+	 * Returns number of all calls, including failed.
+	 *
+	 * @return number of calls
+	 */
+	public long getCallCount() {
+		return calls.get();
+	}
+
+	/**
+	 * Returns number of successful writes.
+	 *
+	 * @return number of writes
+	 */
+	public long getWriteCount() {
+		return writes.get();
+	}
+
+	/**
+	 * Returns server and property of address, kept in map, so reads do not allocate.
+	 */
+	private static String[] parse(String address) {
+		String[] s= DoocsAcquisitionEngine.split(address);
+		return new String[]{s[0]+"/"+s[1], s[3]};
+	}
+
+	private void call(String server) throws IOException {
+
+		calls.incrementAndGet();
+
+		try {
+			if (down.contains(server)) {
+				Thread.sleep(downDelay);
+				throw new IOException("Simulated server '"+server+"' is not reachable!");
+			}
+
+			Long l= serverLatency.get(server);
+			long d= l!=null ? l : latency;
+			long j= jitter;
+			if (j>0) {
+				d+= ThreadLocalRandom.current().nextLong(j+1);
+			}
+			if (d>0) {
+				Thread.sleep(d);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Simulated call to '"+server+"' interrupted!", e);
+		}
+
+		double f= failureRate;
+		if (f>0.0 && ThreadLocalRandom.current().nextDouble()<f) {
+			throw new IOException("Simulated failure of '"+server+"'!");
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void read(String address, DoocsData data) throws IOException {
+
+		String[] s= addresses.computeIfAbsent(address, SimulatedDoocsTransport::parse);
+		call(s[0]);
+
+		Integer size= arraySizes.get(s[1]);
+		if (size!=null && size>0) {
+			double[] a= data.arrayBuffer(size);
+			double o= calls.get()%size;
+			for (int i = 0; i < a.length; i++) {
+				a[i]= o+i;
+			}
+			data.setArray(a);
+		} else {
+			data.setValue(values.compute(address, (a,o) -> o==null ? 1.0 : written.contains(a) ? o : o+1.0));
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Map<String, Double> readWildcard(String server, String property) throws IOException {
+
+		call(server);
+
+		if (!wildcard) {
+			return null;
+		}
+
+		String suffix= "/"+property;
+		Map<String, Double> m= new LinkedHashMap<String, Double>();
+		for (Map.Entry<String, Double> e : values.entrySet()) {
+			String a= e.getKey();
+			if (a.startsWith(server+"/") && a.endsWith(suffix)) {
+				m.put(DoocsAcquisitionEngine.split(a)[2], e.getValue());
+			}
+		}
+		return m;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void write(String address, double value) throws IOException {
+
+		call(DoocsAcquisitionEngine.serverOf(address));
+		setValue(address, value);
+		writes.incrementAndGet();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void reset() {
+		// no connection
+	}
+
+}
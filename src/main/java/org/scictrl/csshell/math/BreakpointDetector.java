@@ -0,0 +1,200 @@
+/**
+ *
+ */
+package org.scictrl.csshell.math;
+
+/**
+ * <p>Streaming counterpart of {@link PatternSearch#findBreakpointsHiLoHHi(double[], double)}.
+ * Samples are added one at a time and breakpoints High1, Low1 and High2 are reported as soon as they are confirmed.</p>
+ *
+ * <p>Peak is confirmed when signal falls below it by more than hysteresis, valley is confirmed when
+ * signal rises above it by more than hysteresis. High2 must be higher than High1. If a peak is found after Low1,
+ * which is not higher than High1, search for Low1 continues and Low1 is moved to new minimum if one is found.
+ * Therefore Low1 may be reported more than once, each report replaces previous one.
+ * Samples below threshold are ignored.</p>
+ *
+ * @author igor@scictrl.com
+ */
+public final class BreakpointDetector {
+
+	/**
+	 * Breakpoints in order in which they are found.
+	 */
+	public static enum Breakpoint {
+		/** First peak. */
+		HIGH1,
+		/** Minimum between first and second peak. */
+		LOW1,
+		/** Second peak, higher than first. */
+		HIGH2
+	}
+
+	/**
+	 * Listener, which is notified when breakpoint has been confirmed.
+	 */
+	public static interface Listener {
+		/**
+		 * Breakpoint has been confirmed or moved.
+		 * @param breakpoint the breakpoint
+		 * @param index index of sample, counted from first added sample
+		 * @param value the sample value
+		 */
+		public void breakpointFound(Breakpoint breakpoint, int index, double value);
+	}
+
+	private final double threshold;
+	private final double hysteresis;
+	private Listener listener;
+
+	private Breakpoint searching;
+	private int count;
+	// extreme of current search
+	private int extremeIndex;
+	private double extreme;
+
+	private final int[] indexes= new int[3];
+	private final double[] values= new double[3];
+
+	/**
+	 * Constructor.
+	 * @param threshold samples below this threshold are ignored
+	 * @param hysteresis how much signal must move away from extreme to confirm it
+	 */
+	public BreakpointDetector(double threshold, double hysteresis) {
+		if (hysteresis<0.0) {
+			throw new IllegalArgumentException("Hysteresis '"+hysteresis+"' must not be negative!");
+		}
+		this.threshold=threshold;
+		this.hysteresis=hysteresis;
+		reset();
+	}
+
+	/**
+	 * Sets listener for confirmed breakpoints.
+	 * @param listener the listener, can be <code>null</code>
+	 */
+	public void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Clears state, new search starts with next sample.
+	 */
+	public void reset() {
+		searching= Breakpoint.HIGH1;
+		count=0;
+		extremeIndex=-1;
+		extreme=Double.NaN;
+		indexes[0]=indexes[1]=indexes[2]=-1;
+		values[0]=values[1]=values[2]=Double.NaN;
+	}
+
+	/**
+	 * Adds next sample.
+	 * @param sample the sample value
+	 * @return <code>true</code> if High2 is confirmed and search is complete
+	 */
+	public boolean add(double sample) {
+
+		int i= count++;
+
+		if (searching==null || !(sample>threshold)) {
+			return isComplete();
+		}
+
+		switch (searching) {
+		case HIGH1:
+			if (extremeIndex<0 || sample>extreme) {
+				extreme(i, sample);
+			} else if (sample<extreme-hysteresis) {
+				confirm(Breakpoint.HIGH1);
+				searching= Breakpoint.LOW1;
+				extreme(i, sample);
+			}
+			break;
+		case LOW1:
+			if (sample<extreme) {
+				extreme(i, sample);
+			} else if (sample>extreme+hysteresis) {
+				if (indexes[1]<0 || extreme<values[1]) {
+					confirm(Breakpoint.LOW1);
+				}
+				searching= Breakpoint.HIGH2;
+				extreme(i, sample);
+			}
+			break;
+		case HIGH2:
+			if (sample>extreme) {
+				extreme(i, sample);
+			} else if (sample<extreme-hysteresis) {
+				if (extreme>values[0]) {
+					confirm(Breakpoint.HIGH2);
+					searching= null;
+				} else {
+					// peak not higher than High1, continues search for lower Low1
+					searching= Breakpoint.LOW1;
+					extreme(i, sample);
+				}
+			}
+			break;
+		}
+
+		return isComplete();
+	}
+
+	private void extreme(int i, double v) {
+		extremeIndex=i;
+		extreme=v;
+	}
+
+	private void confirm(Breakpoint b) {
+		indexes[b.ordinal()]= extremeIndex;
+		values[b.ordinal()]= extreme;
+		if (listener!=null) {
+			listener.breakpointFound(b, extremeIndex, extreme);
+		}
+	}
+
+	/**
+	 * Returns <code>true</code> if all three breakpoints are confirmed.
+	 * @return <code>true</code> if search is complete
+	 */
+	public boolean isComplete() {
+		return searching==null;
+	}
+
+	/**
+	 * Returns number of added samples.
+	 * @return number of added samples
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns index of confirmed breakpoint, or -1 if not yet confirmed.
+	 * @param b the breakpoint
+	 * @return index of breakpoint or -1
+	 */
+	public int getIndex(Breakpoint b) {
+		return indexes[b.ordinal()];
+	}
+
+	/**
+	 * Returns value of confirmed breakpoint, or NaN if not yet confirmed.
+	 * @param b the breakpoint
+	 * @return value of breakpoint or NaN
+	 */
+	public double getValue(Breakpoint b) {
+		return values[b.ordinal()];
+	}
+
+	/**
+	 * Returns indexes of confirmed breakpoints in same form as {@link PatternSearch#findBreakpointsHiLoHHi(double[], double)}.
+	 * @return array with three indexes (High1, Low1, High2), -1 if not confirmed
+	 */
+	public int[] getIndexes() {
+		return indexes.clone();
+	}
+
+}
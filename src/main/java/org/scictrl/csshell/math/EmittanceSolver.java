@@ -0,0 +1,364 @@
+/**
+ *
+ */
+package org.scictrl.csshell.math;
+
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * <p>EmittanceSolver calculates emittance from quadrupole scan, same as Python script <code>emittance.py</code>.</p>
+ *
+ * <p>Square of beam width is fitted with weighted least squares as parabola <code>a*k<sup>2</sup>+b*k+c</code>
+ * of quadrupole strength k, where weight of each point is <code>1/(2*w*std)<sup>2</sup></code>. Parameter errors are scaled
+ * with reduced chi square, as with <code>curve_fit(..., absolute_sigma=False)</code>.
+ * Beam matrix elements and emittance are calculated from parabola for drift {@link #DRIFT} and quadrupole length {@link #QUAD_LENGTH}.</p>
+ *
+ * <p>Emittance error is by default calculated with analytic propagation of fit errors, same as in script.
+ * Correlations between fit parameters are not taken into account, so this error is rather conservative.
+ * Alternatively it can be estimated by bootstrap resampling of measurements, see {@link #setBootstrap(int)}.</p>
+ *
+ * @author igor@scictrl.com
+ */
+public final class EmittanceSolver {
+
+	/** Drift length from quadrupole to screen in m. */
+	public static final double DRIFT = 1.4095;
+	/** Uncertainty of drift length in m. */
+	public static final double DRIFT_ERROR = 0.001;
+	/** Quadrupole length in m. */
+	public static final double QUAD_LENGTH = 0.08;
+	/** Quadrupole gradient in T/m per A of current. */
+	public static final double GRADIENT_SLOPE = -0.101392;
+	/** Quadrupole gradient offset in T/m. */
+	public static final double GRADIENT_OFFSET = -0.002657;
+	/** Electron rest energy in MeV, CODATA value as used by <code>scipy.constants</code>. */
+	public static final double ELECTRON_REST_ENERGY = 0.51099895000;
+	/** Speed of light in m/s. */
+	public static final double SPEED_OF_LIGHT = 299792458.0;
+
+	/**
+	 * Result of emittance calculation.
+	 */
+	public static final class Result {
+		/** Emittance in mm mrad. */
+		public final double emittance;
+		/** Emittance error in mm mrad. */
+		public final double emittanceStd;
+		/** Fitted parabola parameters a, b, c. */
+		public final double a, b, c;
+		/** Errors of fitted parabola parameters. */
+		public final double da, db, dc;
+
+		Result(double emittance, double emittanceStd, double[] p, double[] dp) {
+			this.emittance=emittance;
+			this.emittanceStd=emittanceStd;
+			a=p[0];
+			b=p[1];
+			c=p[2];
+			da=dp[0];
+			db=dp[1];
+			dc=dp[2];
+		}
+
+		/**
+		 * Returns emittance and error as array.
+		 * @return array with emittance and error
+		 */
+		public double[] toArray() {
+			return new double[]{emittance,emittanceStd};
+		}
+	}
+
+	private double energy=5.81;
+	private int bootstrap;
+	private long seed=1;
+
+	/**
+	 * <p>Constructor for EmittanceSolver.</p>
+	 */
+	public EmittanceSolver() {
+	}
+
+	/**
+	 * Sets beam energy in MeV.
+	 * @param energy beam energy in MeV
+	 */
+	public void setEnergy(double energy) {
+		this.energy = energy;
+	}
+
+	/**
+	 * Returns beam energy in MeV.
+	 * @return beam energy in MeV
+	 */
+	public double getEnergy() {
+		return energy;
+	}
+
+	/**
+	 * Sets number of bootstrap samples for emittance error, 0 uses analytic error propagation.
+	 * Bootstrap samples are calculated in parallel.
+	 * @param samples number of bootstrap samples, 0 for analytic error
+	 */
+	public void setBootstrap(int samples) {
+		this.bootstrap = Math.max(0, samples);
+	}
+
+	/**
+	 * Returns number of bootstrap samples, 0 if analytic error propagation is used.
+	 * @return number of bootstrap samples
+	 */
+	public int getBootstrap() {
+		return bootstrap;
+	}
+
+	/**
+	 * Sets seed for bootstrap resampling, same seed gives same result.
+	 * @param seed the random seed
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Returns quadrupole strength k in 1/m<sup>2</sup> for quadrupole current.
+	 * @param current quadrupole current in A
+	 * @param energy beam energy in MeV
+	 * @return quadrupole strength
+	 */
+	public static double strength(double current, double energy) {
+		// k = e*g/p, with p = Pc/c in SI units, elementary charge cancels out
+		double pc= Math.sqrt(energy*energy+ELECTRON_REST_ENERGY*ELECTRON_REST_ENERGY)*1.0E6;
+		double g= GRADIENT_SLOPE*current+GRADIENT_OFFSET;
+		return g*SPEED_OF_LIGHT/pc;
+	}
+
+	/**
+	 * Calculates emittance, takes same inputs as <code>EmittanceCalculator</code>.
+	 *
+	 * @param quadCurrents quadrupole currents in A
+	 * @param beamWidths beam widths in mm
+	 * @param beamWidthsStd standard deviation of beam widths in mm
+	 * @return result with emittance and error
+	 */
+	public Result solve(double[] quadCurrents, double[] beamWidths, double[] beamWidthsStd) {
+		return solve(energy, quadCurrents, beamWidths, beamWidthsStd);
+	}
+
+	/**
+	 * Calculates emittance for provided energy, energy of solver is not changed. Can be called from several threads at the same time.
+	 *
+	 * @param energy beam energy in MeV
+	 * @param quadCurrents quadrupole currents in A
+	 * @param beamWidths beam widths in mm
+	 * @param beamWidthsStd standard deviation of beam widths in mm
+	 * @return result with emittance and error
+	 */
+	public Result solve(double energy, double[] quadCurrents, double[] beamWidths, double[] beamWidthsStd) {
+
+		if (quadCurrents==null || beamWidths==null || beamWidthsStd==null) {
+			throw new NullPointerException("Input parameters contain null!");
+		}
+		if ((quadCurrents.length != beamWidths.length) || (quadCurrents.length != beamWidthsStd.length)) {
+			throw new IllegalArgumentException("Input arrays are not of same legngth");
+		}
+		if (quadCurrents.length<3) {
+			throw new IllegalArgumentException("At least 3 measurements are required, got "+quadCurrents.length+"!");
+		}
+
+		int n= quadCurrents.length;
+		double[] k= new double[n];
+		double[] y= new double[n];
+		double[] w= new double[n];
+
+		for (int i = 0; i < n; i++) {
+			k[i]= strength(quadCurrents[i], energy);
+			y[i]= beamWidths[i]*beamWidths[i];
+			double s= 2.0*beamWidths[i]*beamWidthsStd[i];
+			w[i]= 1.0/(s*s);
+		}
+
+		double[] p= new double[3];
+		double[] dp= new double[3];
+
+		fit(k, y, w, null, p, dp);
+
+		double[] em= emittance(p, dp);
+
+		if (bootstrap>0) {
+			em[1]= bootstrap(k, y, w);
+		}
+
+		return new Result(em[0], em[1], p, dp);
+	}
+
+	/**
+	 * Bootstrap estimate of emittance error, standard deviation of emittance over resampled measurements.
+	 */
+	private double bootstrap(final double[] k, final double[] y, final double[] w) {
+
+		final int n= k.length;
+		final SplittableRandom root= new SplittableRandom(seed);
+		final SplittableRandom[] rnd= new SplittableRandom[bootstrap];
+		for (int i = 0; i < rnd.length; i++) {
+			rnd[i]= root.split();
+		}
+
+		double[] e= IntStream.range(0, bootstrap).parallel().mapToDouble(i -> {
+			int[] count= new int[n];
+			for (int j = 0; j < n; j++) {
+				count[rnd[i].nextInt(n)]++;
+			}
+			double[] p= new double[3];
+			if (!fit(k, y, w, count, p, null)) {
+				return Double.NaN;
+			}
+			return emittance(p, null)[0];
+		}).filter(d -> !Double.isNaN(d)).toArray();
+
+		if (e.length<2) {
+			return Double.NaN;
+		}
+
+		double m= 0.0;
+		for (double d : e) {
+			m+= d;
+		}
+		m/= e.length;
+		double v= 0.0;
+		for (double d : e) {
+			v+= (d-m)*(d-m);
+		}
+		return Math.sqrt(v/(e.length-1));
+	}
+
+	/**
+	 * Weighted least squares fit of parabola. Point i is used count[i] times, or once if count is null.
+	 * Returns false if normal matrix is singular.
+	 */
+	static boolean fit(double[] k, double[] y, double[] w, int[] count, double[] p, double[] dp) {
+
+		// normal equations M p = v, with basis k^2, k, 1
+		double s0=0, s1=0, s2=0, s3=0, s4=0, v0=0, v1=0, v2=0;
+		int n= 0;
+
+		for (int i = 0; i < k.length; i++) {
+			double c= count==null ? 1 : count[i];
+			if (c==0) {
+				continue;
+			}
+			n+= c;
+			double x= k[i];
+			double x2= x*x;
+			double wi= w[i]*c;
+			s0+= wi;
+			s1+= wi*x;
+			s2+= wi*x2;
+			s3+= wi*x2*x;
+			s4+= wi*x2*x2;
+			v0+= wi*x2*y[i];
+			v1+= wi*x*y[i];
+			v2+= wi*y[i];
+		}
+
+		double[][] m= {
+				{s4, s3, s2},
+				{s3, s2, s1},
+				{s2, s1, s0}};
+
+		double[][] inv= invert3(m);
+		if (inv==null) {
+			return false;
+		}
+
+		p[0]= inv[0][0]*v0+inv[0][1]*v1+inv[0][2]*v2;
+		p[1]= inv[1][0]*v0+inv[1][1]*v1+inv[1][2]*v2;
+		p[2]= inv[2][0]*v0+inv[2][1]*v1+inv[2][2]*v2;
+
+		if (dp!=null) {
+			double chi2= 0.0;
+			for (int i = 0; i < k.length; i++) {
+				double c= count==null ? 1 : count[i];
+				double r= y[i]-(p[0]*k[i]*k[i]+p[1]*k[i]+p[2]);
+				chi2+= c*w[i]*r*r;
+			}
+			// as curve_fit, covariance is infinite if there are no degrees of freedom
+			double s= n>3 ? chi2/(n-3) : Double.POSITIVE_INFINITY;
+			for (int i = 0; i < 3; i++) {
+				dp[i]= Math.sqrt(inv[i][i]*s);
+			}
+		}
+
+		return true;
+	}
+
+	static double[][] invert3(double[][] m) {
+
+		double c00= m[1][1]*m[2][2]-m[1][2]*m[2][1];
+		double c01= m[1][2]*m[2][0]-m[1][0]*m[2][2];
+		double c02= m[1][0]*m[2][1]-m[1][1]*m[2][0];
+
+		double det= m[0][0]*c00+m[0][1]*c01+m[0][2]*c02;
+
+		if (det==0.0 || Double.isNaN(det)) {
+			return null;
+		}
+
+		double[][] r= new double[3][3];
+		r[0][0]= c00/det;
+		r[1][0]= c01/det;
+		r[2][0]= c02/det;
+		r[0][1]= (m[0][2]*m[2][1]-m[0][1]*m[2][2])/det;
+		r[1][1]= (m[0][0]*m[2][2]-m[0][2]*m[2][0])/det;
+		r[2][1]= (m[0][1]*m[2][0]-m[0][0]*m[2][1])/det;
+		r[0][2]= (m[0][1]*m[1][2]-m[0][2]*m[1][1])/det;
+		r[1][2]= (m[0][2]*m[1][0]-m[0][0]*m[1][2])/det;
+		r[2][2]= (m[0][0]*m[1][1]-m[0][1]*m[1][0])/det;
+
+		return r;
+	}
+
+	/**
+	 * Emittance and its analytic error from parabola parameters, same formulas as in script.
+	 * Error is calculated only if dp is not null.
+	 */
+	static double[] emittance(double[] p, double[] dp) {
+
+		final double d= DRIFT;
+		final double l= QUAD_LENGTH;
+		final double dd= DRIFT_ERROR;
+
+		double a= p[0];
+		double b= p[1];
+		double c= p[2];
+
+		double x0= a/(d*d)/(l*l);
+		double x0p0= b/(2*d*d)/l - a/(d*d*d)/(l*l);
+		double p0= c/(d*d) - b/(d*d*d)/l + a/(d*d*d*d)/(l*l);
+
+		double e2= x0*p0-x0p0*x0p0;
+		double e= e2<0.0 ? 0.0 : Math.sqrt(e2);
+
+		double err= 0.0;
+
+		if (dp!=null && e!=0.0) {
+			double da= dp[0];
+			double db= dp[1];
+			double dc= dp[2];
+
+			double dx0= Math.hypot(da/(d*d), 2*a/(d*d*d)*dd);
+			double dx0p0= Math.sqrt(sq(da/(d*d*d)) + sq(db/2/(d*d)) + sq(3*a/(d*d*d*d) - b/(d*d*d))*dd*dd);
+			double dp0= Math.sqrt(sq(da/(d*d*d*d)) + sq(db/(d*d*d)) + sq(dc/(d*d)) + sq(-4*a/(d*d*d*d*d) + 3*b/(d*d*d*d) - 2*c/(d*d*d))*dd*dd);
+
+			err= Math.sqrt(sq(p0/2/e*dx0) + sq(x0/2/e*dp0) + sq(x0p0/e*dx0p0));
+		}
+
+		return new double[]{e,err};
+	}
+
+	private static double sq(double d) {
+		return d*d;
+	}
+
+}
@@ -0,0 +1,76 @@
+/**
+ * 
+ */
+package org.scictrl.csshell.math;
+
+/**
+ * Exponential smoothing, <code>value= alpha*sample + (1-alpha)*value</code>. First sample initializes value.
+ * Filter has no window, it is ready after first sample and has no delay.
+ *
+ * @author igor@scictrl.com
+ */
+public final class ExponentialFilter implements OnlineFilter {
+
+	private final double alpha;
+	private double value= Double.NaN;
+	private int count;
+
+	/**
+	 * Constructor.
+	 * @param alpha weight of new sample, between 0 (exclusive) and 1 (inclusive)
+	 */
+	public ExponentialFilter(double alpha) {
+		if (!(alpha>0.0 && alpha<=1.0)) {
+			throw new IllegalArgumentException("Alpha '"+alpha+"' must be in (0,1]!");
+		}
+		this.alpha=alpha;
+	}
+
+	/**
+	 * Returns weight of new sample.
+	 * @return weight of new sample
+	 */
+	public double getAlpha() {
+		return alpha;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public double add(double sample) {
+		value= count==0 ? sample : value+alpha*(sample-value);
+		count++;
+		return value;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public double getValue() {
+		return value;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getDelay() {
+		return 0;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getCount() {
+		return count;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean isReady() {
+		return count>0;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void reset() {
+		count=0;
+		value=Double.NaN;
+	}
+
+}
@@ -0,0 +1,28 @@
+/**
+ * 
+ */
+package org.scictrl.csshell.math;
+
+/**
+ * Operations over double arrays, implemented by {@link ScalarKernels} and {@link VectorKernels}.
+ * See {@link Kernels} for description of operations.
+ *
+ * @author igor@scictrl.com
+ */
+interface KernelOps {
+
+	double sum(double[] data, int start, int count);
+
+	double[] scale(double[] src, double factor, double[] dst);
+
+	double[] squareScale(double[] src, double factor, double[] dst);
+
+	double min(double[] data);
+
+	double max(double[] data);
+
+	int argmax(double[] data);
+
+	int firstExceeding(double[] data, double threshold);
+
+}
@@ -0,0 +1,153 @@
+/**
+ * 
+ */
+package org.scictrl.csshell.math;
+
+import org.apache.logging.log4j.LogManager;
+
+/**
+ * <p>Kernels provides basic operations over waveform arrays.</p>
+ *
+ * <p>When JVM is started with <code>--add-modules jdk.incubator.vector</code>, operations are
+ * implemented with vector API, otherwise plain loops are used. Which implementation is used is decided once,
+ * when class is loaded. Vector implementation can be disabled with system property
+ * <code>csshell.kernels.scalar=true</code>.</p>
+ *
+ * <p>Vector implementation sums elements in different order than plain loop, so sums may differ in last digits.
+ * NaN values propagate in min and max as with {@link Math#min(double, double)} and {@link Math#max(double, double)}.</p>
+ *
+ * @author igor@scictrl.com
+ */
+public final class Kernels {
+	
+	/** System property, which disables vector implementation if set to <code>true</code>. */
+	public static final String PROPERTY_SCALAR = "csshell.kernels.scalar";
+	
+	private static final KernelOps OPS= load();
+	
+	private static KernelOps load() {
+		if (Boolean.getBoolean(PROPERTY_SCALAR)) {
+			return new ScalarKernels();
+		}
+		try {
+			// loaded trough reflection, so missing module fails here and not when Kernels is linked 
+			KernelOps ops= (KernelOps)Class.forName(Kernels.class.getPackage().getName()+".VectorKernels").getDeclaredConstructor().newInstance();
+			// forces initialization of vector species 
+			ops.sum(new double[1], 0, 1);
+			return ops;
+		} catch (Throwable t) {
+			LogManager.getLogger(Kernels.class).debug("Vector API not available, using scalar kernels: "+t.toString());
+			return new ScalarKernels();
+		}
+	}
+	
+	/**
+	 * Returns implementation in use.
+	 * @return implementation in use
+	 */
+	static KernelOps ops() {
+		return OPS;
+	}
+	
+	/**
+	 * Returns <code>true</code> if vector API implementation is used.
+	 * @return <code>true</code> if vector API implementation is used
+	 */
+	public static boolean isVectorized() {
+		return !(OPS instanceof ScalarKernels);
+	}
+	
+	/**
+	 * Sums all elements of array.
+	 * @param data the data array
+	 * @return sum of elements
+	 */
+	public static double sum(final double[] data) {
+		return OPS.sum(data, 0, data.length);
+	}
+	
+	/**
+	 * Sums elements of sub-array.
+	 * @param data the data array
+	 * @param start start index of sub-array
+	 * @param count the count of elements in sub-array
+	 * @return sum of elements of sub-array
+	 */
+	public static double sum(final double[] data, final int start, final int count) {
+		if (start<0 || count<0 || start+count>data.length) {
+			throw new IndexOutOfBoundsException("Sub-array start '"+start+"' count '"+count+"' is outside '"+data.length+"'!");
+		}
+		return OPS.sum(data, start, count);
+	}
+	
+	/**
+	 * Multiplies each element with factor, <code>dst[i]=src[i]*factor</code>.
+	 * @param src the source array
+	 * @param factor the factor
+	 * @param dst destination array, at least as long as source, may be same as source
+	 * @return the destination array
+	 */
+	public static double[] scale(final double[] src, final double factor, final double[] dst) {
+		checkDst(src, dst);
+		return OPS.scale(src, factor, dst);
+	}
+	
+	/**
+	 * Squares each element and multiplies it with factor, <code>dst[i]=src[i]*src[i]*factor</code>.
+	 * @param src the source array
+	 * @param factor the factor
+	 * @param dst destination array, at least as long as source, may be same as source
+	 * @return the destination array
+	 */
+	public static double[] squareScale(final double[] src, final double factor, final double[] dst) {
+		checkDst(src, dst);
+		return OPS.squareScale(src, factor, dst);
+	}
+	
+	private static void checkDst(final double[] src, final double[] dst) {
+		if (dst.length<src.length) {
+			throw new IndexOutOfBoundsException("Destination length '"+dst.length+"' is shorter than source '"+src.length+"'!");
+		}
+	}
+	
+	/**
+	 * Returns smallest element, or positive infinity for empty array.
+	 * @param data the data array
+	 * @return smallest element
+	 */
+	public static double min(final double[] data) {
+		return OPS.min(data);
+	}
+	
+	/**
+	 * Returns largest element, or negative infinity for empty array.
+	 * @param data the data array
+	 * @return largest element
+	 */
+	public static double max(final double[] data) {
+		return OPS.max(data);
+	}
+	
+	/**
+	 * Returns index of first largest element, or -1 for empty array. If array contains NaN, index of first NaN is returned. 
+	 * @param data the data array
+	 * @return index of largest element
+	 */
+	public static int argmax(final double[] data) {
+		return OPS.argmax(data);
+	}
+	
+	/**
+	 * Returns index of first element, which is larger than threshold, or -1 if there is none.
+	 * @param data the data array
+	 * @param threshold the threshold
+	 * @return index of first element above threshold or -1
+	 */
+	public static int firstExceeding(final double[] data, final double threshold) {
+		return OPS.firstExceeding(data, threshold);
+	}
+	
+	private Kernels() {
+	}
+
+}
@@ -0,0 +1,55 @@
+/**
+ * 
+ */
+package org.scictrl.csshell.math;
+
+import java.util.Arrays;
+
+/**
+ * <p>Median of last k samples, removes single sample spikes without shifting edges.
+ * For even k value is average of two middle samples.</p>
+ *
+ * <p>Samples are kept also in sorted array, each new sample replaces oldest one with binary search and
+ * array shift, which is O(k) per sample with no allocation, fast for window sizes used on scans.</p>
+ *
+ * @author igor@scictrl.com
+ */
+public final class MedianFilter extends WindowFilter {
+
+	private final double[] sorted;
+
+	/**
+	 * Constructor.
+	 * @param size number of samples in median window
+	 */
+	public MedianFilter(int size) {
+		super(size);
+		sorted= new double[size];
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public double add(double sample) {
+		
+		double old= push(sample);
+		int n= filled();
+		
+		if (count>window.length) {
+			// removes old sample, binary search uses same ordering as sort, also for NaN
+			int i= Arrays.binarySearch(sorted, 0, n, old);
+			System.arraycopy(sorted, i+1, sorted, i, n-1-i);
+		}
+		
+		int i= Arrays.binarySearch(sorted, 0, n-1, sample);
+		if (i<0) {
+			i= -i-1;
+		}
+		System.arraycopy(sorted, i, sorted, i+1, n-1-i);
+		sorted[i]= sample;
+		
+		value= (n&1)==1 ? sorted[n/2] : (sorted[n/2-1]+sorted[n/2])/2.0;
+		
+		return value;
+	}
+
+}
@@ -0,0 +1,54 @@
+/**
+ * 
+ */
+package org.scictrl.csshell.math;
+
+/**
+ * <p>Moving average over last samples, online counterpart of {@link Smoothing#smoothAvg(double[], int)}.
+ * Once window is full, filtered value is same as smoothed value of array at index <code>count-1-delay</code>.</p>
+ *
+ * <p>Running sum is kept with compensated (Kahan) summation, so it does not drift on long streams.</p>
+ *
+ * @author igor@scictrl.com
+ */
+public final class MovingAverageFilter extends WindowFilter {
+
+	private double sum;
+	private double comp;
+
+	/**
+	 * Constructor.
+	 * @param size number of samples in average
+	 */
+	public MovingAverageFilter(int size) {
+		super(size);
+	}
+
+	private void accumulate(double d) {
+		double y= d-comp;
+		double t= sum+y;
+		comp= (t-sum)-y;
+		sum= t;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public double add(double sample) {
+		double old= push(sample);
+		if (count>window.length) {
+			accumulate(-old);
+		}
+		accumulate(sample);
+		value= sum/filled();
+		return value;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void reset() {
+		super.reset();
+		sum=0.0;
+		comp=0.0;
+	}
+
+}
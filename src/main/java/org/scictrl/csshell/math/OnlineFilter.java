@@ -0,0 +1,53 @@
+/**
+ * 
+ */
+package org.scictrl.csshell.math;
+
+/**
+ * <p>Filter, which accepts one sample at a time and provides filtered value after each sample.
+ * Implementations allocate nothing after construction and take constant time per sample for given filter size.</p>
+ *
+ * <p>Window based filters are centered, filtered value belongs to sample, which was added {@link #getDelay()} samples ago.
+ * Until window is filled, filtered value is calculated from available samples and {@link #isReady()} returns <code>false</code>.</p>
+ *
+ * @author igor@scictrl.com
+ */
+public interface OnlineFilter {
+
+	/**
+	 * Adds new sample and returns new filtered value.
+	 * @param sample the new sample
+	 * @return filtered value
+	 */
+	public double add(double sample);
+
+	/**
+	 * Returns last filtered value, NaN if no sample has been added.
+	 * @return last filtered value
+	 */
+	public double getValue();
+
+	/**
+	 * Returns number of samples, by which filtered value lags behind last added sample.
+	 * @return delay in samples
+	 */
+	public int getDelay();
+
+	/**
+	 * Returns number of samples added since creation or last reset.
+	 * @return number of added samples
+	 */
+	public int getCount();
+
+	/**
+	 * Returns <code>true</code> if enough samples were added for complete filter window.
+	 * @return <code>true</code> if filter window is complete
+	 */
+	public boolean isReady();
+
+	/**
+	 * Clears all samples.
+	 */
+	public void reset();
+
+}
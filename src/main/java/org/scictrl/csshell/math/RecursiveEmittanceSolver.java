@@ -0,0 +1,263 @@
+/**
+ *
+ */
+package org.scictrl.csshell.math;
+
+import java.util.Arrays;
+
+/**
+ * <p>Online counterpart of {@link EmittanceSolver}. Measurements are added one at a time during quadrupole scan and
+ * parabola fit is updated with recursive least squares, each update takes constant time.</p>
+ *
+ * <p>Fit is recursive least squares in information form: each measurement is added to weighted normal equations
+ * and parameters are solved from 3x3 system. Covariance form with Sherman-Morrison update is not used,
+ * because it loses precision when it is initialized from first three, usually close, scan points.
+ * Result is same as batch weighted least squares fit of same measurements by {@link EmittanceSolver}.
+ * Fit errors are scaled with reduced chi square, same as in {@link EmittanceSolver}.</p>
+ *
+ * <p>Emittance error is propagated from full covariance of fit parameters, including correlations,
+ * and from uncertainty of drift length. It is therefore smaller than conservative error of {@link EmittanceSolver},
+ * which ignores correlations. Confidence interval is error multiplied by {@link #getConfidence()}.</p>
+ *
+ * @author igor@scictrl.com
+ */
+public final class RecursiveEmittanceSolver {
+
+	/** Two-sided 95% quantile of normal distribution. */
+	public static final double Z_95 = 1.959963984540054;
+
+	private final double energy;
+	// strength is scaled to keep normal matrix well conditioned
+	private final double scale;
+	private double confidence=Z_95;
+
+	private int count;
+	// weighted normal equations
+	private final double[][] m= new double[3][3];
+	private final double[] v= new double[3];
+	private double syy;
+	// parameters for scaled strength and inverse of normal matrix, null until there are enough distinct points
+	private final double[] theta= new double[3];
+	private double[][] p;
+	private double chi2;
+
+	/**
+	 * Constructor.
+	 * @param energy beam energy in MeV
+	 */
+	public RecursiveEmittanceSolver(double energy) {
+		this.energy=energy;
+		double ks= Math.abs(EmittanceSolver.strength(1.0, energy));
+		this.scale= ks>0.0 && Double.isFinite(ks) ? ks : 1.0;
+	}
+
+	/**
+	 * Returns beam energy in MeV.
+	 * @return beam energy in MeV
+	 */
+	public double getEnergy() {
+		return energy;
+	}
+
+	/**
+	 * Sets multiplier of emittance error for confidence interval, default is {@link #Z_95}.
+	 * @param confidence error multiplier
+	 */
+	public void setConfidence(double confidence) {
+		this.confidence = confidence;
+	}
+
+	/**
+	 * Returns multiplier of emittance error for confidence interval.
+	 * @return error multiplier
+	 */
+	public double getConfidence() {
+		return confidence;
+	}
+
+	/**
+	 * Clears all measurements.
+	 */
+	public void reset() {
+		count=0;
+		for (int i = 0; i < 3; i++) {
+			Arrays.fill(m[i], 0.0);
+		}
+		Arrays.fill(v, 0.0);
+		Arrays.fill(theta, 0.0);
+		syy=0.0;
+		p=null;
+		chi2=0.0;
+	}
+
+	/**
+	 * Adds measurement. Measurements with width or width deviation not larger than 0 are ignored.
+	 *
+	 * @param current quadrupole current in A
+	 * @param width beam width in mm
+	 * @param widthStd standard deviation of beam width in mm
+	 * @return <code>true</code> if fit is initialized and estimate is available
+	 */
+	public boolean add(double current, double width, double widthStd) {
+
+		if (!(width>0.0) || !(widthStd>0.0) || !Double.isFinite(current)) {
+			return isReady();
+		}
+
+		double k= EmittanceSolver.strength(current, energy)/scale;
+		double[] x= {k*k, k, 1.0};
+		double y= width*width;
+		double s= 2.0*width*widthStd;
+		double w= 1.0/(s*s);
+
+		count++;
+
+		// chi square increment from prediction error of previous fit, avoids cancellation in y'Wy - theta'X'Wy
+		double dchi2= Double.NaN;
+		if (p!=null) {
+			double e= y - (x[0]*theta[0]+x[1]*theta[1]+x[2]*theta[2]);
+			double xpx= 0.0;
+			for (int i = 0; i < 3; i++) {
+				xpx+= x[i]*(p[i][0]*x[0]+p[i][1]*x[1]+p[i][2]*x[2]);
+			}
+			dchi2= e*e/(1.0/w+xpx);
+		}
+
+		for (int i = 0; i < 3; i++) {
+			for (int j = 0; j < 3; j++) {
+				m[i][j]+= w*x[i]*x[j];
+			}
+			v[i]+= w*x[i]*y;
+		}
+		syy+= w*y*y;
+
+		if (count>=3) {
+			solve(dchi2);
+		}
+
+		return isReady();
+	}
+
+	private void solve(double dchi2) {
+		double[][] inv= EmittanceSolver.invert3(m);
+		if (inv==null) {
+			// points not yet distinct enough, keep collecting
+			p= null;
+			return;
+		}
+		p= inv;
+		for (int i = 0; i < 3; i++) {
+			theta[i]= p[i][0]*v[0]+p[i][1]*v[1]+p[i][2]*v[2];
+		}
+		if (count==3) {
+			// parabola through three points
+			chi2= 0.0;
+		} else if (Double.isNaN(dchi2)) {
+			// first solution after degenerate points, chi square of weighted fit is y'Wy - theta'X'Wy
+			chi2= Math.max(0.0, syy - (theta[0]*v[0]+theta[1]*v[1]+theta[2]*v[2]));
+		} else {
+			chi2+= dchi2;
+		}
+	}
+
+	/**
+	 * Returns <code>true</code> if fit is initialized and estimate is available.
+	 * @return <code>true</code> if estimate is available
+	 */
+	public boolean isReady() {
+		return p!=null;
+	}
+
+	/**
+	 * Returns number of used measurements.
+	 * @return number of used measurements
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns current emittance estimate in mm mrad, NaN if not ready.
+	 * @return emittance estimate
+	 */
+	public double getEmittance() {
+		if (p==null) {
+			return Double.NaN;
+		}
+		return EmittanceSolver.emittance(parameters(), null)[0];
+	}
+	
+	/**
+	 * Fit parameters for unscaled strength.
+	 */
+	private double[] parameters() {
+		return new double[]{theta[0]/(scale*scale), theta[1]/scale, theta[2]};
+	}
+
+	/**
+	 * Returns error of current emittance estimate. Error is infinite while there are no degrees of freedom
+	 * or if emittance is 0, NaN if not ready.
+	 * @return emittance error
+	 */
+	public double getEmittanceStd() {
+		if (p==null) {
+			return Double.NaN;
+		}
+		if (count<=3) {
+			return Double.POSITIVE_INFINITY;
+		}
+
+		double e= getEmittance();
+		if (e==0.0) {
+			return Double.POSITIVE_INFINITY;
+		}
+
+		final double d= EmittanceSolver.DRIFT;
+		final double l= EmittanceSolver.QUAD_LENGTH;
+
+		// emittance^2 = (a*c - b^2/4) / (d^4 * l^2)
+		// gradient by scaled parameters
+		double[] t= parameters();
+		double f= 1.0/(2.0*e*d*d*d*d*l*l);
+		double[] g= {t[2]*f/(scale*scale), -t[1]/2.0*f/scale, t[0]*f};
+
+		double var= 0.0;
+		for (int i = 0; i < 3; i++) {
+			for (int j = 0; j < 3; j++) {
+				var+= g[i]*p[i][j]*g[j];
+			}
+		}
+		var*= chi2/(count-3);
+
+		double de= 2.0*e/d*EmittanceSolver.DRIFT_ERROR;
+
+		return Math.sqrt(var+de*de);
+	}
+
+	/**
+	 * Returns half width of confidence interval of emittance estimate.
+	 * @return half width of confidence interval
+	 */
+	public double getConfidenceInterval() {
+		return confidence*getEmittanceStd();
+	}
+
+	/**
+	 * Returns current fit result, <code>null</code> if not ready. Emittance error in result is same as {@link #getEmittanceStd()}.
+	 * @return current fit result or <code>null</code>
+	 */
+	public EmittanceSolver.Result getResult() {
+		if (p==null) {
+			return null;
+		}
+		double s= count>3 ? chi2/(count-3) : Double.POSITIVE_INFINITY;
+		double[] dp= new double[3];
+		for (int i = 0; i < 3; i++) {
+			dp[i]= Math.sqrt(p[i][i]*s);
+		}
+		dp[0]/= scale*scale;
+		dp[1]/= scale;
+		return new EmittanceSolver.Result(getEmittance(), getEmittanceStd(), parameters(), dp);
+	}
+
+}
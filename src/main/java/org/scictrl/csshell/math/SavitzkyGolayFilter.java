@@ -0,0 +1,129 @@
+/**
+ * 
+ */
+package org.scictrl.csshell.math;
+
+/**
+ * <p>Savitzky-Golay smoothing filter, value of polynomial fitted with least squares trough window of samples,
+ * evaluated in center of window. Compared to moving average it preserves height and width of peaks.</p>
+ *
+ * <p>Convolution coefficients are calculated once in constructor. Until window is full, filtered value
+ * is average of available samples.</p>
+ *
+ * @author igor@scictrl.com
+ */
+public final class SavitzkyGolayFilter extends WindowFilter {
+
+	private final double[] coefficients;
+	private final int order;
+	// sum of samples until window is full
+	private double sum;
+
+	/**
+	 * Constructor.
+	 * @param halfWidth number of samples on each side of center, window size is <code>2*halfWidth+1</code>
+	 * @param order order of fitted polynomial, must be smaller than window size
+	 */
+	public SavitzkyGolayFilter(int halfWidth, int order) {
+		super(2*halfWidth+1);
+		if (halfWidth<0 || order<0 || order>=2*halfWidth+1) {
+			throw new IllegalArgumentException("Order '"+order+"' must be smaller than window size '"+(2*halfWidth+1)+"'!");
+		}
+		this.order=order;
+		coefficients= coefficients(halfWidth, order);
+	}
+
+	/**
+	 * Calculates smoothing coefficients for center of window, it is first row of (J<sup>T</sup>J)<sup>-1</sup>J<sup>T</sup>,
+	 * where J<sub>ik</sub>=i<sup>k</sup> for i from -halfWidth to halfWidth.
+	 * @param halfWidth number of samples on each side of center
+	 * @param order order of polynomial
+	 * @return coefficients, first is for oldest sample
+	 */
+	static double[] coefficients(int halfWidth, int order) {
+		
+		int p= order+1;
+		double[][] a= new double[p][p+1];
+		
+		// normal equations J^T J y = e0
+		for (int r = 0; r < p; r++) {
+			for (int c = 0; c < p; c++) {
+				double s= 0.0;
+				for (int i = -halfWidth; i <= halfWidth; i++) {
+					s+= Math.pow(i, r+c);
+				}
+				a[r][c]= s;
+			}
+			a[r][p]= r==0 ? 1.0 : 0.0;
+		}
+		
+		// Gauss-Jordan elimination with partial pivoting
+		for (int c = 0; c < p; c++) {
+			int piv= c;
+			for (int r = c+1; r < p; r++) {
+				if (Math.abs(a[r][c])>Math.abs(a[piv][c])) {
+					piv= r;
+				}
+			}
+			double[] t= a[c];
+			a[c]= a[piv];
+			a[piv]= t;
+			for (int r = 0; r < p; r++) {
+				if (r!=c) {
+					double f= a[r][c]/a[c][c];
+					for (int k = c; k <= p; k++) {
+						a[r][k]-= f*a[c][k];
+					}
+				}
+			}
+		}
+		
+		double[] coef= new double[2*halfWidth+1];
+		for (int i = -halfWidth; i <= halfWidth; i++) {
+			double s= 0.0;
+			for (int k = 0; k < p; k++) {
+				s+= a[k][p]/a[k][k]*Math.pow(i, k);
+			}
+			coef[i+halfWidth]= s;
+		}
+		
+		return coef;
+	}
+
+	/**
+	 * Returns order of fitted polynomial.
+	 * @return order of polynomial
+	 */
+	public int getOrder() {
+		return order;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public double add(double sample) {
+		
+		push(sample);
+		
+		if (count<window.length) {
+			sum+= sample;
+			value= sum/count;
+			return value;
+		}
+		
+		double v= 0.0;
+		for (int i = 0; i < coefficients.length; i++) {
+			v+= coefficients[i]*sample(i);
+		}
+		value= v;
+		
+		return value;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void reset() {
+		super.reset();
+		sum=0.0;
+	}
+
+}
@@ -0,0 +1,94 @@
+/**
+ * 
+ */
+package org.scictrl.csshell.math;
+
+/**
+ * Plain Java loops implementation of {@link KernelOps}, used when vector API is not available.
+ *
+ * @author igor@scictrl.com
+ */
+final class ScalarKernels implements KernelOps {
+
+	ScalarKernels() {
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public double sum(double[] data, int start, int count) {
+		double s= 0.0;
+		for (int i = start; i < start+count; i++) {
+			s+=data[i];
+		}
+		return s;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public double[] scale(double[] src, double factor, double[] dst) {
+		for (int i = 0; i < src.length; i++) {
+			dst[i]= src[i]*factor;
+		}
+		return dst;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public double[] squareScale(double[] src, double factor, double[] dst) {
+		for (int i = 0; i < src.length; i++) {
+			double d= src[i];
+			dst[i]= d*d*factor;
+		}
+		return dst;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public double min(double[] data) {
+		double m= Double.POSITIVE_INFINITY;
+		for (double d : data) {
+			m= Math.min(m, d);
+		}
+		return m;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public double max(double[] data) {
+		double m= Double.NEGATIVE_INFINITY;
+		for (double d : data) {
+			m= Math.max(m, d);
+		}
+		return m;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int argmax(double[] data) {
+		int k= -1;
+		double m= Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < data.length; i++) {
+			double d= data[i];
+			if (Double.isNaN(d)) {
+				return i;
+			}
+			if (d>m || k<0) {
+				m= d;
+				k= i;
+			}
+		}
+		return k;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int firstExceeding(double[] data, double threshold) {
+		for (int i = 0; i < data.length; i++) {
+			if (data[i]>threshold) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+}
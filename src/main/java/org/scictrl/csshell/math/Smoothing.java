@@ -3,8 +3,9 @@
  */
 package org.scictrl.csshell.math;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 /**
  * Smoothing out measurement curve.
@@ -28,13 +29,7 @@ public final class Smoothing {
 			throw new IndexOutOfBoundsException("End of start '"+start+"' + count '"+count+"' is over '"+data.length+"'!");
 		}
 		
-		double s= 0.0;
-
-		for (int i = 0; i < count; i++) {
-			s+=data[start+i];
-		}
-		
-		return s;
+		return Kernels.sum(data, start, count);
 	}
 	
 	/**
@@ -49,83 +44,313 @@ public final class Smoothing {
 		return a/count;
 	}
 	
+	/**
+	 * Array length from which {@link #smoothAvgParallel(double[], int, double[])} splits work over threads.
+	 */
+	public static final int PARALLEL_THRESHOLD = 1<<16;
+	
 	/**
 	 * Runs average over data, producing new average point for each sample count of data points. 
 	 * Averaged data points is in the center of sub-array of   
 	 * Averages at start and end of data array are made with less samples due to sample region reaches over array dimension.
+	 * Uses running sum, so it takes O(n) time regardless of sample count.
 	 * @param data the data array
 	 * @param sample number of samples over which average is calculate for data points
 	 * @return array with averaged points 
 	 */
 	public static final double[] smoothAvg(final double[] data, final int sample) {
+		return smoothAvg(data, sample, new double[data.length]);
+	}
+	
+	/**
+	 * Same as {@link #smoothAvg(double[], int)}, but writes result into provided array, so nothing is allocated.
+	 * Window for point i covers indexes from <code>i-sample/2</code> to <code>i-sample/2+sample-1</code>, clipped to array.
+	 * Running sum is kept with compensated (Kahan) summation, so result does not drift on long arrays.
+	 * @param data the data array
+	 * @param sample number of samples over which average is calculate for data points
+	 * @param avg array for averaged points, must be at least as long as data, may not be same array as data
+	 * @return the provided avg array
+	 */
+	public static final double[] smoothAvg(final double[] data, final int sample, final double[] avg) {
+		checkSmooth(data, sample, avg);
+		smoothAvgRange(data, sample, avg, 0, data.length);
+		return avg;
+	}
+	
+	private static void checkSmooth(final double[] data, final int sample, final double[] avg) {
+		if (data==null) {
+			throw new NullPointerException("Data array is null!");
+		}
+		if (avg==null) {
+			throw new NullPointerException("Output array is null!");
+		}
+		if (avg.length<data.length) {
+			throw new IndexOutOfBoundsException("Output array length '"+avg.length+"' is shorter than data '"+data.length+"'!");
+		}
+		if (avg==data) {
+			throw new IllegalArgumentException("Output array must not be data array!");
+		}
+		if (sample<1) {
+			throw new IllegalArgumentException("Sample count '"+sample+"' must be at least 1!");
+		}
+	}
+	
+	/**
+	 * Running average for output points from <code>from</code> to <code>to</code>, exclusive.
+	 * Initial window sum is calculated directly, so ranges can be calculated independently.
+	 */
+	private static void smoothAvgRange(final double[] data, final int sample, final double[] avg, final int from, final int to) {
 		
-		final int start= (int)(sample/2.0);
-		final int end= sample-start;
-		final double[] avg= new double[data.length];
+		final int n= data.length;
+		final int start= sample/2;
 		
-		for (int i = 0; i < start; i++) {
-			avg[i]= avg(data,0,end+i);
+		if (from>=to) {
+			return;
 		}
 		
-		for (int i = start; i < avg.length-end; i++) {
-			avg[i]= avg(data,i-start,sample);
+		int lo= Math.max(0, from-start);
+		int hi= Math.min(n, from-start+sample);
+		
+		double sum= 0.0;
+		double comp= 0.0;
+		
+		for (int j = lo; j < hi; j++) {
+			double y= data[j]-comp;
+			double t= sum+y;
+			comp= (t-sum)-y;
+			sum= t;
 		}
 		
-		for (int i = avg.length-end; i < avg.length; i++) {
-			avg[i]= avg(data,i-start,avg.length-i+start);
+		avg[from]= sum/(hi-lo);
+		
+		for (int i = from+1; i < to; i++) {
+			int nlo= i-start;
+			int nhi= nlo+sample;
+			if (nlo>0) {
+				// leaves window
+				double y= -data[nlo-1]-comp;
+				double t= sum+y;
+				comp= (t-sum)-y;
+				sum= t;
+				lo= nlo;
+			}
+			if (nhi<=n) {
+				// enters window
+				double y= data[nhi-1]-comp;
+				double t= sum+y;
+				comp= (t-sum)-y;
+				sum= t;
+				hi= nhi;
+			}
+			avg[i]= sum/(hi-lo);
+		}
+	}
+	
+	/**
+	 * Calculates prefix sums, where <code>prefix[i]</code> is sum of first i data elements.
+	 * @param data the data array
+	 * @param prefix array for prefix sums, must be at least one element longer than data
+	 * @return the provided prefix array
+	 */
+	public static final double[] prefixSum(final double[] data, final double[] prefix) {
+		if (prefix.length<data.length+1) {
+			throw new IndexOutOfBoundsException("Prefix array length '"+prefix.length+"' must be at least '"+(data.length+1)+"'!");
+		}
+		double s= 0.0;
+		prefix[0]= 0.0;
+		for (int i = 0; i < data.length; i++) {
+			s+= data[i];
+			prefix[i+1]= s;
+		}
+		return prefix;
+	}
+	
+	/**
+	 * Same as {@link #smoothAvg(double[], int, double[])}, but average is calculated as difference of prefix sums.
+	 * Useful when same data is smoothed with several sample counts, prefix sums are calculated only once.
+	 * Precision is lower than with running sum when data has large offset compared to variation.
+	 * @param prefix prefix sums of data, as calculated by {@link #prefixSum(double[], double[])}
+	 * @param length number of data points
+	 * @param sample number of samples over which average is calculate for data points
+	 * @param avg array for averaged points, must be at least length long
+	 * @return the provided avg array
+	 */
+	public static final double[] smoothAvgPrefix(final double[] prefix, final int length, final int sample, final double[] avg) {
+		
+		if (prefix.length<length+1) {
+			throw new IndexOutOfBoundsException("Prefix array length '"+prefix.length+"' must be at least '"+(length+1)+"'!");
+		}
+		if (avg.length<length) {
+			throw new IndexOutOfBoundsException("Output array length '"+avg.length+"' is shorter than data '"+length+"'!");
+		}
+		if (sample<1) {
+			throw new IllegalArgumentException("Sample count '"+sample+"' must be at least 1!");
+		}
+		
+		final int start= sample/2;
+		
+		for (int i = 0; i < length; i++) {
+			int lo= Math.max(0, i-start);
+			int hi= Math.min(length, i-start+sample);
+			avg[i]= (prefix[hi]-prefix[lo])/(hi-lo);
 		}
 		
 		return avg;
 	}
 	
+	/**
+	 * Same as {@link #smoothAvg(double[], int, double[])}, but for arrays longer than {@link #PARALLEL_THRESHOLD}
+	 * array is split into chunks, which are calculated in parallel on common fork-join pool.
+	 * @param data the data array
+	 * @param sample number of samples over which average is calculate for data points
+	 * @param avg array for averaged points, must be at least as long as data, may not be same array as data
+	 * @return the provided avg array
+	 */
+	public static final double[] smoothAvgParallel(final double[] data, final int sample, final double[] avg) {
+		
+		checkSmooth(data, sample, avg);
+		
+		final int n= data.length;
+		
+		if (n<PARALLEL_THRESHOLD) {
+			smoothAvgRange(data, sample, avg, 0, n);
+			return avg;
+		}
+		
+		final int chunks= Math.min(n/(PARALLEL_THRESHOLD/4), 4*ForkJoinPool.getCommonPoolParallelism());
+		final int chunk= (n+chunks-1)/chunks;
+		
+		IntStream.range(0, chunks).parallel().forEach(c -> smoothAvgRange(data, sample, avg, c*chunk, Math.min(n, (c+1)*chunk)));
+		
+		return avg;
+	}
+	
+	/** Index of collapsed x values in array returned by {@link #collapseSame(double[], double[], boolean)}. */
+	public static final int COLLAPSED_X = 0;
+	/** Index of y averages in array returned by {@link #collapseSame(double[], double[], boolean)}. */
+	public static final int COLLAPSED_MEAN = 1;
+	/** Index of number of points in each group in array returned by {@link #collapseSame(double[], double[], boolean)}. */
+	public static final int COLLAPSED_COUNT = 2;
+	/** Index of y standard deviations in array returned by {@link #collapseSame(double[], double[], boolean)}. */
+	public static final int COLLAPSED_STD = 3;
+	
 	/**
 	 * Collapses measurement data points where for same x value there is several y values by calculating average and collapse measurement to a single x, y(avg) point.
+	 * Only adjacent points with same x are collapsed, points where both x and y are 0 are skipped.
 	 * @param x measurement on x side
 	 * @param y corresponding measurement on y side
 	 * @return combined two arrays [collapsed x array][averaged y array]
 	 */
 	public static final double[][] collapseSame(double[] x, double[] y) {
-		List<Double> ax= new ArrayList<Double>(x.length);
-		List<Double> ay= new ArrayList<Double>(y.length);
-
-		double px=Double.NaN;
-		int c=1;
-		int k=-1;
+		double[][] r= collapseSame(x, y, false);
+		return new double[][]{r[COLLAPSED_X],r[COLLAPSED_MEAN]};
+	}
+	
+	/**
+	 * Collapses measurement data points where for same x value there is several y values to a single point with statistics for y values.
+	 * If sort is <code>true</code>, points are first sorted by x, so also points with same x, which are not adjacent, are collapsed.
+	 * Sort is stable, original order of points is not changed, only order of indexes.
+	 * Points where both x and y are 0 are skipped.
+	 * Standard deviation is sample standard deviation, for single point in group it is 0.
+	 * @param x measurement on x side
+	 * @param y corresponding measurement on y side
+	 * @param sort if <code>true</code> points are sorted by x before collapsing
+	 * @return four arrays of same length, indexed by {@link #COLLAPSED_X}, {@link #COLLAPSED_MEAN}, {@link #COLLAPSED_COUNT} and {@link #COLLAPSED_STD}
+	 */
+	public static final double[][] collapseSame(double[] x, double[] y, boolean sort) {
 		
-		for (int i = 0; i < x.length && i < y.length; i++) {
-			double vx= x[i];
-			double vy= y[i];
-			
-			if (vx==0.0 && vy==0.0) {
-				continue;
+		final int n= Math.min(x.length, y.length);
+		
+		int[] idx= new int[n];
+		int m= 0;
+		for (int i = 0; i < n; i++) {
+			if (x[i]!=0.0 || y[i]!=0.0) {
+				idx[m++]= i;
 			}
+		}
+		
+		if (sort) {
+			sortIndexes(x, idx, m);
+		}
+		
+		double[] rx= new double[m];
+		double[] mean= new double[m];
+		double[] count= new double[m];
+		double[] std= new double[m];
+		
+		// Welford's algorithm, mean and sum of squared differences in one pass
+		int k= -1;
+		double px= Double.NaN;
+		double m2= 0.0;
+		
+		for (int j = 0; j < m; j++) {
+			double vx= x[idx[j]];
+			double vy= y[idx[j]];
 			
 			if (vx==px) {
-				ay.set(k, ay.get(k)+vy);
-				c++;
+				double c= ++count[k];
+				double d= vy-mean[k];
+				mean[k]+= d/c;
+				m2+= d*(vy-mean[k]);
 			} else {
-				if (c>1) {
-					ay.set(k, ay.get(k)/(double)c);
-					c=1;
+				if (k>=0) {
+					std[k]= count[k]>1 ? Math.sqrt(m2/(count[k]-1)) : 0.0;
 				}
-				px=vx;
-				ax.add(vx);
-				ay.add(vy);
-				k=ax.size()-1;
+				k++;
+				px= vx;
+				rx[k]= vx;
+				mean[k]= vy;
+				count[k]= 1;
+				m2= 0.0;
 			}
 		}
-		if (c>1) {
-			ay.set(k, ay.get(k)/(double)c);
+		if (k>=0) {
+			std[k]= count[k]>1 ? Math.sqrt(m2/(count[k]-1)) : 0.0;
 		}
 		
-		double[][] r= new double[2][ax.size()];
+		k++;
 		
-		for (int i = 0; i < r[0].length; i++) {
-			r[0][i]=ax.get(i);
-			r[1][i]=ay.get(i);
+		if (k<m) {
+			rx= Arrays.copyOf(rx, k);
+			mean= Arrays.copyOf(mean, k);
+			count= Arrays.copyOf(count, k);
+			std= Arrays.copyOf(std, k);
 		}
 		
-		return r;
+		return new double[][]{rx,mean,count,std};
+	}
+	
+	/**
+	 * Stable bottom-up merge sort of first length indexes by values they point to in x.
+	 * Order of x values is as by {@link Double#compare(double, double)}.
+	 */
+	private static void sortIndexes(final double[] x, int[] idx, final int length) {
+		
+		int[] src= idx;
+		int[] dst= new int[length];
+		
+		for (int w = 1; w < length; w*=2) {
+			for (int lo = 0; lo < length; lo+=2*w) {
+				int mid= Math.min(lo+w, length);
+				int hi= Math.min(lo+2*w, length);
+				int i= lo;
+				int j= mid;
+				for (int k = lo; k < hi; k++) {
+					if (i<mid && (j>=hi || Double.compare(x[src[i]], x[src[j]])<=0)) {
+						dst[k]= src[i++];
+					} else {
+						dst[k]= src[j++];
+					}
+				}
+			}
+			int[] t= src;
+			src= dst;
+			dst= t;
+		}
+		
+		if (src!=idx) {
+			System.arraycopy(src, 0, idx, 0, length);
+		}
 	}
 	
 	private Smoothing() {
@@ -0,0 +1,149 @@
+/**
+ * 
+ */
+package org.scictrl.csshell.math;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Implementation of {@link KernelOps} with <code>jdk.incubator.vector</code> API.
+ * Class must be loaded only trough {@link Kernels}, which falls back to {@link ScalarKernels}
+ * when JVM is started without <code>--add-modules jdk.incubator.vector</code>.
+ *
+ * @author igor@scictrl.com
+ */
+final class VectorKernels implements KernelOps {
+
+	private static final VectorSpecies<Double> SPECIES= DoubleVector.SPECIES_PREFERRED;
+
+	VectorKernels() {
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public double sum(double[] data, int start, int count) {
+		int end= start+count;
+		int upper= start+SPECIES.loopBound(count);
+		DoubleVector acc= DoubleVector.zero(SPECIES);
+		int i= start;
+		for (; i < upper; i+=SPECIES.length()) {
+			acc= acc.add(DoubleVector.fromArray(SPECIES, data, i));
+		}
+		double s= acc.reduceLanes(VectorOperators.ADD);
+		for (; i < end; i++) {
+			s+=data[i];
+		}
+		return s;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public double[] scale(double[] src, double factor, double[] dst) {
+		int upper= SPECIES.loopBound(src.length);
+		int i= 0;
+		for (; i < upper; i+=SPECIES.length()) {
+			DoubleVector.fromArray(SPECIES, src, i).mul(factor).intoArray(dst, i);
+		}
+		for (; i < src.length; i++) {
+			dst[i]= src[i]*factor;
+		}
+		return dst;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public double[] squareScale(double[] src, double factor, double[] dst) {
+		int upper= SPECIES.loopBound(src.length);
+		int i= 0;
+		for (; i < upper; i+=SPECIES.length()) {
+			DoubleVector v= DoubleVector.fromArray(SPECIES, src, i);
+			v.mul(v).mul(factor).intoArray(dst, i);
+		}
+		for (; i < src.length; i++) {
+			double d= src[i];
+			dst[i]= d*d*factor;
+		}
+		return dst;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public double min(double[] data) {
+		int upper= SPECIES.loopBound(data.length);
+		DoubleVector acc= DoubleVector.broadcast(SPECIES, Double.POSITIVE_INFINITY);
+		int i= 0;
+		for (; i < upper; i+=SPECIES.length()) {
+			acc= acc.min(DoubleVector.fromArray(SPECIES, data, i));
+		}
+		double m= acc.reduceLanes(VectorOperators.MIN);
+		for (; i < data.length; i++) {
+			m= Math.min(m, data[i]);
+		}
+		return m;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public double max(double[] data) {
+		int upper= SPECIES.loopBound(data.length);
+		DoubleVector acc= DoubleVector.broadcast(SPECIES, Double.NEGATIVE_INFINITY);
+		int i= 0;
+		for (; i < upper; i+=SPECIES.length()) {
+			acc= acc.max(DoubleVector.fromArray(SPECIES, data, i));
+		}
+		double m= acc.reduceLanes(VectorOperators.MAX);
+		for (; i < data.length; i++) {
+			m= Math.max(m, data[i]);
+		}
+		return m;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int argmax(double[] data) {
+		if (data.length==0) {
+			return -1;
+		}
+		double m= max(data);
+		// max propagates NaN, first NaN or first element equal to max is returned
+		boolean nan= Double.isNaN(m);
+		int upper= SPECIES.loopBound(data.length);
+		int i= 0;
+		for (; i < upper; i+=SPECIES.length()) {
+			DoubleVector v= DoubleVector.fromArray(SPECIES, data, i);
+			VectorMask<Double> hit= nan ? v.test(VectorOperators.IS_NAN) : v.compare(VectorOperators.EQ, m);
+			if (hit.anyTrue()) {
+				return i+hit.firstTrue();
+			}
+		}
+		for (; i < data.length; i++) {
+			if (nan ? Double.isNaN(data[i]) : data[i]==m) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int firstExceeding(double[] data, double threshold) {
+		int upper= SPECIES.loopBound(data.length);
+		int i= 0;
+		for (; i < upper; i+=SPECIES.length()) {
+			VectorMask<Double> hit= DoubleVector.fromArray(SPECIES, data, i).compare(VectorOperators.GT, threshold);
+			if (hit.anyTrue()) {
+				return i+hit.firstTrue();
+			}
+		}
+		for (; i < data.length; i++) {
+			if (data[i]>threshold) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+}
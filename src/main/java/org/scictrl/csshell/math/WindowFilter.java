@@ -0,0 +1,107 @@
+/**
+ * 
+ */
+package org.scictrl.csshell.math;
+
+/**
+ * Base for filters over fixed window of last samples, keeps samples in ring buffer.
+ *
+ * @author igor@scictrl.com
+ */
+abstract class WindowFilter implements OnlineFilter {
+
+	/** Ring buffer with last samples. */
+	protected final double[] window;
+	/** Index in ring where next sample is stored. */
+	protected int head;
+	/** Number of added samples. */
+	protected int count;
+	/** Last filtered value. */
+	protected double value= Double.NaN;
+
+	/**
+	 * Constructor.
+	 * @param size window size
+	 */
+	protected WindowFilter(int size) {
+		if (size<1) {
+			throw new IllegalArgumentException("Window size '"+size+"' must be at least 1!");
+		}
+		window= new double[size];
+	}
+
+	/**
+	 * Returns window size.
+	 * @return window size
+	 */
+	public int getSize() {
+		return window.length;
+	}
+
+	/**
+	 * Returns number of samples currently in window.
+	 * @return number of samples in window
+	 */
+	protected int filled() {
+		return Math.min(count, window.length);
+	}
+
+	/**
+	 * Returns sample from window, 0 is oldest sample in window.
+	 * @param i the position in window
+	 * @return the sample
+	 */
+	protected double sample(int i) {
+		int n= filled();
+		int k= head-n+i;
+		return window[k<0 ? k+window.length : k];
+	}
+
+	/**
+	 * Stores sample in ring and returns sample, which dropped out of window, or NaN if window was not full.
+	 * @param sample the new sample
+	 * @return dropped sample or NaN
+	 */
+	protected double push(double sample) {
+		double old= count>=window.length ? window[head] : Double.NaN;
+		window[head]= sample;
+		head= head+1==window.length ? 0 : head+1;
+		count++;
+		return old;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public double getValue() {
+		return value;
+	}
+
+	/**
+	 * Returns delay of centered window, same center as used by {@link Smoothing#smoothAvg(double[], int)}.
+	 */
+	@Override
+	public int getDelay() {
+		return window.length-1-window.length/2;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getCount() {
+		return count;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean isReady() {
+		return count>=window.length;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void reset() {
+		head=0;
+		count=0;
+		value=Double.NaN;
+	}
+
+}
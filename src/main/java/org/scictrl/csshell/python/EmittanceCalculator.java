@@ -4,22 +4,49 @@
 package org.scictrl.csshell.python;
 
 import java.io.File;
+import java.util.concurrent.CompletableFuture;
+
+import org.scictrl.csshell.math.EmittanceSolver;
 
 /**
  * <p>Calculates emittance with Python script, written by Thiemo Schmelzer.</p>
  *
+ * <p>If {@link EmittanceSolver} is set, emittance is calculated in Java with same formulas and script is not called.</p>
+ *
+ * <p>With {@link #calculateEmittanceAsync(double[], double[], double[])} calculation runs in background and
+ * returns immutable {@link Emittance}, several calculations can run at the same time.</p>
+ *
+ * <p>If caching is enabled with {@link #setCached(boolean)}, script is not called again for same measurement table
+ * and energy, result is taken from {@link PythonResultCache}, which is shared by all calculators.</p>
+ *
  * @author igor@scictrl.org
  */
 public class EmittanceCalculator extends PythonRunner {
 
-	
+	/**
+	 * Immutable emittance calculation result.
+	 */
+	public static final class Emittance {
+		/** Emittance, 0 if not calculated. */
+		public final double emittance;
+		/** Emittance error, 0 if not calculated. */
+		public final double emittanceStd;
+		/** Result of script or Java solver with output and errors. */
+		public final Result result;
+		
+		Emittance(Result result) {
+			this.result=result;
+			this.emittance= result.hasData() ? result.data[0] : 0.0;
+			this.emittanceStd= result.hasData() && result.data.length>1 ? result.data[1] : 0.0;
+		}
+	}
 	
 	private double[] quad_currents;
 	private double[] beam_widths;
 	private double[] beam_widths_std;
-	private double lastEmittance;
-	private double lastEmittanceStd;
+	private volatile Emittance last;
 	private double energy=5.81;
+	private EmittanceSolver solver;
 
 	/**
 	 * <p>Constructor for EmittanceCalculator.</p>
@@ -56,6 +83,24 @@ public class EmittanceCalculator extends PythonRunner {
 		return energy;
 	}
 	
+	/**
+	 * Sets Java solver, which is used instead of Python script.
+	 *
+	 * @param solver the solver, <code>null</code> means that Python script is used
+	 */
+	public void setSolver(EmittanceSolver solver) {
+		this.solver = solver;
+	}
+	
+	/**
+	 * Returns Java solver, if set.
+	 *
+	 * @return the solver or <code>null</code> if Python script is used
+	 */
+	public EmittanceSolver getSolver() {
+		return solver;
+	}
+	
 	/**
 	 * <p>inputs.</p>
 	 *
@@ -65,6 +110,17 @@ public class EmittanceCalculator extends PythonRunner {
 	 */
 	public void inputs(double[] quad_currents, double[] beam_widths, double[] beam_widths_std) {
 		
+		checkInputs(quad_currents, beam_widths, beam_widths_std);
+		
+		this.quad_currents=quad_currents;
+		this.beam_widths=beam_widths;
+		this.beam_widths_std=beam_widths_std;
+		
+		
+	}
+	
+	private static void checkInputs(double[] quad_currents, double[] beam_widths, double[] beam_widths_std) {
+		
 		if (quad_currents==null || beam_widths==null || beam_widths_std==null) {
 			throw new NullPointerException("Input parameters contain null!");
 		}
@@ -72,12 +128,6 @@ public class EmittanceCalculator extends PythonRunner {
 		if ((quad_currents.length != beam_widths.length) || (quad_currents.length != beam_widths_std.length)) {
 			throw new IllegalArgumentException("Input arrays are not of same legngth");
 		}
-		
-		this.quad_currents=quad_currents;
-		this.beam_widths=beam_widths;
-		this.beam_widths_std=beam_widths_std;
-		
-		
 	}
 	
 	/**
@@ -97,6 +147,57 @@ public class EmittanceCalculator extends PythonRunner {
 			throw new NullPointerException("quad_currents");
 		}
 		
+		Result r;
+		
+		if (solver!=null) {
+			r= solve(energy, quad_currents, beam_widths, beam_widths_std);
+			setLastResult(r);
+		} else {
+			r= executeArrayTransaction(toInputs(energy, quad_currents, beam_widths, beam_widths_std));
+		}
+		
+		last= new Emittance(r);
+		
+		return r;
+	}
+	
+	/**
+	 * Calculates emittance in background with current energy, inputs set by {@link #inputs(double[], double[], double[])} are not used or changed.
+	 * Last emittance is updated when calculation completes.
+	 *
+	 * @param quad_currents quadrupole currents
+	 * @param beam_widths beam widths
+	 * @param beam_widths_std beam width standard deviations
+	 * @return future with calculated emittance, completes normally also when calculation fails
+	 */
+	public CompletableFuture<Emittance> calculateEmittanceAsync(double[] quad_currents, double[] beam_widths, double[] beam_widths_std) {
+		
+		checkInputs(quad_currents, beam_widths, beam_widths_std);
+		
+		final double e= energy;
+		CompletableFuture<Result> f;
+		
+		if (solver!=null) {
+			final double[] q= quad_currents.clone();
+			final double[] w= beam_widths.clone();
+			final double[] ws= beam_widths_std.clone();
+			f= CompletableFuture.supplyAsync(() -> solve(e, q, w, ws), calc).thenApply(r -> {
+				setLastResult(r);
+				return r;
+			});
+		} else {
+			f= executeArrayTransactionAsync(toInputs(e, quad_currents, beam_widths, beam_widths_std));
+		}
+		
+		return f.thenApply(r -> {
+			Emittance em= new Emittance(r);
+			last= em;
+			return em;
+		});
+	}
+	
+	private static double[] toInputs(double energy, double[] quad_currents, double[] beam_widths, double[] beam_widths_std) {
+		
 		double[] inp= new double[1+quad_currents.length*3];
 		
 		inp[0]=energy;
@@ -107,21 +208,19 @@ public class EmittanceCalculator extends PythonRunner {
 			inp[1+quad_currents.length*2+i]=beam_widths_std[i];
 		}
 		
-		Result r= executeArrayTransaction(inp);
+		return inp;
+	}
+	
+	private Result solve(double energy, double[] quad_currents, double[] beam_widths, double[] beam_widths_std) {
 		
-		if (r.hasData()) {
-			if(r.data.length>0) {
-				lastEmittance=r.data[0];
-			}
-			if(r.data.length>1) {
-				lastEmittanceStd=r.data[1];
-			}
-		} else {
-			lastEmittance=0.0;
-			lastEmittanceStd=0.0;
+		try {
+			EmittanceSolver.Result s= solver.solve(energy, quad_currents, beam_widths, beam_widths_std);
+			String output= "# Java solver, energy "+energy+", fit "+s.a+" "+s.b+" "+s.c+"\nEmittance,error: ("+s.emittance+", "+s.emittanceStd+")\n";
+			return new Result(s.toArray(), output, null, null);
+		} catch (Exception e) {
+			log.warn("Emittance calculation failed: "+e.toString(), e);
+			return new Result(e);
 		}
-		
-		return r;
 	}
 	
 	/**
@@ -130,7 +229,8 @@ public class EmittanceCalculator extends PythonRunner {
 	 * @return a double
 	 */
 	public double getLastEmittance() {
-		return lastEmittance;
+		Emittance e= last;
+		return e!=null ? e.emittance : 0.0;
 	}
 	
 	/**
@@ -139,7 +239,8 @@ public class EmittanceCalculator extends PythonRunner {
 	 * @return a double
 	 */
 	public double getLastEmittanceStd() {
-		return lastEmittanceStd;
+		Emittance e= last;
+		return e!=null ? e.emittanceStd : 0.0;
 	}
 
 }
@@ -0,0 +1,351 @@
+/**
+ *
+ */
+package org.scictrl.csshell.python;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.scictrl.csshell.python.PythonRunner.Result;
+
+/**
+ * <p>Bounded LRU cache of successful script results, shared by all {@link PythonRunner}s.</p>
+ *
+ * <p>Results are addressed by content: key is made from absolute script path, modification time of script file
+ * and SHA-256 hash of all script inputs. For {@link EmittanceCalculator} inputs contain also energy, so same
+ * measurement table with same energy and same script version gives same key. When script is changed, old entries
+ * are not used any more and are eventually evicted. Only top level script is part of key, change of module
+ * imported by script or of other file it reads is not detected, stale results are returned until cache is cleared.</p>
+ *
+ * <p>Only results with data and without errors are stored. Results are immutable and are returned as stored.
+ * If file is set with {@link #setFile(File)}, cache is loaded from it and saved to it after each new entry,
+ * so it survives IOC restart.</p>
+ *
+ * @author igor@scictrl.com
+ */
+public class PythonResultCache {
+
+	private static final Logger log= LogManager.getLogger(PythonResultCache.class);
+
+	/** Default maximal number of cached results. */
+	public static final int DEFAULT_CAPACITY = 256;
+
+	private static final int FILE_MAGIC = 0x50524331;
+	private static final int FILE_VERSION = 1;
+
+	private static final PythonResultCache instance= new PythonResultCache(DEFAULT_CAPACITY);
+
+	/**
+	 * Returns cache shared by all runners.
+	 *
+	 * @return shared cache
+	 */
+	public static PythonResultCache getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Returns cache key for script call.
+	 *
+	 * @param script the script file
+	 * @param inputs script inputs
+	 * @return the cache key
+	 */
+	public static String key(File script, double... inputs) {
+
+		MessageDigest md;
+		try {
+			md= MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// required on every Java platform
+			throw new IllegalStateException(e);
+		}
+
+		byte[] b= new byte[8];
+		for (double d : inputs) {
+			long l= Double.doubleToLongBits(d);
+			for (int i = 0; i < 8; i++) {
+				b[i]= (byte)(l>>>(8*i));
+			}
+			md.update(b);
+		}
+
+		StringBuilder sb= new StringBuilder(128);
+		sb.append(script.getAbsolutePath());
+		sb.append('|');
+		sb.append(script.lastModified());
+		sb.append('|');
+		sb.append(inputs.length);
+		sb.append('|');
+		for (byte d : md.digest()) {
+			sb.append(Character.forDigit((d>>4)&0xF, 16));
+			sb.append(Character.forDigit(d&0xF, 16));
+		}
+		return sb.toString();
+	}
+
+	private final LinkedHashMap<String,Result> cache;
+	private final AtomicLong hits= new AtomicLong();
+	private final AtomicLong misses= new AtomicLong();
+	private final Object fileLock= new Object();
+	private int capacity;
+	private volatile File file;
+
+	/**
+	 * Creates new cache.
+	 *
+	 * @param capacity maximal number of cached results
+	 */
+	public PythonResultCache(int capacity) {
+		setCapacity(capacity);
+		cache= new LinkedHashMap<String, Result>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String,Result> eldest) {
+				return size()>PythonResultCache.this.capacity;
+			}
+		};
+	}
+
+	/**
+	 * Sets maximal number of cached results, least recently used results above capacity are removed.
+	 *
+	 * @param capacity maximal number of cached results
+	 */
+	public void setCapacity(int capacity) {
+		if (capacity<1) {
+			throw new IllegalArgumentException("Cache capacity '"+capacity+"' must be at least 1!");
+		}
+		synchronized (this) {
+			this.capacity = capacity;
+			if (cache!=null) {
+				Iterator<String> it= cache.keySet().iterator();
+				while (cache.size()>capacity && it.hasNext()) {
+					it.next();
+					it.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns maximal number of cached results.
+	 *
+	 * @return maximal number of cached results
+	 */
+	public synchronized int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Returns number of cached results.
+	 *
+	 * @return number of cached results
+	 */
+	public synchronized int size() {
+		return cache.size();
+	}
+
+	/**
+	 * Returns cached result and counts hit or miss.
+	 *
+	 * @param key the cache key, see {@link #key(File, double...)}
+	 * @return cached result or <code>null</code>
+	 */
+	public Result get(String key) {
+		Result r;
+		synchronized (this) {
+			r= cache.get(key);
+		}
+		if (r!=null) {
+			hits.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+		}
+		return r;
+	}
+
+	/**
+	 * Stores result, if it has data and no errors. If file is set, cache is saved.
+	 *
+	 * @param key the cache key, see {@link #key(File, double...)}
+	 * @param r the result
+	 */
+	public void put(String key, Result r) {
+		if (r==null || !r.isOK()) {
+			return;
+		}
+		synchronized (this) {
+			cache.put(key, r);
+		}
+		if (file!=null) {
+			try {
+				save();
+			} catch (IOException e) {
+				log.warn("Saving Python result cache to '"+file+"' failed: "+e.toString());
+			}
+		}
+	}
+
+	/**
+	 * Removes all results and resets counters.
+	 */
+	public void clear() {
+		synchronized (this) {
+			cache.clear();
+		}
+		hits.set(0);
+		misses.set(0);
+	}
+
+	/**
+	 * Returns number of cache hits.
+	 *
+	 * @return number of cache hits
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Returns number of cache misses.
+	 *
+	 * @return number of cache misses
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Sets file for persistent cache and loads results from it, if it exists. Loaded results are added to results already in cache.
+	 *
+	 * @param file the file, <code>null</code> disables persistence
+	 * @throws IOException if file exists and can not be read
+	 */
+	public void setFile(File file) throws IOException {
+		this.file = file;
+		if (file!=null && file.exists()) {
+			load(file);
+		}
+	}
+
+	/**
+	 * Returns file for persistent cache.
+	 *
+	 * @return the file or <code>null</code>
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	private void load(File f) throws IOException {
+
+		List<String> keys= new ArrayList<String>();
+		List<Result> results= new ArrayList<Result>();
+
+		synchronized (fileLock) {
+			try (DataInputStream in= new DataInputStream(new BufferedInputStream(Files.newInputStream(f.toPath())))) {
+				if (in.readInt()!=FILE_MAGIC || in.readInt()!=FILE_VERSION) {
+					throw new IOException("File '"+f+"' is not Python result cache!");
+				}
+				int n= in.readInt();
+				for (int i = 0; i < n; i++) {
+					keys.add(readString(in));
+					double[] data= new double[in.readInt()];
+					for (int j = 0; j < data.length; j++) {
+						data[j]= in.readDouble();
+					}
+					results.add(new Result(data, readString(in), readString(in), null));
+				}
+			}
+		}
+
+		synchronized (this) {
+			// file is ordered from least to most recently used
+			for (int i = 0; i < keys.size(); i++) {
+				cache.put(keys.get(i), results.get(i));
+			}
+		}
+
+		log.info("Loaded "+keys.size()+" Python results from '"+f+"'.");
+	}
+
+	/**
+	 * Saves cache to file, if file is set. File is replaced atomically.
+	 *
+	 * @throws IOException if writing fails
+	 */
+	public void save() throws IOException {
+
+		File f= file;
+		if (f==null) {
+			return;
+		}
+
+		List<Map.Entry<String,Result>> entries;
+		synchronized (this) {
+			entries= new ArrayList<Map.Entry<String,Result>>(cache.entrySet().size());
+			for (Map.Entry<String,Result> e : cache.entrySet()) {
+				entries.add(Map.entry(e.getKey(), e.getValue()));
+			}
+		}
+
+		synchronized (fileLock) {
+			File tmp= new File(f.getAbsoluteFile().getParentFile(), f.getName()+".tmp");
+			try (DataOutputStream out= new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp.toPath())))) {
+				out.writeInt(FILE_MAGIC);
+				out.writeInt(FILE_VERSION);
+				out.writeInt(entries.size());
+				for (Map.Entry<String,Result> e : entries) {
+					Result r= e.getValue();
+					writeString(out, e.getKey());
+					out.writeInt(r.data.length);
+					for (double d : r.data) {
+						out.writeDouble(d);
+					}
+					writeString(out, r.output);
+					writeString(out, r.error);
+				}
+			}
+			Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		if (s==null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] b= s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(b.length);
+		out.write(b);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int l= in.readInt();
+		if (l<0) {
+			return null;
+		}
+		byte[] b= new byte[l];
+		in.readFully(b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+}
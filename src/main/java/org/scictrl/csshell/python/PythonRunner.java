@@ -1,8 +1,21 @@
 package org.scictrl.csshell.python;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.lang3.math.NumberUtils;
 import org.apache.logging.log4j.LogManager;
@@ -13,6 +26,22 @@ import si.ijs.anka.config.BootstrapLoader;
 /**
  * <p>PythonRunner executes python scripts in working directory and parses returned output as double array.</p>
  *
+ * <p>By default each call starts new Python process. When number of workers is set with {@link #setWorkers(int)},
+ * calls are executed by shared {@link PythonWorkerPool}, where interpreter and modules imported by script stay loaded
+ * between calls. If worker can not be started, call is executed with new process.
+ * Call, which fails or times out in worker, is not repeated.</p>
+ *
+ * <p>Output and error streams of new process are read concurrently while script runs and output is parsed line by line.
+ * If script does not finish within timeout, process and all its child processes are killed.
+ * With {@link #setBinaryInput(boolean)} inputs are sent to script stdin as little-endian doubles,
+ * see {@link #BINARY_INPUT_ARG}, which avoids limits on command line length for long arrays.</p>
+ *
+ * <p>Calls can be executed asynchronously with {@link #executeArrayTransactionAsync(double...)}. Results are immutable,
+ * so same runner can execute several calls at the same time.</p>
+ *
+ * <p>With {@link #setCached(boolean)} successful results are stored in shared {@link PythonResultCache} and
+ * call with same script version and same inputs returns stored result without starting script.</p>
+ *
  * @author igor@scictrl.com
  */
 public class PythonRunner {
@@ -29,6 +58,42 @@ public class PythonRunner {
 	
 	/** Constant <code>PYTHON_BIN="/usr/bin/python3"</code>, points to Python executable, but be present on system. */
 	public static final String PYTHON_BIN = "/usr/bin/python3";
+	
+	/** Default timeout for script call, in milliseconds. */
+	public static final long DEFAULT_TIMEOUT = 60000;
+	
+	/**
+	 * Constant <code>BINARY_INPUT_ARG="--binary-input"</code>. With binary input script is called with this argument followed by
+	 * number of values, values are written to stdin as 8 byte little-endian doubles, in Python <code>struct.unpack('&lt;%dd' % n, sys.stdin.buffer.read(8*n))</code>.
+	 */
+	public static final String BINARY_INPUT_ARG = "--binary-input";
+	
+	/** How long to wait for streams to close after process has ended or was killed, in milliseconds. */
+	private static final long DRAIN_TIMEOUT = 1000;
+	
+	private static final ExecutorService io= Executors.newCachedThreadPool(r -> {
+		Thread t= new Thread(r, "PythonRunner-io");
+		t.setDaemon(true);
+		return t;
+	});
+	
+	/** Executor for asynchronous calls. */
+	static final ExecutorService calc= Executors.newCachedThreadPool(r -> {
+		Thread t= new Thread(r, "PythonRunner-calc");
+		t.setDaemon(true);
+		return t;
+	});
+	
+	/**
+	 * Kills process and all its descendants.
+	 *
+	 * @param p the process
+	 */
+	static void destroyTree(Process p) {
+		// descendants first, they are reparented once parent is gone
+		p.descendants().forEach(ProcessHandle::destroyForcibly);
+		p.destroyForcibly();
+	}
 
 	/**
 	 * Parse string representing Python number and return as Java numeral.
@@ -56,30 +121,48 @@ public class PythonRunner {
 	
 	
 	/**
-	 * Script result object.
+	 * Script result object, immutable and can be shared between threads.
 	 */
 	public static final class Result {
 		/**
-		 * Returned data parsed into double array.
+		 * Returned data parsed into double array, must not be modified.
 		 */
-		public double[] data;
+		public final double[] data;
 		/**
 		 * Possible error.
 		 */
-		public String error;
+		public final String error;
 		/**
 		 * Possible exception.
 		 */
-		public Exception exception;
+		public final Exception exception;
 		/**
 		 * Script output.
 		 */
-		public String output;
+		public final String output;
 		
 		/**
 		 * Result constructor.
+		 *
+		 * @param data parsed data, can be <code>null</code>
+		 * @param output script output, can be <code>null</code>
+		 * @param error script error output, can be <code>null</code>
+		 * @param exception exception, can be <code>null</code>
+		 */
+		public Result(double[] data, String output, String error, Exception exception) {
+			this.data=data;
+			this.output=output;
+			this.error=error;
+			this.exception=exception;
+		}
+		
+		/**
+		 * Result with exception only.
+		 *
+		 * @param exception the exception
 		 */
-		public Result() {
+		public Result(Exception exception) {
+			this(null, null, null, exception);
 		}
 
 		/**
@@ -110,8 +193,12 @@ public class PythonRunner {
 	File directory;
 	String script;
 	Logger log= LogManager.getLogger(this.getClass());
-	private Result lastResult;
-	private double[] lastData;
+	private volatile Result lastResult;
+	private volatile double[] lastData;
+	private int workers;
+	private long timeout=DEFAULT_TIMEOUT;
+	private boolean binaryInput;
+	private boolean cached;
 
 	/**
 	 * <p>Constructor for PythonRunner.</p>
@@ -168,6 +255,128 @@ public class PythonRunner {
 		return script;
 	}
 	
+	/**
+	 * Sets number of persistent Python workers for this script, 0 means that each call starts new process.
+	 * Workers are shared by all runners with same directory and script, pool size is set by first runner.
+	 *
+	 * @param workers number of workers, 0 disables workers
+	 */
+	public void setWorkers(int workers) {
+		this.workers = Math.max(0, workers);
+	}
+	
+	/**
+	 * Returns number of persistent Python workers, 0 if each call starts new process.
+	 *
+	 * @return number of workers
+	 */
+	public int getWorkers() {
+		return workers;
+	}
+	
+	/**
+	 * Sets timeout for script call, in milliseconds. After timeout process is killed together with its child processes,
+	 * worker is restarted on next call.
+	 *
+	 * @param timeout timeout in milliseconds
+	 */
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+	
+	/**
+	 * Returns timeout for script call, in milliseconds.
+	 *
+	 * @return timeout in milliseconds
+	 */
+	public long getTimeout() {
+		return timeout;
+	}
+	
+	/**
+	 * Sets if inputs are sent to new process over stdin as binary doubles instead of command line arguments.
+	 * Script must support {@link #BINARY_INPUT_ARG}. Calls executed by workers always get inputs as arguments.
+	 *
+	 * @param binaryInput <code>true</code> if inputs are sent over stdin
+	 */
+	public void setBinaryInput(boolean binaryInput) {
+		this.binaryInput = binaryInput;
+	}
+	
+	/**
+	 * Returns <code>true</code> if inputs are sent to new process over stdin as binary doubles.
+	 *
+	 * @return <code>true</code> if inputs are sent over stdin
+	 */
+	public boolean isBinaryInput() {
+		return binaryInput;
+	}
+	
+	/**
+	 * Sets if results are taken from and stored in shared {@link PythonResultCache}, default is <code>false</code>.
+	 * Cache key covers only top level script, modules imported by script are not part of it.
+	 *
+	 * @param cached <code>true</code> if results are cached
+	 */
+	public void setCached(boolean cached) {
+		this.cached = cached;
+	}
+	
+	/**
+	 * Returns <code>true</code> if results are taken from and stored in shared {@link PythonResultCache}.
+	 *
+	 * @return <code>true</code> if results are cached
+	 */
+	public boolean isCached() {
+		return cached;
+	}
+	
+	/**
+	 * Parses script output. Lines starting with # or empty space are comments. From other lines
+	 * comma separated values within ( ) are parsed into result data, last such line wins.
+	 *
+	 * @param r result with unparsed output
+	 * @return new result with parsed data
+	 */
+	static Result parseOutput(Result r) {
+		
+		double[] data= null;
+		String output= r.output==null ? "" : r.output;
+		
+		int start= 0;
+		while (start<output.length()) {
+			int end= output.indexOf('\n', start);
+			if (end<0) {
+				end= output.length();
+			}
+			double[] d= parseLine(output.substring(start, end));
+			if (d!=null) {
+				data=d;
+			}
+			start= end+1;
+		}
+		
+		return new Result(data, r.output, r.error, r.exception);
+	}
+	
+	private static double[] parseLine(String rs) {
+		if ( ! ( rs.startsWith("#") || rs.startsWith(" ")) ) {
+			int st= rs.indexOf('(');
+			int en= rs.indexOf(')');
+			
+			if (st>0 && en>st+1) {
+				rs=rs.substring(st+1, en);
+				String[] s= rs.split(",");
+				double[] data=new double[s.length];
+				for (int i = 0; i < s.length; i++) {
+					data[i]=parseDouble(s[i].trim());
+				}
+				return data;
+			}
+		}
+		return null;
+	}
+	
 	/**
 	 * <p>Executes string, add input double values are provided as list of input parameters for script, separated by space.</p>
 	 * <p>Returned result is expected to be series of string lines. If line is started by # or empty space it is added to string result.
@@ -182,66 +391,222 @@ public class PythonRunner {
 			throw new IllegalArgumentException("Fiels 'script' has not been set!");
 		}
 		
-		Result r= new Result();
+		Result r= execute(inputs);
+		
+		setLastResult(r);
+		return r;
+	}
+	
+	/**
+	 * Executes script same as {@link #executeArrayTransaction(double...)}, but in background thread.
+	 * Inputs are copied, last result is updated when call completes.
+	 *
+	 * @param inputs script inputs
+	 * @return future with result, completes normally also when script fails
+	 */
+	public CompletableFuture<Result> executeArrayTransactionAsync(double... inputs) {
+		
+		if (script==null) {
+			throw new IllegalArgumentException("Fiels 'script' has not been set!");
+		}
+		
+		final double[] in= inputs.clone();
+		
+		return CompletableFuture.supplyAsync(() -> execute(in), calc).thenApply(r -> {
+			setLastResult(r);
+			return r;
+		});
+	}
+	
+	private Result execute(double... inputs) {
+		
+		String key= null;
+		Result r= null;
+		
+		if (cached) {
+			key= PythonResultCache.key(new File(directory, script), inputs);
+			r= PythonResultCache.getInstance().get(key);
+			if (r!=null) {
+				log.debug("Result of '"+script+"' taken from cache.");
+				return r;
+			}
+		}
+		
+		if (workers>0) {
+			r= executeInWorker(inputs);
+		}
+		
+		if (r==null) {
+			r= executeProcess(inputs);
+		}
+		
+		if (key!=null) {
+			PythonResultCache.getInstance().put(key, r);
+		}
+		
+		return r;
+	}
+	
+	/**
+	 * Stores result as last result, also for results calculated without script.
+	 *
+	 * @param r the result
+	 */
+	void setLastResult(Result r) {
+		lastResult= r;
+		lastData=r.data;
+	}
+	
+	private Result executeInWorker(double... inputs) {
+		
+		String[] args= new String[inputs.length];
+		for (int i = 0; i < inputs.length; i++) {
+			args[i]= Double.toString(inputs[i]);
+		}
+		
+		try {
+			Result r= parseOutput(PythonWorkerPool.getInstance(directory, script, workers).execute(args, timeout));
+			log.debug("Output Stream:"+(r.output==null ? "None" : "\n"+r.output));
+			log.debug("Error Stream:"+(r.error==null ? "None" : "\n"+r.error));
+			return r;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return new Result(e);
+		} catch (PythonWorkerPool.StartException e) {
+			log.warn("Python worker not available, using new process: "+e.toString());
+			return null;
+		} catch (Exception e) {
+			// script might have run already, it is not repeated
+			log.warn("Python worker failed: "+e.toString());
+			return new Result(e);
+		}
+	}
+	
+	private Result executeProcess(double... inputs) {
+		
+		AtomicReference<double[]> data= new AtomicReference<double[]>();
+		String output= null;
+		String error= null;
+		Exception exception= null;
 		
 		ArrayList<String> cmd= new ArrayList<String>(inputs.length+2);
 		cmd.add(PYTHON_BIN);
 		cmd.add(script);
-		for (int i = 0; i < inputs.length; i++) {
-			cmd.add(Double.toString(inputs[i]));
+		if (binaryInput) {
+			cmd.add(BINARY_INPUT_ARG);
+			cmd.add(Integer.toString(inputs.length));
+		} else {
+			for (int i = 0; i < inputs.length; i++) {
+				cmd.add(Double.toString(inputs[i]));
+			}
 		}
 		
+		Process p= null;
 		
 		try {
 			ProcessBuilder pb= new ProcessBuilder(cmd);
 			pb.directory(directory);
-			Process p= pb.start();
+			p= pb.start();
 			
-			BufferedReader br = p.inputReader();
-			BufferedReader er= p.errorReader();
+			final Process proc= p;
+			final boolean binary= binaryInput;
 			
-			p.waitFor();
+			// streams are drained while process runs, otherwise full pipe blocks the script
+			Future<String> out= io.submit(() -> drain(proc.inputReader(), data));
+			Future<String> err= io.submit(() -> drain(proc.errorReader(), null));
+			Future<?> in= io.submit(() -> {
+				writeInputs(proc.getOutputStream(), binary ? inputs : null);
+				return null;
+			});
 			
-			StringBuilder sb= new StringBuilder();
-			while(br.ready()) {
-				String rs=br.readLine();
-				sb.append(rs);
-				sb.append('\n');
-				if ( ! ( rs.startsWith("#") || rs.startsWith(" ")) ) {
-					int st= rs.indexOf('(');
-					int en= rs.indexOf(')');
-					
-					if (st>0 && en>st+1) {
-						rs=rs.substring(st+1, en);
-						String[] s= rs.split(",");
-						r.data=new double[s.length];
-						for (int i = 0; i < s.length; i++) {
-							r.data[i]=parseDouble(s[i].trim());
-						}
-					}
-				}
+			boolean finished= p.waitFor(timeout, TimeUnit.MILLISECONDS);
+			
+			if (!finished) {
+				destroyTree(p);
+				exception= new TimeoutException("Python script '"+script+"' timed out after "+timeout+" ms, process killed!");
+				log.warn(exception.getMessage());
 			}
 			
-			r.output=sb.toString();
-			log.debug("Output Stream:"+(r.output==null ? "None" : "\n"+r.output));
+			output= collect(out);
+			log.debug("Output Stream:"+(output==null ? "None" : "\n"+output));
 			
-			sb= new StringBuilder();
-			while(er.ready()) {
-				sb.append(er.readLine());
-				sb.append("\n");
-			}
+			error= collect(err);
+			log.debug("Error Stream:"+(error==null ? "None" : "\n"+error));
 			
-			r.error=sb.toString();
-			log.debug("Error Stream:"+(r.error==null ? "None" : "\n"+r.error));
+			try {
+				in.get(DRAIN_TIMEOUT, TimeUnit.MILLISECONDS);
+			} catch (Exception e) {
+				// script exited without reading all inputs, error is already in error stream
+				in.cancel(true);
+				log.debug("Writing inputs failed: "+e.toString());
+			}
 
+		} catch (InterruptedException e) {
+			if (p!=null) {
+				destroyTree(p);
+			}
+			exception=e;
+			Thread.currentThread().interrupt();
 		} catch (Exception e) {
-			r.exception=e;
+			if (p!=null) {
+				destroyTree(p);
+			}
+			exception=e;
 			log.warn("Python script execution failed: "+e.toString(), e);
 		}
 		
-		lastResult= r;
-		lastData=r.data;
-		return r;
+		return new Result(data.get(), output, error, exception);
+	}
+	
+	/**
+	 * Reads stream until closed. If data reference is provided, lines are parsed as they arrive.
+	 */
+	private static String drain(BufferedReader br, AtomicReference<double[]> data) throws IOException {
+		StringBuilder sb= new StringBuilder();
+		String s;
+		while ((s=br.readLine())!=null) {
+			sb.append(s);
+			sb.append('\n');
+			if (data!=null) {
+				double[] d= parseLine(s);
+				if (d!=null) {
+					data.set(d);
+				}
+			}
+		}
+		return sb.toString();
+	}
+	
+	private static String collect(Future<String> f) throws InterruptedException, IOException {
+		try {
+			return f.get(DRAIN_TIMEOUT, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			// stream kept open by process, which was not killed
+			f.cancel(true);
+			throw new IOException("Python process stream not closed in "+DRAIN_TIMEOUT+" ms!", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Reading Python process stream failed: "+e.getCause(), e.getCause());
+		}
+	}
+	
+	/**
+	 * Writes inputs as little-endian doubles and closes stream, null inputs only closes stream.
+	 */
+	private static void writeInputs(OutputStream os, double[] inputs) throws IOException {
+		try (OutputStream o= new BufferedOutputStream(os, 1<<16)) {
+			if (inputs==null) {
+				return;
+			}
+			ByteBuffer b= ByteBuffer.allocate(Math.min(inputs.length, 8192)*8).order(ByteOrder.LITTLE_ENDIAN);
+			for (int i = 0; i < inputs.length; i++) {
+				if (!b.hasRemaining()) {
+					o.write(b.array(), 0, b.position());
+					b.clear();
+				}
+				b.putDouble(inputs[i]);
+			}
+			o.write(b.array(), 0, b.position());
+		}
 	}
 	
 	/**
@@ -0,0 +1,231 @@
+/**
+ *
+ */
+package org.scictrl.csshell.python;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * <p>PythonWorker is long living Python process, which executes same script many times without restarting interpreter.</p>
+ *
+ * <p>Process runs resident loader <code>python_worker.py</code>, which compiles script once and executes it for each call,
+ * script is compiled again when its modification time changes,
+ * modules imported by script stay loaded. Requests and responses are sent over stdin and stdout as length prefixed frames.</p>
+ *
+ * <p>If call does not finish in time, process is killed and worker must be restarted. Worker is not thread safe,
+ * {@link PythonWorkerPool} gives each worker to one caller at a time.</p>
+ *
+ * @author igor@scictrl.com
+ */
+public class PythonWorker {
+
+	private static final Logger log= LogManager.getLogger(PythonWorker.class);
+
+	private static final String LOADER = "python_worker.py";
+	private static File loader;
+
+	private static final ScheduledExecutorService watchdog= Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t= new Thread(r, "PythonWorker-watchdog");
+		t.setDaemon(true);
+		return t;
+	});
+
+	/**
+	 * Copies resident loader from class path to temporary file, once per JVM.
+	 */
+	private static synchronized File loader() throws IOException {
+		if (loader==null || !loader.exists()) {
+			File f= File.createTempFile("python_worker", ".py");
+			f.deleteOnExit();
+			try (InputStream in= PythonWorker.class.getResourceAsStream(LOADER)) {
+				if (in==null) {
+					throw new IOException("Resource '"+LOADER+"' not found!");
+				}
+				Files.copy(in, f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			loader=f;
+		}
+		return loader;
+	}
+
+	private final File directory;
+	private final String script;
+	private Process process;
+	private DataOutputStream in;
+	private DataInputStream out;
+	private volatile boolean timedOut;
+	private int calls;
+
+	/**
+	 * Creates new worker, process is started with {@link #start()}.
+	 *
+	 * @param directory working directory with script
+	 * @param script the script name
+	 */
+	public PythonWorker(File directory, String script) {
+		this.directory=directory;
+		this.script=script;
+	}
+
+	/**
+	 * Starts Python process, if it is not already running.
+	 *
+	 * @throws java.io.IOException if process can not be started
+	 */
+	public synchronized void start() throws IOException {
+		if (isAlive()) {
+			return;
+		}
+		ProcessBuilder pb= new ProcessBuilder(PythonRunner.PYTHON_BIN, "-u", loader().getAbsolutePath(), script);
+		pb.directory(directory);
+		// script stderr is returned in frames, only loader failures end up here
+		pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+		process= pb.start();
+		in= new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+		out= new DataInputStream(new BufferedInputStream(process.getInputStream()));
+		timedOut=false;
+		calls=0;
+		log.debug("Python worker started for '{}' pid {}", script, process.pid());
+	}
+
+	/**
+	 * Returns <code>true</code> if Python process is running.
+	 *
+	 * @return <code>true</code> if Python process is running
+	 */
+	public synchronized boolean isAlive() {
+		return process!=null && process.isAlive();
+	}
+
+	/**
+	 * Returns number of calls since process was started.
+	 *
+	 * @return number of calls since start
+	 */
+	public synchronized int getCalls() {
+		return calls;
+	}
+
+	/**
+	 * Kills Python process.
+	 */
+	public synchronized void stop() {
+		if (process!=null) {
+			PythonRunner.destroyTree(process);
+			process=null;
+		}
+	}
+
+	/**
+	 * Checks if process responds in provided time.
+	 *
+	 * @param timeout timeout in milliseconds
+	 * @return <code>true</code> if process responded
+	 */
+	public synchronized boolean ping(long timeout) {
+		if (!isAlive()) {
+			return false;
+		}
+		try {
+			return "PONG".equals(call("PING", timeout)[0]);
+		} catch (IOException e) {
+			log.debug("Python worker for '{}' failed ping: {}", script, e.toString());
+			return false;
+		}
+	}
+
+	/**
+	 * Executes script with provided arguments and returns result with script output and errors.
+	 * Output is not parsed, see {@link PythonRunner#parseOutput(PythonRunner.Result)}.
+	 *
+	 * @param args the script arguments, must not contain line breaks
+	 * @param timeout timeout in milliseconds, after which process is killed
+	 * @return result with output and errors
+	 * @throws java.io.IOException if process fails, dies or times out, worker must be restarted
+	 */
+	public synchronized PythonRunner.Result execute(String[] args, long timeout) throws IOException {
+
+		StringBuilder sb= new StringBuilder(16+args.length*24);
+		sb.append("RUN");
+		for (String a : args) {
+			sb.append('\n');
+			sb.append(a);
+		}
+
+		String[] f= call(sb.toString(), timeout);
+		calls++;
+
+		String error= f[2];
+		if (!"OK".equals(f[0]) && (error==null || error.length()==0)) {
+			error= "Script failed with status "+f[0];
+		}
+		return new PythonRunner.Result(null, f[1], error, null);
+	}
+
+	private String[] call(String request, long timeout) throws IOException {
+
+		if (!isAlive()) {
+			throw new IOException("Python worker for '"+script+"' is not running!");
+		}
+
+		final Process p= process;
+		ScheduledFuture<?> kill= watchdog.schedule(() -> {
+			timedOut=true;
+			PythonRunner.destroyTree(p);
+		}, timeout, TimeUnit.MILLISECONDS);
+
+		try {
+			writeFrame(request);
+			in.flush();
+			String s= readFrame();
+			if ("PONG".equals(s)) {
+				return new String[]{s};
+			}
+			return new String[]{s, readFrame(), readFrame()};
+		} catch (IOException e) {
+			stop();
+			if (timedOut) {
+				throw new IOException("Python worker for '"+script+"' timed out after "+timeout+" ms, process killed.", e);
+			}
+			throw e;
+		} finally {
+			kill.cancel(false);
+		}
+	}
+
+	private void writeFrame(String s) throws IOException {
+		byte[] b= s.getBytes(StandardCharsets.UTF_8);
+		in.writeInt(b.length);
+		in.write(b);
+	}
+
+	private String readFrame() throws IOException {
+		int n;
+		try {
+			n= out.readInt();
+		} catch (EOFException e) {
+			throw new IOException("Python worker for '"+script+"' terminated.", e);
+		}
+		byte[] b= new byte[n];
+		out.readFully(b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,234 @@
+/**
+ *
+ */
+package org.scictrl.csshell.python;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * <p>PythonWorkerPool keeps few {@link PythonWorker}s running for same script and gives them to callers one at a time.</p>
+ *
+ * <p>Workers are started lazily. Worker, which crashed or timed out, is restarted on next use.
+ * Idle workers are pinged periodically and restarted if they do not respond.</p>
+ *
+ * @author igor@scictrl.com
+ */
+public class PythonWorkerPool {
+
+	private static final Logger log= LogManager.getLogger(PythonWorkerPool.class);
+
+	/**
+	 * Thrown when worker can not be started or pool is shut down, script has not been executed.
+	 */
+	public static class StartException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		StartException(String message, Throwable cause) {
+			super(message, cause);
+		}
+	}
+
+	/** Default number of workers in pool. */
+	public static final int DEFAULT_SIZE = 2;
+	/** Default period of health checks in milliseconds. */
+	public static final long DEFAULT_HEALTH_PERIOD = 30000;
+	/** Timeout for health check ping in milliseconds. */
+	public static final long PING_TIMEOUT = 5000;
+
+	private static final Map<String,PythonWorkerPool> pools= new ConcurrentHashMap<String, PythonWorkerPool>();
+
+	private static final ScheduledExecutorService health= Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t= new Thread(r, "PythonWorkerPool-health");
+		t.setDaemon(true);
+		return t;
+	});
+
+	/**
+	 * Returns shared pool for script in directory, pool is created with provided size if it does not exist yet.
+	 *
+	 * @param directory working directory with script
+	 * @param script the script name
+	 * @param size number of workers, used only when pool is created
+	 * @return the shared pool
+	 */
+	public static PythonWorkerPool getInstance(File directory, String script, int size) {
+		String key= new File(directory, script).getAbsolutePath();
+		return pools.computeIfAbsent(key, k -> new PythonWorkerPool(directory, script, size, DEFAULT_HEALTH_PERIOD));
+	}
+
+	/**
+	 * Stops all shared pools.
+	 */
+	public static void shutdownAll() {
+		for (PythonWorkerPool p : pools.values()) {
+			p.shutdown();
+		}
+		pools.clear();
+	}
+
+	private final File directory;
+	private final String script;
+	private final BlockingQueue<PythonWorker> idle;
+	private final List<PythonWorker> workers;
+	private final ScheduledFuture<?> healthCheck;
+	private volatile boolean shutdown;
+	private volatile int restarts;
+
+	/**
+	 * Creates new pool.
+	 *
+	 * @param directory working directory with script
+	 * @param script the script name
+	 * @param size number of workers
+	 * @param healthPeriod period of health checks in milliseconds, 0 disables checks
+	 */
+	public PythonWorkerPool(File directory, String script, int size, long healthPeriod) {
+		if (size<1) {
+			throw new IllegalArgumentException("Pool size '"+size+"' must be at least 1!");
+		}
+		this.directory=directory;
+		this.script=script;
+		idle= new ArrayBlockingQueue<PythonWorker>(size);
+		workers= new ArrayList<PythonWorker>(size);
+		for (int i = 0; i < size; i++) {
+			PythonWorker w= new PythonWorker(directory, script);
+			workers.add(w);
+			idle.add(w);
+		}
+		healthCheck= healthPeriod>0 ? health.scheduleWithFixedDelay(this::checkHealth, healthPeriod, healthPeriod, TimeUnit.MILLISECONDS) : null;
+	}
+
+	/**
+	 * Returns working directory.
+	 * @return working directory
+	 */
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Returns script name.
+	 * @return script name
+	 */
+	public String getScript() {
+		return script;
+	}
+
+	/**
+	 * Returns number of workers.
+	 * @return number of workers
+	 */
+	public int getSize() {
+		return workers.size();
+	}
+
+	/**
+	 * Returns number of workers, which are not in use.
+	 * @return number of idle workers
+	 */
+	public int getIdleCount() {
+		return idle.size();
+	}
+
+	/**
+	 * Returns number of worker restarts after crash, timeout or failed health check.
+	 * @return number of restarts
+	 */
+	public int getRestartCount() {
+		return restarts;
+	}
+
+	/**
+	 * Executes script on first free worker. Waits for free worker at most for timeout.
+	 *
+	 * @param args script arguments
+	 * @param timeout timeout in milliseconds for waiting and for execution
+	 * @return result with output and errors, not parsed
+	 * @throws org.scictrl.csshell.python.PythonWorkerPool.StartException if worker can not be started, script was not executed
+	 * @throws java.io.IOException if worker fails or times out
+	 * @throws java.lang.InterruptedException if interrupted while waiting for worker
+	 */
+	public PythonRunner.Result execute(String[] args, long timeout) throws IOException, InterruptedException {
+
+		if (shutdown) {
+			throw new StartException("Python worker pool for '"+script+"' is shut down!", null);
+		}
+
+		PythonWorker w= idle.poll(timeout, TimeUnit.MILLISECONDS);
+
+		if (w==null) {
+			throw new IOException("No free Python worker for '"+script+"' in "+timeout+" ms!");
+		}
+
+		try {
+			ensureStarted(w);
+			return w.execute(args, timeout);
+		} finally {
+			idle.offer(w);
+		}
+	}
+
+	private void ensureStarted(PythonWorker w) throws StartException {
+		if (!w.isAlive()) {
+			if (w.getCalls()>0) {
+				restarts++;
+				log.warn("Restarting Python worker for '{}'.", script);
+			}
+			try {
+				w.start();
+			} catch (IOException e) {
+				throw new StartException("Python worker for '"+script+"' can not be started: "+e.toString(), e);
+			}
+		}
+	}
+
+	private void checkHealth() {
+		int n= idle.size();
+		for (int i = 0; i < n && !shutdown; i++) {
+			PythonWorker w= idle.poll();
+			if (w==null) {
+				return;
+			}
+			try {
+				if (w.isAlive() && !w.ping(PING_TIMEOUT)) {
+					w.stop();
+					restarts++;
+					log.warn("Python worker for '{}' failed health check, restarting.", script);
+					w.start();
+				}
+			} catch (IOException e) {
+				log.warn("Python worker for '"+script+"' failed to restart: "+e.toString(), e);
+			} finally {
+				idle.offer(w);
+			}
+		}
+	}
+
+	/**
+	 * Stops all workers, pool can not be used afterwards.
+	 */
+	public void shutdown() {
+		shutdown=true;
+		if (healthCheck!=null) {
+			healthCheck.cancel(false);
+		}
+		for (PythonWorker w : workers) {
+			w.stop();
+		}
+	}
+
+}
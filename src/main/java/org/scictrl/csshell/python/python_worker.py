@@ -0,0 +1,96 @@
+# -*- coding: utf-8 -*-
+"""
+Resident loader for PythonWorker.
+
+Compiles script once and executes it for each request with new sys.argv,
+modules imported by script (numpy, scipy, ...) stay loaded between requests.
+Script is compiled again, when its modification time changes.
+
+Protocol over stdin/stdout, each frame is 4 byte big-endian length followed by UTF-8 payload.
+Request frame is command line followed by arguments, one per line:
+  RUN   - executes script, responds with three frames: status (OK or ERR), output, error
+  PING  - responds with frame PONG
+  QUIT  - exits
+"""
+
+import io
+import os
+import struct
+import sys
+import traceback
+from contextlib import redirect_stderr, redirect_stdout
+
+script = sys.argv[1]
+
+inp = sys.stdin.buffer
+out = sys.stdout.buffer
+
+
+def read_frame():
+    h = inp.read(4)
+    if len(h) < 4:
+        return None
+    n = struct.unpack('>I', h)[0]
+    b = inp.read(n)
+    if len(b) < n:
+        return None
+    return b.decode('utf-8')
+
+
+def write_frame(s):
+    b = s.encode('utf-8')
+    out.write(struct.pack('>I', len(b)))
+    out.write(b)
+
+
+code = None
+mtime = None
+
+
+def load():
+    global code, mtime
+    m = os.stat(script).st_mtime_ns
+    if code is None or m != mtime:
+        with open(script, 'r', encoding='utf-8') as f:
+            code = compile(f.read(), os.path.abspath(script), 'exec')
+        mtime = m
+    return code
+
+
+load()
+
+while True:
+    req = read_frame()
+    if req is None:
+        break
+    lines = req.split('\n')
+    cmd = lines[0]
+
+    if cmd == 'PING':
+        write_frame('PONG')
+    elif cmd == 'RUN':
+        o = io.StringIO()
+        e = io.StringIO()
+        status = 'OK'
+        sys.argv = [script] + lines[1:]
+        try:
+            with redirect_stdout(o), redirect_stderr(e):
+                exec(load(), {'__name__': '__main__', '__file__': script})
+        except SystemExit as x:
+            if x.code not in (None, 0):
+                status = 'ERR'
+                e.write('SystemExit: ' + str(x.code) + '\n')
+        except BaseException:
+            status = 'ERR'
+            e.write(traceback.format_exc())
+        write_frame(status)
+        write_frame(o.getvalue())
+        write_frame(e.getvalue())
+    elif cmd == 'QUIT':
+        break
+    else:
+        write_frame('ERR')
+        write_frame('')
+        write_frame('Unknown command ' + cmd + '\n')
+
+    out.flush()
@@ -0,0 +1,29 @@
+#!/bin/sh
+# ASTRA stub used by tests, writes synthetic emittance outputs calculated from parameters in input file
+#  phase 99 fails with exit value 1, missing template or distribution fails with exit value 2
+
+in=$1
+base=${in%.in}
+phase=$(sed -n 's/^ *Phi(1)=//p' "$in")
+sol=$(sed -n 's/^ *MaxB(1)=//p' "$in")
+
+test -f field.dat -a -f generator.ini || exit 2
+
+echo "ASTRA stub, phase $phase, solenoid $sol"
+sleep 0.3
+
+if [ "$phase" = "99.0" ]; then
+	echo "Phase out of range" >&2
+	exit 1
+fi
+
+awk -v p="$phase" -v s="$sol" 'BEGIN {
+	print "  0.0000E+00  0.0000E+00  0.0000E+00  1.0000E+00  0.0000E+00  1.0000E+00  0.0000E+00"
+	printf "  1.0000E+00  3.3000E+00  0.0000E+00  %.6E  0.0000E+00  %.6E  0.0000E+00\n", 1+s, 1+p
+}' > "$base.Xemit.001"
+awk -v p="$phase" -v s="$sol" 'BEGIN {
+	printf "  1.0000E+00  3.3000E+00  0.0000E+00  %.6E  0.0000E+00  %.6E  0.0000E+00\n", 2+s, 2+p
+}' > "$base.Yemit.001"
+awk -v p="$phase" 'BEGIN {
+	printf "  1.0000E+00  3.3000E+00  %.6E  %.6E  0.0000E+00  0.0000E+00  0.0000E+00\n", 5+p/10, 0.5
+}' > "$base.Zemit.001"
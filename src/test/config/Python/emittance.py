@@ -253,6 +253,13 @@ def fit_emitance(current, mean_beam_width,std,plotting = True,Energy = 5.81, dir
 arg_n = len(sys.argv)
 arg_s = sys.argv
 
+# inputs sent by PythonRunner over stdin as little-endian doubles
+if arg_n > 2 and arg_s[1] == '--binary-input':
+    import struct
+    nb = int(arg_s[2])
+    arg_s = [arg_s[0]] + [repr(v) for v in struct.unpack('<%dd' % nb, sys.stdin.buffer.read(8 * nb))]
+    arg_n = len(arg_s)
+
 #        script + Energy + quad min + beam w + beam std 
 arg_min= 1      + 1      + 2        + 2      + 2
 
@@ -0,0 +1,40 @@
+import os
+import struct
+import subprocess
+import sys
+import time
+
+# first argument selects behaviour, used by PythonWorkerPoolTest and PythonRunnerTest
+#  0 - returns sum of other arguments and process id
+#  1 - sleeps for seconds in second argument
+#  2 - crashes process
+#  3 - raises exception
+#  4 - writes number of lines in second argument to stdout and stderr, then returns sum
+#  5 - starts child process, returns its process id and sleeps for seconds in second argument
+
+# inputs sent by PythonRunner over stdin as little-endian doubles
+if len(sys.argv) > 2 and sys.argv[1] == '--binary-input':
+    n = int(sys.argv[2])
+    sys.argv = [sys.argv[0]] + [repr(v) for v in struct.unpack('<%dd' % n, sys.stdin.buffer.read(8 * n))]
+
+mode = int(float(sys.argv[1]))
+
+print('# Worker test, mode ' + str(mode))
+
+if mode == 1:
+    time.sleep(float(sys.argv[2]))
+elif mode == 2:
+    os._exit(3)
+elif mode == 3:
+    raise ValueError('test failure')
+elif mode == 4:
+    for i in range(int(float(sys.argv[2]))):
+        print('# output line ' + str(i))
+        sys.stderr.write('error line ' + str(i) + '\n')
+elif mode == 5:
+    child = subprocess.Popen([sys.executable, '-c', 'import time; time.sleep(60)'])
+    print('Child: (' + str(child.pid) + ')', flush=True)
+    time.sleep(float(sys.argv[2]))
+
+s = sum(float(a) for a in sys.argv[2:])
+print('Sum,pid: (' + str(s) + ', ' + str(os.getpid()) + ')')
@@ -0,0 +1,151 @@
+package org.scictrl.csshell.epics.server.astra;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+import org.scictrl.csshell.epics.server.astra.ASTRAJobExecutor.Job;
+import org.scictrl.csshell.epics.server.astra.ASTRAJobExecutor.JobResult;
+
+class ASTRAJobExecutorTest {
+
+	private static Job shell(String name, long timeout, String cmd) {
+		return new Job(name, timeout, () -> new ProcessBuilder("/bin/sh", "-c", cmd));
+	}
+
+	private static void waitFor(ASTRAJobExecutor ex, int running) throws InterruptedException {
+		for (int i = 0; i < 100 && ex.getRunning()!=running; i++) {
+			Thread.sleep(50);
+		}
+		assertEquals(running, ex.getRunning());
+	}
+
+	@Test
+	void testQueue() throws Exception {
+
+		ASTRAJobExecutor ex= new ASTRAJobExecutor();
+
+		long t= System.currentTimeMillis();
+		CompletableFuture<JobResult> a= ex.submit(shell("a", 10000, "sleep 0.5; echo 'a done'"));
+		CompletableFuture<JobResult> b= ex.submit(shell("b", 10000, "echo 'b done'; echo 'b error' >&2; exit 3"));
+
+		// submit does not wait
+		assertTrue(System.currentTimeMillis()-t<400);
+		waitFor(ex, 1);
+		assertEquals(1, ex.getQueueSize());
+		assertFalse(b.isDone());
+
+		JobResult ra= a.join();
+		JobResult rb= b.join();
+
+		assertTrue(ra.isOK());
+		assertEquals("a done\n", ra.output);
+		assertTrue(ra.duration>=400);
+		assertFalse(rb.isOK());
+		assertEquals(3, rb.exitValue);
+		assertEquals("b done\n", rb.output);
+		assertEquals("b error\n", rb.error);
+
+		assertEquals(0, ex.getQueueSize());
+		assertFalse(ex.isRunning());
+		assertEquals(0, ex.getElapsed());
+
+		ex.shutdown();
+	}
+
+	@Test
+	void testTimeoutKillsTree() throws Exception {
+
+		ASTRAJobExecutor ex= new ASTRAJobExecutor();
+
+		// child keeps running if only shell is killed
+		JobResult r= ex.submit(shell("timeout", 500, "sleep 30 & echo $!; wait")).join();
+
+		assertTrue(r.exception instanceof TimeoutException, String.valueOf(r.exception));
+		assertFalse(r.isOK());
+		assertTrue(r.duration<5000);
+
+		long pid= Long.parseLong(r.output.trim());
+		for (int i = 0; i < 50 && ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false); i++) {
+			Thread.sleep(100);
+		}
+		assertFalse(ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false), "Child "+pid+" still running");
+
+		ex.shutdown();
+	}
+
+	@Test
+	void testAbort() throws Exception {
+
+		ASTRAJobExecutor ex= new ASTRAJobExecutor();
+
+		CompletableFuture<JobResult> a= ex.submit(shell("a", 0, "sleep 30"));
+		CompletableFuture<JobResult> b= ex.submit(shell("b", 0, "echo b"));
+
+		waitFor(ex, 1);
+		Thread.sleep(200);
+		assertTrue(ex.getElapsed()>=100);
+
+		ex.abort();
+
+		JobResult ra= a.join();
+		JobResult rb= b.join();
+
+		assertTrue(ra.aborted);
+		assertTrue(ra.duration<5000);
+		assertTrue(rb.aborted);
+		assertNull(rb.output);
+
+		// jobs submitted after abort run
+		assertTrue(ex.submit(shell("c", 0, "true")).join().isOK());
+
+		ex.shutdown();
+	}
+
+	@Test
+	void testOutputStreaming() throws Exception {
+
+		ASTRAJobExecutor ex= new ASTRAJobExecutor();
+		ex.setOutputLines(100);
+
+		AtomicInteger lines= new AtomicInteger();
+		AtomicReference<String> first= new AtomicReference<String>();
+		AtomicInteger errors= new AtomicInteger();
+		ex.setOutputListener((job,line,error) -> {
+			if (error) {
+				errors.incrementAndGet();
+			} else if (lines.getAndIncrement()==0) {
+				first.set(line);
+			}
+		});
+
+		// lines arrive while process is still running
+		CompletableFuture<JobResult> f= ex.submit(shell("live", 10000, "echo 'z = 0.1'; sleep 1; echo 'z = 0.2'"));
+		for (int i = 0; i < 50 && lines.get()==0; i++) {
+			Thread.sleep(20);
+		}
+		assertEquals("z = 0.1", first.get());
+		assertFalse(f.isDone());
+		assertEquals("z = 0.1\nz = 0.2\n", f.join().output);
+
+		// long output keeps only last lines, very long line is truncated
+		lines.set(0);
+		JobResult r= ex.submit(shell("long", 30000, "seq 1 200000; head -c 5000000 /dev/zero | tr '\\0' x; seq 1 3 >&2")).join();
+
+		assertTrue(r.isOK(), r.error);
+		assertEquals(200001, lines.get());
+		assertEquals(3, errors.get());
+		assertEquals("1\n2\n3\n", r.error);
+		String[] out= r.output.split("\n");
+		assertEquals(100, out.length);
+		assertEquals("200000", out[98]);
+		assertEquals(OutputRingBuffer.MAX_LINE_LENGTH, out[99].length());
+
+		ex.shutdown();
+	}
+
+}
@@ -0,0 +1,48 @@
+package org.scictrl.csshell.epics.server.astra;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+
+import org.junit.jupiter.api.Test;
+
+class ASTRAProgressTest {
+
+	@Test
+	void testParse() {
+
+		ASTRAProgress p= new ASTRAProgress();
+		p.reset(2.0);
+
+		assertEquals(0.0, p.getProgress(), 0.0);
+		assertTrue(Double.isNaN(p.getZ()));
+
+		assertFalse(p.parse(" Particles taken into account      N =      10000"));
+		assertTrue(p.parse(" Step 120 at z = 0.5000 m"));
+		assertEquals(0.5, p.getZ(), 0.0);
+		assertEquals(25.0, p.getProgress(), 1e-12);
+
+		assertTrue(p.parse("Z=  1.5D+00"));
+		assertEquals(1.5, p.getZ(), 0.0);
+		assertEquals(75.0, p.getProgress(), 1e-12);
+
+		assertTrue(p.parse("z = 3.0"));
+		assertEquals(100.0, p.getProgress(), 0.0);
+
+		p.reset(Double.NaN);
+		assertTrue(p.parse("z = 1.0"));
+		assertEquals(0.0, p.getProgress(), 0.0);
+
+		ASTRAProgress q= new ASTRAProgress("position ([0-9.]+)");
+		assertTrue(q.parse("position 0.25"));
+		assertEquals(0.25, q.getZ(), 0.0);
+	}
+
+	@Test
+	void testZStop() {
+		assertTrue(Double.isNaN(ASTRAProgress.zStop(new File("src/test/config/ASTRA/inputs/sweep.in"))));
+		assertTrue(Double.isNaN(ASTRAProgress.zStop(new File("src/test/config/ASTRA/inputs/missing.in"))));
+		assertEquals(1.8, ASTRAProgress.zStop(new File("src/test/config/ASTRA/inputs/progress.in")), 0.0);
+	}
+
+}
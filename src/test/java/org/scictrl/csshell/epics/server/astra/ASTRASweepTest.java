@@ -0,0 +1,102 @@
+package org.scictrl.csshell.epics.server.astra;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.scictrl.csshell.epics.server.astra.ASTRASweep.Point;
+
+class ASTRASweepTest {
+
+	private static final File DIR= new File("src/test/config/ASTRA");
+
+	private File tmp;
+	private ASTRASweep sweep;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		tmp= Files.createTempDirectory("sweep").toFile();
+		File dist= new File(tmp, "generator.ini");
+		Files.write(dist.toPath(), "0 0 0\n".getBytes(StandardCharsets.UTF_8));
+
+		sweep= new ASTRASweep(new File(DIR, "templates"), new File(DIR, "inputs/sweep.in"), new File(tmp, "sweep"), new File(DIR, "astra.sh"));
+		sweep.setFiles(dist);
+		sweep.setTimeout(10000);
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		FileUtils.deleteDirectory(tmp);
+	}
+
+	@Test
+	void testGrid() throws Exception {
+
+		ASTRAJobExecutor ex= new ASTRAJobExecutor(4);
+
+		double[] phase= {-10.0, 0.0, 10.0, 99.0};
+		double[] sol= {0.1, 0.2};
+
+		long t= System.currentTimeMillis();
+		Point[] p= sweep.run(ex, phase, sol).join();
+		t= System.currentTimeMillis()-t;
+
+		assertEquals(8, p.length);
+		assertEquals(8, sweep.getCompleted());
+		// 8 runs of 0.3 s on 4 workers
+		assertTrue(t<8*300, "Took "+t);
+
+		for (int i = 0; i < phase.length; i++) {
+			for (int j = 0; j < sol.length; j++) {
+				Point pt= p[i*sol.length+j];
+				assertEquals(phase[i], pt.param1, 0.0);
+				assertEquals(sol[j], pt.param2, 0.0);
+
+				if (phase[i]==99.0) {
+					assertFalse(pt.isOK());
+					assertEquals(1, pt.result.exitValue);
+					assertTrue(Double.isNaN(pt.values[ASTRASweep.EMIT_X]));
+					continue;
+				}
+
+				assertTrue(pt.isOK(), pt.result.error);
+				assertEquals(1+phase[i], pt.values[ASTRASweep.EMIT_X], 1e-6);
+				assertEquals(2+phase[i], pt.values[ASTRASweep.EMIT_Y], 1e-6);
+				assertEquals(1+sol[j], pt.values[ASTRASweep.SIZE_X], 1e-6);
+				assertEquals(2+sol[j], pt.values[ASTRASweep.SIZE_Y], 1e-6);
+				assertEquals(5+phase[i]/10, pt.values[ASTRASweep.ENERGY], 1e-6);
+				assertEquals(0.5, pt.values[ASTRASweep.BUNCH_LENGTH], 1e-6);
+			}
+		}
+
+		// each run has own workspace
+		assertEquals(8, new File(tmp, "sweep").list().length);
+
+		ex.shutdown();
+	}
+
+	@Test
+	void testSingleParameter() throws Exception {
+
+		ASTRAJobExecutor ex= new ASTRAJobExecutor(2);
+
+		Point[] p= sweep.run(ex, new double[]{1.0, 2.0}, null).join();
+
+		assertEquals(2, p.length);
+		assertTrue(Double.isNaN(p[0].param2));
+		assertEquals(2.0, p[0].values[ASTRASweep.EMIT_X], 1e-6);
+		assertEquals(3.0, p[1].values[ASTRASweep.EMIT_X], 1e-6);
+
+		assertThrows(IllegalArgumentException.class, () -> sweep.run(ex, new double[0], null));
+
+		ex.shutdown();
+	}
+
+}
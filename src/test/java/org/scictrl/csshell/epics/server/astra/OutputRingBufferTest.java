@@ -0,0 +1,44 @@
+package org.scictrl.csshell.epics.server.astra;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class OutputRingBufferTest {
+
+	@Test
+	void testRing() {
+
+		OutputRingBuffer b= new OutputRingBuffer(3);
+		assertEquals("", b.toString());
+
+		b.add("a");
+		b.add("b");
+		assertEquals("a\nb\n", b.toString());
+
+		b.add("c");
+		b.add("d");
+		b.add("e");
+		assertEquals(3, b.size());
+		assertEquals(5, b.getTotal());
+		assertEquals(2, b.getDropped());
+		assertEquals("c\nd\ne\n", b.toString());
+
+		// only whole lines which fit
+		assertEquals("d\ne\n", b.tail(5));
+		assertEquals("", b.tail(1));
+
+		b.clear();
+		assertEquals(0, b.size());
+		assertEquals("", b.toString());
+	}
+
+	@Test
+	void testLongLine() {
+
+		OutputRingBuffer b= new OutputRingBuffer(2);
+		b.add(new String(new char[OutputRingBuffer.MAX_LINE_LENGTH*3]).replace('\0', 'x'));
+		assertEquals(OutputRingBuffer.MAX_LINE_LENGTH+1, b.toString().length());
+	}
+
+}
@@ -0,0 +1,97 @@
+package org.scictrl.csshell.epics.server.astra;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class WorkspaceStagerTest {
+
+	private File tmp;
+	private File templates;
+	private File input;
+	private File ws;
+
+	private static void write(File f, String s) throws IOException {
+		f.getParentFile().mkdirs();
+		Files.write(f.toPath(), s.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@BeforeEach
+	void setUp() throws IOException {
+		tmp= Files.createTempDirectory("stage").toFile();
+		templates= new File(tmp, "templates");
+		write(new File(templates, "field.dat"), "0.0 1.0\n");
+		write(new File(templates, "maps/solenoid.dat"), "0.0 0.2\n");
+		input= new File(tmp, "inputs/gun.in");
+		write(input, "&NEWRUN\n/\n");
+		ws= new File(tmp, "var");
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		FileUtils.deleteDirectory(tmp);
+	}
+
+	@Test
+	void testCopy() throws IOException {
+
+		WorkspaceStager st= new WorkspaceStager();
+		assertFalse(st.isLinks());
+
+		assertEquals(3, st.stage(templates, ws, input));
+		assertEquals("0.0 0.2\n", new String(Files.readAllBytes(new File(ws, "maps/solenoid.dat").toPath()), StandardCharsets.UTF_8));
+		assertTrue(new File(ws, "gun.in").exists());
+		assertTrue(new File(ws, WorkspaceStager.MANIFEST).exists());
+		assertFalse(Files.isSameFile(new File(ws, "field.dat").toPath(), new File(templates, "field.dat").toPath()));
+
+		// nothing changed
+		assertEquals(0, st.stage(templates, ws, input));
+
+		// changed template
+		File f= new File(templates, "field.dat");
+		write(f, "0.0 2.0\n");
+		Files.setLastModifiedTime(f.toPath(), FileTime.fromMillis(f.lastModified()+2000));
+		assertEquals(1, st.stage(templates, ws, input));
+		assertEquals("0.0 2.0\n", new String(Files.readAllBytes(new File(ws, "field.dat").toPath()), StandardCharsets.UTF_8));
+
+		// file changed in workspace
+		File w= new File(ws, "gun.in");
+		write(w, "changed by run, longer\n");
+		assertEquals(1, st.stage(templates, ws, input));
+		assertEquals("&NEWRUN\n/\n", new String(Files.readAllBytes(w.toPath()), StandardCharsets.UTF_8));
+
+		// file deleted in workspace
+		assertTrue(new File(ws, "maps/solenoid.dat").delete());
+		assertEquals(1, st.stage(templates, ws, input));
+		assertTrue(new File(ws, "maps/solenoid.dat").exists());
+	}
+
+	@Test
+	void testLinks() throws IOException {
+
+		WorkspaceStager st= new WorkspaceStager();
+		st.setLinks(true);
+
+		assertEquals(3, st.stage(templates, ws, input));
+		// temporary directory is on single file system, so links are used
+		assertTrue(Files.isSameFile(new File(ws, "field.dat").toPath(), new File(templates, "field.dat").toPath()));
+		assertEquals(0, st.stage(templates, ws, input));
+
+		// restaging replaces link, does not write into template
+		assertTrue(new File(ws, "gun.in").delete());
+		write(new File(ws, "gun.in"), "other\n");
+		assertEquals(1, st.stage(templates, ws, input));
+		assertEquals("&NEWRUN\n/\n", new String(Files.readAllBytes(input.toPath()), StandardCharsets.UTF_8));
+		assertTrue(Files.isSameFile(new File(ws, "gun.in").toPath(), input.toPath()));
+	}
+
+}
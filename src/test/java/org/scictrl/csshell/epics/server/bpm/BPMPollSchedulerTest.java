@@ -0,0 +1,126 @@
+package org.scictrl.csshell.epics.server.bpm;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.jupiter.api.Test;
+
+class BPMPollSchedulerTest {
+
+	private static final String REFERER = "http://localhost/cav_bpm.htm?DEVICE=TEST";
+	private static final int BPMS = 3;
+	private static final long DELAY = 60;
+	private static final long PERIOD = 200;
+
+	@Test
+	void testAlignedCycles() throws Exception {
+
+		List<BPMStandInServer> servers= new ArrayList<BPMStandInServer>();
+		List<List<BPMPullEngine.Data>> data= new ArrayList<List<BPMPullEngine.Data>>();
+		BPMPollScheduler scheduler= new BPMPollScheduler();
+
+		try {
+			for (int i = 0; i < BPMS; i++) {
+				BPMStandInServer server= new BPMStandInServer(0);
+				server.registers.put("F00838024", String.valueOf(i));
+				server.setResponseDelay(DELAY);
+				servers.add(server);
+
+				BPMPullEngine bpm= new BPMPullEngine(server.getReadURL(), REFERER);
+				bpm.registerRequest("F00838024");
+				bpm.requestPollPeriod(PERIOD);
+
+				List<BPMPullEngine.Data> l= new CopyOnWriteArrayList<BPMPullEngine.Data>();
+				bpm.addDataListener((e,d) -> l.add(d));
+				data.add(l);
+
+				bpm.startPolling(scheduler);
+			}
+
+			List<BPMPullEngine.Data> first= data.get(0);
+			long t= System.currentTimeMillis();
+			while (first.size()<3 && System.currentTimeMillis()-t<10000) {
+				Thread.sleep(10);
+			}
+			scheduler.shutdown();
+			assertTrue(first.size()>=3, "cycles "+first.size());
+
+			// first cycle starts on next aligned tick, from second cycle on all engines are in
+			assertEquals(1, first.get(0).getCycleId());
+			assertEquals(0, first.get(0).getTimestamp()%PERIOD, "first tick is aligned to period");
+
+			for (int c = 1; c < first.size()-1; c++) {
+				BPMPullEngine.Data d0= first.get(c);
+				assertEquals(c+1, d0.getCycleId());
+				assertTrue(d0.getServerTime()>0);
+				assertEquals(0, d0.getTimestamp()%PERIOD, "tick is aligned to period");
+				for (int i = 1; i < BPMS; i++) {
+					BPMPullEngine.Data d= data.get(i).stream().filter(x -> x.getCycleId()==d0.getCycleId()).findFirst().get();
+					assertEquals(d0.getTimestamp(), d.getTimestamp());
+					assertEquals(i, d.getLong(0));
+				}
+			}
+
+			// BPMs are polled concurrently, cycle is bounded by slowest one
+			assertTrue(scheduler.getLastCycleDuration()<DELAY*BPMS, "cycle duration "+scheduler.getLastCycleDuration());
+			assertEquals(0, scheduler.getOverrunCount());
+
+		} finally {
+			for (BPMStandInServer s : servers) {
+				s.close();
+			}
+		}
+	}
+
+	@Test
+	void testSlowerEngine() throws Exception {
+
+		BPMPollScheduler scheduler= new BPMPollScheduler();
+		BPMStandInServer fast= new BPMStandInServer(0);
+		BPMStandInServer slow= new BPMStandInServer(0);
+
+		try {
+			List<BPMPullEngine.Data> f= new CopyOnWriteArrayList<BPMPullEngine.Data>();
+			List<BPMPullEngine.Data> l= new CopyOnWriteArrayList<BPMPullEngine.Data>();
+
+			BPMPullEngine a= new BPMPullEngine(fast.getReadURL(), REFERER);
+			a.registerRequest("F00838024");
+			a.requestPollPeriod(PERIOD);
+			a.addDataListener((e,d) -> f.add(d));
+
+			// 1.5 tick period is rounded up to every second tick, not down to every tick
+			BPMPullEngine b= new BPMPullEngine(slow.getReadURL(), REFERER);
+			b.registerRequest("F00838024");
+			b.requestPollPeriod(PERIOD*3/2);
+			b.addDataListener((e,d) -> l.add(d));
+
+			a.startPolling(scheduler);
+			b.startPolling(scheduler);
+
+			long t= System.currentTimeMillis();
+			while (l.size()<5 && System.currentTimeMillis()-t<10000) {
+				Thread.sleep(10);
+			}
+			scheduler.shutdown();
+			assertTrue(l.size()>=5, "cycles "+l.size());
+			assertEquals(PERIOD, scheduler.getTickPeriod());
+
+			for (int c = 1; c < l.size(); c++) {
+				long d= l.get(c).getTimestamp()-l.get(c-1).getTimestamp();
+				assertEquals(2*PERIOD, d, "slow engine polled every second tick");
+				assertEquals(2, l.get(c).getCycleId()-l.get(c-1).getCycleId());
+			}
+			for (int c = 1; c < f.size(); c++) {
+				assertEquals(1, f.get(c).getCycleId()-f.get(c-1).getCycleId(), "fast engine polled every tick");
+			}
+
+		} finally {
+			fast.close();
+			slow.close();
+		}
+	}
+
+}
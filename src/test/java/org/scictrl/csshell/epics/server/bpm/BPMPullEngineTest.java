@@ -0,0 +1,408 @@
+package org.scictrl.csshell.epics.server.bpm;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.Test;
+
+class BPMPullEngineTest {
+
+	private static final String REFERER = "http://localhost/cav_bpm.htm?DEVICE=TEST";
+	private static final int POLLS = 20;
+
+	private BPMPullEngine newEngine(BPMStandInServer server, BPMTransport transport) throws Exception {
+		BPMPullEngine bpm= new BPMPullEngine(server.getReadURL(), REFERER);
+		bpm.setTransport(transport);
+		bpm.updateRate=0;
+		bpm.updateRateMin=0;
+		return bpm;
+	}
+
+	private static void await(BooleanSupplier condition, String message) throws InterruptedException {
+		long t= System.currentTimeMillis();
+		while (!condition.getAsBoolean()) {
+			assertTrue(System.currentTimeMillis()-t<10000, message);
+			Thread.sleep(5);
+		}
+	}
+
+	private void poll(BPMPullEngine bpm, int i0, int i1) throws Exception {
+		for (int i = 0; i < POLLS; i++) {
+			BPMPullEngine.Data d= bpm.readData();
+			assertEquals(17, d.get(i0).intValue());
+			assertEquals(0.25, d.get(i1).doubleValue(), 0.000001);
+		}
+	}
+
+	@Test
+	void testKeepAlive() throws Exception {
+
+		try (BPMStandInServer server= new BPMStandInServer(5)) {
+			server.registers.put("F00838024", "17");
+			server.registers.put("D00838028", "0.25");
+
+			BPMPullEngine bpm= newEngine(server, new HttpBPMTransport());
+			int i0= bpm.registerRequest("F00838024");
+			int i1= bpm.registerRequest("D00838028");
+
+			poll(bpm, i0, i1);
+
+			assertEquals(POLLS, server.reads.get());
+			assertEquals(1, server.connections.get(), "keep-alive transport must reuse connection");
+
+			bpm.writeData(i0, 18);
+			assertEquals(18, bpm.readData().get(i0).intValue());
+			assertEquals(1, server.connections.get(), "writes must use same connection");
+			server.registers.put("F00838024", "17");
+		}
+
+		try (BPMStandInServer server= new BPMStandInServer(5)) {
+			server.registers.put("F00838024", "17");
+			server.registers.put("D00838028", "0.25");
+
+			BPMPullEngine bpm= newEngine(server, new URLConnectionBPMTransport());
+			int i0= bpm.registerRequest("F00838024");
+			int i1= bpm.registerRequest("D00838028");
+
+			poll(bpm, i0, i1);
+
+			assertEquals(POLLS, server.reads.get());
+			assertEquals(POLLS, server.connections.get(), "legacy transport opens connection per request");
+		}
+	}
+
+	@Test
+	void testReconnect() throws Exception {
+
+		try (BPMStandInServer server= new BPMStandInServer(0)) {
+			server.registers.put("F00838024", "17");
+			server.registers.put("D00838028", "0.25");
+
+			BPMPullEngine bpm= newEngine(server, new HttpBPMTransport());
+			int i0= bpm.registerRequest("F00838024");
+
+			assertEquals(17, bpm.readData().get(i0).intValue());
+
+			// server drops idle connection, engine must transparently reconnect
+			server.dropConnections();
+
+			assertEquals(17, bpm.readData().get(i0).intValue());
+			assertEquals(2, server.connections.get());
+		}
+	}
+
+	@Test
+	void testReadTimeout() throws Exception {
+
+		try (BPMStandInServer server= new BPMStandInServer(0)) {
+			server.registers.put("F00838024", "17");
+			server.setResponseDelay(500);
+
+			BPMPullEngine bpm= newEngine(server, new HttpBPMTransport());
+			bpm.setTimeouts(100, 100);
+			bpm.registerRequest("F00838024");
+
+			long t= System.currentTimeMillis();
+			assertThrows(java.io.IOException.class, () -> bpm.readData());
+			assertTrue(System.currentTimeMillis()-t<450);
+		}
+	}
+
+	@Test
+	void testReadTimeoutNotRepeated() throws Exception {
+
+		try (BPMStandInServer server= new BPMStandInServer(0)) {
+			server.registers.put("F00838024", "17");
+
+			BPMPullEngine bpm= newEngine(server, new HttpBPMTransport());
+			bpm.setTimeouts(100, 100);
+			bpm.registerRequest("F00838024");
+			bpm.readData();
+
+			// timeout on reused connection is not mistaken for closed idle connection
+			server.setResponseDelay(300);
+			assertThrows(java.io.IOException.class, () -> bpm.readData());
+			Thread.sleep(500);
+			assertEquals(2, server.reads.get(), "request must not be repeated after timeout");
+			assertEquals(1, server.connections.get());
+		}
+	}
+
+	@Test
+	void testWriteNotRepeated() throws Exception {
+
+		try (BPMStandInServer server= new BPMStandInServer(0)) {
+			server.registers.put("F00838024", "17");
+
+			BPMPullEngine bpm= newEngine(server, new HttpBPMTransport());
+			bpm.setTimeouts(100, 100);
+			int i0= bpm.registerRequest("F00838024");
+			bpm.readData();
+
+			// idle connection closed by server, write is sent once over new connection
+			server.dropConnections();
+			bpm.writeData(i0, 18);
+			assertEquals(1, server.writes.get());
+			assertEquals(2, server.connections.get());
+
+			// outcome of timed out write is unknown, it is not repeated
+			server.setResponseDelay(300);
+			assertThrows(java.io.IOException.class, () -> bpm.writeData(i0, 19));
+			Thread.sleep(500);
+			assertEquals(2, server.writes.get(), "write must not be repeated after timeout");
+			assertEquals("19", server.registers.get("F00838024"));
+		}
+	}
+
+	@Test
+	void testPolling() throws Exception {
+
+		try (BPMStandInServer server= new BPMStandInServer(0)) {
+			server.registers.put("F00838024", "17");
+
+			BPMPullEngine bpm= newEngine(server, new HttpBPMTransport());
+			int i0= bpm.registerRequest("F00838024");
+			bpm.requestPollPeriod(50);
+
+			List<BPMPullEngine.Data> d1= new CopyOnWriteArrayList<BPMPullEngine.Data>();
+			List<BPMPullEngine.Data> d2= new CopyOnWriteArrayList<BPMPullEngine.Data>();
+			bpm.addDataListener((e,d) -> d1.add(d));
+			bpm.addDataListener((e,d) -> d2.add(d));
+
+			bpm.startPolling();
+			await(() -> d2.size()>=4, "polling must push data");
+			bpm.stopPolling();
+			// poll in progress is finished
+			await(() -> d2.size()==server.reads.get(), "each read must be pushed");
+
+			int reads= server.reads.get();
+			assertEquals(reads, d1.size());
+			for (int i = 0; i < reads; i++) {
+				// all listeners get same snapshot
+				assertSame(d1.get(i), d2.get(i));
+				assertEquals(17, d1.get(i).get(i0).intValue());
+				if (i>0) {
+					// one read per cycle
+					assertTrue(d1.get(i).getCycleId()>d1.get(i-1).getCycleId());
+					assertTrue(d1.get(i).getTimestamp()>d1.get(i-1).getTimestamp());
+				}
+			}
+
+			Thread.sleep(100);
+			assertEquals(reads, server.reads.get(), "no polling after stop");
+		}
+	}
+
+	@Test
+	void testPollingOverrun() throws Exception {
+
+		try (BPMStandInServer server= new BPMStandInServer(0)) {
+			server.registers.put("F00838024", "17");
+			server.setResponseDelay(80);
+
+			BPMPullEngine bpm= newEngine(server, new HttpBPMTransport());
+			bpm.registerRequest("F00838024");
+			bpm.requestPollPeriod(50);
+
+			List<BPMPullEngine.Data> data= new CopyOnWriteArrayList<BPMPullEngine.Data>();
+			bpm.addDataListener((e,d) -> data.add(d));
+
+			bpm.startPolling();
+			// each read takes longer than period
+			await(() -> bpm.getOverrunCount()>=3, "reads longer than period must be counted as overruns");
+			bpm.stopPolling();
+
+			for (int i = 1; i < data.size(); i++) {
+				long d= data.get(i).getTimestamp()-data.get(i-1).getTimestamp();
+				assertTrue(d>50, "missed ticks are skipped, not caught up, tick step "+d);
+			}
+		}
+	}
+
+	@Test
+	void testPollingFailure() throws Exception {
+
+		BPMStandInServer server= new BPMStandInServer(0);
+		server.registers.put("F00838024", "17");
+
+		BPMPullEngine bpm= newEngine(server, new HttpBPMTransport());
+		int i0= bpm.registerRequest("F00838024");
+		bpm.requestPollPeriod(30);
+
+		List<BPMPullEngine.Data> data= new CopyOnWriteArrayList<BPMPullEngine.Data>();
+		bpm.addDataListener((e,d) -> data.add(d));
+
+		bpm.startPolling();
+		await(() -> !data.isEmpty(), "polling must push data");
+		server.close();
+		await(() -> data.get(data.size()-1).isFailed(), "failed read must be pushed");
+		bpm.stopPolling();
+
+		assertFalse(data.get(0).isFailed());
+		assertEquals(17, data.get(0).get(i0).intValue());
+		BPMPullEngine.Data last= data.get(data.size()-1);
+		assertTrue(last.isFailed());
+		assertNull(last.get(i0));
+	}
+
+	@Test
+	void testWriteReadBack() throws Exception {
+
+		try (BPMStandInServer server= new BPMStandInServer(0)) {
+			server.registers.put("F00838024", "17");
+			server.registers.put("D00838028", "0.25");
+			server.registers.put("F00838030", "1");
+
+			BPMPullEngine bpm= newEngine(server, new HttpBPMTransport());
+			int i0= bpm.registerRequest("F00838024");
+			int i1= bpm.registerRequest("D00838028");
+			int i2= bpm.registerRequest("F00838030");
+			bpm.updateRate=100000;
+			bpm.updateRateMin=100000;
+
+			assertEquals(17, bpm.readData().getLong(i0));
+			assertEquals(1, server.reads.get());
+
+			bpm.writeData(i2, 5);
+
+			assertEquals(1, server.writes.get());
+			assertEquals("000F008380300015", server.lastWrite);
+			assertEquals(2, server.reads.get());
+			// only written register is read back
+			assertEquals("000F00838030001", server.lastRead);
+
+			BPMPullEngine.Data d= bpm.readData();
+			assertEquals(2, server.reads.get(), "no full read after write");
+			assertEquals(17, d.getLong(i0));
+			assertEquals(0.25, d.getDouble(i1));
+			assertEquals(5, d.getLong(i2));
+			assertEquals(0, bpm.getWriteQueueSize());
+			assertTrue(bpm.getWriteLatency()>0.0);
+		}
+	}
+
+	@Test
+	void testWriteCoalescing() throws Exception {
+
+		try (BPMStandInServer server= new BPMStandInServer(0)) {
+			server.registers.put("F00838024", "17");
+			server.registers.put("D00838028", "0.25");
+
+			BPMPullEngine bpm= newEngine(server, new HttpBPMTransport());
+			int i0= bpm.registerRequest("F00838024");
+			int i1= bpm.registerRequest("D00838028");
+			bpm.requestPollPeriod(100000);
+
+			List<BPMPullEngine.Data> data= new CopyOnWriteArrayList<BPMPullEngine.Data>();
+			bpm.addDataListener((e,d) -> data.add(d));
+
+			bpm.startPolling();
+			while (data.isEmpty()) {
+				Thread.sleep(10);
+			}
+
+			server.setResponseDelay(50);
+
+			// first write goes out at once, others are queued behind it and coalesced
+			bpm.queueWrite(i0, 1);
+			bpm.queueWrite(i0, 2);
+			bpm.queueWrite(i1, 0.5);
+			bpm.queueWrite(i0, 3);
+			bpm.queueWrite(i1, 0.75);
+
+			long t= System.currentTimeMillis();
+			while ((bpm.getWriteQueueSize()>0 || data.get(data.size()-1).getLong(i0)!=3) && System.currentTimeMillis()-t<5000) {
+				Thread.sleep(10);
+			}
+			bpm.stopPolling();
+
+			assertTrue(server.writes.get()<=2, "writes "+server.writes.get());
+			assertEquals("3", server.registers.get("F00838024"));
+			assertEquals("0.75", server.registers.get("D00838028"));
+
+			BPMPullEngine.Data d= data.get(data.size()-1);
+			assertEquals(3, d.getLong(i0));
+			assertEquals(0.75, d.getDouble(i1));
+		}
+	}
+
+	@Test
+	void testDemand() throws Exception {
+
+		try (BPMStandInServer server= new BPMStandInServer(0)) {
+			server.registers.put("F00838024", "17");
+			server.registers.put("D00838028", "0.25");
+			server.registers.put("F00838030", "1");
+
+			BPMPullEngine bpm= newEngine(server, new HttpBPMTransport());
+			int i0= bpm.registerRequest("F00838024", false);
+			int i1= bpm.registerRequest("D00838028", true);
+			int i2= bpm.registerRequest("F00838030", false);
+
+			BPMPullEngine.Data d= bpm.readData();
+			assertEquals("000D00838028001", server.lastRead);
+			assertEquals(3, d.size());
+			assertFalse(d.isValid(i0));
+			assertEquals(0.25, d.getDouble(i1));
+			assertFalse(d.isValid(i2));
+
+			bpm.subscribe(i2);
+			bpm.subscribe(i2);
+			assertEquals(2, bpm.getActiveRegisterCount());
+
+			d= bpm.readData();
+			assertEquals("000D00838028001@001F00838030001", server.lastRead);
+			assertEquals(0.25, d.getDouble(i1));
+			assertEquals(1, d.getLong(i2));
+
+			// still one consumer left
+			bpm.unsubscribe(i2);
+			bpm.unsubscribe(i1);
+			d= bpm.readData();
+			assertEquals("000F00838030001", server.lastRead);
+			assertFalse(d.isValid(i1));
+			assertEquals(1, d.getLong(i2));
+
+			bpm.unsubscribe(i2);
+			assertEquals(0, bpm.getActiveRegisterCount());
+			int reads= server.reads.get();
+			d= bpm.readData();
+			assertEquals(reads, server.reads.get(), "nothing to read");
+			assertFalse(d.isValid(i2));
+		}
+	}
+
+	@Test
+	void testAdaptivePeriod() throws Exception {
+
+		try (BPMStandInServer server= new BPMStandInServer(0)) {
+			server.registers.put("F00838024", "17");
+
+			BPMPullEngine bpm= newEngine(server, new HttpBPMTransport());
+			bpm.registerRequest("F00838024");
+			bpm.requestPollPeriod(50);
+
+			for (int i = 0; i < 5; i++) {
+				bpm.readData();
+			}
+			assertEquals(50, bpm.getPollPeriod(), "fast server, minimal period");
+
+			server.setResponseDelay(40);
+			for (int i = 0; i < 10; i++) {
+				bpm.readData();
+			}
+			assertEquals(50, bpm.getPollPeriod(), "no maximum, period is fixed");
+
+			bpm.requestMaxPollPeriod(120);
+			assertEquals(120, bpm.getPollPeriod(), "slow server, period limited by maximum");
+
+			bpm.requestMaxPollPeriod(1000);
+			long p= bpm.getPollPeriod();
+			assertTrue(p>=BPMPullEngine.LOAD_FACTOR*30 && p<=BPMPullEngine.LOAD_FACTOR*60, "period follows read duration "+p);
+		}
+	}
+
+}
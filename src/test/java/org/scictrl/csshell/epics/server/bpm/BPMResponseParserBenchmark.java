@@ -0,0 +1,79 @@
+package org.scictrl.csshell.epics.server.bpm;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares legacy char by char parsing of webmap_read response with {@link BPMResponseParser}.
+ * Run with <code>-prof gc</code> to see allocation per response.
+ *
+ * @author igor@scictrl.com
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BPMResponseParserBenchmark {
+
+	/** Registers per BPM, from few status registers up to full page. */
+	@Param({"16", "64", "256"})
+	int registers;
+
+	private byte[] response;
+	private BPMResponseParser parser;
+
+	@Setup
+	public void setup() {
+		response= BPMResponseParserTest.createResponse(registers, 42).getBytes(StandardCharsets.UTF_8);
+		parser= new BPMResponseParser();
+	}
+
+	@Benchmark
+	public void legacy(Blackhole bh) throws IOException {
+		StringBuilder sb= new StringBuilder();
+		InputStreamReader is= new InputStreamReader(new ByteArrayInputStream(response),StandardCharsets.UTF_8);
+		int c;
+		while ((c=is.read())>=0) {
+			sb.append(Character.toString((char) c));
+		}
+		Number[] data= BPMResponseParserTest.legacyParse(sb.toString());
+		bh.consume(new BPMPullEngine.Data(data, 1));
+	}
+
+	@Benchmark
+	public void bytes(Blackhole bh) throws IOException {
+		parser.parse(new ByteArrayInputStream(response));
+		bh.consume(parser.toData(1, 0, 0));
+	}
+
+	/**
+	 * Runs benchmark.
+	 * @param args not used
+	 * @throws RunnerException if fails
+	 */
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(BPMResponseParserBenchmark.class.getSimpleName()).build()).run();
+	}
+
+}
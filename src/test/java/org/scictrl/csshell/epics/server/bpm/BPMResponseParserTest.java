@@ -0,0 +1,141 @@
+package org.scictrl.csshell.epics.server.bpm;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class BPMResponseParserTest {
+
+	/**
+	 * Parsing as it was done by BPMPullEngine before byte parser.
+	 */
+	static Number[] legacyParse(String response) {
+		String[] resultStr= response.split("@");
+		Number[] data= new Number[resultStr.length];
+
+		for (int i = 0; i < data.length; i++) {
+			if (resultStr[i].length()>3) {
+				String s= resultStr[i].substring(3);
+				if (s.contains(".")) {
+					data[i]= Double.parseDouble(s);
+				} else {
+					data[i]= Integer.parseInt(s);
+				}
+			} else {
+				data[i]= null;
+			}
+		}
+		return data;
+	}
+
+	/**
+	 * Creates response with mix of integer and double registers, similar to BPM web server.
+	 */
+	static String createResponse(int size, long seed) {
+		Random r= new Random(seed);
+		StringBuilder sb= new StringBuilder(size*16);
+		for (int i = 0; i < size; i++) {
+			if (i>0) {
+				sb.append('@');
+			}
+			sb.append(String.format("%03d", i));
+			switch (i%4) {
+			case 0:
+				sb.append(r.nextInt());
+				break;
+			case 1:
+				sb.append(r.nextInt(65536));
+				break;
+			case 2:
+				sb.append((r.nextDouble()-0.5)*1000.0);
+				break;
+			default:
+				sb.append(Math.round(r.nextGaussian()*1000000.0)/1000000.0);
+				break;
+			}
+		}
+		return sb.toString();
+	}
+
+	private static BPMPullEngine.Data parse(String response) throws Exception {
+		BPMResponseParser p= new BPMResponseParser();
+		p.parse(new ByteArrayInputStream(response.getBytes(StandardCharsets.UTF_8)));
+		return p.toData(0, 0, 0);
+	}
+
+	private static void assertSameAsLegacy(String response) throws Exception {
+		Number[] exp= legacyParse(response);
+		BPMPullEngine.Data d= parse(response);
+
+		assertEquals(exp.length, d.size(), response);
+		for (int i = 0; i < exp.length; i++) {
+			assertEquals(exp[i], d.get(i), response);
+			if (exp[i]==null) {
+				assertFalse(d.isValid(i));
+				assertTrue(Double.isNaN(d.getDouble(i)));
+			} else {
+				assertTrue(d.isValid(i));
+				assertEquals(exp[i].doubleValue(), d.getDouble(i));
+				assertEquals(exp[i].longValue(), d.getLong(i));
+				assertEquals(exp[i] instanceof Double, d.isDouble(i));
+			}
+		}
+	}
+
+	@Test
+	void testSameAsLegacy() throws Exception {
+		assertSameAsLegacy("00017");
+		assertSameAsLegacy("00017@0010.25");
+		assertSameAsLegacy("000-17@001-0.25@002@003+5");
+		assertSameAsLegacy("000@001@00242");
+		assertSameAsLegacy("00017@@0020.5");
+		assertSameAsLegacy("00017@001@");
+		assertSameAsLegacy("0000.1@0010.7@0021.0000000000000002@0039007199254740993.5@004123456789.123456789");
+		assertSameAsLegacy("000-2147483648@0012147483647");
+
+		for (int i = 0; i < 100; i++) {
+			assertSameAsLegacy(createResponse(64, i));
+		}
+	}
+
+	@Test
+	void testInvalid() throws Exception {
+		BPMPullEngine.Data d= parse("000abc@0011.2.3@0021e3@003NaN@0044");
+
+		assertEquals(5, d.size());
+		assertFalse(d.isValid(0));
+		assertFalse(d.isValid(1));
+		assertTrue(d.isValid(2));
+		assertEquals(1000.0, d.getDouble(2));
+		assertFalse(d.isValid(3));
+		assertEquals(4, d.getLong(4));
+		assertFalse(d.isValid(5));
+		assertNull(d.get(5));
+	}
+
+	@Test
+	void testReuse() throws Exception {
+		BPMResponseParser p= new BPMResponseParser();
+
+		String r1= createResponse(200, 1);
+		p.parse(new ByteArrayInputStream(r1.getBytes(StandardCharsets.UTF_8)));
+		BPMPullEngine.Data d1= p.toData(0, 0, 0);
+
+		p.parse(new ByteArrayInputStream("00017".getBytes(StandardCharsets.UTF_8)));
+		BPMPullEngine.Data d2= p.toData(0, 0, 0);
+
+		// first snapshot is not changed by later parse
+		Number[] exp= legacyParse(r1);
+		assertEquals(200, d1.size());
+		for (int i = 0; i < exp.length; i++) {
+			assertEquals(exp[i], d1.get(i));
+		}
+		assertEquals(1, d2.size());
+		assertEquals(17, d2.getLong(0));
+	}
+
+}
@@ -0,0 +1,190 @@
+package org.scictrl.csshell.epics.server.bpm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal HTTP/1.1 stand-in for BPM web server, answers webmap_read and webmap_write requests
+ * from register map and counts accepted TCP connections.
+ *
+ * @author igor@scictrl.com
+ */
+class BPMStandInServer implements Runnable, AutoCloseable {
+
+	/** Length of register name, like F00838024 */
+	static final int REGISTER_LENGTH = 9;
+
+	final Map<String, String> registers= new ConcurrentHashMap<String, String>();
+	final AtomicInteger connections= new AtomicInteger();
+	final AtomicInteger reads= new AtomicInteger();
+	final AtomicInteger writes= new AtomicInteger();
+	volatile String lastRead;
+	volatile String lastWrite;
+
+	private final Set<Socket> sockets= ConcurrentHashMap.newKeySet();
+	private final ServerSocket server;
+	private final long handshakeDelay;
+	private volatile long responseDelay;
+	private volatile boolean closed;
+
+	/**
+	 * Starts new server on random local port.
+	 * @param handshakeDelay delay in ms for each new connection, emulates connection setup on BPM crate
+	 * @throws IOException if fails
+	 */
+	BPMStandInServer(long handshakeDelay) throws IOException {
+		this.handshakeDelay=handshakeDelay;
+		server= new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		Thread t= new Thread(this, "BPMStandInServer");
+		t.setDaemon(true);
+		t.start();
+	}
+
+	String getReadURL() {
+		return "http://127.0.0.1:"+server.getLocalPort()+"/action/webmap_read";
+	}
+
+	void setResponseDelay(long responseDelay) {
+		this.responseDelay = responseDelay;
+	}
+
+	@Override
+	public void run() {
+		while (!closed) {
+			try {
+				final Socket s= server.accept();
+				connections.incrementAndGet();
+				sockets.add(s);
+				Thread t= new Thread(() -> serve(s), "BPMStandInServer-conn");
+				t.setDaemon(true);
+				t.start();
+			} catch (IOException e) {
+				// closed
+			}
+		}
+	}
+
+	private void serve(Socket s) {
+		try (s) {
+			Thread.sleep(handshakeDelay);
+			s.setTcpNoDelay(true);
+			InputStream in= s.getInputStream();
+			OutputStream out= s.getOutputStream();
+
+			while (!closed) {
+				String head= readHead(in);
+				if (head==null) {
+					return;
+				}
+				int len= 0;
+				boolean close= false;
+				String path= head.substring(head.indexOf(' ')+1, head.indexOf(' ', head.indexOf(' ')+1));
+				for (String l : head.split("\r\n")) {
+					String ll= l.toLowerCase();
+					if (ll.startsWith("content-length:")) {
+						len= Integer.parseInt(l.substring(15).trim());
+					} else if (ll.startsWith("connection:") && ll.contains("close")) {
+						close= true;
+					}
+				}
+				byte[] body= in.readNBytes(len);
+
+				if (responseDelay>0) {
+					Thread.sleep(responseDelay);
+				}
+
+				String resp= path.endsWith("webmap_write") ? write(new String(body, StandardCharsets.UTF_8)) : read(new String(body, StandardCharsets.UTF_8));
+				byte[] b= resp.getBytes(StandardCharsets.UTF_8);
+
+				String h= "HTTP/1.1 200 OK\r\n"
+						+"Date: "+DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC))+"\r\n"
+						+"Content-Type: text/plain\r\n"
+						+"Content-Length: "+b.length+"\r\n"
+						+(close ? "Connection: close\r\n" : "")
+						+"\r\n";
+				ByteArrayOutputStream o= new ByteArrayOutputStream(h.length()+b.length);
+				o.write(h.getBytes(StandardCharsets.US_ASCII));
+				o.write(b);
+				o.writeTo(out);
+				out.flush();
+
+				if (close) {
+					return;
+				}
+			}
+		} catch (Exception e) {
+			// connection dropped
+		} finally {
+			sockets.remove(s);
+		}
+	}
+
+	/**
+	 * Closes all open connections, like server does with idle connections.
+	 */
+	void dropConnections() throws IOException {
+		for (Socket s : sockets) {
+			s.close();
+		}
+	}
+
+	private static String readHead(InputStream in) throws IOException {
+		ByteArrayOutputStream b= new ByteArrayOutputStream(256);
+		int c;
+		int n=0;
+		while ((c=in.read())>=0) {
+			b.write(c);
+			n= (c=='\r' || c=='\n') ? n+1 : 0;
+			if (n==4) {
+				return b.toString(StandardCharsets.US_ASCII);
+			}
+		}
+		return null;
+	}
+
+	private String read(String req) {
+		reads.incrementAndGet();
+		lastRead= req;
+		StringBuilder sb= new StringBuilder(req.length()*2);
+		String[] items= req.split("@");
+		for (int i = 0; i < items.length; i++) {
+			String it= items[i];
+			if (i>0) {
+				sb.append('@');
+			}
+			sb.append(it, 0, 3);
+			sb.append(registers.getOrDefault(it.substring(3, 3+REGISTER_LENGTH), ""));
+		}
+		return sb.toString();
+	}
+
+	private String write(String req) {
+		writes.incrementAndGet();
+		lastWrite= req;
+		for (String it : req.split("@")) {
+			registers.put(it.substring(3, 3+REGISTER_LENGTH), it.substring(3+REGISTER_LENGTH+3));
+		}
+		return "";
+	}
+
+	@Override
+	public void close() throws IOException {
+		closed=true;
+		server.close();
+		dropConnections();
+	}
+
+}
@@ -0,0 +1,80 @@
+package org.scictrl.csshell.epics.server.bpm;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares poll latency of persistent {@link HttpBPMTransport} with {@link URLConnectionBPMTransport},
+ * which opens new connection for each request, against local {@link BPMStandInServer}.
+ *
+ * @author igor@scictrl.com
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BPMTransportBenchmark {
+
+	/** Transport under test. */
+	@Param({"keepAlive", "legacy"})
+	String transport;
+
+	/** Delay in ms for each new connection, emulates connection setup on BPM crate. */
+	@Param({"0", "5"})
+	long handshakeDelay;
+
+	private BPMStandInServer server;
+	private BPMPullEngine bpm;
+
+	@Setup
+	public void setup() throws Exception {
+		server= new BPMStandInServer(handshakeDelay);
+		server.registers.put("F00838024", "17");
+		server.registers.put("D00838028", "0.25");
+
+		bpm= new BPMPullEngine(server.getReadURL(), "http://localhost/cav_bpm.htm?DEVICE=TEST");
+		bpm.setTransport("legacy".equals(transport) ? new URLConnectionBPMTransport() : new HttpBPMTransport());
+		bpm.updateRate=0;
+		bpm.updateRateMin=0;
+		bpm.registerRequest("F00838024");
+		bpm.registerRequest("D00838028");
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		server.close();
+	}
+
+	@Benchmark
+	public BPMPullEngine.Data poll() throws IOException {
+		return bpm.readData();
+	}
+
+	/**
+	 * Runs benchmark.
+	 * @param args not used
+	 * @throws RunnerException if fails
+	 */
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(BPMTransportBenchmark.class.getSimpleName()).build()).run();
+	}
+
+}
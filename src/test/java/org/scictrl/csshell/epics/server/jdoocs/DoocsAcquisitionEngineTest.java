@@ -0,0 +1,427 @@
+package org.scictrl.csshell.epics.server.jdoocs;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class DoocsAcquisitionEngineTest {
+
+	static class Values implements DoocsChannel.Listener {
+		volatile double value= Double.NaN;
+		volatile double[] array;
+		volatile String error;
+		volatile DoocsChannel.Failure failure;
+		volatile CountDownLatch latch= new CountDownLatch(1);
+
+		@Override
+		public void valueUpdate(double value) {
+			this.value= value;
+			latch.countDown();
+		}
+		@Override
+		public void valueUpdate(double[] value) {
+			this.array= value;
+			latch.countDown();
+		}
+		@Override
+		public void valueUpdateFail(DoocsChannel.Failure failure, String message) {
+			this.failure= failure;
+			this.error= message;
+			latch.countDown();
+		}
+
+		void await() throws InterruptedException {
+			assertTrue(latch.await(5, TimeUnit.SECONDS));
+			latch= new CountDownLatch(1);
+		}
+	}
+
+	@Test
+	void testAddress() {
+
+		assertEquals("FLUTE.RF/LLRF.CTRL", DoocsAcquisitionEngine.serverOf("FLUTE.RF/LLRF.CTRL/GUN/AMPL.SAMPLE"));
+		assertArrayEquals(new String[]{"F","D","L","P/X"}, DoocsAcquisitionEngine.split("F/D/L/P/X"));
+		assertThrows(IllegalArgumentException.class, () -> DoocsAcquisitionEngine.serverOf("F/D/P"));
+
+		DoocsAcquisitionEngine e= new DoocsAcquisitionEngine();
+		DoocsChannel a= e.register(null, "F/D/L1/P");
+		DoocsChannel b= e.register(null, "F/D/L2/P");
+		DoocsChannel c= e.register(null, "F/E/L1/P");
+
+		assertSame(a.getServer(), b.getServer());
+		assertNotSame(a.getServer(), c.getServer());
+		assertEquals("L2", b.getLocation());
+		assertEquals("P", b.getProperty());
+		assertEquals(2, e.getServers().size());
+	}
+
+	@Test
+	void testGroup() {
+
+		DoocsServer s= new DoocsAcquisitionEngine().getServer("F/D");
+		DoocsChannel a= new DoocsChannel(s, "F/D/L1/P", null);
+		DoocsChannel b= new DoocsChannel(s, "F/D/L2/P", null);
+		DoocsChannel c= new DoocsChannel(s, "F/D/L3/Q", null);
+		DoocsChannel d= new DoocsChannel(s, "F/D/L4/P", null);
+
+		List<DoocsChannel> l= List.of(a, b, c, d);
+
+		// channels with unknown type are read by location
+		assertEquals(4, DoocsServer.group(l, new HashSet<String>()).size());
+
+		// known scalars
+		a.update(1.0);
+		b.update(1.0);
+		c.update(1.0);
+
+		// wildcard disabled
+		assertEquals(4, DoocsServer.group(l, null).size());
+
+		List<List<DoocsChannel>> g= DoocsServer.group(l, new HashSet<String>());
+		assertEquals(3, g.size());
+		assertEquals(List.of(d), g.get(0));
+		assertEquals(List.of(a, b), g.get(1));
+		assertEquals(List.of(c), g.get(2));
+
+		// property without wildcard support
+		assertEquals(4, DoocsServer.group(l, Set.of("P")).size());
+	}
+
+	@Test
+	void testRequest() throws Exception {
+
+		DoocsAcquisitionEngine e= new DoocsAcquisitionEngine();
+		e.setBatchDelay(10000);
+		DoocsChannel a= e.register(null, "F/D/L1/P");
+
+		assertTrue(a.getServer().request(a));
+		assertTrue(a.isBusy());
+		// busy channel is not requested twice
+		assertFalse(a.getServer().request(a));
+
+		a.getServer().abort(a);
+		assertFalse(a.isBusy());
+		assertEquals(1, a.getServer().getErrorCount());
+		assertTrue(a.getServer().request(a));
+	}
+
+	@Test
+	void testSimulated() throws Exception {
+
+		SimulatedDoocsTransport sim= new SimulatedDoocsTransport();
+		sim.setArraySize("WAVE", 16);
+		DoocsAcquisitionEngine e= new DoocsAcquisitionEngine();
+		e.setTransport(sim);
+
+		Values a= new Values();
+		Values b= new Values();
+		Values w= new Values();
+		DoocsChannel ca= e.register(a, "F/D/L1/P");
+		DoocsChannel cb= e.register(b, "F/D/L2/P");
+		DoocsChannel cw= e.register(w, "F/D/L1/WAVE");
+		DoocsServer s= ca.getServer();
+
+		assertTrue(s.request(ca));
+		assertTrue(s.request(cb));
+		assertTrue(s.request(cw));
+		a.await();
+		b.await();
+		w.await();
+		assertEquals(1.0, a.value);
+		assertEquals(16, w.array.length);
+		assertTrue(ca.isScalar());
+		assertFalse(cw.isScalar());
+		assertEquals(3, sim.getCallCount());
+
+		// known scalars are read together
+		s.setWildcard(true);
+		sim.setValue("F/D/L2/P", 5.0);
+		s.request(ca);
+		s.request(cb);
+		a.await();
+		b.await();
+		assertEquals(4, sim.getCallCount());
+		assertEquals(1.0, a.value);
+		assertEquals(5.0, b.value);
+
+		// failed wildcard call is error, property is still read by wildcard
+		long errors= s.getErrorCount();
+		sim.setFailureRate(1.0);
+		s.request(ca);
+		s.request(cb);
+		a.await();
+		b.await();
+		assertEquals(DoocsChannel.Failure.ERROR, a.failure);
+		assertEquals(errors+1, s.getErrorCount());
+		sim.setFailureRate(0.0);
+		s.request(ca);
+		s.request(cb);
+		a.await();
+		b.await();
+		assertEquals(6, sim.getCallCount());
+		assertEquals(5.0, b.value);
+
+		// without wildcard support property is read by location
+		sim.setWildcard(false);
+		s.request(ca);
+		s.request(cb);
+		a.await();
+		b.await();
+		assertEquals(9, sim.getCallCount());
+		assertEquals(2.0, a.value);
+		s.request(ca);
+		s.request(cb);
+		a.await();
+		b.await();
+		assertEquals(11, sim.getCallCount());
+
+		// writes
+		s.write(cb, 7.0);
+		for (int i = 0; i < 100 && sim.getWriteCount()==0; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(7.0, sim.getValue("F/D/L2/P"));
+
+		// failures
+		sim.setFailureRate(1.0);
+		s.request(ca);
+		a.await();
+		assertNotNull(a.error);
+		assertFalse(ca.isBusy());
+		assertEquals(2, s.getErrorCount());
+		assertEquals(12, s.getCallCount());
+	}
+
+	private static void waitWrites(DoocsServer s, long writes) throws InterruptedException {
+		for (int i = 0; i < 200 && s.getWriteCount()<writes; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(writes, s.getWriteCount());
+	}
+
+	@Test
+	void testWriteCoalescing() throws Exception {
+
+		SimulatedDoocsTransport sim= new SimulatedDoocsTransport();
+		sim.setLatency(200);
+		DoocsAcquisitionEngine e= new DoocsAcquisitionEngine();
+		e.setTransport(sim);
+
+		DoocsChannel c= e.register(new Values(), "F/D/L1/P");
+		DoocsServer s= c.getServer();
+
+		s.write(c, 1);
+		for (int i = 0; i < 100 && sim.getCallCount()==0; i++) {
+			Thread.sleep(10);
+		}
+		// while first is in flight, only newest of others is sent
+		for (int i = 2; i <= 10; i++) {
+			s.write(c, i);
+		}
+		waitWrites(s, 2);
+		Thread.sleep(300);
+
+		assertEquals(2, sim.getWriteCount());
+		assertEquals(10.0, sim.getValue("F/D/L1/P"));
+		assertEquals(8, c.getWriteDropped());
+		assertEquals(8, s.getWriteDropped());
+		assertTrue(c.getWriteLatency()>=150, String.valueOf(c.getWriteLatency()));
+		assertTrue(s.getWriteLatency()>=150);
+		assertEquals(0, s.getQueueSize());
+	}
+
+	@Test
+	void testWriteRate() throws Exception {
+
+		SimulatedDoocsTransport sim= new SimulatedDoocsTransport();
+		DoocsAcquisitionEngine e= new DoocsAcquisitionEngine();
+		e.setTransport(sim);
+
+		DoocsChannel a= e.register(new Values(), "F/D/L1/P");
+		DoocsChannel b= e.register(new Values(), "F/D/L2/P");
+		DoocsServer s= a.getServer();
+		s.requestWriteRate(5);
+		// higher rate is ignored
+		s.requestWriteRate(100);
+		assertEquals(5.0, s.getWriteRate());
+
+		long t= System.currentTimeMillis();
+		s.write(a, 1);
+		waitWrites(s, 1);
+		assertTrue(System.currentTimeMillis()-t<150);
+		s.write(b, 1);
+		s.write(a, 2);
+
+		// rate applies to all channels of server
+		waitWrites(s, 2);
+		assertTrue(System.currentTimeMillis()-t>=190);
+		waitWrites(s, 3);
+		assertTrue(System.currentTimeMillis()-t>=390);
+		assertEquals(2.0, sim.getValue("F/D/L1/P"));
+		assertEquals(1.0, sim.getValue("F/D/L2/P"));
+		assertEquals(0, s.getWriteDropped());
+	}
+
+	@Test
+	void testArrayBuffers() throws Exception {
+
+		SimulatedDoocsTransport sim= new SimulatedDoocsTransport();
+		sim.setArraySize("WAVE", 2048);
+		DoocsAcquisitionEngine e= new DoocsAcquisitionEngine();
+		e.setTransport(sim);
+
+		Values w= new Values();
+		DoocsChannel c= e.register(w, "F/D/L1/WAVE");
+		DoocsServer s= c.getServer();
+
+		// published array is not overwritten by next read
+		s.read(c);
+		double[] a= w.array;
+		double a0= a[0];
+		s.read(c);
+		double[] b= w.array;
+		assertNotSame(a, b);
+		assertEquals(a0, a[0]);
+		assertEquals(2048, b.length);
+		// read after next reuses first buffer
+		s.read(c);
+		assertSame(a, w.array);
+
+		// length change
+		sim.setArraySize("WAVE", 100);
+		s.read(c);
+		assertEquals(100, w.array.length);
+
+		com.sun.management.ThreadMXBean mx= (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		assumeTrue(mx.isThreadAllocatedMemorySupported());
+		mx.setThreadAllocatedMemoryEnabled(true);
+
+		sim.setArraySize("WAVE", 2048);
+		for (int i = 0; i < 20000; i++) {
+			s.read(c);
+		}
+
+		long id= Thread.currentThread().getId();
+		long t= mx.getThreadAllocatedBytes(id);
+		for (int i = 0; i < 10000; i++) {
+			s.read(c);
+		}
+		long bytes= mx.getThreadAllocatedBytes(id)-t;
+
+		// single new buffer would be 16 kB
+		assertTrue(bytes<1024, "Allocated "+bytes+" bytes in 10000 reads");
+		assertEquals(2048, w.array.length);
+	}
+
+	@Test
+	void testBackoff() throws Exception {
+
+		SimulatedDoocsTransport sim= new SimulatedDoocsTransport();
+		sim.setDown("F/D", true);
+		sim.setDownDelay(10000);
+		DoocsAcquisitionEngine e= new DoocsAcquisitionEngine();
+		e.setTransport(sim);
+
+		Values w= new Values();
+		DoocsChannel c= e.register(w, "F/D/L1/P");
+		DoocsServer s= c.getServer();
+		s.requestTimeout(200);
+		s.setBackoff(2, 300, 1000);
+
+		// hanging call is interrupted at deadline
+		long t= System.currentTimeMillis();
+		assertTrue(s.request(c));
+		while (sim.getCallCount()==0) {
+			Thread.sleep(5);
+		}
+		// read in progress is not aborted
+		s.abort(c);
+		assertTrue(c.isBusy());
+		assertFalse(s.request(c));
+		w.await();
+		assertEquals(DoocsChannel.Failure.TIMEOUT, w.failure);
+		assertTrue(System.currentTimeMillis()-t<2000);
+		assertEquals(DoocsServer.State.CLOSED, s.getState());
+
+		// second failure opens breaker
+		assertTrue(s.request(c));
+		w.await();
+		assertEquals(DoocsChannel.Failure.TIMEOUT, w.failure);
+		assertEquals(DoocsServer.State.OPEN, s.getState());
+		assertEquals(300, s.getBackoff());
+
+		// no calls during backoff
+		long calls= sim.getCallCount();
+		assertFalse(s.request(c));
+		w.await();
+		assertEquals(DoocsChannel.Failure.BACKOFF, w.failure);
+		assertEquals(calls, sim.getCallCount());
+
+		// probe after backoff closes breaker
+		sim.setDown("F/D", false);
+		sim.setValue("F/D/L1/P", 7);
+		while (s.getBackoffRemaining()>0) {
+			Thread.sleep(20);
+		}
+		assertTrue(s.request(c));
+		w.await();
+		assertEquals(7.0, w.value);
+		assertEquals(DoocsServer.State.CLOSED, s.getState());
+		assertEquals(0, s.getFailures());
+	}
+
+	@Test
+	void testWriteBackoff() throws Exception {
+
+		SimulatedDoocsTransport sim= new SimulatedDoocsTransport();
+		sim.setDown("F/D", true);
+		sim.setDownDelay(0);
+		DoocsAcquisitionEngine e= new DoocsAcquisitionEngine();
+		e.setTransport(sim);
+
+		Values w= new Values();
+		DoocsChannel c= e.register(w, "F/D/L1/P");
+		DoocsServer s= c.getServer();
+		s.setBackoff(2, 300, 1000);
+
+		// failed writes open breaker
+		s.write(c, 1);
+		w.await();
+		assertEquals(DoocsChannel.Failure.ERROR, w.failure);
+		waitWrites(s, 1);
+		s.write(c, 2);
+		w.await();
+		assertEquals(DoocsChannel.Failure.ERROR, w.failure);
+		assertEquals(DoocsServer.State.OPEN, s.getState());
+		waitWrites(s, 2);
+
+		// no writes during backoff
+		s.write(c, 3);
+		w.await();
+		assertEquals(DoocsChannel.Failure.BACKOFF, w.failure);
+		assertEquals(2, s.getWriteCount());
+
+		// write after backoff is probe and closes breaker, without any read
+		sim.setDown("F/D", false);
+		while (s.getBackoffRemaining()>0) {
+			Thread.sleep(20);
+		}
+		s.write(c, 4);
+		waitWrites(s, 3);
+		assertEquals(1, sim.getWriteCount());
+		assertEquals(4.0, sim.getValue("F/D/L1/P"));
+		assertEquals(DoocsServer.State.CLOSED, s.getState());
+		assertEquals(0, s.getFailures());
+		assertEquals(3, sim.getCallCount());
+	}
+
+}
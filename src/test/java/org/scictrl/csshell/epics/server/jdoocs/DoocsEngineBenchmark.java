@@ -0,0 +1,106 @@
+package org.scictrl.csshell.epics.server.jdoocs;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Load benchmark of {@link DoocsAcquisitionEngine} with {@link SimulatedDoocsTransport}.
+ * Single operation is one trigger tick, in which all records are requested and read.
+ * Throughput mode reports ticks per second, sample time mode reports tail latency of tick in percentiles.
+ *
+ * @author igor@scictrl.com
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DoocsEngineBenchmark {
+
+	/** Number of simulated records, spread over 10 servers. */
+	@Param({"100", "500"})
+	int records;
+
+	/** Number of parallel calls per server. */
+	@Param({"1", "4"})
+	int pool;
+
+	/** If scalar records of same property are read with wildcard call. */
+	@Param({"false", "true"})
+	boolean wildcard;
+
+	private DoocsChannel[] channels;
+	private volatile CountDownLatch latch;
+
+	@Setup
+	public void setup() {
+		SimulatedDoocsTransport sim= new SimulatedDoocsTransport();
+		sim.setLatency(1);
+		sim.setJitter(2);
+		sim.setFailureRate(0.001);
+
+		DoocsAcquisitionEngine e= new DoocsAcquisitionEngine();
+		e.setTransport(sim);
+		e.setBatchDelay(1);
+
+		DoocsChannel.Listener l= new DoocsChannel.Listener() {
+			@Override
+			public void valueUpdate(double value) {
+				latch.countDown();
+			}
+			@Override
+			public void valueUpdate(double[] value) {
+				latch.countDown();
+			}
+			@Override
+			public void valueUpdateFail(DoocsChannel.Failure failure, String message) {
+				latch.countDown();
+			}
+		};
+
+		channels= new DoocsChannel[records];
+		for (int i = 0; i < records; i++) {
+			channels[i]= e.register(l, "SIM/SERVER"+(i%10)+"/LOC"+(i/10)+"/VALUE");
+			channels[i].getServer().requestPoolSize(pool);
+			channels[i].getServer().setWildcard(wildcard);
+		}
+	}
+
+	@Benchmark
+	public long tick() throws InterruptedException {
+		latch= new CountDownLatch(records);
+		for (DoocsChannel c : channels) {
+			c.getServer().request(c);
+		}
+		if (!latch.await(10, TimeUnit.SECONDS)) {
+			throw new IllegalStateException("Tick timeout, "+latch.getCount()+" records not read!");
+		}
+		return latch.getCount();
+	}
+
+	/**
+	 * Runs benchmark.
+	 * @param args not used
+	 * @throws RunnerException if fails
+	 */
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(DoocsEngineBenchmark.class.getSimpleName()).build()).run();
+	}
+
+}
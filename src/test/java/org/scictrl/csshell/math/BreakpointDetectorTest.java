@@ -0,0 +1,97 @@
+package org.scictrl.csshell.math;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import org.scictrl.csshell.math.BreakpointDetector.Breakpoint;
+
+class BreakpointDetectorTest {
+
+	@Test
+	void testPatternSearchData() {
+		//              0    1    2    3    4    5    6    7    8    9    10   11    12   13   14   15   16   17   18
+		double[] data= {0.0, 0.1, 0.2, 1.0, 7.0, 6.0, 5.0, 7.1, 8.0, 7.5, 8.5, 10.0, 9.0, 8.0, 7.0, 0.5, 0.2, 0.1, 0.0};
+		
+		BreakpointDetector d= new BreakpointDetector(0.1, 1.0);
+		List<String> events= new ArrayList<String>();
+		d.setListener((b,i,v) -> events.add(b+"@"+i));
+		
+		int complete= -1;
+		for (int i = 0; i < data.length; i++) {
+			if (d.add(data[i]) && complete<0) {
+				complete= i;
+			}
+		}
+		
+		assertArrayEquals(PatternSearch.findBreakpointsHiLoHHi(data, 0.1), d.getIndexes());
+		// High2 confirmed before end of data
+		assertEquals(13, complete);
+		assertEquals("[HIGH1@4, LOW1@6, HIGH2@11]", events.toString());
+		assertEquals(10.0, d.getValue(Breakpoint.HIGH2), 0.0);
+		
+		d.reset();
+		assertFalse(d.isComplete());
+		assertEquals(-1, d.getIndex(Breakpoint.HIGH1));
+	}
+	
+	@Test
+	void testLowerSecondPeak() {
+		// second peak is lower than first, search continues to lower valley and third peak
+		//              0    1    2    3    4    5    6    7    8    9    10   11   12   13
+		double[] data= {1.0, 5.0, 9.0, 6.0, 3.0, 6.0, 8.0, 5.0, 2.0, 5.0, 9.0, 12.0, 8.0, 1.0};
+		
+		BreakpointDetector d= new BreakpointDetector(0.5, 1.5);
+		List<String> events= new ArrayList<String>();
+		d.setListener((b,i,v) -> events.add(b+"@"+i));
+		
+		for (double v : data) {
+			d.add(v);
+		}
+		
+		assertTrue(d.isComplete());
+		assertEquals("[HIGH1@2, LOW1@4, LOW1@8, HIGH2@11]", events.toString());
+		assertArrayEquals(PatternSearch.findBreakpointsHiLoHHi(data, 0.5), d.getIndexes());
+	}
+	
+	@Test
+	void testSmoothedScan() {
+		
+		// simulated phase scan: noisy double peak, smoothed online
+		Random r= new Random(1);
+		int n= 360;
+		double[] data= new double[n];
+		for (int i = 0; i < n; i++) {
+			double x= i;
+			data[i]= 60.0*Math.exp(-Math.pow((x-100.0)/25.0, 2))+100.0*Math.exp(-Math.pow((x-200.0)/30.0, 2))+r.nextGaussian();
+		}
+		
+		double[] smooth= Smoothing.smoothAvg(data, 9);
+		int[] ref= PatternSearch.findBreakpointsHiLoHHi(smooth, 1.0);
+		
+		MovingAverageFilter f= new MovingAverageFilter(9);
+		BreakpointDetector d= new BreakpointDetector(1.0, 5.0);
+		
+		int stop= -1;
+		for (int i = 0; i < n && stop<0; i++) {
+			double v= f.add(data[i]);
+			if (f.isReady() && d.add(v)) {
+				stop= i;
+			}
+		}
+		
+		assertTrue(stop>0 && stop<n-50, "stopped at "+stop);
+		
+		// detector gets only values of full window, its sample k is smoothed value at k+size-1-delay
+		int shift= f.getSize()-1-f.getDelay();
+		int[] idx= d.getIndexes();
+		for (int k = 0; k < 3; k++) {
+			assertEquals(ref[k], idx[k]+shift, 3, "breakpoint "+k);
+		}
+	}
+
+}
@@ -0,0 +1,221 @@
+package org.scictrl.csshell.math;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.scictrl.csshell.python.EmittanceCalculator;
+import org.scictrl.csshell.python.EmittanceCalculator.Emittance;
+import org.scictrl.csshell.python.PythonRunner.Result;
+
+class EmittanceSolverTest {
+
+	private static final File DIR= new File("src/test/config/Python");
+	private static final double ENERGY= 5.56885;
+	private static final int SAMPLES= 24;
+
+	/**
+	 * Measurement file as used by EmittanceCalculatorTest: quad current, beam width, width std per line.
+	 */
+	private static double[][] load(String dir, int i) throws IOException {
+
+		List<String> l= Files.readAllLines(new File(DIR, "emit_data_sample_"+dir+"_"+i+".txt").toPath(), StandardCharsets.UTF_8);
+		List<double[]> r= new ArrayList<double[]>(l.size());
+
+		for (String s : l) {
+			String[] ss= s.replace('[', ' ').replace(']', ' ').trim().split("\\s+");
+			if (ss.length==3) {
+				r.add(new double[]{Double.parseDouble(ss[0]), Double.parseDouble(ss[1]), Double.parseDouble(ss[2])});
+			}
+		}
+
+		double[][] m= new double[3][r.size()];
+		for (int j = 0; j < r.size(); j++) {
+			m[0][j]= r.get(j)[0];
+			m[1][j]= r.get(j)[1];
+			m[2][j]= r.get(j)[2];
+		}
+		return m;
+	}
+
+	@Test
+	void testExactParabola() {
+
+		double d= EmittanceSolver.DRIFT;
+		double l= EmittanceSolver.QUAD_LENGTH;
+		double a= 0.035;
+		double b= 0.62;
+		double c= 2.95;
+
+		double[] q= new double[26];
+		double[] w= new double[q.length];
+		double[] s= new double[q.length];
+
+		for (int i = 0; i < q.length; i++) {
+			q[i]= 0.1*(i+1);
+			double k= EmittanceSolver.strength(q[i], ENERGY);
+			w[i]= Math.sqrt(a*k*k+b*k+c);
+			s[i]= 0.05+0.01*(i%3);
+		}
+
+		EmittanceSolver es= new EmittanceSolver();
+		es.setEnergy(ENERGY);
+		EmittanceSolver.Result r= es.solve(q, w, s);
+
+		assertEquals(a, r.a, 1e-9);
+		assertEquals(b, r.b, 1e-9);
+		assertEquals(c, r.c, 1e-9);
+		assertEquals(0.0, r.da, 1e-6);
+
+		double x0= a/(d*d)/(l*l);
+		double x0p0= b/(2*d*d)/l - a/(d*d*d)/(l*l);
+		double p0= c/(d*d) - b/(d*d*d)/l + a/(d*d*d*d)/(l*l);
+
+		assertEquals(Math.sqrt(x0*p0-x0p0*x0p0), r.emittance, 1e-9);
+		// only drift length uncertainty contributes
+		assertTrue(r.emittanceStd>0.0 && r.emittanceStd<0.01, "Error "+r.emittanceStd);
+	}
+
+	@Test
+	void testInvalid() {
+
+		EmittanceSolver es= new EmittanceSolver();
+
+		assertThrows(IllegalArgumentException.class, () -> es.solve(new double[]{1,2}, new double[]{1,2}, new double[]{1,2}));
+		assertThrows(IllegalArgumentException.class, () -> es.solve(new double[]{1,2,3}, new double[]{1,2}, new double[]{1,2,3}));
+		assertThrows(NullPointerException.class, () -> es.solve(null, new double[]{1,2,3}, new double[]{1,2,3}));
+
+		// no degrees of freedom, error is infinite as with curve_fit
+		EmittanceSolver.Result r= es.solve(new double[]{1,2,3}, new double[]{1.0,0.8,1.0}, new double[]{0.1,0.1,0.1});
+		assertTrue(r.emittance>0.0);
+		assertEquals(Double.POSITIVE_INFINITY, r.emittanceStd, 0.0);
+	}
+
+	@Test
+	void testBootstrap() throws IOException {
+
+		double[][] m= load("hor", 0);
+
+		EmittanceSolver es= new EmittanceSolver();
+		es.setEnergy(ENERGY);
+		double e= es.solve(m[0], m[1], m[2]).emittance;
+
+		es.setBootstrap(500);
+		es.setSeed(7);
+		EmittanceSolver.Result r1= es.solve(m[0], m[1], m[2]);
+		EmittanceSolver.Result r2= es.solve(m[0], m[1], m[2]);
+
+		assertEquals(e, r1.emittance, 0.0);
+		assertTrue(r1.emittanceStd>0.0 && r1.emittanceStd<e, "Error "+r1.emittanceStd);
+		// same seed, same result regardless of parallel execution
+		assertEquals(r1.emittanceStd, r2.emittanceStd, 0.0);
+
+		// bootstrap of noisy data scatters around noise level
+		Random rnd= new Random(3);
+		double[] w= m[1].clone();
+		for (int i = 0; i < w.length; i++) {
+			w[i]+= rnd.nextGaussian()*m[2][i];
+		}
+		assertTrue(es.solve(m[0], w, m[2]).emittanceStd>0.0);
+	}
+
+	/**
+	 * Compares with results of original analysis, stored in <code>emit_results.txt</code>.
+	 */
+	@Test
+	void testReferenceResults() throws IOException {
+
+		String s= new String(Files.readAllBytes(new File(DIR, "emit_results.txt").toPath()), StandardCharsets.UTF_8);
+		Matcher mt= Pattern.compile("-?[0-9.]+(e[-+]?[0-9]+)?").matcher(s);
+		List<Double> ref= new ArrayList<Double>();
+		while (mt.find()) {
+			ref.add(Double.parseDouble(mt.group()));
+		}
+		assertEquals(SAMPLES*2*2, ref.size());
+
+		EmittanceSolver es= new EmittanceSolver();
+		es.setEnergy(ENERGY);
+
+		int j= 0;
+		for (String dir : new String[]{"hor","ver"}) {
+			for (int i = 0; i < SAMPLES; i++) {
+				double[][] m= load(dir, i);
+				EmittanceSolver.Result r= es.solve(m[0], m[1], m[2]);
+				double e= ref.get(j++);
+				double de= ref.get(j++);
+				assertEquals(e, r.emittance, e*0.01, dir+" "+i);
+				assertEquals(de, r.emittanceStd, de*0.1, dir+" "+i);
+			}
+		}
+	}
+
+	@Test
+	void testCalculatorAsync() throws IOException {
+
+		double[][] h= load("hor", 1);
+		double[][] v= load("ver", 1);
+
+		EmittanceSolver es= new EmittanceSolver();
+		es.setEnergy(ENERGY);
+
+		EmittanceCalculator ec= new EmittanceCalculator();
+		ec.setEnergy(ENERGY);
+		ec.setSolver(es);
+
+		CompletableFuture<Emittance> fh= ec.calculateEmittanceAsync(h[0], h[1], h[2]);
+		CompletableFuture<Emittance> fv= ec.calculateEmittanceAsync(v[0], v[1], v[2]);
+
+		Emittance eh= fh.join();
+		Emittance ev= fv.join();
+
+		assertTrue(eh.result.isOK());
+		assertEquals(es.solve(h[0], h[1], h[2]).emittance, eh.emittance, 0.0);
+		assertEquals(es.solve(v[0], v[1], v[2]).emittance, ev.emittance, 0.0);
+		assertEquals(es.solve(v[0], v[1], v[2]).emittanceStd, ev.emittanceStd, 0.0);
+	}
+
+	/**
+	 * Cross-check with Python script, skipped if script can not run, for example if numpy or scipy are missing.
+	 */
+	@Test
+	void testPythonScript() throws IOException {
+
+		EmittanceCalculator py= new EmittanceCalculator();
+		py.init(DIR, "emittance.py");
+		py.setEnergy(ENERGY);
+
+		EmittanceCalculator java= new EmittanceCalculator();
+		java.setEnergy(ENERGY);
+		java.setSolver(new EmittanceSolver());
+
+		for (String dir : new String[]{"hor","ver"}) {
+			for (int i = 0; i < SAMPLES; i++) {
+				double[][] m= load(dir, i);
+
+				py.inputs(m[0], m[1], m[2]);
+				Result rp= py.calculateEmittance();
+				Assumptions.assumeTrue(rp.isOK(), "Python script failed: "+rp.error);
+
+				java.inputs(m[0], m[1], m[2]);
+				Result rj= java.calculateEmittance();
+				assertTrue(rj.isOK());
+
+				assertEquals(rp.data[0], rj.data[0], Math.abs(rp.data[0])*1e-6+1e-12, dir+" "+i);
+				assertEquals(rp.data[1], rj.data[1], Math.abs(rp.data[1])*1e-4+1e-12, dir+" "+i);
+				assertEquals(py.getLastEmittance(), java.getLastEmittance(), Math.abs(rp.data[0])*1e-6+1e-12);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,98 @@
+package org.scictrl.csshell.math;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares scalar and vector API implementation of {@link Kernels} over waveform lengths
+ * from LLRF traces up to camera projections.
+ *
+ * @author igor@scictrl.com
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class KernelsBenchmark {
+
+	/** Waveform length. */
+	@Param({"2048", "8192", "65536"})
+	int length;
+
+	/** Implementation, scalar or vector. */
+	@Param({"scalar", "vector"})
+	String impl;
+
+	private KernelOps ops;
+	private double[] data;
+	private double[] out;
+
+	@Setup
+	public void setup() {
+		ops= "vector".equals(impl) ? new VectorKernels() : new ScalarKernels();
+		Random r= new Random(42);
+		data= new double[length];
+		for (int i = 0; i < data.length; i++) {
+			data[i]= r.nextGaussian();
+		}
+		out= new double[length];
+	}
+
+	@Benchmark
+	public double sum() {
+		return ops.sum(data, 0, length);
+	}
+
+	@Benchmark
+	public double[] scale() {
+		return ops.scale(data, 1.5, out);
+	}
+
+	@Benchmark
+	public double[] squareScale() {
+		return ops.squareScale(data, 1.5, out);
+	}
+
+	@Benchmark
+	public double max() {
+		return ops.max(data);
+	}
+
+	@Benchmark
+	public int argmax() {
+		return ops.argmax(data);
+	}
+
+	@Benchmark
+	public int firstExceeding() {
+		// threshold above all values, whole array is scanned as in ArrayDumpApplication without trigger
+		return ops.firstExceeding(data, 100.0);
+	}
+
+	/**
+	 * Runs benchmark.
+	 * @param args not used
+	 * @throws RunnerException if fails
+	 */
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(KernelsBenchmark.class.getSimpleName()).build()).run();
+	}
+
+}
@@ -0,0 +1,108 @@
+package org.scictrl.csshell.math;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class KernelsTest {
+
+	/**
+	 * Implementations to compare, scalar is reference.
+	 */
+	private static KernelOps[] implementations() {
+		try {
+			return new KernelOps[]{new ScalarKernels(), new VectorKernels(), Kernels.ops()};
+		} catch (Throwable t) {
+			// vector module not added to test JVM
+			return new KernelOps[]{new ScalarKernels(), Kernels.ops()};
+		}
+	}
+	
+	private static double[] createData(int length, long seed) {
+		Random r= new Random(seed);
+		double[] d= new double[length];
+		for (int i = 0; i < d.length; i++) {
+			d[i]= r.nextGaussian()*100.0;
+		}
+		return d;
+	}
+	
+	@Test
+	void testEquivalence() {
+		
+		ScalarKernels ref= new ScalarKernels();
+		
+		// lengths around vector lane counts, so tail loops are used
+		int[] lengths= {0, 1, 2, 3, 7, 8, 9, 15, 16, 17, 33, 2048, 2051};
+		
+		for (KernelOps k : implementations()) {
+			for (int n : lengths) {
+				double[] d= createData(n, n);
+				String m= k.getClass().getSimpleName()+" n="+n;
+				
+				assertEquals(ref.sum(d, 0, n), k.sum(d, 0, n), 1e-9, m);
+				if (n>4) {
+					assertEquals(ref.sum(d, 3, n-4), k.sum(d, 3, n-4), 1e-9, m);
+				}
+				
+				assertArrayEquals(ref.scale(d, 1.5, new double[n]), k.scale(d, 1.5, new double[n]), 0.0, m);
+				assertArrayEquals(ref.squareScale(d, 0.3, new double[n]), k.squareScale(d, 0.3, new double[n]), 0.0, m);
+				
+				assertEquals(ref.min(d), k.min(d), 0.0, m);
+				assertEquals(ref.max(d), k.max(d), 0.0, m);
+				assertEquals(ref.argmax(d), k.argmax(d), m);
+				
+				for (double t : new double[]{-1000.0, 0.0, 150.0, 1000.0}) {
+					assertEquals(ref.firstExceeding(d, t), k.firstExceeding(d, t), m+" t="+t);
+				}
+			}
+		}
+	}
+	
+	@Test
+	void testSpecialValues() {
+		
+		for (KernelOps k : implementations()) {
+			String m= k.getClass().getSimpleName();
+			
+			assertEquals(Double.NEGATIVE_INFINITY, k.max(new double[0]), m);
+			assertEquals(Double.POSITIVE_INFINITY, k.min(new double[0]), m);
+			assertEquals(-1, k.argmax(new double[0]), m);
+			assertEquals(-1, k.firstExceeding(new double[0], 0.0), m);
+			
+			double[] d= new double[40];
+			d[5]= 3.0;
+			d[30]= 3.0;
+			assertEquals(5, k.argmax(d), m);
+			assertEquals(30, k.argmax(new double[]{-1,-1,-1,-1,-1,-1,-1,-1,-1,-1,-1,-1,-1,-1,-1,-1,-1,-1,-1,-1,-1,-1,-1,-1,-1,-1,-1,-1,-1,-1,0}), m);
+			assertEquals(5, k.firstExceeding(d, 2.0), m);
+			
+			d[20]= Double.NaN;
+			assertTrue(Double.isNaN(k.max(d)), m);
+			assertEquals(20, k.argmax(d), m);
+		}
+	}
+	
+	@Test
+	void testInPlace() {
+		
+		double[] d= createData(1001, 1);
+		double[] e= d.clone();
+		
+		assertSame(d, Kernels.squareScale(d, 2.0, d));
+		for (int i = 0; i < d.length; i++) {
+			assertEquals(e[i]*e[i]*2.0, d[i], 0.0);
+		}
+		
+		assertSame(d, Kernels.scale(d, 0.5, d));
+		for (int i = 0; i < d.length; i++) {
+			assertEquals(e[i]*e[i], d[i], 0.0);
+		}
+		
+		assertThrows(IndexOutOfBoundsException.class, () -> Kernels.scale(e, 1.0, new double[10]));
+		assertThrows(IndexOutOfBoundsException.class, () -> Kernels.sum(e, 1000, 2));
+	}
+
+}
@@ -0,0 +1,114 @@
+package org.scictrl.csshell.math;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class OnlineFilterTest {
+
+	@Test
+	void testMovingAverage() {
+		
+		double[] data= SmoothingTest.createData(500, 5);
+		
+		for (int sm : new int[]{1, 2, 3, 4, 5, 10, 31}) {
+			
+			double[] ref= Smoothing.smoothAvg(data, sm);
+			MovingAverageFilter f= new MovingAverageFilter(sm);
+			
+			for (int i = 0; i < data.length; i++) {
+				double v= f.add(data[i]);
+				assertEquals(i>=sm-1, f.isReady());
+				if (f.isReady()) {
+					assertEquals(ref[i-f.getDelay()], v, 1e-9, "sm="+sm+" i="+i);
+				}
+			}
+			
+			assertEquals(data.length, f.getCount());
+			f.reset();
+			assertEquals(0, f.getCount());
+			assertTrue(Double.isNaN(f.getValue()));
+			assertEquals(data[0], f.add(data[0]), 0.0);
+		}
+	}
+	
+	@Test
+	void testExponential() {
+		
+		ExponentialFilter f= new ExponentialFilter(0.5);
+		
+		assertEquals(4.0, f.add(4.0), 0.0);
+		assertEquals(2.0, f.add(0.0), 0.0);
+		assertEquals(3.0, f.add(4.0), 0.0);
+		assertEquals(0, f.getDelay());
+		
+		assertThrows(IllegalArgumentException.class, () -> new ExponentialFilter(0.0));
+		assertThrows(IllegalArgumentException.class, () -> new ExponentialFilter(1.5));
+	}
+	
+	@Test
+	void testMedian() {
+		
+		MedianFilter f= new MedianFilter(3);
+		
+		assertEquals(1.0, f.add(1.0), 0.0);
+		assertEquals(1.5, f.add(2.0), 0.0);
+		assertEquals(2.0, f.add(3.0), 0.0);
+		// spike is removed
+		assertEquals(3.0, f.add(100.0), 0.0);
+		assertEquals(3.0, f.add(3.0), 0.0);
+		assertEquals(3.0, f.add(3.0), 0.0);
+		assertEquals(1, f.getDelay());
+		
+		// against sorting of window
+		Random r= new Random(11);
+		for (int k : new int[]{1, 2, 5, 8, 21}) {
+			f= new MedianFilter(k);
+			double[] data= new double[300];
+			for (int i = 0; i < data.length; i++) {
+				// few distinct values, so equal samples are removed correctly
+				data[i]= r.nextInt(7);
+				double v= f.add(data[i]);
+				double[] w= Arrays.copyOfRange(data, Math.max(0, i-k+1), i+1);
+				Arrays.sort(w);
+				double m= (w.length&1)==1 ? w[w.length/2] : (w[w.length/2-1]+w[w.length/2])/2.0;
+				assertEquals(m, v, 0.0, "k="+k+" i="+i);
+			}
+		}
+	}
+	
+	@Test
+	void testSavitzkyGolay() {
+		
+		// known coefficients for window 5, quadratic
+		double[] c= SavitzkyGolayFilter.coefficients(2, 2);
+		double[] ref= {-3.0/35.0, 12.0/35.0, 17.0/35.0, 12.0/35.0, -3.0/35.0};
+		assertArrayEquals(ref, c, 1e-12);
+		
+		// window 7, cubic is same as quadratic
+		c= SavitzkyGolayFilter.coefficients(3, 3);
+		ref= new double[]{-2.0/21.0, 3.0/21.0, 6.0/21.0, 7.0/21.0, 6.0/21.0, 3.0/21.0, -2.0/21.0};
+		assertArrayEquals(ref, c, 1e-12);
+		
+		// order 0 is moving average
+		c= SavitzkyGolayFilter.coefficients(2, 0);
+		assertArrayEquals(new double[]{0.2, 0.2, 0.2, 0.2, 0.2}, c, 1e-12);
+		
+		// polynomial of filter order passes trough unchanged
+		SavitzkyGolayFilter f= new SavitzkyGolayFilter(4, 2);
+		assertEquals(4, f.getDelay());
+		for (int i = 0; i < 50; i++) {
+			double v= f.add(0.5*i*i-3.0*i+2.0);
+			if (f.isReady()) {
+				int j= i-f.getDelay();
+				assertEquals(0.5*j*j-3.0*j+2.0, v, 1e-9, "i="+i);
+			}
+		}
+		
+		assertThrows(IllegalArgumentException.class, () -> new SavitzkyGolayFilter(1, 3));
+	}
+
+}
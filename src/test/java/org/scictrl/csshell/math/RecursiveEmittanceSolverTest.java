@@ -0,0 +1,117 @@
+package org.scictrl.csshell.math;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class RecursiveEmittanceSolverTest {
+
+	private static final File DIR= new File("src/test/config/Python");
+	private static final double ENERGY= 5.56885;
+
+	private static double[][] load(String dir, int i) throws IOException {
+
+		List<String> l= Files.readAllLines(new File(DIR, "emit_data_sample_"+dir+"_"+i+".txt").toPath(), StandardCharsets.UTF_8);
+		List<double[]> r= new ArrayList<double[]>(l.size());
+
+		for (String s : l) {
+			String[] ss= s.replace('[', ' ').replace(']', ' ').trim().split("\\s+");
+			if (ss.length==3) {
+				r.add(new double[]{Double.parseDouble(ss[0]), Double.parseDouble(ss[1]), Double.parseDouble(ss[2])});
+			}
+		}
+
+		double[][] m= new double[3][r.size()];
+		for (int j = 0; j < r.size(); j++) {
+			m[0][j]= r.get(j)[0];
+			m[1][j]= r.get(j)[1];
+			m[2][j]= r.get(j)[2];
+		}
+		return m;
+	}
+
+	@Test
+	void testSameAsBatch() throws IOException {
+
+		EmittanceSolver batch= new EmittanceSolver();
+		batch.setEnergy(ENERGY);
+
+		for (String dir : new String[]{"hor","ver"}) {
+			for (int f = 0; f < 24; f++) {
+				double[][] m= load(dir, f);
+				RecursiveEmittanceSolver rls= new RecursiveEmittanceSolver(ENERGY);
+
+				for (int i = 0; i < m[0].length; i++) {
+					boolean ready= rls.add(m[0][i], m[1][i], m[2][i]);
+					assertEquals(i>=2, ready);
+
+					if (i>=3) {
+						// every step equals batch fit of points so far
+						int n= i+1;
+						EmittanceSolver.Result b= batch.solve(copy(m[0],n), copy(m[1],n), copy(m[2],n));
+						EmittanceSolver.Result r= rls.getResult();
+						String s= dir+" "+f+" "+i;
+						assertEquals(b.a, r.a, Math.abs(b.a)*1e-5, s);
+						assertEquals(b.b, r.b, Math.abs(b.b)*1e-5, s);
+						assertEquals(b.c, r.c, Math.abs(b.c)*1e-5, s);
+						assertEquals(b.da, r.da, Math.abs(b.da)*1e-4, s);
+						assertEquals(b.dc, r.dc, Math.abs(b.dc)*1e-4, s);
+						assertEquals(b.emittance, rls.getEmittance(), Math.max(b.emittance*1e-5, 1e-9), s);
+					}
+				}
+			}
+		}
+	}
+
+	private static double[] copy(double[] d, int n) {
+		double[] c= new double[n];
+		System.arraycopy(d, 0, c, 0, n);
+		return c;
+	}
+
+	@Test
+	void testConfidence() throws IOException {
+
+		double[][] m= load("hor", 2);
+		RecursiveEmittanceSolver rls= new RecursiveEmittanceSolver(ENERGY);
+
+		assertFalse(rls.isReady());
+		assertTrue(Double.isNaN(rls.getEmittance()));
+
+		rls.add(m[0][0], m[1][0], m[2][0]);
+		rls.add(m[0][1], m[1][1], m[2][1]);
+		// invalid point is ignored
+		rls.add(m[0][2], 0.0, m[2][2]);
+		assertFalse(rls.isReady());
+		rls.add(m[0][2], m[1][2], m[2][2]);
+		assertTrue(rls.isReady());
+		assertEquals(3, rls.getCount());
+		// no degrees of freedom yet
+		assertEquals(Double.POSITIVE_INFINITY, rls.getConfidenceInterval(), 0.0);
+
+		for (int i = 3; i < m[0].length; i++) {
+			rls.add(m[0][i], m[1][i], m[2][i]);
+		}
+
+		double ci= rls.getConfidenceInterval();
+		assertTrue(ci>0.0 && ci<rls.getEmittance(), "CI "+ci);
+		assertEquals(RecursiveEmittanceSolver.Z_95*rls.getEmittanceStd(), ci, 1e-12);
+
+		// correlations reduce error compared to conservative batch error
+		EmittanceSolver batch= new EmittanceSolver();
+		batch.setEnergy(ENERGY);
+		assertTrue(rls.getEmittanceStd()<batch.solve(m[0], m[1], m[2]).emittanceStd);
+
+		rls.reset();
+		assertFalse(rls.isReady());
+		assertEquals(0, rls.getCount());
+	}
+
+}
@@ -0,0 +1,88 @@
+package org.scictrl.csshell.math;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares original window by window average with running sum, prefix sum and parallel
+ * implementations in {@link Smoothing}. Run with <code>-prof gc</code> to see allocation per call.
+ *
+ * @author igor@scictrl.com
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SmoothingBenchmark {
+
+	/** Data points, from short phase scan up to long waveform. */
+	@Param({"1000", "100000", "1000000"})
+	int length;
+
+	/** Window size, as set with OPT_SAMPLES. */
+	@Param({"3", "31", "301"})
+	int sample;
+
+	private double[] data;
+	private double[] prefix;
+	private double[] out;
+
+	@Setup
+	public void setup() {
+		data= SmoothingTest.createData(length, 42);
+		prefix= new double[length+1];
+		out= new double[length];
+	}
+
+	@Benchmark
+	public double[] legacy() {
+		return SmoothingTest.legacySmoothAvg(data, sample);
+	}
+
+	@Benchmark
+	public double[] running() {
+		return Smoothing.smoothAvg(data, sample);
+	}
+
+	@Benchmark
+	public double[] runningInto() {
+		return Smoothing.smoothAvg(data, sample, out);
+	}
+
+	@Benchmark
+	public double[] prefixInto() {
+		Smoothing.prefixSum(data, prefix);
+		return Smoothing.smoothAvgPrefix(prefix, length, sample, out);
+	}
+
+	@Benchmark
+	public double[] parallelInto() {
+		return Smoothing.smoothAvgParallel(data, sample, out);
+	}
+
+	/**
+	 * Runs benchmark.
+	 * @param args not used
+	 * @throws RunnerException if fails
+	 */
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(SmoothingBenchmark.class.getSimpleName()).build()).run();
+	}
+
+}
@@ -2,6 +2,8 @@ package org.scictrl.csshell.math;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.util.Random;
+
 import org.junit.jupiter.api.Test;
 
 class SmoothingTest {
@@ -123,4 +125,194 @@ class SmoothingTest {
 		
 	}
 
+	@Test
+	void testCollapseStats() {
+		
+		double[] x= {1.0, 2.0, 2.0, 2.0, 0.0, 3.0, 3.0};
+		double[] y= {5.0, 1.0, 2.0, 3.0, 0.0, 4.0, 8.0};
+		
+		double[][] r= Smoothing.collapseSame(x, y, false);
+		
+		assertEquals(4, r.length);
+		assertArrayEquals(new double[]{1.0, 2.0, 3.0}, r[Smoothing.COLLAPSED_X], 1e-12);
+		assertArrayEquals(new double[]{5.0, 2.0, 6.0}, r[Smoothing.COLLAPSED_MEAN], 1e-12);
+		assertArrayEquals(new double[]{1.0, 3.0, 2.0}, r[Smoothing.COLLAPSED_COUNT], 1e-12);
+		assertArrayEquals(new double[]{0.0, 1.0, Math.sqrt(8.0)}, r[Smoothing.COLLAPSED_STD], 1e-12);
+		
+		r= Smoothing.collapseSame(new double[0], new double[0], true);
+		assertEquals(0, r[Smoothing.COLLAPSED_X].length);
+	}
+	
+	@Test
+	void testCollapseUnsorted() {
+		
+		// two repeats of scan, duplicates are interleaved
+		double[] x= {3.0, 1.0, 2.0, -1.0, 3.0, 1.0, 2.0, -1.0, 2.0};
+		double[] y= {6.0, 2.0, 4.0, 1.0,  8.0, 4.0, 4.0, 3.0,  7.0};
+		
+		double[][] r= Smoothing.collapseSame(x, y, false);
+		assertEquals(x.length, r[Smoothing.COLLAPSED_X].length);
+		
+		r= Smoothing.collapseSame(x, y, true);
+		
+		assertArrayEquals(new double[]{-1.0, 1.0, 2.0, 3.0}, r[Smoothing.COLLAPSED_X], 1e-12);
+		assertArrayEquals(new double[]{2.0, 3.0, 5.0, 7.0}, r[Smoothing.COLLAPSED_MEAN], 1e-12);
+		assertArrayEquals(new double[]{2.0, 2.0, 3.0, 2.0}, r[Smoothing.COLLAPSED_COUNT], 1e-12);
+		assertEquals(Math.sqrt(2.0), r[Smoothing.COLLAPSED_STD][0], 1e-12);
+		assertEquals(Math.sqrt(3.0), r[Smoothing.COLLAPSED_STD][2], 1e-12);
+		
+		// input is not modified
+		assertEquals(3.0, x[0]);
+		assertEquals(6.0, y[0]);
+		
+		// random data against straightforward grouping
+		Random rnd= new Random(3);
+		int n= 1000;
+		x= new double[n];
+		y= new double[n];
+		for (int i = 0; i < n; i++) {
+			x[i]= rnd.nextInt(50)-25;
+			y[i]= rnd.nextGaussian();
+		}
+		
+		r= Smoothing.collapseSame(x, y, true);
+		
+		for (int k = 0; k < r[0].length; k++) {
+			if (k>0) {
+				assertTrue(r[Smoothing.COLLAPSED_X][k-1]<r[Smoothing.COLLAPSED_X][k]);
+			}
+			double s= 0.0;
+			int c= 0;
+			for (int i = 0; i < n; i++) {
+				if (x[i]==r[Smoothing.COLLAPSED_X][k] && (x[i]!=0.0 || y[i]!=0.0)) {
+					s+= y[i];
+					c++;
+				}
+			}
+			double mean= s/c;
+			double v= 0.0;
+			for (int i = 0; i < n; i++) {
+				if (x[i]==r[Smoothing.COLLAPSED_X][k]) {
+					v+= (y[i]-mean)*(y[i]-mean);
+				}
+			}
+			assertEquals(c, r[Smoothing.COLLAPSED_COUNT][k], 0.0);
+			assertEquals(mean, r[Smoothing.COLLAPSED_MEAN][k], 1e-12);
+			assertEquals(c>1 ? Math.sqrt(v/(c-1)) : 0.0, r[Smoothing.COLLAPSED_STD][k], 1e-12);
+		}
+	}
+	
+	/**
+	 * Original O(n*k) implementation, which calculates each window from start, used as reference.
+	 * @param data the data array
+	 * @param sample number of samples
+	 * @return averaged points
+	 */
+	static double[] legacySmoothAvg(final double[] data, final int sample) {
+		
+		final int start= (int)(sample/2.0);
+		final int end= sample-start;
+		final double[] avg= new double[data.length];
+		
+		for (int i = 0; i < start; i++) {
+			avg[i]= Smoothing.avg(data,0,end+i);
+		}
+		
+		for (int i = start; i < avg.length-end; i++) {
+			avg[i]= Smoothing.avg(data,i-start,sample);
+		}
+		
+		for (int i = avg.length-end; i < avg.length; i++) {
+			avg[i]= Smoothing.avg(data,i-start,avg.length-i+start);
+		}
+		
+		return avg;
+	}
+	
+	/**
+	 * Creates noisy curve with offset, similar to ICT signal over phase scan.
+	 * @param length the array length
+	 * @param seed the random seed
+	 * @return data
+	 */
+	static double[] createData(int length, long seed) {
+		Random r= new Random(seed);
+		double[] d= new double[length];
+		for (int i = 0; i < d.length; i++) {
+			d[i]= 100.0+50.0*Math.sin(i*0.01)+r.nextGaussian();
+		}
+		return d;
+	}
+	
+	@Test
+	void testSmoothEquivalence() {
+		
+		int[] lengths= {1, 2, 3, 10, 11, 100, 1001};
+		int[] samples= {1, 2, 3, 4, 5, 8, 31, 100};
+		
+		for (int n : lengths) {
+			double[] data= createData(n, n);
+			double[] prefix= Smoothing.prefixSum(data, new double[n+1]);
+			double[] out= new double[n];
+			
+			for (int sm : samples) {
+				if (sm>n) {
+					// legacy implementation does not support window longer than data 
+					continue;
+				}
+				
+				double[] ref= legacySmoothAvg(data, sm);
+				
+				assertArrayEquals(ref, Smoothing.smoothAvg(data, sm), 1e-9, "n="+n+" sm="+sm);
+				
+				assertSame(out, Smoothing.smoothAvg(data, sm, out));
+				assertArrayEquals(ref, out, 1e-9, "n="+n+" sm="+sm);
+				
+				assertSame(out, Smoothing.smoothAvgPrefix(prefix, n, sm, out));
+				assertArrayEquals(ref, out, 1e-9, "n="+n+" sm="+sm);
+				
+				assertSame(out, Smoothing.smoothAvgParallel(data, sm, out));
+				assertArrayEquals(ref, out, 1e-9, "n="+n+" sm="+sm);
+			}
+		}
+	}
+	
+	@Test
+	void testSmoothParallel() {
+		
+		int n= Smoothing.PARALLEL_THRESHOLD*3+17;
+		double[] data= createData(n, 7);
+		double[] ref= new double[n];
+		double[] out= new double[n];
+		
+		for (int sm : new int[]{1, 2, 7, 64, 1000}) {
+			Smoothing.smoothAvg(data, sm, ref);
+			Smoothing.smoothAvgParallel(data, sm, out);
+			assertArrayEquals(ref, out, 1e-9, "sm="+sm);
+		}
+		
+		// spot check against direct calculation
+		Smoothing.smoothAvgParallel(data, 64, out);
+		double[] ref2= legacySmoothAvg(data, 64);
+		for (int i = 0; i < n; i+=997) {
+			assertEquals(ref2[i], out[i], 1e-9, "at "+i);
+		}
+		assertEquals(ref2[n-1], out[n-1], 1e-9);
+	}
+	
+	@Test
+	void testSmoothShort() {
+		
+		// window longer than data averages over whole array
+		double[] data= {1.0, 2.0, 3.0};
+		double[] out= Smoothing.smoothAvg(data, 10);
+		assertArrayEquals(new double[]{2.0, 2.0, 2.0}, out, 1e-12);
+		
+		assertEquals(0, Smoothing.smoothAvg(new double[0], 3).length);
+		
+		assertThrows(IllegalArgumentException.class, () -> Smoothing.smoothAvg(data, 0));
+		assertThrows(IllegalArgumentException.class, () -> Smoothing.smoothAvg(data, 2, data));
+		assertThrows(IndexOutOfBoundsException.class, () -> Smoothing.smoothAvg(data, 2, new double[2]));
+	}
+
 }
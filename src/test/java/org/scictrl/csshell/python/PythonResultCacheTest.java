@@ -0,0 +1,125 @@
+package org.scictrl.csshell.python;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.junit.jupiter.api.Test;
+import org.scictrl.csshell.python.PythonRunner.Result;
+
+class PythonResultCacheTest {
+
+	private static final File DIR= new File("src/test/config/Python");
+	private static final String SCRIPT= "worker_test.py";
+
+	private static Result result(double d) {
+		return new Result(new double[]{d}, "Value: ("+d+")\n", null, null);
+	}
+
+	@Test
+	void testLRU() {
+
+		File f= new File(DIR, SCRIPT);
+		PythonResultCache c= new PythonResultCache(2);
+
+		String k1= PythonResultCache.key(f, 5.0, 1.0, 2.0);
+		String k2= PythonResultCache.key(f, 5.0, 1.0, 2.5);
+		String k3= PythonResultCache.key(f, 5.1, 1.0, 2.0);
+
+		assertEquals(k1, PythonResultCache.key(f, 5.0, 1.0, 2.0));
+		assertNotEquals(k1, k2);
+		assertNotEquals(k1, k3);
+
+		c.put(k1, result(1));
+		c.put(k2, result(2));
+		// failed results are not stored
+		c.put(k3, new Result(new IOException("test")));
+		assertNull(c.get(k3));
+
+		// k1 becomes most recently used, k2 is evicted
+		assertEquals(1.0, c.get(k1).data[0], 0.0);
+		c.put(k3, result(3));
+		assertEquals(2, c.size());
+		assertNull(c.get(k2));
+		assertNotNull(c.get(k3));
+
+		assertEquals(2, c.getHits());
+		assertEquals(2, c.getMisses());
+	}
+
+	@Test
+	void testPersistence() throws IOException {
+
+		File dir= Files.createTempDirectory("cache").toFile();
+		File file= new File(dir, "results.bin");
+		File f= new File(DIR, SCRIPT);
+
+		PythonResultCache c= new PythonResultCache(10);
+		c.setFile(file);
+		for (int i = 0; i < 5; i++) {
+			c.put(PythonResultCache.key(f, i), result(i));
+		}
+		assertTrue(file.exists());
+
+		PythonResultCache c2= new PythonResultCache(3);
+		c2.setFile(file);
+		// only most recently used fit
+		assertEquals(3, c2.size());
+		assertNull(c2.get(PythonResultCache.key(f, 1)));
+		Result r= c2.get(PythonResultCache.key(f, 4));
+		assertEquals(4.0, r.data[0], 0.0);
+		assertEquals("Value: (4.0)\n", r.output);
+		assertNull(r.error);
+
+		file.delete();
+		dir.delete();
+	}
+
+	@Test
+	void testRunner() throws IOException {
+
+		// private copy of script, so modification time can be changed
+		File dir= Files.createTempDirectory("cache").toFile();
+		File script= new File(dir, SCRIPT);
+		Files.copy(new File(DIR, SCRIPT).toPath(), script.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+		PythonResultCache c= PythonResultCache.getInstance();
+		long hits= c.getHits();
+		long misses= c.getMisses();
+
+		PythonRunner a= new PythonRunner();
+		a.setDirectory(dir);
+		a.setScript(SCRIPT);
+		a.setCached(true);
+		PythonRunner b= new PythonRunner();
+		b.setDirectory(dir);
+		b.setScript(SCRIPT);
+		b.setCached(true);
+
+		Result r1= a.executeArrayTransaction(0, 1.0, 2.0);
+		assertTrue(r1.isOK(), r1.error);
+
+		// same inputs in other runner, script is not started, same process id
+		Result r2= b.executeArrayTransaction(0, 1.0, 2.0);
+		assertSame(r1, r2);
+		assertEquals(hits+1, c.getHits());
+		assertEquals(misses+1, c.getMisses());
+
+		Result r3= b.executeArrayTransaction(0, 1.0, 2.5);
+		assertEquals(3.5, r3.data[0], 0.0);
+		assertNotEquals(r1.data[1], r3.data[1]);
+
+		// changed script is called again
+		assertTrue(script.setLastModified(script.lastModified()-10000));
+		Result r4= a.executeArrayTransaction(0, 1.0, 2.0);
+		assertTrue(r4.isOK(), r4.error);
+		assertNotEquals(r1.data[1], r4.data[1]);
+
+		script.delete();
+		dir.delete();
+	}
+
+}
@@ -0,0 +1,109 @@
+package org.scictrl.csshell.python;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares per call latency of {@link PythonRunner} with new process for each call and with persistent worker,
+ * on scripts from <code>src/test/config/Python</code>. Emittance script requires numpy, scipy and matplotlib.
+ *
+ * @author igor@scictrl.com
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PythonRunnerBenchmark {
+
+	private static final File DIR= new File("src/test/config/Python");
+
+	/** Script to run. */
+	@Param({"emittance.py", "ArrayTransaction.py"})
+	String script;
+
+	/** Number of workers, 0 is new process for each call. */
+	@Param({"0", "1"})
+	int workers;
+
+	private PythonRunner runner;
+	private double[] inputs;
+
+	/**
+	 * Reads measurement file in same format as used by EmittanceCalculatorTest and
+	 * returns script inputs: energy, quad currents, beam widths, beam width std.
+	 * @param f the measurement file
+	 * @param energy the beam energy
+	 * @return inputs for emittance script
+	 * @throws IOException if reading fails
+	 */
+	static double[] emittanceInputs(File f, double energy) throws IOException {
+		List<double[]> rows= new ArrayList<double[]>();
+		for (String s : Files.readAllLines(f.toPath(), StandardCharsets.UTF_8)) {
+			String[] ss= s.replace('[', ' ').replace(']', ' ').trim().split("\\s+");
+			if (ss.length==3) {
+				rows.add(new double[]{Double.parseDouble(ss[0]),Double.parseDouble(ss[1]),Double.parseDouble(ss[2])});
+			}
+		}
+		int n= rows.size();
+		double[] inp= new double[1+3*n];
+		inp[0]= energy;
+		for (int i = 0; i < n; i++) {
+			inp[1+i]= rows.get(i)[0];
+			inp[1+n+i]= rows.get(i)[1];
+			inp[1+2*n+i]= rows.get(i)[2];
+		}
+		return inp;
+	}
+
+	@Setup
+	public void setup() throws IOException {
+		runner= new PythonRunner();
+		runner.setDirectory(DIR);
+		runner.setScript(script);
+		runner.setWorkers(workers);
+		inputs= emittanceInputs(new File(DIR, "emit_data_sample_hor_0.txt"), 5.56885);
+	}
+
+	@TearDown
+	public void tearDown() {
+		PythonWorkerPool.shutdownAll();
+	}
+
+	@Benchmark
+	public PythonRunner.Result call() {
+		return runner.executeArrayTransaction(inputs);
+	}
+
+	/**
+	 * Runs benchmark.
+	 * @param args not used
+	 * @throws RunnerException if fails
+	 */
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(PythonRunnerBenchmark.class.getSimpleName()).build()).run();
+	}
+
+}
@@ -0,0 +1,111 @@
+package org.scictrl.csshell.python;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.Test;
+import org.scictrl.csshell.python.PythonRunner.Result;
+
+class PythonRunnerTest {
+
+	private static final File DIR= new File("src/test/config/Python");
+	private static final String SCRIPT= "worker_test.py";
+
+	private static PythonRunner runner() {
+		PythonRunner r= new PythonRunner();
+		r.setDirectory(DIR);
+		r.setScript(SCRIPT);
+		return r;
+	}
+
+	@Test
+	void testLargeOutput() {
+
+		// much more than pipe buffer on both streams
+		int lines= 50000;
+		Result r= runner().executeArrayTransaction(4, lines);
+
+		assertNull(r.exception);
+		assertTrue(r.hasData());
+		assertEquals(lines, r.data[0], 0.0);
+		assertEquals(lines+2, r.output.split("\n").length);
+		assertEquals(lines, r.error.split("\n").length);
+		assertTrue(r.error.endsWith("error line "+(lines-1)+"\n"));
+	}
+
+	@Test
+	void testTimeoutKillsTree() throws Exception {
+
+		PythonRunner pr= runner();
+		pr.setTimeout(1000);
+
+		long t= System.currentTimeMillis();
+		Result r= pr.executeArrayTransaction(5, 30);
+
+		assertTrue(System.currentTimeMillis()-t<10000);
+		assertTrue(r.exception instanceof TimeoutException, String.valueOf(r.exception));
+		// output before timeout is kept and parsed
+		assertTrue(r.hasData());
+
+		long pid= (long)r.data[0];
+		Optional<ProcessHandle> child= ProcessHandle.of(pid);
+		for (int i = 0; i < 50 && child.isPresent() && child.get().isAlive(); i++) {
+			Thread.sleep(100);
+		}
+		assertFalse(child.isPresent() && child.get().isAlive(), "Child "+pid+" still running");
+	}
+
+	@Test
+	void testBinaryInput() {
+
+		PythonRunner text= runner();
+		PythonRunner bin= runner();
+		bin.setBinaryInput(true);
+
+		Result a= text.executeArrayTransaction(0, 1.25, 2.0, -0.1);
+		Result b= bin.executeArrayTransaction(0, 1.25, 2.0, -0.1);
+
+		assertTrue(a.isOK(), a.error);
+		assertTrue(b.isOK(), b.error);
+		assertEquals(a.data[0], b.data[0], 0.0);
+
+		// too long for command line
+		double[] in= new double[300000];
+		double sum= 0.0;
+		for (int i = 1; i < in.length; i++) {
+			in[i]= i*0.25;
+			sum+= in[i];
+		}
+
+		Result c= bin.executeArrayTransaction(in);
+		assertTrue(c.isOK(), c.error);
+		assertEquals(sum, c.data[0], 0.0);
+	}
+
+	@Test
+	void testAsync() {
+
+		PythonRunner pr= runner();
+
+		long t= System.currentTimeMillis();
+		CompletableFuture<Result> a= pr.executeArrayTransactionAsync(1, 1.0);
+		CompletableFuture<Result> b= pr.executeArrayTransactionAsync(1, 1.5);
+
+		Result ra= a.join();
+		Result rb= b.join();
+
+		// calls run at the same time on same runner
+		assertTrue(System.currentTimeMillis()-t<2400, "Took "+(System.currentTimeMillis()-t));
+		assertTrue(ra.isOK(), ra.error);
+		assertTrue(rb.isOK(), rb.error);
+		assertEquals(1.0, ra.data[0], 0.0);
+		assertEquals(1.5, rb.data[0], 0.0);
+		assertNotEquals(ra.data[1], rb.data[1]);
+		assertSame(rb, pr.getLastResult());
+	}
+
+}
@@ -0,0 +1,164 @@
+package org.scictrl.csshell.python;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.scictrl.csshell.python.PythonRunner.Result;
+
+class PythonWorkerPoolTest {
+
+	private static final File DIR= new File("src/test/config/Python");
+	private static final String SCRIPT= "worker_test.py";
+
+	private PythonWorkerPool pool;
+
+	@BeforeEach
+	void setUp() {
+		pool= new PythonWorkerPool(DIR, SCRIPT, 2, 0);
+	}
+
+	@AfterEach
+	void tearDown() {
+		pool.shutdown();
+	}
+
+	private static Result parse(Result r) {
+		return PythonRunner.parseOutput(r);
+	}
+
+	@Test
+	void testExecute() throws Exception {
+
+		Result r= parse(pool.execute(new String[]{"0", "1.5", "2.5"}, 10000));
+
+		assertTrue(r.isOK(), r.error);
+		assertEquals(4.0, r.data[0], 0.0);
+
+		double pid= r.data[1];
+
+		// same process is reused
+		r= parse(pool.execute(new String[]{"0", "1.0"}, 10000));
+		assertTrue(r.isOK(), r.error);
+		assertEquals(1.0, r.data[0], 0.0);
+		assertTrue(r.data[1]==pid || pool.getSize()>1);
+		assertEquals(0, pool.getRestartCount());
+	}
+
+	@Test
+	void testScriptError() throws Exception {
+
+		Result r= parse(pool.execute(new String[]{"3"}, 10000));
+
+		assertTrue(r.hasError());
+		assertTrue(r.error.contains("ValueError"), r.error);
+
+		// worker survives script exception
+		r= parse(pool.execute(new String[]{"0", "2.0"}, 10000));
+		assertTrue(r.isOK(), r.error);
+		assertEquals(0, pool.getRestartCount());
+	}
+
+	@Test
+	void testCrashAndTimeout() throws Exception {
+
+		PythonWorkerPool p= new PythonWorkerPool(DIR, SCRIPT, 1, 0);
+
+		try {
+			assertTrue(parse(p.execute(new String[]{"0"}, 10000)).isOK());
+
+			assertThrows(IOException.class, () -> p.execute(new String[]{"2"}, 10000));
+
+			// restarted on next use
+			Result r= parse(p.execute(new String[]{"0", "5.0"}, 10000));
+			assertTrue(r.isOK(), r.error);
+			assertEquals(1, p.getRestartCount());
+
+			long t= System.currentTimeMillis();
+			assertThrows(IOException.class, () -> p.execute(new String[]{"1", "10"}, 500));
+			assertTrue(System.currentTimeMillis()-t<5000);
+
+			r= parse(p.execute(new String[]{"0", "6.0"}, 10000));
+			assertTrue(r.isOK(), r.error);
+			assertEquals(2, p.getRestartCount());
+		} finally {
+			p.shutdown();
+		}
+	}
+
+	@Test
+	void testScriptChange() throws Exception {
+
+		Path dir= Files.createTempDirectory("python_worker");
+		File script= dir.resolve("change_test.py").toFile();
+		Files.writeString(script.toPath(), "print('Value: (1.0)')\n");
+
+		PythonWorkerPool p= new PythonWorkerPool(dir.toFile(), script.getName(), 1, 0);
+
+		try {
+			Result r= parse(p.execute(new String[0], 10000));
+			assertTrue(r.isOK(), r.error);
+			assertEquals(1.0, r.data[0], 0.0);
+
+			// edited script is compiled again by running worker
+			Files.writeString(script.toPath(), "print('Value: (2.0)')\n");
+			script.setLastModified(script.lastModified()+2000);
+
+			r= parse(p.execute(new String[0], 10000));
+			assertTrue(r.isOK(), r.error);
+			assertEquals(2.0, r.data[0], 0.0);
+			assertEquals(0, p.getRestartCount());
+		} finally {
+			p.shutdown();
+			script.delete();
+			dir.toFile().delete();
+		}
+	}
+
+	@Test
+	void testRunnerModes() {
+
+		PythonRunner oneShot= new PythonRunner();
+		oneShot.setDirectory(DIR);
+		oneShot.setScript(SCRIPT);
+
+		PythonRunner worker= new PythonRunner();
+		worker.setDirectory(DIR);
+		worker.setScript(SCRIPT);
+		worker.setWorkers(1);
+
+		Result a= oneShot.executeArrayTransaction(0, 1.25, 2.0);
+		Result b= worker.executeArrayTransaction(0, 1.25, 2.0);
+
+		assertTrue(a.isOK(), a.error);
+		assertTrue(b.isOK(), b.error);
+		assertEquals(a.data[0], b.data[0], 0.0);
+		assertEquals(a.output.split("\n")[0], b.output.split("\n")[0]);
+	}
+
+	@Test
+	void testRunnerWorkerTimeout() {
+
+		PythonRunner worker= new PythonRunner();
+		worker.setDirectory(DIR);
+		worker.setScript(SCRIPT);
+		worker.setWorkers(1);
+		worker.setTimeout(500);
+
+		// timed out call is not repeated with new process
+		long t= System.currentTimeMillis();
+		Result r= worker.executeArrayTransaction(1, 3);
+		t= System.currentTimeMillis()-t;
+
+		assertNotNull(r.exception);
+		assertFalse(r.isOK());
+		assertTrue(t<1000, "duration "+t);
+	}
+
+}